@@ -1,12 +1,24 @@
 package it.polito.ezshop;
 
 import it.polito.ezshop.data.EZShopInterface;
+import it.polito.ezshop.remote.EZShopServer;
 import it.polito.ezshop.view.EZShopGUI;
 
+import java.io.IOException;
+import java.util.Arrays;
+
 
 public class EZShop {
 
-    public static void main(String[] args){
+    /**
+     * Launch the GUI, or a headless server with: --server [port [workers [address]]]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--server")) {
+            EZShopServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         EZShopInterface ezShop = new it.polito.ezshop.data.EZShop();
         EZShopGUI gui = new EZShopGUI(ezShop);
     }
@@ -6,27 +6,86 @@ import it.polito.ezshop.exceptions.*;
 import it.polito.ezshop.model.TicketEntry;
 import it.polito.ezshop.model.*;
 import it.polito.ezshop.model.adapters.*;
-import it.polito.ezshop.model.persistence.JsonInterface;
-
+import it.polito.ezshop.model.persistence.AsyncJournalWriter;
+import it.polito.ezshop.model.persistence.FsyncMetrics;
+import it.polito.ezshop.model.persistence.JournalEntry;
+import it.polito.ezshop.model.persistence.PersistenceLayer;
+import it.polito.ezshop.utils.IdAllocator;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.time.Clock;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import static it.polito.ezshop.model.ShopLocks.Resource.*;
+import static it.polito.ezshop.model.ShopLocks.read;
+import static it.polito.ezshop.model.ShopLocks.write;
 import static it.polito.ezshop.utils.Utils.*;
 
 
+/**
+ * Implementation of the EZShop application. The shop can be used through several sessions at once (see openSession),
+ * e.g. one for each cash register: the state is guarded by the ShopLocks, and the changes are written to the
+ * persistence layer once the locks of the operation are released.
+ */
+// the guards of the locks are held by try-with-resources blocks which never reference them
+@SuppressWarnings("try")
 public class EZShop implements EZShopInterface {
 
     public static final String PERSISTENCE_PATH = "app_data/";
 
+    /**
+     * Number of journal records after which a new snapshot is written and the journal is discarded.
+     */
+    public static final int JOURNAL_SNAPSHOT_THRESHOLD = 1000;
+
+    /**
+     * Operations of EZShopInterface that do not change the shared state: they are not queued as commands
+     * when the command pipeline is enabled.
+     */
+    private static final Set<String> QUERIES = new HashSet<>(Arrays.asList("login", "logout", "getAllUsers",
+            "getUser", "getAllProductTypes", "getProductTypeByBarCode", "getProductTypesByDescription",
+            "getAllOrders", "getCustomer", "getAllCustomers", "computePointsForSale", "getSaleTransaction",
+            "getCreditsAndDebits", "computeBalance"));
+
     /**
      * Simple persistence layer for EZShop.
      */
-    private JsonInterface persistenceLayer;
+    private PersistenceLayer persistenceLayer;
+
+    /**
+     * If true, each mutation appends its changes to the journal instead of rewriting the whole state.
+     */
+    private boolean journalEnabled = false;
+
+    /**
+     * Background writer of the journal records, null if the state is written synchronously.
+     */
+    private AsyncJournalWriter asyncWriter = null;
+
+    /**
+     * Single writer applying the changes requested through the sessions, null if the sessions use the locks directly.
+     */
+    private volatile CommandPipeline commandPipeline = null;
 
     /**
      * Credit card circuit handling credit card payments
@@ -38,20 +97,60 @@ public class EZShop implements EZShopInterface {
      */
     private final List<it.polito.ezshop.model.User> users = new ArrayList<>();
 
+    /**
+     * Allocator of the ids of new users.
+     */
+    private final IdAllocator userIds = new IdAllocator();
+
     /**
      * Encapsulated list of all the customers registered in EZShop.
      */
     private CustomerList customerList = new CustomerList();
 
     /**
-     * Current logged in user.
+     * Session used by the calls performed directly on the shop (not through openSession).
+     */
+    private final Session defaultSession = new Session();
+
+    /**
+     * Session of the call currently performed by each thread through a proxy returned by openSession.
+     */
+    private final ThreadLocal<Session> boundSession = new ThreadLocal<>();
+
+    /**
+     * Generation of the sessions, increased by reset: the users logged in before the last reset are logged out of
+     * every session.
+     */
+    private volatile long sessionGeneration = 0;
+
+    /**
+     * Locks guarding the state of the shop; the writes of an operation are completed when its locks are released.
      */
-    private it.polito.ezshop.model.User currentUser = null;
+    private final ShopLocks locks = new ShopLocks(this::completeWrites);
 
     /**
-     * List of all products in EZShop
+     * Writes of the current operation of each thread to be completed once its locks are released.
      */
-    private final List<it.polito.ezshop.model.ProductType> products = new ArrayList<>();
+    private final ThreadLocal<PendingWrites> pendingWrites = ThreadLocal.withInitial(PendingWrites::new);
+
+    /**
+     * Number of snapshots requested and number of requests covered by the last snapshot (guarded by snapshotLock):
+     * a snapshot covers all the requests performed before it acquired the locks.
+     */
+    private final AtomicLong snapshotRequests = new AtomicLong();
+    private long snapshotsWritten = 0;
+
+    private final Object snapshotLock = new Object();
+
+    /**
+     * Serializes the writes of the id reservations, so that a persisted high-water mark never decreases.
+     */
+    private final Object reservationsLock = new Object();
+
+    /**
+     * Catalog of all products in EZShop
+     */
+    private final ProductCatalog productCatalog = new ProductCatalog();
 
     /**
      * The current date and time for the EZShop
@@ -63,41 +162,84 @@ public class EZShop implements EZShopInterface {
      */
     private AccountBook accountBook = new AccountBook();
 
+    /**
+     * Time (in nanoseconds) taken to read each persisted aggregate at startup
+     */
+    private final Map<PersistenceLayer.Aggregate, Long> loadTimings = new ConcurrentHashMap<>();
+
     public EZShop () {
         this(PERSISTENCE_PATH);
     }
 
     public EZShop(String path) {
+        this(path, PersistenceLayer.Format.JSON);
+    }
+
+    /**
+     * Create a shop whose state is stored in the given directory
+     *
+     * @param path directory of the persisted data
+     * @param format encoding of the snapshot files
+     */
+    public EZShop(String path, PersistenceLayer.Format format) {
+        // the files are independent: read them in parallel, the startup takes as long as the largest one
+        ExecutorService loader = Executors.newFixedThreadPool(PersistenceLayer.Aggregate.values().length, task -> {
+            Thread thread = new Thread(task, "ezshop-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+
         try {
-            this.persistenceLayer = JsonInterface.create(path);
-
-            this.users.addAll(persistenceLayer.readUsers());
-            this.products.addAll(persistenceLayer.readProducts());
-            this.customerList = persistenceLayer.readCustomerList();
-            this.accountBook = persistenceLayer.readAccountBook();
-
-            this.accountBook.getSaleTransactions().forEach(sale -> {
-                // iterate over all transaction
-                sale.getTransactionItems().forEach(ti -> {
-                    // set the product type in the ticket entry to the actual product reference
-                    this.products.stream()
-                            .filter(x -> x.getId() == ti.getProductType().getId())
-                            .findFirst().ifPresent(ti::setProductType);
-                });
-            });
-
-            this.accountBook.getReturnTransactions().forEach(_return -> {
-                // iterate over all transaction
-                _return.getTransactionItems().forEach(ti -> {
-                    // set the product type in the item to the actual product reference
-                    this.products.stream()
-                            .filter(x -> x.getId() == ti.getProductType().getId())
-                            .findFirst().ifPresent(ti::setProductType);
-                });
-            });
+            this.persistenceLayer = PersistenceLayer.create(path, format);
+
+            Future<List<it.polito.ezshop.model.User>> users = load(loader, PersistenceLayer.Aggregate.USERS,
+                    persistenceLayer::readUsers);
+            Future<List<it.polito.ezshop.model.ProductType>> products = load(loader,
+                    PersistenceLayer.Aggregate.PRODUCTS, persistenceLayer::readProducts);
+            Future<CustomerList> customerList = load(loader, PersistenceLayer.Aggregate.CUSTOMERS,
+                    persistenceLayer::readCustomerList);
+            Future<AccountBook> accountBook = load(loader, PersistenceLayer.Aggregate.ACCOUNT_BOOK,
+                    persistenceLayer::readAccountBook);
+
+            List<it.polito.ezshop.model.ProductType> productList = products.get();
+            this.users.addAll(users.get());
+            this.customerList = customerList.get();
+            this.accountBook = accountBook.get();
+
+            // apply the changes recorded after the last snapshot
+            persistenceLayer.replayJournal(this.users, productList, this.customerList, this.accountBook);
+            this.productCatalog.addAll(productList);
+
+            // set the product type of ticket entries and return items to the actual product reference
+            this.accountBook.relinkProducts(productList);
+
+            // resume the allocation of the ids after the persisted high-water marks
+            this.users.forEach(u -> userIds.observe(u.getId()));
+            Map<PersistenceLayer.IdSequence, Integer> reservations = persistenceLayer.readIdReservations();
+            idAllocators().forEach((sequence, allocator) ->
+                    allocator.restore(reservations.getOrDefault(sequence, 0)));
         } catch (Exception ex) {
             // exceptions are ignored
+        } finally {
+            loader.shutdown();
         }
+
+        // each block of ids is persisted before its first id is used
+        idAllocators().values().forEach(allocator -> allocator.setReservationListener(mark -> writeIdReservations()));
+    }
+
+    /**
+     * Read a persisted aggregate on the loader executor, recording the time taken
+     */
+    private <T> Future<T> load(ExecutorService loader, PersistenceLayer.Aggregate aggregate, Callable<T> reader) {
+        return loader.submit(() -> {
+            long start = System.nanoTime();
+            try {
+                return reader.call();
+            } finally {
+                loadTimings.put(aggregate, System.nanoTime() - start);
+            }
+        });
     }
 
     /**
@@ -128,20 +270,333 @@ public class EZShop implements EZShopInterface {
         this.creditCardCircuit = creditCardCircuit;
     }
 
+    /**
+     * Enable or disable journaling. When enabled, each mutation appends only the changed entities to
+     * the journal, and a snapshot is written every JOURNAL_SNAPSHOT_THRESHOLD records.
+     * Disabling the journal writes a full snapshot immediately.
+     *
+     * @param journalEnabled true to enable the journal
+     */
+    public void setJournalEnabled(boolean journalEnabled) {
+        if (!journalEnabled) {
+            stopAsyncWriter();
+        }
+        this.journalEnabled = journalEnabled;
+        if (!journalEnabled) {
+            writeSnapshot();
+        }
+    }
+
+    /**
+     * Enable or disable asynchronous persistence with the default flush interval and threshold.
+     *
+     * @param asyncEnabled true to write the state in background
+     */
+    public void setAsyncPersistenceEnabled(boolean asyncEnabled) {
+        if (asyncEnabled) {
+            setAsyncPersistence(AsyncJournalWriter.DEFAULT_FLUSH_INTERVAL_MILLIS,
+                    AsyncJournalWriter.DEFAULT_FLUSH_THRESHOLD_BYTES);
+        } else {
+            stopAsyncWriter();
+        }
+    }
+
+    /**
+     * Enable asynchronous persistence (the journal is enabled as well). Each mutation serializes its changes and
+     * returns without waiting for the disk: a background thread coalesces the records produced in a burst and appends
+     * them with a single write, after flushIntervalMillis or as soon as flushThresholdBytes are pending.
+     * Use flush() to wait until the changes are durable; payments always do so before returning.
+     *
+     * @param flushIntervalMillis maximum time (in milliseconds) a change waits before being written
+     * @param flushThresholdBytes amount of pending data that triggers an immediate write
+     */
+    public void setAsyncPersistence(long flushIntervalMillis, int flushThresholdBytes) {
+        if (persistenceLayer == null) {
+            return;
+        }
+        stopAsyncWriter();
+        this.journalEnabled = true;
+        this.asyncWriter = new AsyncJournalWriter(persistenceLayer, flushIntervalMillis, flushThresholdBytes);
+    }
+
+    /**
+     * Durability barrier: wait until all the changes performed so far are written to the persistence layer.
+     * It returns immediately if the state is written synchronously.
+     */
+    public void flush() {
+        if (asyncWriter == null) {
+            return;
+        }
+
+        try {
+            asyncWriter.flush();
+        } catch (IOException ex) {
+            // if the journal can not be written, fall back to a full snapshot
+            writeSnapshot();
+        }
+    }
+
+    /**
+     * Enable or disable the command pipeline. When enabled, the operations changing the state performed through the
+     * sessions (see openSession) become commands, queued in a bounded buffer and applied in order by a single writer
+     * thread: the commands queued in a burst are applied as a batch, and their changes are made durable with one
+     * journal sync (or one snapshot) per batch before the sessions are answered.
+     * Each command holds only its own locks while it is applied, and the journal is synced once the batch has
+     * released them: queries are performed by the sessions themselves and wait only for the command being applied
+     * on the resources they read, never for the rest of the batch nor for the disk. They see the changes of the
+     * commands applied so far, possibly before the batch is durable.
+     * Disabling the pipeline applies the commands already queued.
+     *
+     * @param enabled true to enable the command pipeline
+     */
+    public void setCommandPipelineEnabled(boolean enabled) {
+        CommandPipeline previous = commandPipeline;
+        commandPipeline = enabled ? new CommandPipeline(locks::defer) : null;
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Write the pending changes and go back to synchronous persistence
+     */
+    private void stopAsyncWriter() {
+        if (asyncWriter == null) {
+            return;
+        }
+
+        try {
+            asyncWriter.close();
+        } catch (IOException ex) {
+            // the dirty aggregates are written by the next snapshot
+            asyncWriter = null;
+            writeSnapshot();
+        }
+        asyncWriter = null;
+    }
+
     /**
      * Write current state to the persistence layer
+     *
+     * @param changes entities changed by the current operation
      */
-    private void writeState () {
+    private void writeState (JournalEntry... changes) {
+        writeState(Arrays.asList(changes));
+    }
+
+    /**
+     * Write current state to the persistence layer. It must be called while holding the locks of the operation:
+     * the changes are serialized and written to the journal in the order of the operations, while waiting for
+     * the disk (and writing snapshots) is left to completeWrites, once the locks are released.
+     *
+     * @param changes entities changed by the current operation
+     */
+    private void writeState (List<JournalEntry> changes) {
+        if (persistenceLayer == null) {
+            // the persistence layer could not be initialized
+            return;
+        }
+        persistenceLayer.markDirty(changes);
+
+        if (!journalEnabled) {
+            requestSnapshot();
+            return;
+        }
+
         try {
-            persistenceLayer.writeUsers(users);
-            persistenceLayer.writeCustomerList(customerList);
-            persistenceLayer.writeProducts(products);
-            persistenceLayer.writeAccountBook(accountBook);
+            String record = persistenceLayer.serializeRecord(changes);
+            if (record != null) {
+                if (asyncWriter != null) {
+                    // the record is appended by the background writer
+                    asyncWriter.submit(record);
+                } else {
+                    pendingWrites.get().journalSequence =
+                            persistenceLayer.writeRecords(Collections.singletonList(record));
+                }
+            }
         } catch (Exception ex) {
-            // exceptions are ignored
+            // if the journal can not be written, fall back to a full snapshot
+            requestSnapshot();
+            return;
+        }
+
+        if (persistenceLayer.getJournalLength() >= JOURNAL_SNAPSHOT_THRESHOLD) {
+            requestSnapshot();
         }
     }
 
+    /**
+     * Request a snapshot, written once the locks of the current operation are released
+     */
+    private void requestSnapshot() {
+        pendingWrites.get().snapshot = snapshotRequests.incrementAndGet();
+    }
+
+    /**
+     * Wait for the durability of the changes of the current operation before returning to the caller
+     * (e.g. for payments), once its locks are released
+     */
+    private void requestFlush() {
+        pendingWrites.get().flush = true;
+    }
+
+    /**
+     * Complete the writes of the operation just performed by the current thread (called when it releases its last
+     * lock): force its journal records to disk, together with the records written concurrently by other sessions,
+     * and write the requested snapshot.
+     */
+    private void completeWrites() {
+        PendingWrites pending = pendingWrites.get();
+        long journalSequence = pending.journalSequence;
+        boolean flush = pending.flush;
+        long snapshot = pending.snapshot;
+        pending.clear();
+
+        if (journalSequence > 0) {
+            try {
+                persistenceLayer.syncRecords(journalSequence);
+            } catch (IOException ex) {
+                // if the journal can not be written, fall back to a full snapshot
+                snapshot = snapshotRequests.incrementAndGet();
+            }
+        }
+        if (flush) {
+            flush();
+        }
+        if (snapshot > 0) {
+            writeSnapshot(snapshot);
+        }
+    }
+
+    /**
+     * Get the allocator of each sequence of ids
+     *
+     * @return the id allocators
+     */
+    private Map<PersistenceLayer.IdSequence, IdAllocator> idAllocators() {
+        Map<PersistenceLayer.IdSequence, IdAllocator> allocators = new EnumMap<>(PersistenceLayer.IdSequence.class);
+        allocators.put(PersistenceLayer.IdSequence.USERS, userIds);
+        allocators.put(PersistenceLayer.IdSequence.PRODUCTS, productCatalog.getIdAllocator());
+        allocators.put(PersistenceLayer.IdSequence.CUSTOMERS, customerList.getIdAllocator());
+        allocators.put(PersistenceLayer.IdSequence.ACCOUNT_BOOK, accountBook.getIdAllocator());
+        allocators.put(PersistenceLayer.IdSequence.LOYALTY_CARDS, customerList.getCardSerialAllocator());
+        return allocators;
+    }
+
+    /**
+     * Write the high-water marks of the id allocators to the persistence layer
+     */
+    private void writeIdReservations() {
+        if (persistenceLayer == null) {
+            // the persistence layer could not be initialized
+            return;
+        }
+
+        synchronized (reservationsLock) {
+            Map<PersistenceLayer.IdSequence, Integer> reservations = new EnumMap<>(PersistenceLayer.IdSequence.class);
+            idAllocators().forEach((sequence, allocator) -> reservations.put(sequence, allocator.getReserved()));
+            try {
+                persistenceLayer.writeIdReservations(reservations);
+            } catch (IOException ex) {
+                // exceptions are ignored
+            }
+        }
+    }
+
+    /**
+     * Get the journal entries for a return transaction, including the sale transaction it belongs to
+     * (the sale transaction embeds its return transactions).
+     *
+     * @param returnTransaction the changed return transaction
+     * @return list of journal entries
+     */
+    private List<JournalEntry> putReturnTransaction(ReturnTransaction returnTransaction) {
+        List<JournalEntry> changes = new ArrayList<>();
+        it.polito.ezshop.model.BalanceOperation sale = accountBook.getTransaction(returnTransaction.getSaleTransactionId());
+        if (sale != null) {
+            changes.add(JournalEntry.putOperation(sale));
+        }
+        changes.add(JournalEntry.putOperation(returnTransaction));
+        return changes;
+    }
+
+    /**
+     * Write the aggregates changed since the last snapshot to the persistence layer and discard the journal.
+     * It must not be called while holding the locks of the shop.
+     */
+    private void writeSnapshot () {
+        writeSnapshot(snapshotRequests.incrementAndGet());
+    }
+
+    /**
+     * Write a snapshot covering the given request, unless a snapshot written in the meantime already covers it
+     * (so concurrent requests are served by a single snapshot)
+     *
+     * @param request number of the snapshot request
+     */
+    private void writeSnapshot (long request) {
+        if (persistenceLayer == null) {
+            // the persistence layer could not be initialized
+            return;
+        }
+
+        synchronized (snapshotLock) {
+            if (snapshotsWritten >= request) {
+                return;
+            }
+
+            // no operation is in progress while the snapshot is written
+            try (ShopLocks.Guard guard = locks.acquireAll(false)) {
+                long covered = snapshotRequests.get();
+                try {
+                    if (asyncWriter != null) {
+                        // wait for the background writer, the journal is discarded after the snapshot
+                        try {
+                            asyncWriter.flush();
+                        } catch (IOException ex) {
+                            // the lost records are included in the snapshot
+                        }
+                    }
+                    persistenceLayer.writeDirty(users, productCatalog.getAllProducts(), customerList, accountBook);
+                    persistenceLayer.clearJournal();
+                } catch (Exception ex) {
+                    // exceptions are ignored
+                }
+                snapshotsWritten = covered;
+            }
+        }
+    }
+
+    /**
+     * Get the time taken to read each file of the persisted state when the shop was created.
+     * The files are read in parallel, so the startup time is bounded by the slowest one.
+     *
+     * @return read time in nanoseconds of each aggregate (aggregates that could not be read are missing)
+     */
+    public Map<PersistenceLayer.Aggregate, Long> getLoadTimings() {
+        Map<PersistenceLayer.Aggregate, Long> timings = new EnumMap<>(PersistenceLayer.Aggregate.class);
+        timings.putAll(loadTimings);
+        return Collections.unmodifiableMap(timings);
+    }
+
+    /**
+     * Get the fsync counters of the journal
+     *
+     * @return journal fsync metrics, null if the persistence layer could not be initialized
+     */
+    public FsyncMetrics getJournalFsyncMetrics() {
+        return persistenceLayer == null ? null : persistenceLayer.getJournalFsyncMetrics();
+    }
+
+    /**
+     * Get the fsync counters of the snapshot files
+     *
+     * @return snapshot fsync metrics, null if the persistence layer could not be initialized
+     */
+    public FsyncMetrics getSnapshotFsyncMetrics() {
+        return persistenceLayer == null ? null : persistenceLayer.getSnapshotFsyncMetrics();
+    }
+
     /**
      * Get the internal account book (use for testing purposes only)
      * @return a reference to the account book
@@ -152,17 +607,104 @@ public class EZShop implements EZShopInterface {
 
     @Override
     public void reset() {
-        this.users.clear();
-        this.currentUser = null;
-        this.customerList.reset();
-        this.products.clear();
-        this.accountBook.reset();
-        this.clock = Clock.systemDefaultZone();
+        try (ShopLocks.Guard guard = locks.acquireAll(true)) {
+            this.users.clear();
+            this.userIds.reset();
+            // log out the users of all the sessions
+            this.sessionGeneration++;
+            this.customerList.reset();
+            this.productCatalog.reset();
+            this.accountBook.reset();
+            this.clock = Clock.systemDefaultZone();
+
+            // reset the credit card system
+            this.creditCardCircuit.reset();
+
+            if (persistenceLayer != null) {
+                persistenceLayer.markAllDirty();
+                requestSnapshot();
+                writeIdReservations();
+            }
+        }
+    }
 
-        // reset the credit card system
-        this.creditCardCircuit.reset();
+    /**
+     * Open a new session, e.g. for a cash register. Each session has its own logged in user: the calls performed
+     * through the returned interface are authorized against the user logged in the session, and different sessions
+     * can be used concurrently by different threads. A single session must not be used by several threads at once.
+     *
+     * @return the interface of the new session
+     */
+    public EZShopInterface openSession() {
+        Session session = new Session();
+        return (EZShopInterface) Proxy.newProxyInstance(EZShopInterface.class.getClassLoader(),
+                new Class<?>[]{EZShopInterface.class}, (proxy, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        switch (method.getName()) {
+                            case "equals":
+                                return proxy == args[0];
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            default:
+                                return "EZShop session";
+                        }
+                    }
+
+                    CommandPipeline pipeline = commandPipeline;
+                    try {
+                        if (pipeline != null && !QUERIES.contains(method.getName())) {
+                            return pipeline.execute(() -> invokeInSession(session, method, args));
+                        }
+                        return invokeInSession(session, method, args);
+                    } catch (InvocationTargetException ex) {
+                        throw ex.getCause();
+                    }
+                });
+    }
 
-        writeState();
+    /**
+     * Perform an operation of the shop on behalf of a session
+     *
+     * @param session the session performing the operation
+     * @param method the operation
+     * @param args arguments of the operation
+     * @return the result of the operation
+     * @throws IllegalAccessException never (the operations are public)
+     * @throws InvocationTargetException wrapping the exception thrown by the operation
+     */
+    private Object invokeInSession(Session session, Method method, Object[] args)
+            throws IllegalAccessException, InvocationTargetException {
+        Session previous = boundSession.get();
+        boundSession.set(session);
+        try {
+            return method.invoke(this, args);
+        } finally {
+            if (previous == null) {
+                boundSession.remove();
+            } else {
+                boundSession.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Get the session of the current call
+     *
+     * @return the session bound to the current thread, or the default session
+     */
+    private Session currentSession() {
+        Session session = boundSession.get();
+        return session == null ? defaultSession : session;
+    }
+
+    /**
+     * Get the user logged in the session of the current call
+     *
+     * @return the logged user, or null if no user logged in since the last reset
+     */
+    private it.polito.ezshop.model.User currentUser() {
+        Session session = currentSession();
+        return session.generation == sessionGeneration ? session.user : null;
     }
 
 
@@ -174,6 +716,7 @@ public class EZShop implements EZShopInterface {
      *                               is not the expected one.
      */
     private void verifyCurrentUserRole(Role... roles) throws UnauthorizedException {
+        it.polito.ezshop.model.User currentUser = currentUser();
         if (currentUser == null) {
             throw new UnauthorizedException("No user is currently logged in");
         }
@@ -190,25 +733,25 @@ public class EZShop implements EZShopInterface {
         it.polito.ezshop.model.User.validatePassword(password);
         it.polito.ezshop.model.User.validateRole(role);
 
-        if (users.stream().anyMatch(x -> x.getUsername().equals(username))) {
-            return -1;
-        }
+        try (ShopLocks.Guard guard = locks.acquire(write(USERS))) {
+            if (users.stream().anyMatch(x -> x.getUsername().equals(username))) {
+                return -1;
+            }
 
-        // generate a list of all ids
-        List<Integer> ids = users.stream().map(it.polito.ezshop.model.User::getId).collect(Collectors.toList());
-        // generate a new id that is not already in the list
-        Integer id = generateId(ids);
+            // generate a new id, greater than the id of any other user
+            Integer id = userIds.next();
 
-        // create a new user
-        it.polito.ezshop.model.User u;
-        try {
-            u = new it.polito.ezshop.model.User(id, username, password, role);
-            users.add(u);
+            // create a new user
+            it.polito.ezshop.model.User u;
+            try {
+                u = new it.polito.ezshop.model.User(id, username, password, role);
+                users.add(u);
 
-            writeState();
-            return u.getId();
-        } catch (InvalidUserIdException e) {
-            throw new Error("UserId was generated improperly", e);
+                writeState(JournalEntry.putUser(u));
+                return u.getId();
+            } catch (InvalidUserIdException e) {
+                throw new Error("UserId was generated improperly", e);
+            }
         }
     }
 
@@ -220,19 +763,23 @@ public class EZShop implements EZShopInterface {
         // check that id is neither null or non-positive
         it.polito.ezshop.model.User.validateId(id);
 
-        // removeIf returns true if any elements were removed
-        boolean result = users.removeIf(x -> x.getId().equals(id));
+        try (ShopLocks.Guard guard = locks.acquire(write(USERS))) {
+            // removeIf returns true if any elements were removed
+            boolean result = users.removeIf(x -> x.getId().equals(id));
 
-        writeState();
-        return result;
+            writeState(JournalEntry.removeUser(id));
+            return result;
+        }
     }
 
     @Override
     public List<User> getAllUsers() throws UnauthorizedException {
         // check the role of the current user
         verifyCurrentUserRole(Role.ADMINISTRATOR);
-        // return a list of users
-        return users.stream().map(UserAdapter::new).collect(Collectors.toList());
+        try (ShopLocks.Guard guard = locks.acquire(read(USERS))) {
+            // return a list of users
+            return users.stream().map(UserAdapter::new).collect(Collectors.toList());
+        }
     }
 
     @Override
@@ -243,13 +790,15 @@ public class EZShop implements EZShopInterface {
         // check that id is neither null or non-positive
         it.polito.ezshop.model.User.validateId(id);
 
-        return users.stream()
-                // filter users with the given id
-                .filter(x -> x.getId().equals(id))
-                // find the first matching user
-                .findFirst().map(UserAdapter::new)
-                // if a matching user is not found, return null
-                .orElse(null);
+        try (ShopLocks.Guard guard = locks.acquire(read(USERS))) {
+            return users.stream()
+                    // filter users with the given id
+                    .filter(x -> x.getId().equals(id))
+                    // find the first matching user
+                    .findFirst().map(UserAdapter::new)
+                    // if a matching user is not found, return null
+                    .orElse(null);
+        }
     }
 
     @Override
@@ -262,18 +811,20 @@ public class EZShop implements EZShopInterface {
         // check if the role is valid
         it.polito.ezshop.model.User.validateRole(Role.fromString(role));
 
-        // find the user
-        it.polito.ezshop.model.User user = users.stream()
-                // filter users with the given id
-                .filter(x -> x.getId().equals(id)).findFirst().orElse(null);
+        try (ShopLocks.Guard guard = locks.acquire(write(USERS))) {
+            // find the user
+            it.polito.ezshop.model.User user = users.stream()
+                    // filter users with the given id
+                    .filter(x -> x.getId().equals(id)).findFirst().orElse(null);
 
-        // if the user is present, update its role
-        if (user != null) {
-            user.setRole(Role.fromString(role));
-            writeState();
-            return true;
+            // if the user is present, update its role
+            if (user != null) {
+                user.setRole(Role.fromString(role));
+                writeState(JournalEntry.putUser(user));
+                return true;
+            }
+            return false;
         }
-        return false;
     }
 
     @Override
@@ -284,24 +835,34 @@ public class EZShop implements EZShopInterface {
         // check that the password is neither null or empty
         it.polito.ezshop.model.User.validatePassword(password);
 
-        currentUser = users.stream()
-                // filters all the users with a matching username and password
-                .filter(x -> x.getUsername().equals(username) && x.getPassword().equals(password))
-                // get a User from the filtered list
-                .findAny()
-                // if one user is found return it, otherwise return null
-                .orElse(null);
+        it.polito.ezshop.model.User user;
+        long generation;
+        try (ShopLocks.Guard guard = locks.acquire(read(USERS))) {
+            generation = sessionGeneration;
+            user = users.stream()
+                    // filters all the users with a matching username and password
+                    .filter(x -> x.getUsername().equals(username) && x.getPassword().equals(password))
+                    // get a User from the filtered list
+                    .findAny()
+                    // if one user is found return it, otherwise return null
+                    .orElse(null);
+        }
+
+        // the user is logged in the current session only
+        Session session = currentSession();
+        session.generation = generation;
+        session.user = user;
 
-        if (currentUser == null) return null;
-        return new UserAdapter(currentUser);
+        if (user == null) return null;
+        return new UserAdapter(user);
     }
 
     @Override
     public boolean logout() {
         // check if there's a logged in user
-        boolean loggedIn = (currentUser != null);
+        boolean loggedIn = (currentUser() != null);
         // logout the current user
-        currentUser = null;
+        currentSession().user = null;
         // true if the logout is successful, false otherwise
         return loggedIn;
     }
@@ -311,33 +872,33 @@ public class EZShop implements EZShopInterface {
         // check the role of the current user
         verifyCurrentUserRole(Role.ADMINISTRATOR, Role.SHOP_MANAGER);
 
-        if (products.stream().anyMatch(x -> x.getBarCode().equals(productCode))) {
-            return -1;
-        }
+        try (ShopLocks.Guard guard = locks.acquire(write(CATALOG))) {
+            if (productCatalog.getProductByBarCode(productCode) != null) {
+                return -1;
+            }
 
-        // generate a list of all ids
-        List<Integer> ids = products.stream().map(it.polito.ezshop.model.ProductType::getId).collect(Collectors.toList());
-        // generate a new id that is not already in the list
-        int id = generateId(ids);
+            // generate a new id that is not already in the catalog
+            int id = productCatalog.generateNewId();
 
-        it.polito.ezshop.model.ProductType p;
-        try {
-            p = new it.polito.ezshop.model.ProductType(id, description, productCode, pricePerUnit, note);
+            it.polito.ezshop.model.ProductType p;
+            try {
+                p = new it.polito.ezshop.model.ProductType(id, description, productCode, pricePerUnit, note);
 
-        } catch (InvalidProductIdException e) {
-            // InvalidProductIdException should never occur for properly generated ID!
-            throw new Error("productID was generated improperly", e);
+            } catch (InvalidProductIdException e) {
+                // InvalidProductIdException should never occur for properly generated ID!
+                throw new Error("productID was generated improperly", e);
 
-        } catch (InvalidQuantityException e) {
-            // InvalidQuantityException should never be thrown.
-            throw new Error("It is impossible to initialize ProductType with negative quantity", e);
-        }
+            } catch (InvalidQuantityException e) {
+                // InvalidQuantityException should never be thrown.
+                throw new Error("It is impossible to initialize ProductType with negative quantity", e);
+            }
 
-        products.add(p);
+            productCatalog.addProduct(p);
 
-        writeState();
+            writeState(JournalEntry.putProduct(p));
 
-        return p.getId();
+            return p.getId();
+        }
     }
 
     @Override
@@ -362,36 +923,40 @@ public class EZShop implements EZShopInterface {
             throw new InvalidPricePerUnitException("Price per Unit must be greater or equal than zero");
         }
 
-        if (products.stream().anyMatch(x -> !(x.getId() == id) && x.getBarCode().equals(newCode))) {
-            return false;
-        }
+        try (ShopLocks.Guard guard = locks.acquire(write(CATALOG), write(ACCOUNT_BOOK))) {
+            it.polito.ezshop.model.ProductType product = productCatalog.getProductById(id);
+            if (product == null) {
+                return false;
+            }
 
-        it.polito.ezshop.model.ProductType product = products.stream()
-                // filter products with the given id
-                .filter(x -> x.getId() == id)
-                .findFirst()
-                .orElse(null);
+            String oldBarcode = product.getBarCode();
 
-        if (product == null) {
-            return false;
-        }
+            // the barcode must not be assigned to another product
+            if (!productCatalog.updateBarCode(product, newCode)) {
+                return false;
+            }
 
-        String oldBarcode = product.getBarCode();
+            product.setProductDescription(newDescription);
+            product.setPricePerUnit(newPrice);
+            product.setNote(newNote);
 
-        product.setProductDescription(newDescription);
-        product.setBarCode(newCode);
-        product.setPricePerUnit(newPrice);
-        product.setNote(newNote);
+            List<JournalEntry> changes = new ArrayList<>();
+            changes.add(JournalEntry.putProduct(product));
 
-        // if the barcode of the product is changed, propagate the change to the orders list
-        if (!oldBarcode.equals(newCode)) {
-            // update the barcode of the product in the orders list
-            this.accountBook.updateBarcodeInOrders(oldBarcode, newCode);
-        }
+            // if the barcode of the product is changed, propagate the change to the orders list
+            if (!oldBarcode.equals(newCode)) {
+                // update the barcode of the product in the orders list
+                this.accountBook.updateBarcodeInOrders(oldBarcode, newCode);
 
-        writeState();
+                this.accountBook.getOrders().stream()
+                        .filter(o -> o.getProductCode().equals(newCode))
+                        .forEach(o -> changes.add(JournalEntry.putOperation(o)));
+            }
+
+            writeState(changes);
 
-        return true;
+            return true;
+        }
     }
 
     @Override
@@ -404,11 +969,12 @@ public class EZShop implements EZShopInterface {
             throw new InvalidProductIdException("Invalid product id less or equal to 0");
         }
 
-        // removeIf returns true if any elements were removed
-        boolean result =  products.removeIf(x -> x.getId() == id);
+        try (ShopLocks.Guard guard = locks.acquire(write(CATALOG))) {
+            boolean result = productCatalog.removeProduct(id);
 
-        writeState();
-        return result;
+            writeState(JournalEntry.removeProduct(id));
+            return result;
+        }
     }
 
     @Override
@@ -416,8 +982,10 @@ public class EZShop implements EZShopInterface {
         // check the role of the current user
         verifyCurrentUserRole(Role.ADMINISTRATOR, Role.SHOP_MANAGER, Role.CASHIER);
 
-        // return a list of products
-        return products.stream().map(ProductTypeAdapter::new).collect(Collectors.toList());
+        try (ShopLocks.Guard guard = locks.acquire(read(CATALOG))) {
+            // return a list of products
+            return productCatalog.getAllProducts().stream().map(ProductTypeAdapter::new).collect(Collectors.toList());
+        }
     }
 
     @Override
@@ -430,15 +998,10 @@ public class EZShop implements EZShopInterface {
             throw new InvalidProductCodeException("Invalid Bar Code");
         }
 
-        return products.stream()
-                // filter users with the given id
-                .filter(x -> x.getBarCode().equals(barCode))
-                // find the first matching user
-                .findFirst()
-                // map to the interface type
-                .map(ProductTypeAdapter::new)
-                // if a matching user is not found, return null
-                .orElse(null);
+        try (ShopLocks.Guard guard = locks.acquire(read(CATALOG))) {
+            it.polito.ezshop.model.ProductType product = productCatalog.getProductByBarCode(barCode);
+            return product == null ? null : new ProductTypeAdapter(product);
+        }
     }
 
     @Override
@@ -449,11 +1012,13 @@ public class EZShop implements EZShopInterface {
         // null should be considered as the empty string
         String query = (description == null) ? "" : description;
 
-        return products.stream()
-                // filter users with the given id
-                .filter(x -> x.getProductDescription().contains(query))
-                .map(ProductTypeAdapter::new)
-                .collect(Collectors.toList());
+        try (ShopLocks.Guard guard = locks.acquire(read(CATALOG))) {
+            return productCatalog.getAllProducts().stream()
+                    // filter products with the given description
+                    .filter(x -> x.getProductDescription().contains(query))
+                    .map(ProductTypeAdapter::new)
+                    .collect(Collectors.toList());
+        }
     }
 
     @Override
@@ -467,26 +1032,25 @@ public class EZShop implements EZShopInterface {
             throw new InvalidProductIdException("Product ID must be positive integer");
         }
 
-        // get product or null if it does not exist
-        it.polito.ezshop.model.ProductType product = products.stream()
-                .filter(p -> p.getId() == productId)
-                .findAny()
-                .orElse(null);
+        try (ShopLocks.Guard guard = locks.acquire(write(CATALOG))) {
+            // get product or null if it does not exist
+            it.polito.ezshop.model.ProductType product = productCatalog.getProductById(productId);
 
-        // check that product exists
-        if (product == null) {
-            return false;
-        }
+            // check that product exists
+            if (product == null) {
+                return false;
+            }
 
-        // update product quantity
-        try {
-            product.setQuantity(product.getQuantity() + toBeAdded);
-        } catch (InvalidQuantityException | IllegalStateException e) {
-            return false;
-        }
+            // update product quantity
+            try {
+                product.setQuantity(product.getQuantity() + toBeAdded);
+            } catch (InvalidQuantityException | IllegalStateException e) {
+                return false;
+            }
 
-        writeState();
-        return true;
+            writeState(JournalEntry.putProduct(product));
+            return true;
+        }
     }
 
     @Override
@@ -500,44 +1064,43 @@ public class EZShop implements EZShopInterface {
             throw new InvalidProductIdException("Product ID must be positive integer");
         }
 
-        // get product to be updated
-        it.polito.ezshop.model.ProductType product = products.stream()
-                .filter(p -> p.getId() == productId)
-                .findAny()
-                .orElse(null);
+        try (ShopLocks.Guard guard = locks.acquire(write(CATALOG))) {
+            // get product to be updated
+            it.polito.ezshop.model.ProductType product = productCatalog.getProductById(productId);
+
+            // if newPos is null or empty string, unassign position from product
+            if (newPos == null || newPos.equals("")) {
+
+                // if product does not exist return false
+                if (product == null) {
+                    return false;
+                }
+
+                product.setPosition(null);
+                writeState(JournalEntry.putProduct(product));
+                return true;
+            }
+
+            // try and parse position, throw exception if format is invalid
+            Position position = new Position(newPos);
 
-        // if newPos is null or empty string, unassign position from product
-        if (newPos == null || newPos.equals("")) {
+            // return false if position is already taken by different product
+            if (productCatalog.getAllProducts().stream().anyMatch(p -> position.equals(p.getPosition()))) {
+                return false;
+            }
 
             // if product does not exist return false
             if (product == null) {
                 return false;
             }
 
-            product.setPosition(null);
-            writeState();
-            return true;
-        }
-
-        // try and parse position, throw exception if format is invalid
-        Position position = new Position(newPos);
-
-        // return false if position is already taken by different product
-        if (products.stream().anyMatch(p -> position.equals(p.getPosition()))) {
-            return false;
-        }
+            // update product position if product with given ID exists
+            product.setPosition(position);
 
-        // if product does not exist return false
-        if (product == null) {
-            return false;
+            // persist changes and return true;
+            writeState(JournalEntry.putProduct(product));
+            return true;
         }
-
-        // update product position if product with given ID exists
-        product.setPosition(position);
-
-        // persist changes and return true;
-        writeState();
-        return true;
     }
 
     @Override
@@ -561,26 +1124,25 @@ public class EZShop implements EZShopInterface {
         // verify access rights
         verifyCurrentUserRole(Role.ADMINISTRATOR, Role.SHOP_MANAGER);
 
-        // verify product exists
-        it.polito.ezshop.model.ProductType product = products.stream()
-                .filter(p -> p.getBarCode().equals(productCode))
-                .findAny()
-                .orElse(null);
-        if (product == null) {
-            return -1;
-        }
+        try (ShopLocks.Guard guard = locks.acquire(read(CATALOG), write(ACCOUNT_BOOK))) {
+            // verify product exists
+            it.polito.ezshop.model.ProductType product = productCatalog.getProductByBarCode(productCode);
+            if (product == null) {
+                return -1;
+            }
 
-        // create Order object
-        int balanceId = accountBook.generateNewId();
-        LocalDate date = LocalDate.now(clock);
-        it.polito.ezshop.model.Order order = new it.polito.ezshop.model.Order(balanceId, date, productCode, pricePerUnit, quantity);
+            // create Order object
+            int balanceId = accountBook.generateNewId();
+            LocalDate date = LocalDate.now(clock);
+            it.polito.ezshop.model.Order order = new it.polito.ezshop.model.Order(balanceId, date, productCode, pricePerUnit, quantity);
 
-        // add order to account book
-        this.accountBook.addTransaction(order);
+            // add order to account book
+            this.accountBook.addTransaction(order);
 
-        writeState();
-        // return order ID on success
-        return balanceId;
+            writeState(JournalEntry.putOperation(order));
+            // return order ID on success
+            return balanceId;
+        }
     }
 
     @Override
@@ -604,34 +1166,34 @@ public class EZShop implements EZShopInterface {
         // verify access rights
         verifyCurrentUserRole(Role.ADMINISTRATOR, Role.SHOP_MANAGER);
 
-        // verify product exists
-        it.polito.ezshop.model.ProductType product = products.stream()
-                .filter(p -> p.getBarCode().equals(productCode))
-                .findAny()
-                .orElse(null);
-        if (product == null) {
-            return -1;
-        }
+        try (ShopLocks.Guard guard = locks.acquire(read(CATALOG), write(ACCOUNT_BOOK))) {
+            // verify product exists
+            it.polito.ezshop.model.ProductType product = productCatalog.getProductByBarCode(productCode);
+            if (product == null) {
+                return -1;
+            }
 
-        // create Order object
-        int orderID = accountBook.generateNewId();
-        LocalDate date = LocalDate.now(clock);
-        it.polito.ezshop.model.Order order = new it.polito.ezshop.model.Order(orderID, date, productCode, pricePerUnit, quantity);
+            // create Order object
+            int orderID = accountBook.generateNewId();
+            LocalDate date = LocalDate.now(clock);
+            it.polito.ezshop.model.Order order = new it.polito.ezshop.model.Order(orderID, date, productCode, pricePerUnit, quantity);
 
-        // ensure sufficient funds in the account book
-        if (!accountBook.checkAvailability(Math.abs(order.getMoney()))) {
-            return -1;
-        }
+            // ensure sufficient funds in the account book
+            if (!accountBook.checkAvailability(Math.abs(order.getMoney()))) {
+                return -1;
+            }
 
-        // set order state to PAID
-        order.setStatus(OperationStatus.PAID);
+            // set order state to PAID
+            order.setStatus(OperationStatus.PAID);
 
-        // record order in account book and update balance automatically
-        accountBook.addTransaction(order);
+            // record order in account book and update balance automatically
+            accountBook.addTransaction(order);
 
-        writeState();
-        // return order ID on success
-        return orderID;
+            writeState(JournalEntry.putOperation(order));
+            requestFlush();
+            // return order ID on success
+            return orderID;
+        }
     }
 
     @Override
@@ -645,30 +1207,33 @@ public class EZShop implements EZShopInterface {
         // verify access rights
         verifyCurrentUserRole(Role.ADMINISTRATOR, Role.SHOP_MANAGER);
 
-        // verify that order exists
-        it.polito.ezshop.model.BalanceOperation transactionWithId = accountBook.getTransaction(orderId);
-        if (!(transactionWithId instanceof it.polito.ezshop.model.Order)) {
-            return false;
-        }
+        try (ShopLocks.Guard guard = locks.acquire(write(ACCOUNT_BOOK))) {
+            // verify that order exists
+            it.polito.ezshop.model.BalanceOperation transactionWithId = accountBook.getTransaction(orderId);
+            if (!(transactionWithId instanceof it.polito.ezshop.model.Order)) {
+                return false;
+            }
 
-        // verify that Order was either issued or already paid for
-        it.polito.ezshop.model.Order order = (it.polito.ezshop.model.Order) transactionWithId;
-        OperationStatus previousStatus = order.getStatus();
-        if (!(previousStatus == OperationStatus.CLOSED || previousStatus == OperationStatus.PAID)) {
-            return false;
-        }
+            // verify that Order was either issued or already paid for
+            it.polito.ezshop.model.Order order = (it.polito.ezshop.model.Order) transactionWithId;
+            OperationStatus previousStatus = order.getStatus();
+            if (!(previousStatus == OperationStatus.CLOSED || previousStatus == OperationStatus.PAID)) {
+                return false;
+            }
 
-        // ensure sufficient funds in the account book
-        if (!accountBook.checkAvailability(-order.getMoney())) {
-            return false;
-        }
+            // ensure sufficient funds in the account book
+            if (!accountBook.checkAvailability(-order.getMoney())) {
+                return false;
+            }
 
-        // set order status to paid and update account book
-        accountBook.setTransactionStatus(orderId, OperationStatus.PAID);
+            // set order status to paid and update account book
+            accountBook.setTransactionStatus(orderId, OperationStatus.PAID);
 
-        writeState();
-        // return success of operation
-        return true;
+            writeState(JournalEntry.putOperation(order));
+            requestFlush();
+            // return success of operation
+            return true;
+        }
     }
 
     @Override
@@ -681,46 +1246,45 @@ public class EZShop implements EZShopInterface {
         // verify access rights
         verifyCurrentUserRole(Role.ADMINISTRATOR, Role.SHOP_MANAGER);
 
-        // verify that order exists
-        it.polito.ezshop.model.BalanceOperation transactionWithId = accountBook.getTransaction(orderId);
-        if (!(transactionWithId instanceof it.polito.ezshop.model.Order)) return false;
+        try (ShopLocks.Guard guard = locks.acquire(write(CATALOG), write(ACCOUNT_BOOK))) {
+            // verify that order exists
+            it.polito.ezshop.model.BalanceOperation transactionWithId = accountBook.getTransaction(orderId);
+            if (!(transactionWithId instanceof it.polito.ezshop.model.Order)) return false;
 
-        // verify that Order was either paid for or has already been completed
-        it.polito.ezshop.model.Order order = (it.polito.ezshop.model.Order) transactionWithId;
-        OperationStatus previousStatus = order.getStatus();
-        if (!(previousStatus == OperationStatus.PAID || previousStatus == OperationStatus.COMPLETED)) {
-            return false;
-        }
+            // verify that Order was either paid for or has already been completed
+            it.polito.ezshop.model.Order order = (it.polito.ezshop.model.Order) transactionWithId;
+            OperationStatus previousStatus = order.getStatus();
+            if (!(previousStatus == OperationStatus.PAID || previousStatus == OperationStatus.COMPLETED)) {
+                return false;
+            }
 
-        // find the product that is being reordered
-        it.polito.ezshop.model.ProductType orderedProduct = products.stream()
-                .filter(p -> p.getBarCode().equals(order.getProductCode()))
-                .findAny()
-                .orElse(null);
+            // find the product that is being reordered
+            it.polito.ezshop.model.ProductType orderedProduct = productCatalog.getProductByBarCode(order.getProductCode());
 
-        // verify ordered product exists
-        if (orderedProduct == null){
-            return false;
-        }
+            // verify ordered product exists
+            if (orderedProduct == null){
+                return false;
+            }
 
-        // verify the product is assigned to a location
-        if (orderedProduct.getPosition() == null) {
-            throw new InvalidLocationException();
-        }
+            // verify the product is assigned to a location
+            if (orderedProduct.getPosition() == null) {
+                throw new InvalidLocationException();
+            }
 
-        // update product quantity
-        try {
-            orderedProduct.setQuantity(orderedProduct.getQuantity() + order.getQuantity());
-        } catch (InvalidQuantityException | IllegalStateException e) {
-            return false;
-        }
+            // update product quantity
+            try {
+                orderedProduct.setQuantity(orderedProduct.getQuantity() + order.getQuantity());
+            } catch (InvalidQuantityException | IllegalStateException e) {
+                return false;
+            }
 
-        // mark order as completed
-        accountBook.setTransactionStatus(orderId, OperationStatus.COMPLETED);
+            // mark order as completed
+            accountBook.setTransactionStatus(orderId, OperationStatus.COMPLETED);
 
-        writeState();
-        // return success of operation
-        return true;
+            writeState(JournalEntry.putProduct(orderedProduct), JournalEntry.putOperation(order));
+            // return success of operation
+            return true;
+        }
     }
 
     @Override
@@ -740,53 +1304,53 @@ InvalidLocationException, InvalidRFIDException {
             throw new InvalidRFIDException("RFID must be 12 digit string");
         }
 
-        // get order if it exists, return false otherwise
-        it.polito.ezshop.model.BalanceOperation transactionWithId = accountBook.getTransaction(orderId);
-        if (!(transactionWithId instanceof it.polito.ezshop.model.Order)) return false;
-        it.polito.ezshop.model.Order order = (it.polito.ezshop.model.Order) transactionWithId;
+        try (ShopLocks.Guard guard = locks.acquire(write(CATALOG), write(ACCOUNT_BOOK))) {
+            // get order if it exists, return false otherwise
+            it.polito.ezshop.model.BalanceOperation transactionWithId = accountBook.getTransaction(orderId);
+            if (!(transactionWithId instanceof it.polito.ezshop.model.Order)) return false;
+            it.polito.ezshop.model.Order order = (it.polito.ezshop.model.Order) transactionWithId;
 
-        // if order was already completed, return true without modifying anything
-        if (order.getStatus() == OperationStatus.COMPLETED) {
-            return true;
-        }
+            // if order was already completed, return true without modifying anything
+            if (order.getStatus() == OperationStatus.COMPLETED) {
+                return true;
+            }
 
-        // verify that order has already been paid
-        OperationStatus previousStatus = order.getStatus();
-        if (!(previousStatus == OperationStatus.PAID)) {
-            return false;
-        }
+            // verify that order has already been paid
+            OperationStatus previousStatus = order.getStatus();
+            if (!(previousStatus == OperationStatus.PAID)) {
+                return false;
+            }
 
-        // find the product that is being reordered
-        it.polito.ezshop.model.ProductType orderedProduct = products.stream()
-                .filter(p -> p.getBarCode().equals(order.getProductCode()))
-                .findAny()
-                .orElse(null);
+            // find the product that is being reordered
+            it.polito.ezshop.model.ProductType orderedProduct = productCatalog.getProductByBarCode(order.getProductCode());
 
-        // verify ordered product exists
-        if (orderedProduct == null){
-            return false;
-        }
+            // verify ordered product exists
+            if (orderedProduct == null){
+                return false;
+            }
 
-        // verify the product is assigned to a location
-        if (orderedProduct.getPosition() == null) {
-            throw new InvalidLocationException();
-        }
+            // verify the product is assigned to a location
+            if (orderedProduct.getPosition() == null) {
+                throw new InvalidLocationException();
+            }
 
-        // update product quantity (generate new RFIDs starting from the given one)
-        List<String> RFIDs = it.polito.ezshop.model.ProductType.generateRFIDs(RFIDfrom, order.getQuantity());
-        // check for the uniqueness of the generated codes
-        if (this.products.stream().anyMatch(p -> RFIDs.stream().anyMatch(p::RFIDexists))) {
-            throw new InvalidRFIDException();
-        }
+            // update product quantity (generate new RFIDs starting from the given one)
+            it.polito.ezshop.model.RFIDSet RFIDs =
+                    it.polito.ezshop.model.ProductType.generateRFIDSet(RFIDfrom, order.getQuantity());
+            // check for the uniqueness of the generated codes
+            if (productCatalog.anyRFIDexists(RFIDs)) {
+                throw new InvalidRFIDException();
+            }
 
-        orderedProduct.addRFIDs(RFIDs);
+            orderedProduct.addRFIDs(RFIDs);
 
-        // mark order as completed
-        accountBook.setTransactionStatus(orderId, OperationStatus.COMPLETED);
+            // mark order as completed
+            accountBook.setTransactionStatus(orderId, OperationStatus.COMPLETED);
 
-        writeState();
-        // return success of operation
-        return true;
+            writeState(JournalEntry.putProduct(orderedProduct), JournalEntry.putOperation(order));
+            // return success of operation
+            return true;
+        }
     }
 
     @Override
@@ -794,16 +1358,18 @@ InvalidLocationException, InvalidRFIDException {
         // verify access rights
         verifyCurrentUserRole(Role.ADMINISTRATOR, Role.SHOP_MANAGER);
 
-        // return list of all orders
-        return accountBook.getOrders().stream()
-                .filter(order -> {
-                    OperationStatus orderstatus = order.getStatus();
-                    return orderstatus == OperationStatus.CLOSED
-                            || orderstatus == OperationStatus.PAID
-                            || orderstatus == OperationStatus.COMPLETED;
-                })
-                .map(OrderAdapter::new)
-                .collect(Collectors.toList());
+        try (ShopLocks.Guard guard = locks.acquire(read(ACCOUNT_BOOK))) {
+            // return list of all orders
+            return accountBook.getOrders().stream()
+                    .filter(order -> {
+                        OperationStatus orderstatus = order.getStatus();
+                        return orderstatus == OperationStatus.CLOSED
+                                || orderstatus == OperationStatus.PAID
+                                || orderstatus == OperationStatus.COMPLETED;
+                    })
+                    .map(OrderAdapter::new)
+                    .collect(Collectors.toList());
+        }
     }
 
     @Override
@@ -812,10 +1378,18 @@ InvalidLocationException, InvalidRFIDException {
         // verify access rights
         verifyCurrentUserRole(Role.ADMINISTRATOR, Role.SHOP_MANAGER, Role.CASHIER);
 
-        int newCustomerID = customerList.addCustomer(customerName);
+        try (ShopLocks.Guard guard = locks.acquire(write(CUSTOMERS))) {
+            int newCustomerID = customerList.addCustomer(customerName);
 
-        writeState();
-        return newCustomerID;
+            if (newCustomerID > 0) {
+                try {
+                    writeState(JournalEntry.putCustomer(customerList.getCustomer(newCustomerID)));
+                } catch (InvalidCustomerIdException e) {
+                    throw new Error("CustomerId was generated improperly", e);
+                }
+            }
+            return newCustomerID;
+        }
     }
 
     @Override
@@ -824,11 +1398,23 @@ InvalidLocationException, InvalidRFIDException {
         // check the role of the current user
         verifyCurrentUserRole(Role.ADMINISTRATOR, Role.SHOP_MANAGER, Role.CASHIER);
 
-        boolean success = customerList.modifyCustomer(id, newCustomerName, newCustomerCard);
+        try (ShopLocks.Guard guard = locks.acquire(write(CUSTOMERS))) {
+            // card currently attached to the customer (it is discarded if the card is removed)
+            it.polito.ezshop.model.Customer customer = it.polito.ezshop.model.Customer.isValidID(id) ? customerList.getCustomer(id) : null;
+            LoyaltyCard previousCard = (customer == null) ? null : customer.getCard();
 
-        writeState();
-        return success;
+            boolean success = customerList.modifyCustomer(id, newCustomerName, newCustomerCard);
 
+            if (success) {
+                List<JournalEntry> changes = new ArrayList<>();
+                changes.add(JournalEntry.putCustomer(customer));
+                if (previousCard != null && customer.getCard() == null) {
+                    changes.add(JournalEntry.removeLoyaltyCard(previousCard.getCode()));
+                }
+                writeState(changes);
+            }
+            return success;
+        }
     }
 
     @Override
@@ -836,9 +1422,11 @@ InvalidLocationException, InvalidRFIDException {
         //invoked only after a user with role "Administrator", "ShopManager" or "Cashier" is logged in
         verifyCurrentUserRole(Role.ADMINISTRATOR, Role.SHOP_MANAGER, Role.CASHIER);
 
-        boolean success = customerList.removeCustomer(id);
-        writeState();
-        return success;
+        try (ShopLocks.Guard guard = locks.acquire(write(CUSTOMERS))) {
+            boolean success = customerList.removeCustomer(id);
+            writeState(JournalEntry.removeCustomer(id));
+            return success;
+        }
     }
 
     @Override
@@ -846,13 +1434,15 @@ InvalidLocationException, InvalidRFIDException {
         //invoked only after a user with role "Administrator", "ShopManager" or "Cashier" is logged in
         verifyCurrentUserRole(Role.ADMINISTRATOR, Role.SHOP_MANAGER, Role.CASHIER);
 
-        // return customer if found, null otherwise, throw exception if necessary
-        it.polito.ezshop.model.Customer customer = customerList.getCustomer(id);
-        if (customer == null) {
-            return null;
-        }
+        try (ShopLocks.Guard guard = locks.acquire(read(CUSTOMERS))) {
+            // return customer if found, null otherwise, throw exception if necessary
+            it.polito.ezshop.model.Customer customer = customerList.getCustomer(id);
+            if (customer == null) {
+                return null;
+            }
 
-        return new CustomerAdapter(customer);
+            return new CustomerAdapter(customer);
+        }
     }
 
     @Override
@@ -860,7 +1450,9 @@ InvalidLocationException, InvalidRFIDException {
         //invoked only after a user with role "Administrator", "ShopManager" or "Cashier" is logged in
         verifyCurrentUserRole(Role.ADMINISTRATOR, Role.SHOP_MANAGER, Role.CASHIER);
 
-        return customerList.getAllCustomers().stream().map(CustomerAdapter::new).collect(Collectors.toList());
+        try (ShopLocks.Guard guard = locks.acquire(read(CUSTOMERS))) {
+            return customerList.getAllCustomers().stream().map(CustomerAdapter::new).collect(Collectors.toList());
+        }
     }
 
     @Override
@@ -869,10 +1461,37 @@ InvalidLocationException, InvalidRFIDException {
         //invoked only after a user with role "Administrator", "ShopManager" or "Cashier" is logged in
         verifyCurrentUserRole(Role.ADMINISTRATOR, Role.SHOP_MANAGER, Role.CASHIER);
 
-        String newCard = customerList.generateNewLoyaltyCard();
+        try (ShopLocks.Guard guard = locks.acquire(write(CUSTOMERS))) {
+            String newCard = customerList.generateNewLoyaltyCard();
+
+            writeState(JournalEntry.putLoyaltyCard(customerList.getLoyaltyCard(newCard)));
+            return newCard;
+        }
+    }
+
+    /**
+     * Create a batch of new loyalty cards, e.g. for a print run of physical cards.
+     * The cards are written to the persistence layer with a single journal record.
+     *
+     * @param count number of cards to create
+     * @return the codes of the new cards, empty if count is not positive
+     * @throws UnauthorizedException if there is no logged user or if it has not the rights to perform the operation
+     */
+    public List<String> createCards(int count) throws UnauthorizedException {
+        verifyCurrentUserRole(Role.ADMINISTRATOR, Role.SHOP_MANAGER, Role.CASHIER);
+
+        if (count <= 0) {
+            return new ArrayList<>();
+        }
+
+        try (ShopLocks.Guard guard = locks.acquire(write(CUSTOMERS))) {
+            List<String> newCards = customerList.generateNewLoyaltyCards(count);
 
-        writeState();
-        return newCard;
+            writeState(newCards.stream()
+                    .map(code -> JournalEntry.putLoyaltyCard(customerList.getLoyaltyCard(code)))
+                    .collect(Collectors.toList()));
+            return newCards;
+        }
     }
 
     @Override
@@ -881,10 +1500,14 @@ InvalidLocationException, InvalidRFIDException {
         //invoked only after a user with role "Administrator", "ShopManager" or "Cashier" is logged in
         verifyCurrentUserRole(Role.ADMINISTRATOR, Role.SHOP_MANAGER, Role.CASHIER);
 
-        boolean success = customerList.attachCardToCustomer(customerId, customerCard);
+        try (ShopLocks.Guard guard = locks.acquire(write(CUSTOMERS))) {
+            boolean success = customerList.attachCardToCustomer(customerId, customerCard);
 
-        writeState();
-        return success;
+            if (success) {
+                writeState(JournalEntry.putCustomer(customerList.getCustomer(customerId)));
+            }
+            return success;
+        }
     }
 
     @Override
@@ -893,24 +1516,30 @@ InvalidLocationException, InvalidRFIDException {
         //invoked only after a user with role "Administrator", "ShopManager" or "Cashier" is logged in
         verifyCurrentUserRole(Role.ADMINISTRATOR, Role.SHOP_MANAGER, Role.CASHIER);
 
-        boolean success = customerList.modifyPointsOnCard(customerCard, pointsToBeAdded);
+        try (ShopLocks.Guard guard = locks.acquire(write(CUSTOMERS))) {
+            boolean success = customerList.modifyPointsOnCard(customerCard, pointsToBeAdded);
 
-        writeState();
-        return success;
+            if (success) {
+                writeState(JournalEntry.putLoyaltyCard(customerList.getLoyaltyCard(customerCard)));
+            }
+            return success;
+        }
     }
 
     @Override
     public Integer startSaleTransaction() throws UnauthorizedException {
         verifyCurrentUserRole(Role.ADMINISTRATOR, Role.SHOP_MANAGER, Role.CASHIER);
 
-        int id = accountBook.generateNewId();
+        try (ShopLocks.Guard guard = locks.acquire(write(ACCOUNT_BOOK))) {
+            int id = accountBook.generateNewId();
 
-        // add SaleTransaction to account book
-        it.polito.ezshop.model.SaleTransaction st = new it.polito.ezshop.model.SaleTransaction(id, LocalDate.now(clock));
-        this.accountBook.addTransaction(st);
+            // add SaleTransaction to account book
+            it.polito.ezshop.model.SaleTransaction st = new it.polito.ezshop.model.SaleTransaction(id, LocalDate.now(clock));
+            this.accountBook.addTransaction(st);
 
-        writeState();
-        return id;
+            writeState(JournalEntry.putOperation(st));
+            return id;
+        }
     }
 
     @Override
@@ -923,33 +1552,30 @@ InvalidLocationException, InvalidRFIDException {
         // verify amount is a non-negative integer value
         TicketEntry.validateAmount(amount);
 
-        // retrieve the OPEN sale transaction
-        it.polito.ezshop.model.BalanceOperation transaction = accountBook.getTransaction(transactionId);
-        if (!(transaction instanceof it.polito.ezshop.model.SaleTransaction)) return false;
-        if (transaction.getStatus() != OperationStatus.OPEN) return false;
+        try (ShopLocks.Guard guard = locks.acquire(read(CATALOG), read(ACCOUNT_BOOK))) {
+            guard.lockTransaction(transactionId);
 
-        it.polito.ezshop.model.SaleTransaction sale = (it.polito.ezshop.model.SaleTransaction) transaction;
+            // retrieve the OPEN sale transaction
+            it.polito.ezshop.model.BalanceOperation transaction = accountBook.getTransaction(transactionId);
+            if (!(transaction instanceof it.polito.ezshop.model.SaleTransaction)) return false;
+            if (transaction.getStatus() != OperationStatus.OPEN) return false;
 
-        // retrieve the product and verify the quantity on the shelves is greater than amount
-        it.polito.ezshop.model.ProductType p = products.stream()
-                .filter(x -> x.getBarCode().equals(productCode) && x.getQuantity() >= amount)
-                .findFirst().orElse(null);
-        if (p == null) return false;
+            it.polito.ezshop.model.SaleTransaction sale = (it.polito.ezshop.model.SaleTransaction) transaction;
 
-        try {
-            // pick amount RFIDs
-            List<String> RFIDs = pickNRFIDs(p.getRFIDs(), amount);
-            // amount the amount in the transaction
-            for (String RFID : RFIDs) {
-                sale.addSaleTransactionItemRFID(p, RFID);
-            }
+            // retrieve the product and reserve amount units on the shelves (the other sales are not blocked)
+            it.polito.ezshop.model.ProductType p = productCatalog.getProductByBarCode(productCode);
+            if (p == null || !p.reserve(amount)) return false;
 
-            writeState();
-            return true;
-        } catch (Exception ignored) {
-            // ignored exception: should never reach this point
+            // the units of the product are moved (and the change journaled) under its monitor, so that the records
+            // of the concurrent sales of the same product are written in the order of the changes
+            synchronized (p) {
+                // pick the reserved RFIDs and add them to the transaction (given back to the product on failure)
+                sale.addReservedUnits(p, amount);
+
+                writeState(JournalEntry.putProduct(p), JournalEntry.putOperation(sale));
+                return true;
+            }
         }
-        return false;
     }
 
 
@@ -960,34 +1586,38 @@ InvalidLocationException, InvalidRFIDException {
         it.polito.ezshop.model.SaleTransaction.validateId(transactionId);
         if(!it.polito.ezshop.utils.Utils.isValidRFID(RFID))
             throw new InvalidRFIDException("Error, Invalid RFID");
-        // retrieve the OPEN sale transaction
-        it.polito.ezshop.model.BalanceOperation transaction = accountBook.getTransaction(transactionId);
-        if (!(transaction instanceof it.polito.ezshop.model.SaleTransaction)) return false;
-        if (transaction.getStatus() != OperationStatus.OPEN) return false;
-
-        it.polito.ezshop.model.SaleTransaction sale = (it.polito.ezshop.model.SaleTransaction) transaction;
-        // retrieve the product with given RFID
-        it.polito.ezshop.model.ProductType p = products.stream()
-                .filter(x -> x.RFIDexists(RFID))
-                .findFirst().orElse(null);
-
-        if (p == null) return false;
-        else it.polito.ezshop.model.TicketEntry.validateAmount(1);
+        try (ShopLocks.Guard guard = locks.acquire(read(CATALOG), read(ACCOUNT_BOOK))) {
+            guard.lockTransaction(transactionId);
+
+            // retrieve the OPEN sale transaction
+            it.polito.ezshop.model.BalanceOperation transaction = accountBook.getTransaction(transactionId);
+            if (!(transaction instanceof it.polito.ezshop.model.SaleTransaction)) return false;
+            if (transaction.getStatus() != OperationStatus.OPEN) return false;
+
+            it.polito.ezshop.model.SaleTransaction sale = (it.polito.ezshop.model.SaleTransaction) transaction;
+            // retrieve the product with given RFID
+            it.polito.ezshop.model.ProductType p = productCatalog.getProductByRFID(RFID);
+
+            if (p == null) return false;
+            else it.polito.ezshop.model.TicketEntry.validateAmount(1);
+
+            synchronized (p) {
+                try {
+                    // remove the product with that RFID from the list of products [updates automatically the quantity on the shelves]
+                    if (!p.removeRFID(RFID)) return false;
+                    // add the product with that RFID in the transaction
+                    sale.addSaleTransactionItemRFID(p, RFID);
+
+                    writeState(JournalEntry.putProduct(p), JournalEntry.putOperation(sale));
+                    return true;
+                } catch (Exception ignored) {
+                    // ignored exception: should never reach this point
+                }
+            }
 
-        try {
-            // remove the product with that RFID from the list of products [updates automatically the quantity on the shelves]
-            p.removeRFID(RFID);
-            // add the product with that RFID in the transaction
-            sale.addSaleTransactionItemRFID(p, RFID);
 
-            writeState();
-            return true;
-        } catch (Exception ignored) {
-            // ignored exception: should never reach this point
+            return false;
         }
-
-
-        return false;
     }
     
     @Override
@@ -1001,28 +1631,32 @@ InvalidLocationException, InvalidRFIDException {
         // verify amount is a non-negative integer value
         TicketEntry.validateAmount(amount);
 
-        it.polito.ezshop.model.BalanceOperation transaction = accountBook.getTransaction(transactionId);
-        if (!(transaction instanceof it.polito.ezshop.model.SaleTransaction)) return false;
-        if (transaction.getStatus() != OperationStatus.OPEN) return false;
+        try (ShopLocks.Guard guard = locks.acquire(read(CATALOG), read(ACCOUNT_BOOK))) {
+            guard.lockTransaction(transactionId);
 
-        it.polito.ezshop.model.SaleTransaction sale = (it.polito.ezshop.model.SaleTransaction) transaction;
+            it.polito.ezshop.model.BalanceOperation transaction = accountBook.getTransaction(transactionId);
+            if (!(transaction instanceof it.polito.ezshop.model.SaleTransaction)) return false;
+            if (transaction.getStatus() != OperationStatus.OPEN) return false;
 
-        it.polito.ezshop.model.ProductType product = products.stream()
-                .filter(x -> x.getBarCode().equals(productCode))
-                .findFirst().orElse(null);
-        if (product == null) return false;
+            it.polito.ezshop.model.SaleTransaction sale = (it.polito.ezshop.model.SaleTransaction) transaction;
 
-        try {
-            if (sale.removeSaleTransactionItem(product, amount)) {
-                // update the quantity on the shelves
-                writeState();
-                return true;
+            it.polito.ezshop.model.ProductType product = productCatalog.getProductByBarCode(productCode);
+            if (product == null) return false;
+
+            synchronized (product) {
+                try {
+                    if (sale.removeSaleTransactionItem(product, amount)) {
+                        // release the units: the quantity on the shelves is updated
+                        writeState(JournalEntry.putProduct(product), JournalEntry.putOperation(sale));
+                        return true;
+                    }
+                } catch (Exception ignored) {
+                    // ignored exception: should never reach this point
+                }
             }
-        } catch (Exception ignored) {
-            // ignored exception: should never reach this point
-        }
 
-        return false;
+            return false;
+        }
     }
 
     @Override
@@ -1032,37 +1666,41 @@ InvalidLocationException, InvalidRFIDException {
         it.polito.ezshop.model.SaleTransaction.validateId(transactionId);
         if(!it.polito.ezshop.utils.Utils.isValidRFID(RFID))
             throw new InvalidRFIDException("Error, Invalid RFID");
-        // retrieve the OPEN sale transaction
-        it.polito.ezshop.model.BalanceOperation transaction = accountBook.getTransaction(transactionId);
-        if (!(transaction instanceof it.polito.ezshop.model.SaleTransaction)) return false;
-        if (transaction.getStatus() != OperationStatus.OPEN) return false;
-
-        it.polito.ezshop.model.SaleTransaction sale = (it.polito.ezshop.model.SaleTransaction) transaction;
-        // find the barcode of the product associated with RFID
-        String barcode = sale.getTransactionItems().stream()
-                .filter(x -> x.RFIDexists(RFID))
-                .map(x -> x.getProductType().getBarCode()).findAny().orElse(null);
-
-        // retrieve the product with given RFID
-        it.polito.ezshop.model.ProductType p = products.stream()
-                .filter(x -> x.getBarCode().equals(barcode))
-                .findFirst().orElse(null);
-
-        if (p == null) return false;
-        else it.polito.ezshop.model.TicketEntry.validateAmount(1);
-
-        try {
-            if(sale.removeSaleTransactionItemRFID(RFID)) {
-                // add the product with that RFID from the list of products [updates automatically the quantity on the shelves]
-                p.addRFID(RFID);
-
-                writeState();
-                return true;
+        try (ShopLocks.Guard guard = locks.acquire(read(CATALOG), read(ACCOUNT_BOOK))) {
+            guard.lockTransaction(transactionId);
+
+            // retrieve the OPEN sale transaction
+            it.polito.ezshop.model.BalanceOperation transaction = accountBook.getTransaction(transactionId);
+            if (!(transaction instanceof it.polito.ezshop.model.SaleTransaction)) return false;
+            if (transaction.getStatus() != OperationStatus.OPEN) return false;
+
+            it.polito.ezshop.model.SaleTransaction sale = (it.polito.ezshop.model.SaleTransaction) transaction;
+            // find the barcode of the product associated with RFID
+            String barcode = sale.getTransactionItems().stream()
+                    .filter(x -> x.RFIDexists(RFID))
+                    .map(x -> x.getProductType().getBarCode()).findAny().orElse(null);
+
+            // retrieve the product with given RFID
+            it.polito.ezshop.model.ProductType p = barcode == null ? null : productCatalog.getProductByBarCode(barcode);
+
+            if (p == null) return false;
+            else it.polito.ezshop.model.TicketEntry.validateAmount(1);
+
+            synchronized (p) {
+                try {
+                    if(sale.removeSaleTransactionItemRFID(RFID)) {
+                        // add the product with that RFID from the list of products [updates automatically the quantity on the shelves]
+                        p.addRFID(RFID);
+
+                        writeState(JournalEntry.putProduct(p), JournalEntry.putOperation(sale));
+                        return true;
+                    }
+                } catch (Exception ignored) {
+                    // ignored exception: should never reach this point
+                }
             }
-        } catch (Exception ignored) {
-            // ignored exception: should never reach this point
+            return false;
         }
-        return false;
     }
 
     @Override
@@ -1075,16 +1713,20 @@ InvalidLocationException, InvalidRFIDException {
         // validate the discount rate
         TicketEntry.validateDiscount(discountRate);
 
-        it.polito.ezshop.model.BalanceOperation transaction = accountBook.getTransaction(transactionId);
-        if (!(transaction instanceof it.polito.ezshop.model.SaleTransaction)) return false;
-        if (transaction.getStatus() != OperationStatus.OPEN) return false;
+        try (ShopLocks.Guard guard = locks.acquire(read(CATALOG), read(ACCOUNT_BOOK))) {
+            guard.lockTransaction(transactionId);
 
-        it.polito.ezshop.model.SaleTransaction sale = (it.polito.ezshop.model.SaleTransaction) transaction;
+            it.polito.ezshop.model.BalanceOperation transaction = accountBook.getTransaction(transactionId);
+            if (!(transaction instanceof it.polito.ezshop.model.SaleTransaction)) return false;
+            if (transaction.getStatus() != OperationStatus.OPEN) return false;
 
-        boolean result = sale.applyDiscountToProduct(productCode, discountRate);
+            it.polito.ezshop.model.SaleTransaction sale = (it.polito.ezshop.model.SaleTransaction) transaction;
 
-        writeState();
-        return result;
+            boolean result = sale.applyDiscountToProduct(productCode, discountRate);
+
+            writeState(JournalEntry.putOperation(sale));
+            return result;
+        }
     }
 
     @Override
@@ -1096,18 +1738,22 @@ InvalidLocationException, InvalidRFIDException {
         // validate the discount rate
         it.polito.ezshop.model.SaleTransaction.validateDiscount(discountRate);
 
-        it.polito.ezshop.model.BalanceOperation transaction = accountBook.getTransaction(transactionId);
-        if (!(transaction instanceof it.polito.ezshop.model.SaleTransaction)) return false;
-        if (transaction.getStatus() == OperationStatus.PAID || transaction.getStatus() == OperationStatus.COMPLETED) return false;
+        try (ShopLocks.Guard guard = locks.acquire(read(CATALOG), read(ACCOUNT_BOOK))) {
+            guard.lockTransaction(transactionId);
 
-        it.polito.ezshop.model.SaleTransaction sale = (it.polito.ezshop.model.SaleTransaction) transaction;
+            it.polito.ezshop.model.BalanceOperation transaction = accountBook.getTransaction(transactionId);
+            if (!(transaction instanceof it.polito.ezshop.model.SaleTransaction)) return false;
+            if (transaction.getStatus() == OperationStatus.PAID || transaction.getStatus() == OperationStatus.COMPLETED) return false;
 
-        try {
-            sale.setDiscountRate(discountRate);
-            writeState();
-            return true;
-        } catch (IllegalStateException ex) {
-            return false;
+            it.polito.ezshop.model.SaleTransaction sale = (it.polito.ezshop.model.SaleTransaction) transaction;
+
+            try {
+                sale.setDiscountRate(discountRate);
+                writeState(JournalEntry.putOperation(sale));
+                return true;
+            } catch (IllegalStateException ex) {
+                return false;
+            }
         }
     }
 
@@ -1117,10 +1763,14 @@ InvalidLocationException, InvalidRFIDException {
 
         it.polito.ezshop.model.SaleTransaction.validateId(transactionId);
 
-        it.polito.ezshop.model.BalanceOperation transaction = accountBook.getTransaction(transactionId);
-        if (!(transaction instanceof it.polito.ezshop.model.SaleTransaction)) return -1;
+        try (ShopLocks.Guard guard = locks.acquire(read(ACCOUNT_BOOK))) {
+            guard.lockTransaction(transactionId);
+
+            it.polito.ezshop.model.BalanceOperation transaction = accountBook.getTransaction(transactionId);
+            if (!(transaction instanceof it.polito.ezshop.model.SaleTransaction)) return -1;
 
-        return ((it.polito.ezshop.model.SaleTransaction) transaction).computePoints();
+            return ((it.polito.ezshop.model.SaleTransaction) transaction).computePoints();
+        }
     }
 
     @Override
@@ -1128,14 +1778,16 @@ InvalidLocationException, InvalidRFIDException {
         verifyCurrentUserRole(Role.ADMINISTRATOR, Role.SHOP_MANAGER, Role.CASHIER);
         it.polito.ezshop.model.SaleTransaction.validateId(transactionId);
 
-        it.polito.ezshop.model.BalanceOperation transaction = accountBook.getTransaction(transactionId);
-        if (!(transaction instanceof it.polito.ezshop.model.SaleTransaction)) return false;
-        if (transaction.getStatus() != OperationStatus.OPEN) return false;
+        try (ShopLocks.Guard guard = locks.acquire(write(ACCOUNT_BOOK))) {
+            it.polito.ezshop.model.BalanceOperation transaction = accountBook.getTransaction(transactionId);
+            if (!(transaction instanceof it.polito.ezshop.model.SaleTransaction)) return false;
+            if (transaction.getStatus() != OperationStatus.OPEN) return false;
 
-        accountBook.setTransactionStatus(transactionId, OperationStatus.CLOSED);
+            accountBook.setTransactionStatus(transactionId, OperationStatus.CLOSED);
 
-        writeState();
-        return true;
+            writeState(JournalEntry.putOperation(transaction));
+            return true;
+        }
     }
 
     @Override
@@ -1143,25 +1795,29 @@ InvalidLocationException, InvalidRFIDException {
         verifyCurrentUserRole(Role.ADMINISTRATOR, Role.SHOP_MANAGER, Role.CASHIER);
         it.polito.ezshop.model.SaleTransaction.validateId(saleNumber);
 
-        it.polito.ezshop.model.BalanceOperation transaction = accountBook.getTransaction(saleNumber);
-        if (!(transaction instanceof it.polito.ezshop.model.SaleTransaction)) return false;
-        if (transaction.getStatus().affectsBalance()) return false;
+        // the write lock of the account book excludes the sales, which are the only changes of the products under the
+        // read lock of the catalog
+        try (ShopLocks.Guard guard = locks.acquire(read(CATALOG), write(ACCOUNT_BOOK))) {
+            it.polito.ezshop.model.BalanceOperation transaction = accountBook.getTransaction(saleNumber);
+            if (!(transaction instanceof it.polito.ezshop.model.SaleTransaction)) return false;
+            if (transaction.getStatus().affectsBalance()) return false;
+
+            it.polito.ezshop.model.SaleTransaction sale = (it.polito.ezshop.model.SaleTransaction) transaction;
+            List<JournalEntry> changes = new ArrayList<>();
+            // release the units reserved by the sale: restore product quantities
+            for (TicketEntry entry : sale.getTransactionItems()) {
+                it.polito.ezshop.model.ProductType p = productCatalog.getProductByBarCode(entry.getProductType().getBarCode());
+                if (p != null) {
+                    p.addRFIDs(entry.pickRFIDs(entry.getAmount()));
+                    changes.add(JournalEntry.putProduct(p));
+                }
+            }
 
-        it.polito.ezshop.model.SaleTransaction sale = (it.polito.ezshop.model.SaleTransaction) transaction;
-        // restore product quantities
-        for (TicketEntry entry : sale.getTransactionItems()) {
-            products.stream()
-                    .filter(p -> p.getBarCode().equals(entry.getProductType().getBarCode()))
-                    .findAny()
-                    .ifPresent(p -> {
-                        List<String> RFIDs = pickNRFIDs(entry.getRFIDs(), entry.getAmount());
-                        p.addRFIDs(RFIDs);
-                    });
+            accountBook.removeTransaction(saleNumber);
+            changes.add(JournalEntry.removeOperation(saleNumber));
+            writeState(changes);
+            return true;
         }
-
-        accountBook.removeTransaction(saleNumber);
-        writeState();
-        return true;
     }
 
     @Override
@@ -1169,13 +1825,17 @@ InvalidLocationException, InvalidRFIDException {
         verifyCurrentUserRole(Role.ADMINISTRATOR, Role.SHOP_MANAGER, Role.CASHIER);
         it.polito.ezshop.model.SaleTransaction.validateId(transactionId);
 
-        it.polito.ezshop.model.BalanceOperation transaction = accountBook.getTransaction(transactionId);
-        if (!(transaction instanceof it.polito.ezshop.model.SaleTransaction)) return null;
+        try (ShopLocks.Guard guard = locks.acquire(read(ACCOUNT_BOOK))) {
+            guard.lockTransaction(transactionId);
 
-        it.polito.ezshop.model.SaleTransaction sale = (it.polito.ezshop.model.SaleTransaction) transaction;
-        if (sale.getStatus() == OperationStatus.OPEN) return null;
+            it.polito.ezshop.model.BalanceOperation transaction = accountBook.getTransaction(transactionId);
+            if (!(transaction instanceof it.polito.ezshop.model.SaleTransaction)) return null;
 
-        return new SaleTransactionAdapter(sale);
+            it.polito.ezshop.model.SaleTransaction sale = (it.polito.ezshop.model.SaleTransaction) transaction;
+            if (sale.getStatus() == OperationStatus.OPEN) return null;
+
+            return new SaleTransactionAdapter(sale);
+        }
     }
 
     @Override
@@ -1186,31 +1846,33 @@ InvalidLocationException, InvalidRFIDException {
         // check that sale number is valid ID
         it.polito.ezshop.model.SaleTransaction.validateId(saleNumber);
 
-        // get transaction with ID from account book
-        it.polito.ezshop.model.BalanceOperation transaction = accountBook.getTransaction(saleNumber);
+        try (ShopLocks.Guard guard = locks.acquire(write(ACCOUNT_BOOK))) {
+            // get transaction with ID from account book
+            it.polito.ezshop.model.BalanceOperation transaction = accountBook.getTransaction(saleNumber);
 
-        // return -1 if transaction does not exist or if it is not a sale transaction
-        if (!(transaction instanceof it.polito.ezshop.model.SaleTransaction)) return -1;
+            // return -1 if transaction does not exist or if it is not a sale transaction
+            if (!(transaction instanceof it.polito.ezshop.model.SaleTransaction)) return -1;
 
-        // cast to type sale transaction
-        it.polito.ezshop.model.SaleTransaction saleTransaction = (it.polito.ezshop.model.SaleTransaction) transaction;
+            // cast to type sale transaction
+            it.polito.ezshop.model.SaleTransaction saleTransaction = (it.polito.ezshop.model.SaleTransaction) transaction;
 
-        // return -1 if sale transaction has not been paid yet
-        if (!saleTransaction.getStatus().affectsBalance()) return -1;
+            // return -1 if sale transaction has not been paid yet
+            if (!saleTransaction.getStatus().affectsBalance()) return -1;
 
-        // initialize new return transaction
-        int returnId = accountBook.generateNewId();
-        ReturnTransaction returnTransaction = new ReturnTransaction(returnId, saleNumber, LocalDate.now(clock));
+            // initialize new return transaction
+            int returnId = accountBook.generateNewId();
+            ReturnTransaction returnTransaction = new ReturnTransaction(returnId, saleNumber, LocalDate.now(clock));
 
-        // add return transaction to sale transaction
-        saleTransaction.addReturnTransaction(returnTransaction);
+            // add return transaction to sale transaction
+            saleTransaction.addReturnTransaction(returnTransaction);
 
-        // add ReturnTransaction to account book
-        this.accountBook.addTransaction(returnTransaction);
+            // add ReturnTransaction to account book
+            this.accountBook.addTransaction(returnTransaction);
 
-        // return return transaction ID on success
-        writeState();
-        return returnId;
+            // return return transaction ID on success
+            writeState(JournalEntry.putOperation(saleTransaction), JournalEntry.putOperation(returnTransaction));
+            return returnId;
+        }
     }
 
     @Override
@@ -1230,66 +1892,64 @@ InvalidLocationException, InvalidRFIDException {
             throw new InvalidQuantityException("Invalid Quantity");
         }
 
-        // get return transaction if it exists and is in OPEN state; return false if not
-        it.polito.ezshop.model.BalanceOperation returnTransaction = accountBook.getTransaction(returnId);
-        if (!(returnTransaction instanceof ReturnTransaction)) return false;
-        if (returnTransaction.getStatus() != OperationStatus.OPEN) return false;
-        ReturnTransaction _return = (ReturnTransaction) returnTransaction;
-
-        // get corresponding sale transaction, return false if it does not exist
-        it.polito.ezshop.model.BalanceOperation saleTransaction = accountBook.getTransaction(_return.getSaleTransactionId());
-        if (!(saleTransaction instanceof it.polito.ezshop.model.SaleTransaction)) return false;
-        it.polito.ezshop.model.SaleTransaction sale = (it.polito.ezshop.model.SaleTransaction) saleTransaction;
-
-        // get ticket entry containing the returned product
-        TicketEntry ticketEntry = sale.getTransactionItems().stream()
-                .filter(x -> x.getProductType().getBarCode().equals(productCode))
-                .findFirst()
-                .orElse(null);
-
-        // product is not available in the transaction
-        if (ticketEntry == null || ticketEntry.getAmount() == 0) return false;
-
-        // get returned product type, return false if it does not exist
-        it.polito.ezshop.model.ProductType product = products.stream()
-                // filter products with the given BarCode
-                .filter(x -> x.getBarCode().equals(productCode))
-                // find the first matching product
-                .findFirst()
-                // if a matching product is not found, return null
-                .orElse(null);
-        if (product == null) return false;
-
-        // get return transaction item containing the returned product, if it already exists, null otherwise
-        ReturnTransactionItem returnTransactionItem = _return.getTransactionItems().stream()
-                .filter(item -> item.getBarCode().equals(productCode))
-                .findAny()
-                .orElse(null);
-
-        // product is not already part of return
-        if (returnTransactionItem == null) {
-
-            // verify number of returned products is less than sold
-            if (amount > ticketEntry.getAmount()) return false;
-
-            // compute value of one returned product
-            double value = ticketEntry.getPricePerUnit() * (1 - ticketEntry.getDiscountRate()) * (1 - sale.getDiscountRate());
+        try (ShopLocks.Guard guard = locks.acquire(read(CATALOG), read(ACCOUNT_BOOK))) {
+            // get return transaction if it exists and is in OPEN state; return false if not
+            it.polito.ezshop.model.BalanceOperation returnTransaction = accountBook.getTransaction(returnId);
+            if (!(returnTransaction instanceof ReturnTransaction)) return false;
+            if (returnTransaction.getStatus() != OperationStatus.OPEN) return false;
+            ReturnTransaction _return = (ReturnTransaction) returnTransaction;
+            // the sale embeds its return transactions: both are guarded by the lock of the sale
+            guard.lockTransaction(_return.getSaleTransactionId());
+
+            // get corresponding sale transaction, return false if it does not exist
+            it.polito.ezshop.model.BalanceOperation saleTransaction = accountBook.getTransaction(_return.getSaleTransactionId());
+            if (!(saleTransaction instanceof it.polito.ezshop.model.SaleTransaction)) return false;
+            it.polito.ezshop.model.SaleTransaction sale = (it.polito.ezshop.model.SaleTransaction) saleTransaction;
+
+            // get ticket entry containing the returned product
+            TicketEntry ticketEntry = sale.getTransactionItems().stream()
+                    .filter(x -> x.getProductType().getBarCode().equals(productCode))
+                    .findFirst()
+                    .orElse(null);
 
-            // add a new return transaction item to the return transaction
-            _return.addReturnTransactionItem(product, amount, value);
+            // product is not available in the transaction
+            if (ticketEntry == null || ticketEntry.getAmount() == 0) return false;
 
-        // product is already part of a return transaction item
-        } else {
+            // get returned product type, return false if it does not exist
+            it.polito.ezshop.model.ProductType product = productCatalog.getProductByBarCode(productCode);
+            if (product == null) return false;
+
+            // get return transaction item containing the returned product, if it already exists, null otherwise
+            ReturnTransactionItem returnTransactionItem = _return.getTransactionItems().stream()
+                    .filter(item -> item.getBarCode().equals(productCode))
+                    .findAny()
+                    .orElse(null);
 
-            // verify the total amount returned is less than the amount in the sale transaction
-            if ((amount + returnTransactionItem.getAmount()) > ticketEntry.getAmount()) return false;
+            // product is not already part of return
+            if (returnTransactionItem == null) {
 
-            // increase the amount of returned products to correct value
-            returnTransactionItem.increaseAmount(amount);
-        }
+                // verify number of returned products is less than sold
+                if (amount > ticketEntry.getAmount()) return false;
+
+                // compute value of one returned product
+                double value = ticketEntry.getPricePerUnit() * (1 - ticketEntry.getDiscountRate()) * (1 - sale.getDiscountRate());
 
-        writeState();
-        return true;
+                // add a new return transaction item to the return transaction
+                _return.addReturnTransactionItem(product, amount, value);
+
+            // product is already part of a return transaction item
+            } else {
+
+                // verify the total amount returned is less than the amount in the sale transaction
+                if ((amount + returnTransactionItem.getAmount()) > ticketEntry.getAmount()) return false;
+
+                // increase the amount of returned products to correct value
+                returnTransactionItem.increaseAmount(amount);
+            }
+
+            writeState(JournalEntry.putOperation(sale), JournalEntry.putOperation(_return));
+            return true;
+        }
     }
 
     @Override
@@ -1305,45 +1965,49 @@ InvalidLocationException, InvalidRFIDException {
         if (!isValidRFID(RFID)) {
             throw new InvalidRFIDException("Invalid RFID");
         }
-        if (this.products.stream().anyMatch(p -> p.getRFIDs().contains(RFID))) {
-            throw new InvalidRFIDException("Error, a product with this RFID already exists in the shop");
-        }
-
-        // get return transaction if it exists; return false if doesn't exist or is not in state OPEN
-        it.polito.ezshop.model.BalanceOperation returnTransaction = accountBook.getTransaction(returnId);
-        if (!(returnTransaction instanceof ReturnTransaction)) return false;
-        if (returnTransaction.getStatus() != OperationStatus.OPEN) return false;
-        ReturnTransaction _return = (ReturnTransaction) returnTransaction;
-
-        // get corresponding sale transaction
-        it.polito.ezshop.model.BalanceOperation saleTransaction = accountBook.getTransaction(_return.getSaleTransactionId());
-        if (!(saleTransaction instanceof it.polito.ezshop.model.SaleTransaction)) return false;
-        it.polito.ezshop.model.SaleTransaction sale = (it.polito.ezshop.model.SaleTransaction) saleTransaction;
+        try (ShopLocks.Guard guard = locks.acquire(read(CATALOG), read(ACCOUNT_BOOK))) {
+            if (productCatalog.RFIDexists(RFID)) {
+                throw new InvalidRFIDException("Error, a product with this RFID already exists in the shop");
+            }
 
-        // get the ticket entry of the sale with the given RFID or null if RFID was not part of sale
-        TicketEntry ticketEntry = sale.getTransactionItems().stream().filter(te -> te.RFIDexists(RFID))
-                .findAny()
-                .orElse(null);
+            // get return transaction if it exists; return false if doesn't exist or is not in state OPEN
+            it.polito.ezshop.model.BalanceOperation returnTransaction = accountBook.getTransaction(returnId);
+            if (!(returnTransaction instanceof ReturnTransaction)) return false;
+            if (returnTransaction.getStatus() != OperationStatus.OPEN) return false;
+            ReturnTransaction _return = (ReturnTransaction) returnTransaction;
+            // the sale embeds its return transactions: both are guarded by the lock of the sale
+            guard.lockTransaction(_return.getSaleTransactionId());
+
+            // get corresponding sale transaction
+            it.polito.ezshop.model.BalanceOperation saleTransaction = accountBook.getTransaction(_return.getSaleTransactionId());
+            if (!(saleTransaction instanceof it.polito.ezshop.model.SaleTransaction)) return false;
+            it.polito.ezshop.model.SaleTransaction sale = (it.polito.ezshop.model.SaleTransaction) saleTransaction;
+
+            // get the ticket entry of the sale with the given RFID or null if RFID was not part of sale
+            TicketEntry ticketEntry = sale.getTransactionItems().stream().filter(te -> te.RFIDexists(RFID))
+                    .findAny()
+                    .orElse(null);
 
-        // return false if RFID was not part of sale connected to the return transaction
-        if (ticketEntry == null) {
-            return false;
-        }
+            // return false if RFID was not part of sale connected to the return transaction
+            if (ticketEntry == null) {
+                return false;
+            }
 
-        // return true if the product has already been returned
-        if (!RFID.equals(DUMMY_RFID)) {
-            if (_return.getTransactionItems().stream().anyMatch(rti -> rti.getRFIDs().contains(RFID))) {
-                return true;
+            // return true if the product has already been returned
+            if (!RFID.equals(DUMMY_RFID)) {
+                if (_return.getTransactionItems().stream().anyMatch(rti -> rti.RFIDexists(RFID))) {
+                    return true;
+                }
             }
-        }
 
-        // add return transaction item to return transaction
-        double value = ticketEntry.getPricePerUnit() * (1 - ticketEntry.getDiscountRate()) * (1 - sale.getDiscountRate());
-        _return.addReturnTransactionItemRFID(ticketEntry.getProductType(), RFID, value);
+            // add return transaction item to return transaction
+            double value = ticketEntry.getPricePerUnit() * (1 - ticketEntry.getDiscountRate()) * (1 - sale.getDiscountRate());
+            _return.addReturnTransactionItemRFID(ticketEntry.getProductType(), RFID, value);
 
-        // return successfully
-        writeState();
-        return true;
+            // return successfully
+            writeState(JournalEntry.putOperation(sale), JournalEntry.putOperation(_return));
+            return true;
+        }
     }
 
 
@@ -1357,89 +2021,92 @@ InvalidLocationException, InvalidRFIDException {
             throw new InvalidTransactionIdException("Invalid Return ID");
         }
 
-        // get return transaction
-        it.polito.ezshop.model.BalanceOperation returnTransaction = accountBook.getTransaction(returnId);
-
-        // return false if return transaction doesn't exist
-        if (!(returnTransaction instanceof ReturnTransaction)) return false;
-        // return false if return transaction is not in an OPEN state
-        if (returnTransaction.getStatus() != OperationStatus.OPEN) return false;
+        try (ShopLocks.Guard guard = locks.acquire(write(CATALOG), write(ACCOUNT_BOOK))) {
+            // get return transaction
+            it.polito.ezshop.model.BalanceOperation returnTransaction = accountBook.getTransaction(returnId);
 
-        // cast return transaction
-        ReturnTransaction _return = (ReturnTransaction) returnTransaction;
+            // return false if return transaction doesn't exist
+            if (!(returnTransaction instanceof ReturnTransaction)) return false;
+            // return false if return transaction is not in an OPEN state
+            if (returnTransaction.getStatus() != OperationStatus.OPEN) return false;
 
-        // get sale transaction
-        it.polito.ezshop.model.BalanceOperation saleT = accountBook.getTransaction(_return.getSaleTransactionId());
-        if (!(saleT instanceof it.polito.ezshop.model.SaleTransaction)) return false;
+            // cast return transaction
+            ReturnTransaction _return = (ReturnTransaction) returnTransaction;
 
-        // cast the sale transaction
-        it.polito.ezshop.model.SaleTransaction saleTransaction = (it.polito.ezshop.model.SaleTransaction) saleT;
+            // get sale transaction
+            it.polito.ezshop.model.BalanceOperation saleT = accountBook.getTransaction(_return.getSaleTransactionId());
+            if (!(saleT instanceof it.polito.ezshop.model.SaleTransaction)) return false;
 
-        // rollback
-        if (!commit) {
+            // cast the sale transaction
+            it.polito.ezshop.model.SaleTransaction saleTransaction = (it.polito.ezshop.model.SaleTransaction) saleT;
 
-            // delete return transaction from sale transaction
-            saleTransaction.removeReturnTransaction(returnId);
+            // rollback
+            if (!commit) {
 
-            // delete return transaction from account book
-            accountBook.removeTransaction(returnId);
+                // delete return transaction from sale transaction
+                saleTransaction.removeReturnTransaction(returnId);
 
-            // roll back performed successfully
-            writeState();
-            return true;
-        }
-
-        // verify that all products specified in return transaction are still part of sale transaction.
-        // may be false in case multiple return transactions were open at the same time, since changes are only recorded
-        // after committing
-        if (!_return.getTransactionItems().stream()
-                // true for all return transaction items
-                .allMatch(rti -> saleTransaction.getTransactionItems().stream()
-                        // get the matching ticket entry of sale transaction
-                        .filter(te -> rti.getProductType().getId() == te.getProductType().getId())
-                        // matching ticket entry contains all RFIDs
-                        .allMatch(te -> containsRFIDs(te.getRFIDs(), rti.getRFIDs()))
-                )) {
-            return false;
-        }
+                // delete return transaction from account book
+                accountBook.removeTransaction(returnId);
 
-        // commit
-        // for each item of the sale transaction
-        for (TicketEntry saleTransactionItem:saleTransaction.getTransactionItems()) {
+                // roll back performed successfully
+                writeState(JournalEntry.putOperation(saleTransaction), JournalEntry.removeOperation(returnId));
+                return true;
+            }
 
-            // get the corresponding return transaction item
-            ReturnTransactionItem returnTransactionItem = _return.getTransactionItems().stream()
-                    .filter(rti -> rti.getBarCode().equals(saleTransactionItem.getProductType().getBarCode()))
-                    .findAny()
-                    .orElse(null);
+            // verify that all products specified in return transaction are still part of sale transaction.
+            // may be false in case multiple return transactions were open at the same time, since changes are only recorded
+            // after committing
+            if (!_return.getTransactionItems().stream()
+                    // true for all return transaction items
+                    .allMatch(rti -> saleTransaction.getTransactionItems().stream()
+                            // get the matching ticket entry of sale transaction
+                            .filter(te -> rti.getProductType().getId() == te.getProductType().getId())
+                            // matching ticket entry contains all RFIDs
+                            .allMatch(te -> te.getRFIDSet().containsAll(rti.getRFIDSet()))
+                    )) {
+                return false;
+            }
 
-            // if some items of this product were returned we need to increase their amount in the shop and decrease the
-            //  amount in the transaction
-            if (returnTransactionItem != null) {
+            // commit
+            List<JournalEntry> changes = new ArrayList<>();
+            // for each item of the sale transaction
+            for (TicketEntry saleTransactionItem:saleTransaction.getTransactionItems()) {
 
-                // increase the amount in the shop
-                // get product
-                it.polito.ezshop.model.ProductType product = products.stream()
-                        .filter(p -> p.getBarCode().equals(returnTransactionItem.getBarCode()))
+                // get the corresponding return transaction item
+                ReturnTransactionItem returnTransactionItem = _return.getTransactionItems().stream()
+                        .filter(rti -> rti.getBarCode().equals(saleTransactionItem.getProductType().getBarCode()))
                         .findAny()
                         .orElse(null);
 
-                // increase available amount if product still exists
-                if (product != null) {
-                    product.addRFIDs(returnTransactionItem.getRFIDs());
-                }
+                // if some items of this product were returned we need to increase their amount in the shop and decrease the
+                //  amount in the transaction
+                if (returnTransactionItem != null) {
+
+                    // increase the amount in the shop
+                    // get product
+                    it.polito.ezshop.model.ProductType product = productCatalog.getProductByBarCode(returnTransactionItem.getBarCode());
 
-                // reduce the amount in the sale transaction
-                saleTransactionItem.removeRFIDs(returnTransactionItem.getRFIDs());
+                    // increase available amount if product still exists
+                    if (product != null) {
+                        product.addRFIDs(returnTransactionItem.getRFIDSet());
+                        changes.add(JournalEntry.putProduct(product));
+                    }
+
+                    // reduce the amount in the sale transaction
+                    saleTransactionItem.removeRFIDs(returnTransactionItem.getRFIDSet());
+                }
             }
-        }
 
-        // set status of return transaction to CLOSED
-        accountBook.setTransactionStatus(returnId, OperationStatus.CLOSED);
+            // set status of return transaction to CLOSED
+            accountBook.setTransactionStatus(returnId, OperationStatus.CLOSED);
 
-        // write state and return successfully
-        writeState();
-        return true;
+            // write state and return successfully
+            changes.add(JournalEntry.putOperation(saleTransaction));
+            changes.add(JournalEntry.putOperation(_return));
+            writeState(changes);
+            return true;
+        }
     }
 
     @Override
@@ -1452,16 +2119,18 @@ InvalidLocationException, InvalidRFIDException {
             throw new InvalidTransactionIdException("Invalid Return ID");
         }
 
-        it.polito.ezshop.model.BalanceOperation returnTransaction = accountBook.getTransaction(returnId);
-        if (!(returnTransaction instanceof ReturnTransaction)) return false;
+        try (ShopLocks.Guard guard = locks.acquire(write(ACCOUNT_BOOK))) {
+            it.polito.ezshop.model.BalanceOperation returnTransaction = accountBook.getTransaction(returnId);
+            if (!(returnTransaction instanceof ReturnTransaction)) return false;
 
-        // return false if the return transaction hasn't been paid yet
-        if (returnTransaction.getStatus().affectsBalance()) return false;
+            // return false if the return transaction hasn't been paid yet
+            if (returnTransaction.getStatus().affectsBalance()) return false;
 
-        this.accountBook.removeTransaction(returnId);
+            this.accountBook.removeTransaction(returnId);
 
-        writeState();
-        return true;
+            writeState(JournalEntry.removeOperation(returnId));
+            return true;
+        }
     }
 
     @Override
@@ -1477,32 +2146,35 @@ InvalidLocationException, InvalidRFIDException {
         if(cash <= 0)
             throw new InvalidPaymentException("Invalid cash amount.");
 
-        // get sale transaction
-        it.polito.ezshop.model.BalanceOperation balanceOperation = accountBook.getTransaction(ticketNumber);
+        try (ShopLocks.Guard guard = locks.acquire(write(ACCOUNT_BOOK))) {
+            // get sale transaction
+            it.polito.ezshop.model.BalanceOperation balanceOperation = accountBook.getTransaction(ticketNumber);
 
-        // return -1 if transaction doesn't exist or is not a sale transaction
-        if (!(balanceOperation instanceof it.polito.ezshop.model.SaleTransaction)) {
-            return -1;
-        }
+            // return -1 if transaction doesn't exist or is not a sale transaction
+            if (!(balanceOperation instanceof it.polito.ezshop.model.SaleTransaction)) {
+                return -1;
+            }
 
-        // return -1 if transaction is not in closed state
-        if (balanceOperation.getStatus() != OperationStatus.CLOSED) {
-            return -1;
-        }
+            // return -1 if transaction is not in closed state
+            if (balanceOperation.getStatus() != OperationStatus.CLOSED) {
+                return -1;
+            }
 
-        // calculate change
-        double change = cash - Math.abs(balanceOperation.getMoney());
+            // calculate change
+            double change = cash - Math.abs(balanceOperation.getMoney());
 
-        // return -1 if cash is not enough
-        if (change < 0) {
-            return -1;
-        }
+            // return -1 if cash is not enough
+            if (change < 0) {
+                return -1;
+            }
 
-        // set transaction status to COMPLETED and automatically update balance
-        accountBook.setTransactionStatus(ticketNumber, OperationStatus.COMPLETED);
+            // set transaction status to COMPLETED and automatically update balance
+            accountBook.setTransactionStatus(ticketNumber, OperationStatus.COMPLETED);
 
-        writeState();
-        return change;
+            writeState(JournalEntry.putOperation(balanceOperation));
+            requestFlush();
+            return change;
+        }
     }
 
     @Override
@@ -1518,38 +2190,41 @@ InvalidLocationException, InvalidRFIDException {
         if(!isValidCreditCardNumber(creditCard))
             throw new InvalidCreditCardException("Invalid credit card.");
 
-        // get sale from account book
-        it.polito.ezshop.model.BalanceOperation sale = accountBook.getTransaction(ticketNumber);
+        try (ShopLocks.Guard guard = locks.acquire(write(ACCOUNT_BOOK))) {
+            // get sale from account book
+            it.polito.ezshop.model.BalanceOperation sale = accountBook.getTransaction(ticketNumber);
 
-        // return false if sale does not exist
-        if (!(sale instanceof it.polito.ezshop.model.SaleTransaction)) {
-            return false;
-        }
+            // return false if sale does not exist
+            if (!(sale instanceof it.polito.ezshop.model.SaleTransaction)) {
+                return false;
+            }
 
-        // return false if state is not CLOSED
-        if (sale.getStatus() != OperationStatus.CLOSED) {
-            return false;
-        }
+            // return false if state is not CLOSED
+            if (sale.getStatus() != OperationStatus.CLOSED) {
+                return false;
+            }
 
-        // get the price to be paid by card
-        double saleValue = sale.getMoney();
+            // get the price to be paid by card
+            double saleValue = sale.getMoney();
 
-        // return false if the credit card has insufficient balance
-        if (!creditCardCircuit.checkAvailability(creditCard, saleValue)) {
-            return false;
-        }
+            // return false if the credit card has insufficient balance
+            if (!creditCardCircuit.checkAvailability(creditCard, saleValue)) {
+                return false;
+            }
 
-        // try to reduce funds on credit card for payment, return false on failure
-        if (!creditCardCircuit.addDebit(creditCard, saleValue)) {
-            return false;
-        }
+            // try to reduce funds on credit card for payment, return false on failure
+            if (!creditCardCircuit.addDebit(creditCard, saleValue)) {
+                return false;
+            }
 
-        // change transaction status to COMPLETED and automatically updated shop balance
-        accountBook.setTransactionStatus(ticketNumber, OperationStatus.COMPLETED);
+            // change transaction status to COMPLETED and automatically updated shop balance
+            accountBook.setTransactionStatus(ticketNumber, OperationStatus.COMPLETED);
 
-        // presist and return successfully
-        writeState();
-        return true;
+            // presist and return successfully
+            writeState(JournalEntry.putOperation(sale));
+            requestFlush();
+            return true;
+        }
     }
 
     @Override
@@ -1562,25 +2237,28 @@ InvalidLocationException, InvalidRFIDException {
         if(returnId == null || returnId <= 0)
             throw new InvalidTransactionIdException("Invalid ticket number.");
 
-        // get transaction
-        it.polito.ezshop.model.BalanceOperation balanceOperation = accountBook.getTransaction(returnId);
+        try (ShopLocks.Guard guard = locks.acquire(write(ACCOUNT_BOOK))) {
+            // get transaction
+            it.polito.ezshop.model.BalanceOperation balanceOperation = accountBook.getTransaction(returnId);
 
-        // return -1 if return transaction does not exist
-        if (!(balanceOperation instanceof ReturnTransaction)) {
-            return -1;
-        }
+            // return -1 if return transaction does not exist
+            if (!(balanceOperation instanceof ReturnTransaction)) {
+                return -1;
+            }
 
-        // return -1 if state is not closed
-        if (balanceOperation.getStatus() != OperationStatus.CLOSED) {
-            return -1;
-        }
+            // return -1 if state is not closed
+            if (balanceOperation.getStatus() != OperationStatus.CLOSED) {
+                return -1;
+            }
 
-        // set status of transaction to completed and automatically update balance
-        accountBook.setTransactionStatus(returnId, OperationStatus.COMPLETED);
+            // set status of transaction to completed and automatically update balance
+            accountBook.setTransactionStatus(returnId, OperationStatus.COMPLETED);
 
-        // persist state and return on success
-        writeState();
-        return Math.abs(balanceOperation.getMoney());
+            // persist state and return on success
+            writeState(putReturnTransaction((ReturnTransaction) balanceOperation));
+            requestFlush();
+            return Math.abs(balanceOperation.getMoney());
+        }
     }
 
     @Override
@@ -1597,33 +2275,36 @@ InvalidLocationException, InvalidRFIDException {
         if (!isValidCreditCardNumber(creditCard))
             throw new InvalidCreditCardException("Invalid credit card number.");
 
-        // get return transaction
-        it.polito.ezshop.model.BalanceOperation returnT = accountBook.getTransaction(returnId);
+        try (ShopLocks.Guard guard = locks.acquire(write(ACCOUNT_BOOK))) {
+            // get return transaction
+            it.polito.ezshop.model.BalanceOperation returnT = accountBook.getTransaction(returnId);
 
-        // return -1 if the return transaction does not exist
-        if (!(returnT instanceof ReturnTransaction)) {
-            return -1;
-        }
+            // return -1 if the return transaction does not exist
+            if (!(returnT instanceof ReturnTransaction)) {
+                return -1;
+            }
 
-        // return -1 if the return transaction is not in CLOSED state
-        if (returnT.getStatus() != OperationStatus.CLOSED) {
-            return -1;
-        }
+            // return -1 if the return transaction is not in CLOSED state
+            if (returnT.getStatus() != OperationStatus.CLOSED) {
+                return -1;
+            }
 
-        // get the value of the return transaction
-        double returnValue = Math.abs(returnT.getMoney());
+            // get the value of the return transaction
+            double returnValue = Math.abs(returnT.getMoney());
 
-        // try to add funds to credit card, return -1 if operation fails
-        if (!creditCardCircuit.addCredit(creditCard, returnValue)) {
-            return -1;
-        }
+            // try to add funds to credit card, return -1 if operation fails
+            if (!creditCardCircuit.addCredit(creditCard, returnValue)) {
+                return -1;
+            }
 
-        // change transaction status to COMPLETED and automatically updated shop balance
-        accountBook.setTransactionStatus(returnId, OperationStatus.COMPLETED);
+            // change transaction status to COMPLETED and automatically updated shop balance
+            accountBook.setTransactionStatus(returnId, OperationStatus.COMPLETED);
 
-        // persist and return amount of money that was credited to the customer
-        writeState();
-        return returnValue;
+            // persist and return amount of money that was credited to the customer
+            writeState(putReturnTransaction((ReturnTransaction) returnT));
+            requestFlush();
+            return returnValue;
+        }
     }
 
     @Override
@@ -1632,27 +2313,32 @@ InvalidLocationException, InvalidRFIDException {
         // It can be invoked only after a user with role "Administrator", "ShopManager" or "Cashier" is logged in.
         verifyCurrentUserRole(Role.ADMINISTRATOR, Role.SHOP_MANAGER);
 
-        // set parameters
-        int balanceId = accountBook.generateNewId();
-        LocalDate date = LocalDate.now(clock);
-        OperationStatus newStatus = OperationStatus.COMPLETED;
+        try (ShopLocks.Guard guard = locks.acquire(write(ACCOUNT_BOOK))) {
+            // set parameters
+            int balanceId = accountBook.generateNewId();
+            LocalDate date = LocalDate.now(clock);
+            OperationStatus newStatus = OperationStatus.COMPLETED;
 
-        if (toBeAdded >= 0) {
+            it.polito.ezshop.model.BalanceOperation operation;
+            if (toBeAdded >= 0) {
 
-            // record positive balance update
-            accountBook.addTransaction(new Credit(balanceId, date, toBeAdded, newStatus));
-        } else {
+                // record positive balance update
+                operation = new Credit(balanceId, date, toBeAdded, newStatus);
+            } else {
 
-            // if balance would be decreased below zero, return false
-            if (!accountBook.checkAvailability(-toBeAdded)) {
-                return false;
+                // if balance would be decreased below zero, return false
+                if (!accountBook.checkAvailability(-toBeAdded)) {
+                    return false;
+                }
+                // record negative balance update
+                operation = new Debit(balanceId, date, -toBeAdded, newStatus);
             }
-            // record negative balance update
-            accountBook.addTransaction(new Debit(balanceId, date, -toBeAdded, newStatus));
-        }
+            accountBook.addTransaction(operation);
 
-        writeState();
-        return true;
+            writeState(JournalEntry.putOperation(operation));
+            requestFlush();
+            return true;
+        }
     }
 
     @Override
@@ -1660,23 +2346,51 @@ InvalidLocationException, InvalidRFIDException {
         // It can be invoked only after a user with role "Administrator", "ShopManager" or "Cashier" is logged in.
         verifyCurrentUserRole(Role.ADMINISTRATOR, Role.SHOP_MANAGER);
 
-        final LocalDate actualFrom, actualTo;
+        try (ShopLocks.Guard guard = locks.acquire(read(ACCOUNT_BOOK))) {
+            // collect the transactions from the date index
+            return streamCreditsAndDebits(from, to).collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Return a page of the list returned by getCreditsAndDebits(from, to), for ranges containing many operations
+     *
+     * @param from the start date, null for no lower bound
+     * @param to the end date, null for no upper bound
+     * @param offset number of operations to skip
+     * @param limit maximum number of operations to return
+     * @return a list of at most limit balance operations, ordered by date
+     * @throws UnauthorizedException if there is no logged user or if it has not the rights to perform the operation
+     */
+    public List<BalanceOperation> getCreditsAndDebits(LocalDate from, LocalDate to, int offset, int limit)
+            throws UnauthorizedException {
+        verifyCurrentUserRole(Role.ADMINISTRATOR, Role.SHOP_MANAGER);
+
         if (from != null && to != null && from.isAfter(to)) {
-            // swap from and to
-            actualFrom = to;
-            actualTo = from;
-        } else {
-            actualFrom = from;
-            actualTo = to;
+            return getCreditsAndDebits(to, from, offset, limit);
+        }
+
+        try (ShopLocks.Guard guard = locks.acquire(read(ACCOUNT_BOOK))) {
+            return accountBook.getBalanceOperations(from, to, offset, limit).stream()
+                    .map(BalanceOperationAdapter::new)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Stream the operations of a range from the date index of the account book; the stream must be consumed while
+     * the read lock of the account book is held
+     *
+     * @param from the start date, null for no lower bound
+     * @param to the end date, null for no upper bound
+     * @return a stream of balance operations, ordered by date
+     */
+    private Stream<BalanceOperation> streamCreditsAndDebits(LocalDate from, LocalDate to) {
+        if (from != null && to != null && from.isAfter(to)) {
+            return streamCreditsAndDebits(to, from);
         }
 
-        // collect all transactions
-        return accountBook.getAllTransactions().stream()
-                .filter(x -> actualFrom == null || x.getDate().compareTo(actualFrom) >= 0)
-                .filter(x -> actualTo == null || x.getDate().compareTo(actualTo) <= 0)
-                .filter(x -> x.getStatus().affectsBalance())
-                .map(BalanceOperationAdapter::new)
-                .collect(Collectors.toList());
+        return accountBook.streamBalanceOperations(from, to).map(BalanceOperationAdapter::new);
     }
 
     @Override
@@ -1685,6 +2399,47 @@ InvalidLocationException, InvalidRFIDException {
         // It can be invoked only after a user with role "Administrator", "ShopManager" or "Cashier" is logged in.
         verifyCurrentUserRole(Role.ADMINISTRATOR, Role.SHOP_MANAGER);
 
-        return accountBook.computeBalance();
+        // the balance is kept up to date by each operation: no need to sum all the operations
+        try (ShopLocks.Guard guard = locks.acquire(read(ACCOUNT_BOOK))) {
+            return accountBook.getBalance();
+        }
+    }
+
+    /**
+     * State of a session: the user currently logged in
+     */
+    private static final class Session {
+        private volatile it.polito.ezshop.model.User user = null;
+        /**
+         * Generation of the sessions when the user logged in (see sessionGeneration)
+         */
+        private volatile long generation = 0;
+    }
+
+    /**
+     * Writes of the current operation of a thread, completed once its locks are released
+     */
+    private static final class PendingWrites {
+
+        /**
+         * Sequence number of the last journal record written by the operation (0 if none)
+         */
+        private long journalSequence = 0;
+
+        /**
+         * True if the operation waits for the background writer before returning
+         */
+        private boolean flush = false;
+
+        /**
+         * Number of the snapshot request of the operation (0 if none)
+         */
+        private long snapshot = 0;
+
+        private void clear() {
+            journalSequence = 0;
+            flush = false;
+            snapshot = 0;
+        }
     }
 }
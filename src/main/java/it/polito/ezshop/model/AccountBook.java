@@ -1,15 +1,61 @@
 package it.polito.ezshop.model;
 
-import java.util.*;
-import java.util.stream.Collectors;
+import it.polito.ezshop.utils.IdAllocator;
 
-import static it.polito.ezshop.utils.Utils.generateId;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.stream.Stream;
 
 public class AccountBook {
 
     private final List<BalanceOperation> balanceOperations = new ArrayList<>();
     private Double balance = 0.0;
 
+    /**
+     * Index of the balance operations by ID
+     */
+    private final transient Map<Integer, BalanceOperation> operationsById = new HashMap<>();
+
+    /**
+     * Allocator of the IDs of new balance operations (IDs are increasing, in creation order)
+     */
+    private final transient IdAllocator idAllocator = new IdAllocator();
+
+    /**
+     * Balance operations of each type, in insertion order (sales are also credits, returns and orders are also
+     * debits)
+     */
+    private final transient List<Credit> credits = new ArrayList<>();
+    private final transient List<Debit> debits = new ArrayList<>();
+    private final transient List<SaleTransaction> sales = new ArrayList<>();
+    private final transient List<ReturnTransaction> returns = new ArrayList<>();
+    private final transient List<Order> orders = new ArrayList<>();
+
+    /**
+     * Balance operations whose status affects the balance, grouped by date (LocalDate.MIN for operations without a
+     * date). The date of an operation must not be changed while it is in the account book.
+     */
+    private final transient NavigableMap<LocalDate, List<BalanceOperation>> operationsByDate = new TreeMap<>();
+
+    /**
+     * Sum of the money of the operations of each day of the date index
+     */
+    private final transient NavigableMap<LocalDate, Double> dailyTotals = new TreeMap<>();
+
+    /**
+     * Running balance at the end of each day of dailyTotals (series of epoch days and balances, in ascending order).
+     * The entries of the days from seriesDirtyFrom on are outdated and recomputed by the next query.
+     */
+    private transient long[] seriesDays = new long[0];
+    private transient double[] seriesBalances = new double[0];
+    private transient int seriesSize;
+    private transient LocalDate seriesDirtyFrom;
+
+    /**
+     * Day after the last one whose totals were recomputed by verifyBalance (null if never verified)
+     */
+    private transient LocalDate checkpoint;
+
     /**
      * Returns the balance operation with the given ID
      *
@@ -18,79 +64,117 @@ public class AccountBook {
      *         null if it doesn't exist
      */
     public BalanceOperation getTransaction(int transactionId) {
-        return this.balanceOperations.stream()
-                .filter(b -> b.getBalanceId() == transactionId)
-                .findAny()
-                .orElse(null);
+        return this.operationsById.get(transactionId);
     }
 
     /**
      * Returns all balance operations
      *
-     * @return list of balance operations
+     * @return unmodifiable view of the balance operations, in insertion order
      */
     public List<BalanceOperation> getAllTransactions() {
-        return this.balanceOperations;
+        return Collections.unmodifiableList(this.balanceOperations);
     }
 
     /**
      * Returns all credit transactions
      *
-     * @return list of credit transactions
+     * @return unmodifiable view of the credit transactions, in insertion order
      */
     public List<Credit> getCreditTransactions() {
-        return this.balanceOperations.stream()
-                .filter(b -> b instanceof Credit)
-                .map(b -> (Credit) b)
-                .collect(Collectors.toList());
+        return Collections.unmodifiableList(this.credits);
     }
 
     /**
      * Returns all debit transactions
      *
-     * @return list of debit transactions
+     * @return unmodifiable view of the debit transactions, in insertion order
      */
     public List<Debit> getDebitTransactions() {
-        return this.balanceOperations.stream()
-                .filter(b -> b instanceof Debit)
-                .map(b -> (Debit) b)
-                .collect(Collectors.toList());
+        return Collections.unmodifiableList(this.debits);
     }
 
     /**
      * Returns all sale transactions
      *
-     * @return list of sale transactions
+     * @return unmodifiable view of the sale transactions, in insertion order
      */
     public List<SaleTransaction> getSaleTransactions() {
-        return this.balanceOperations.stream()
-                .filter(b -> b instanceof SaleTransaction)
-                .map(b -> (SaleTransaction) b)
-                .collect(Collectors.toList());
+        return Collections.unmodifiableList(this.sales);
     }
 
     /**
      * Returns all return transactions
      *
-     * @return list of return transactions
+     * @return unmodifiable view of the return transactions, in insertion order
      */
     public List<ReturnTransaction> getReturnTransactions() {
-        return this.balanceOperations.stream()
-                .filter(b -> b instanceof ReturnTransaction)
-                .map(b -> (ReturnTransaction) b)
-                .collect(Collectors.toList());
+        return Collections.unmodifiableList(this.returns);
     }
 
     /**
      * Returns all orders
      *
-     * @return list of orders
+     * @return unmodifiable view of the orders, in insertion order
      */
     public List<Order> getOrders() {
-        return this.balanceOperations.stream()
-                .filter(b -> b instanceof Order)
-                .map(b -> (Order) b)
-                .collect(Collectors.toList());
+        return Collections.unmodifiableList(this.orders);
+    }
+
+    /**
+     * Returns the balance operations that affect the balance in a range of dates
+     *
+     * @param from first date of the range (included), null for no lower bound
+     * @param to last date of the range (included), null for no upper bound
+     * @return new list of balance operations, ordered by date (and by insertion for the same date)
+     */
+    public List<BalanceOperation> getBalanceOperations(LocalDate from, LocalDate to) {
+        List<BalanceOperation> result = new ArrayList<>();
+        for (List<BalanceOperation> operations : this.dateRange(from, to).values()) {
+            result.addAll(operations);
+        }
+        return result;
+    }
+
+    /**
+     * Returns a page of the balance operations that affect the balance in a range of dates
+     * (see getBalanceOperations)
+     *
+     * @param from first date of the range (included), null for no lower bound
+     * @param to last date of the range (included), null for no upper bound
+     * @param offset number of operations of the range to skip
+     * @param limit maximum number of operations to return
+     * @return new list of at most limit balance operations, ordered by date
+     */
+    public List<BalanceOperation> getBalanceOperations(LocalDate from, LocalDate to, int offset, int limit) {
+        List<BalanceOperation> result = new ArrayList<>();
+        int skip = Math.max(0, offset);
+        for (List<BalanceOperation> operations : this.dateRange(from, to).values()) {
+            if (result.size() >= limit) {
+                break;
+            }
+            // days entirely before the page are skipped without visiting their operations
+            if (skip >= operations.size()) {
+                skip -= operations.size();
+                continue;
+            }
+            int end = Math.min(operations.size(), skip + limit - result.size());
+            result.addAll(operations.subList(skip, end));
+            skip = 0;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the balance operations that affect the balance in a range of dates as a lazy stream
+     * (see getBalanceOperations). The stream must be consumed before the account book is changed.
+     *
+     * @param from first date of the range (included), null for no lower bound
+     * @param to last date of the range (included), null for no upper bound
+     * @return stream of balance operations, ordered by date
+     */
+    public Stream<BalanceOperation> streamBalanceOperations(LocalDate from, LocalDate to) {
+        return this.dateRange(from, to).values().stream().flatMap(List::stream);
     }
 
     /**
@@ -102,6 +186,37 @@ public class AccountBook {
             this.balance += balanceOperation.getMoney();
         }
         this.balanceOperations.add(balanceOperation);
+        this.operationsById.putIfAbsent(balanceOperation.getBalanceId(), balanceOperation);
+        this.idAllocator.observe(balanceOperation.getBalanceId());
+        this.addToPartition(balanceOperation);
+        this.addToDateIndex(balanceOperation);
+    }
+
+    /**
+     * Adds a balance operation, replacing the operation with the same ID if it already exists.
+     * Changes the account book's balance if the operation status requires so.
+     *
+     * @param balanceOperation balance operation to store
+     */
+    public void putTransaction(BalanceOperation balanceOperation) {
+        BalanceOperation previous = this.operationsById.get(balanceOperation.getBalanceId());
+        if (previous == null) {
+            this.addTransaction(balanceOperation);
+            return;
+        }
+
+        if (previous.getStatus().affectsBalance()) {
+            this.balance -= previous.getMoney();
+        }
+        if (balanceOperation.getStatus().affectsBalance()) {
+            this.balance += balanceOperation.getMoney();
+        }
+        this.balanceOperations.set(indexOf(this.balanceOperations, previous), balanceOperation);
+        this.operationsById.put(balanceOperation.getBalanceId(), balanceOperation);
+        this.removeFromPartition(previous);
+        this.addToPartition(balanceOperation);
+        this.removeFromDateIndex(previous);
+        this.addToDateIndex(balanceOperation);
     }
 
     /**
@@ -118,7 +233,10 @@ public class AccountBook {
             this.balance -= balanceOperation.getMoney();
         }
 
-        this.balanceOperations.remove(balanceOperation);
+        this.balanceOperations.remove(indexOf(this.balanceOperations, balanceOperation));
+        this.operationsById.remove(balanceId);
+        this.removeFromPartition(balanceOperation);
+        this.removeFromDateIndex(balanceOperation);
     }
 
     /**
@@ -139,10 +257,17 @@ public class AccountBook {
 
         // balance operation previously did count towards account book balance but does not anymore
         if (previousStatus.affectsBalance() && !newStatus.affectsBalance()) {
-            this.balance += balanceOperation.getMoney();
+            this.balance -= balanceOperation.getMoney();
         }
 
         balanceOperation.setStatus(newStatus);
+
+        // the date index contains only the operations that affect the balance
+        if (!previousStatus.affectsBalance() && newStatus.affectsBalance()) {
+            this.addToDateIndex(balanceOperation);
+        } else if (previousStatus.affectsBalance() && !newStatus.affectsBalance()) {
+            this.removeFromDateIndex(balanceOperation);
+        }
     }
 
     /**
@@ -164,6 +289,68 @@ public class AccountBook {
         return this.balance;
     }
 
+    /**
+     * Returns the balance at the end of the given day: the sum of the operations that affect the balance dated
+     * on or before that day. Runs in O(log n) once the running balance series is up to date; after changes, only
+     * the days from the earliest changed one are recomputed.
+     *
+     * @param date day of the balance
+     * @return balance at the end of the day
+     */
+    public double getBalanceAt(LocalDate date) {
+        this.updateSeries();
+
+        // last day of the series not after the given one
+        long day = date.toEpochDay();
+        int low = 0;
+        int high = seriesSize;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (seriesDays[mid] <= day) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low == 0 ? 0.0 : seriesBalances[low - 1];
+    }
+
+    /**
+     * Recomputes the daily totals of the days since the last checkpoint from their operations, then the balance,
+     * and moves the checkpoint after the last day. The totals of the previous days are trusted.
+     *
+     * @return available balance
+     */
+    public double verifyBalance() {
+        return this.verifyBalance(this.checkpoint);
+    }
+
+    /**
+     * Recomputes the daily totals of the days from the given one from their operations, then the balance,
+     * and moves the checkpoint after the last day. The totals of the previous days are trusted.
+     *
+     * @param from first day to recompute, null to recompute the whole history
+     * @return available balance
+     */
+    public double verifyBalance(LocalDate from) {
+        LocalDate first = from == null ? LocalDate.MIN : from;
+
+        this.dailyTotals.tailMap(first, true).clear();
+        for (Map.Entry<LocalDate, List<BalanceOperation>> day : this.operationsByDate.tailMap(first, true).entrySet()) {
+            double total = 0.0;
+            for (BalanceOperation operation : day.getValue()) {
+                total += operation.getMoney();
+            }
+            this.dailyTotals.put(day.getKey(), total);
+        }
+        this.markSeriesDirty(first);
+        this.updateSeries();
+
+        this.balance = seriesSize == 0 ? 0.0 : seriesBalances[seriesSize - 1];
+        this.checkpoint = this.dailyTotals.isEmpty() ? first : this.dailyTotals.lastKey().plusDays(1);
+        return this.balance;
+    }
+
     /**
      * Recomputes the balance from the history of transactions
      *
@@ -179,15 +366,68 @@ public class AccountBook {
     }
 
     /**
-     * Generate a new unique ID that is not used by any balance operation in the account book
+     * Replace the product of each ticket entry and return item with the instance with the same id in the given list
+     * (products missing from the list, e.g. deleted ones, are left unchanged)
+     *
+     * @param products list of products
+     */
+    public void relinkProducts(List<ProductType> products) {
+        Map<Integer, ProductType> productsById = new HashMap<>(products.size() * 2);
+        for (ProductType product : products) {
+            productsById.putIfAbsent(product.getId(), product);
+        }
+
+        for (SaleTransaction sale : this.sales) {
+            for (TicketEntry entry : sale.getTransactionItems()) {
+                ProductType product = productsById.get(entry.getProductType().getId());
+                if (product != null) {
+                    entry.setProductType(product);
+                }
+            }
+        }
+        for (ReturnTransaction returnTransaction : this.returns) {
+            for (ReturnTransactionItem item : returnTransaction.getTransactionItems()) {
+                ProductType product = productsById.get(item.getProductType().getId());
+                if (product != null) {
+                    item.setProductType(product);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rebuild the list of return transactions of each sale transaction from the sale transaction id
+     * stored in the returns (the list is not persisted)
+     */
+    public void relinkReturnTransactions() {
+        for (SaleTransaction sale : this.sales) {
+            sale.getReturnTransactions().clear();
+        }
+
+        for (ReturnTransaction returnTransaction : this.returns) {
+            BalanceOperation sale = this.getTransaction(returnTransaction.getSaleTransactionId());
+            if (sale instanceof SaleTransaction) {
+                ((SaleTransaction) sale).addReturnTransaction(returnTransaction);
+            }
+        }
+    }
+
+    /**
+     * Generate a new unique ID, greater than the ID of any balance operation added to the account book so far
      *
      * @return unique ID
      */
     public int generateNewId() {
-        List<Integer> currentIds = this.balanceOperations.stream()
-                .map(BalanceOperation::getBalanceId)
-                .collect(Collectors.toList());
-        return generateId(currentIds);
+        return this.idAllocator.next();
+    }
+
+    /**
+     * Get the allocator of the IDs of new balance operations
+     *
+     * @return the ID allocator
+     */
+    public IdAllocator getIdAllocator() {
+        return idAllocator;
     }
 
     /**
@@ -197,7 +437,7 @@ public class AccountBook {
      */
     public void updateBarcodeInOrders (String oldBarcode, String newBarcode) {
         if (oldBarcode != null && newBarcode != null) {
-            this.getOrders().stream()
+            this.orders.stream()
                     .filter(o -> o.getProductCode().equals(oldBarcode))
                     .forEach(o -> o.setProductCode(newBarcode));
         }
@@ -208,9 +448,151 @@ public class AccountBook {
      */
     public void reset() {
         this.balanceOperations.clear();
+        this.operationsById.clear();
+        this.credits.clear();
+        this.debits.clear();
+        this.sales.clear();
+        this.returns.clear();
+        this.orders.clear();
+        this.operationsByDate.clear();
+        this.dailyTotals.clear();
+        this.seriesSize = 0;
+        this.seriesDirtyFrom = null;
+        this.checkpoint = null;
+        this.idAllocator.reset();
         this.balance = 0.0;
     }
 
+    private void addToPartition(BalanceOperation balanceOperation) {
+        if (balanceOperation instanceof Credit) {
+            this.credits.add((Credit) balanceOperation);
+            if (balanceOperation instanceof SaleTransaction) {
+                this.sales.add((SaleTransaction) balanceOperation);
+            }
+        } else if (balanceOperation instanceof Debit) {
+            this.debits.add((Debit) balanceOperation);
+            if (balanceOperation instanceof ReturnTransaction) {
+                this.returns.add((ReturnTransaction) balanceOperation);
+            } else if (balanceOperation instanceof Order) {
+                this.orders.add((Order) balanceOperation);
+            }
+        }
+    }
+
+    private void removeFromPartition(BalanceOperation balanceOperation) {
+        if (balanceOperation instanceof Credit) {
+            this.credits.remove(indexOf(this.credits, balanceOperation));
+            if (balanceOperation instanceof SaleTransaction) {
+                this.sales.remove(indexOf(this.sales, balanceOperation));
+            }
+        } else if (balanceOperation instanceof Debit) {
+            this.debits.remove(indexOf(this.debits, balanceOperation));
+            if (balanceOperation instanceof ReturnTransaction) {
+                this.returns.remove(indexOf(this.returns, balanceOperation));
+            } else if (balanceOperation instanceof Order) {
+                this.orders.remove(indexOf(this.orders, balanceOperation));
+            }
+        }
+    }
+
+    /**
+     * Add an operation to the date index if its status affects the balance
+     */
+    private void addToDateIndex(BalanceOperation balanceOperation) {
+        if (balanceOperation.getStatus().affectsBalance()) {
+            LocalDate date = dateKey(balanceOperation);
+            this.operationsByDate.computeIfAbsent(date, d -> new ArrayList<>()).add(balanceOperation);
+            this.dailyTotals.merge(date, balanceOperation.getMoney(), Double::sum);
+            this.markSeriesDirty(date);
+        }
+    }
+
+    private void removeFromDateIndex(BalanceOperation balanceOperation) {
+        LocalDate date = dateKey(balanceOperation);
+        List<BalanceOperation> operations = this.operationsByDate.get(date);
+        if (operations == null) {
+            return;
+        }
+
+        int index = indexOf(operations, balanceOperation);
+        if (index >= 0) {
+            operations.remove(index);
+            if (operations.isEmpty()) {
+                this.operationsByDate.remove(date);
+                this.dailyTotals.remove(date);
+            } else {
+                this.dailyTotals.merge(date, -balanceOperation.getMoney(), Double::sum);
+            }
+            this.markSeriesDirty(date);
+        }
+    }
+
+    private void markSeriesDirty(LocalDate date) {
+        if (this.seriesDirtyFrom == null || date.isBefore(this.seriesDirtyFrom)) {
+            this.seriesDirtyFrom = date;
+        }
+    }
+
+    /**
+     * Recompute the running balance of the days from seriesDirtyFrom on
+     */
+    private void updateSeries() {
+        if (this.seriesDirtyFrom == null) {
+            return;
+        }
+
+        // keep the entries before the first outdated day
+        long dirtyDay = this.seriesDirtyFrom.toEpochDay();
+        int size = this.seriesSize;
+        while (size > 0 && this.seriesDays[size - 1] >= dirtyDay) {
+            size--;
+        }
+
+        NavigableMap<LocalDate, Double> changedDays = this.dailyTotals.tailMap(this.seriesDirtyFrom, true);
+        int capacity = size + changedDays.size();
+        if (capacity > this.seriesDays.length) {
+            capacity = Math.max(capacity, this.seriesDays.length * 2);
+            this.seriesDays = Arrays.copyOf(this.seriesDays, capacity);
+            this.seriesBalances = Arrays.copyOf(this.seriesBalances, capacity);
+        }
+
+        double running = size == 0 ? 0.0 : this.seriesBalances[size - 1];
+        for (Map.Entry<LocalDate, Double> day : changedDays.entrySet()) {
+            running += day.getValue();
+            this.seriesDays[size] = day.getKey().toEpochDay();
+            this.seriesBalances[size] = running;
+            size++;
+        }
+
+        this.seriesSize = size;
+        this.seriesDirtyFrom = null;
+    }
+
+    private NavigableMap<LocalDate, List<BalanceOperation>> dateRange(LocalDate from, LocalDate to) {
+        if (from != null && to != null && from.isAfter(to)) {
+            return Collections.emptyNavigableMap();
+        }
+        return this.operationsByDate.subMap(from == null ? LocalDate.MIN : from, true,
+                to == null ? LocalDate.MAX : to, true);
+    }
+
+    private static LocalDate dateKey(BalanceOperation balanceOperation) {
+        return balanceOperation.getDate() == null ? LocalDate.MIN : balanceOperation.getDate();
+    }
+
+    /**
+     * Position of a balance operation in a list, searching from the most recent one
+     * (updated and removed operations are usually the recent ones)
+     */
+    private static int indexOf(List<? extends BalanceOperation> list, BalanceOperation balanceOperation) {
+        for (int i = list.size() - 1; i >= 0; i--) {
+            if (list.get(i) == balanceOperation) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
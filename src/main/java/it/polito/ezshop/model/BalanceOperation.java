@@ -29,6 +29,10 @@ public abstract class BalanceOperation {
         this.date = date;
     }
 
+    public double getBalanceValue() {
+        return this.balanceValue;
+    }
+
     public void setBalanceValue(double balanceValue) {
         this.balanceValue = balanceValue;
     }
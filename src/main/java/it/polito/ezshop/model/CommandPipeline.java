@@ -0,0 +1,276 @@
+package it.polito.ezshop.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Single writer pipeline: the commands submitted by any number of threads are queued in a bounded ring buffer and
+ * applied in order by a dedicated writer thread. The writer drains the commands queued in a burst and applies them
+ * as a batch within a single scope (e.g. deferring the completion of the writes, see ShopLocks.defer), whose closing
+ * completes the writes of the whole batch at once; the submitters are answered only after the scope is closed.
+ *
+ * When the buffer is full the submitters wait, so a burst of commands can not exhaust the memory.
+ */
+public class CommandPipeline implements AutoCloseable {
+
+    /**
+     * Default number of commands that can be queued
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * Default maximum number of commands applied in a single batch
+     */
+    public static final int DEFAULT_MAX_BATCH = 256;
+
+    /**
+     * A queued command with its outcome
+     */
+    private static final class Command {
+        private final Callable<?> action;
+        private final CompletableFuture<Object> future = new CompletableFuture<>();
+        private Object result;
+        private Throwable failure;
+        private boolean applied = false;
+
+        private Command(Callable<?> action) {
+            this.action = action;
+        }
+
+        private void apply() {
+            applied = true;
+            try {
+                result = action.call();
+            } catch (Throwable ex) {
+                failure = ex;
+            }
+        }
+
+        private void complete() {
+            if (failure != null) {
+                future.completeExceptionally(failure);
+            } else {
+                future.complete(result);
+            }
+        }
+    }
+
+    /**
+     * Queued to stop the writer once the commands submitted before it are applied
+     */
+    private static final Command STOP = new Command(() -> null);
+
+    /**
+     * Ring buffer of the commands waiting for the writer
+     */
+    private final BlockingQueue<Command> queue;
+
+    private final int maxBatch;
+
+    /**
+     * Opens the scope in which each batch is applied
+     */
+    private final Supplier<? extends AutoCloseable> batchScope;
+
+    private final Thread writer;
+
+    private volatile boolean closed = false;
+
+    /**
+     * Number of batches and of commands applied so far (written by the writer thread only)
+     */
+    private volatile long batches = 0;
+    private volatile long commands = 0;
+
+    public CommandPipeline(Supplier<? extends AutoCloseable> batchScope) {
+        this(DEFAULT_CAPACITY, DEFAULT_MAX_BATCH, batchScope);
+    }
+
+    /**
+     * Create and start a new pipeline
+     *
+     * @param capacity maximum number of queued commands
+     * @param maxBatch maximum number of commands applied in a single batch
+     * @param batchScope opens the scope in which each batch is applied, closed before answering the submitters
+     */
+    public CommandPipeline(int capacity, int maxBatch, Supplier<? extends AutoCloseable> batchScope) {
+        if (capacity <= 0 || maxBatch <= 0) {
+            throw new IllegalArgumentException("Capacity and batch size must be positive");
+        }
+
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.maxBatch = maxBatch;
+        this.batchScope = batchScope;
+
+        this.writer = new Thread(this::run, "ezshop-command-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Queue a command and wait until it is applied and its batch is completed.
+     * A command submitted by the writer thread itself (i.e. by another command) is applied immediately.
+     *
+     * @param action the command
+     * @param <T> type of the result
+     * @return the result of the command
+     * @throws Exception the exception thrown by the command
+     * @throws IllegalStateException if the pipeline is closed
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(Callable<T> action) throws Exception {
+        if (Thread.currentThread() == writer) {
+            return action.call();
+        }
+
+        Command command = new Command(action);
+        boolean interrupted = false;
+        try {
+            while (true) {
+                if (closed) {
+                    throw new IllegalStateException("The pipeline is closed");
+                }
+                try {
+                    queue.put(command);
+                    break;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+            if (closed && !writer.isAlive() && queue.remove(command)) {
+                // queued after the pipeline was closed and drained
+                throw new IllegalStateException("The pipeline is closed");
+            }
+
+            // the command can not be withdrawn once queued: wait for its outcome
+            while (true) {
+                try {
+                    return (T) command.future.get();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw (Exception) cause;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Get the number of batches applied so far
+     *
+     * @return number of batches
+     */
+    public long getBatches() {
+        return batches;
+    }
+
+    /**
+     * Get the number of commands applied so far
+     *
+     * @return number of commands
+     */
+    public long getCommands() {
+        return commands;
+    }
+
+    /**
+     * Apply the commands already queued and stop the writer thread; new commands are rejected
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(STOP);
+                break;
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        // commands queued while closing are not applied anymore
+        List<Command> rejected = new ArrayList<>();
+        queue.drainTo(rejected);
+        rejected.forEach(command ->
+                command.future.completeExceptionally(new IllegalStateException("The pipeline is closed")));
+    }
+
+    /**
+     * Body of the writer thread
+     */
+    private void run() {
+        List<Command> batch = new ArrayList<>(maxBatch);
+        boolean stopping = false;
+
+        while (!stopping) {
+            batch.clear();
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException ex) {
+                // the writer is stopped by the STOP command only
+                continue;
+            }
+            queue.drainTo(batch, maxBatch - 1);
+
+            int end = batch.indexOf(STOP);
+            if (end >= 0) {
+                stopping = true;
+                // commands queued after STOP raced with close: they are rejected
+                List<Command> rejected = batch.subList(end, batch.size());
+                rejected.forEach(command -> command.failure = new IllegalStateException("The pipeline is closed"));
+                rejected.forEach(Command::complete);
+                rejected.clear();
+            }
+            if (batch.isEmpty()) {
+                continue;
+            }
+
+            try {
+                AutoCloseable scope = batchScope.get();
+                try {
+                    batch.forEach(Command::apply);
+                } finally {
+                    scope.close();
+                }
+            } catch (Exception ex) {
+                // the commands not applied (e.g. if the scope could not be opened) fail with the same exception
+                batch.stream().filter(command -> !command.applied).forEach(command -> command.failure = ex);
+            }
+
+            batches++;
+            commands += batch.size();
+            batch.forEach(Command::complete);
+        }
+    }
+}
@@ -3,16 +3,49 @@ package it.polito.ezshop.model;
 import it.polito.ezshop.exceptions.InvalidCustomerCardException;
 import it.polito.ezshop.exceptions.InvalidCustomerIdException;
 import it.polito.ezshop.exceptions.InvalidCustomerNameException;
+import it.polito.ezshop.utils.IdAllocator;
 
 import java.util.*;
-import java.util.stream.Collectors;
-
-import static it.polito.ezshop.utils.Utils.generateId;
 
+/**
+ * List of the customers of the shop and of the loyalty cards.
+ * The customers are indexed by id and by name, the cards by code and by owner: every change of the name or of the
+ * card of a customer in the list must go through the list so that the indexes stay consistent.
+ */
 public class CustomerList {
 
     private final List<Customer> customers = new ArrayList<>();
-    public final List<LoyaltyCard> loyaltyCards = new ArrayList<>();
+    private final List<LoyaltyCard> loyaltyCards = new ArrayList<>();
+
+    /**
+     * Index of the customers by ID
+     */
+    private final transient Map<Integer, Customer> customersById = new HashMap<>();
+
+    /**
+     * Index of the customers by name
+     */
+    private final transient Map<String, Customer> customersByName = new HashMap<>();
+
+    /**
+     * Index of the loyalty cards by code
+     */
+    private final transient Map<String, LoyaltyCard> cardsByCode = new HashMap<>();
+
+    /**
+     * Customer each loyalty card is attached to, by code of the card
+     */
+    private final transient Map<String, Customer> cardOwners = new HashMap<>();
+
+    /**
+     * Allocator of the IDs of new customers
+     */
+    private final transient IdAllocator idAllocator = new IdAllocator();
+
+    /**
+     * Allocator of the serial numbers of new loyalty cards (the code of a card is derived from its serial number)
+     */
+    private final transient IdAllocator cardSerialAllocator = new IdAllocator();
 
     public CustomerList() {
         this.reset();
@@ -30,7 +63,7 @@ public class CustomerList {
     public int addCustomer(String name) throws InvalidCustomerNameException {
 
         // return -1 if the customer name is already taken
-        if (isCustomerNameTaken(name)) {
+        if (customersByName.containsKey(name)) {
             return -1;
         }
 
@@ -44,6 +77,7 @@ public class CustomerList {
             throw new Error("An unexpected error was encountered when creating a new customer", e);
         }
         this.customers.add(customer);
+        this.index(customer);
 
         // return successfully
         return customerID;
@@ -75,10 +109,7 @@ public class CustomerList {
         }
 
         // get the customer from the list of customers
-        Customer customer = this.customers.stream()
-                .filter(c -> c.getId().equals(id))
-                .findAny()
-                .orElse(null);
+        Customer customer = this.customersById.get(id);
 
         // return false if customer does not exist
         if (customer == null) {
@@ -86,7 +117,8 @@ public class CustomerList {
         }
 
         // return false if newName is not unique
-        if (isCustomerNameTaken(newName, Collections.singletonList(id))) {
+        Customer namesake = this.customersByName.get(newName);
+        if (namesake != null && namesake != customer) {
             return false;
         }
 
@@ -103,7 +135,7 @@ public class CustomerList {
         } else {
 
             // get card from list of cards
-            loyaltyCard = loyaltyCards.stream().filter(c -> newCard.equals(c.getCode())).findAny().orElse(null);
+            loyaltyCard = this.cardsByCode.get(newCard);
 
             // if card does not exist return false
             if (loyaltyCard == null) {
@@ -111,20 +143,23 @@ public class CustomerList {
             }
 
             // return false if card is already assigned to different user
-            if (customers.stream().anyMatch(c -> !c.getId().equals(id) && loyaltyCard.equals(c.getCard()))) {
+            Customer owner = this.cardOwners.get(newCard);
+            if (owner != null && owner != customer) {
                 return false;
             }
         }
 
         // update values and return successfully
+        this.customersByName.remove(customer.getCustomerName(), customer);
         customer.setCustomerName(newName);
+        this.customersByName.put(newName, customer);
 
         // remove the loyalty card from the list
         if (loyaltyCard == null && customer.getCard() != null) {
-            this.loyaltyCards.removeIf(x -> x.getCode().equals(customer.getCard().getCode()));
+            this.removeLoyaltyCard(customer.getCard().getCode());
         }
 
-        customer.setCard(loyaltyCard);
+        this.setCard(customer, loyaltyCard);
         return true;
     }
 
@@ -146,7 +181,7 @@ public class CustomerList {
         LoyaltyCard.validateCode(cardCode);
 
         // get the loyalty card with the given code from the card list or null if it doesn't exist
-        LoyaltyCard loyaltyCard = loyaltyCards.stream().filter(c -> cardCode.equals(c.getCode())).findAny().orElse(null);
+        LoyaltyCard loyaltyCard = cardsByCode.get(cardCode);
 
         // check that card exists
         if (loyaltyCard == null) {
@@ -154,16 +189,19 @@ public class CustomerList {
         }
 
         // return false if another customer already uses this card
-        if (customers.stream().anyMatch(c -> loyaltyCard.equals(c.getCard()) && !id.equals(c.getId()))) {
+        Customer owner = cardOwners.get(cardCode);
+        if (owner != null && !id.equals(owner.getId())) {
             return false;
         }
 
         // assign card to customer if customer exists
-        Optional<Customer> customer = customers.stream().filter(c -> id.equals(c.getId())).findAny();
-        customer.ifPresent(c -> c.setCard(loyaltyCard));
+        Customer customer = customersById.get(id);
+        if (customer != null) {
+            this.setCard(customer, loyaltyCard);
+        }
 
         // return true if customer was found and card was assigned successfully
-        return customer.isPresent();
+        return customer != null;
     }
 
     public boolean modifyPointsOnCard(String cardCode, int pointsToBeAdded) throws InvalidCustomerCardException {
@@ -172,7 +210,7 @@ public class CustomerList {
         LoyaltyCard.validateCode(cardCode);
 
         // get the loyalty card with the given code from the card list or null if it doesn't exist
-        LoyaltyCard loyaltyCard = loyaltyCards.stream().filter(c -> cardCode.equals(c.getCode())).findAny().orElse(null);
+        LoyaltyCard loyaltyCard = cardsByCode.get(cardCode);
 
         // check that card exists
         if (loyaltyCard == null) {
@@ -200,7 +238,15 @@ public class CustomerList {
      */
     public boolean removeCustomer(Integer id) throws InvalidCustomerIdException {
         Customer.validateID(id);
-        return this.customers.removeIf(c -> id.equals(c.getId()));
+
+        Customer customer = this.customersById.get(id);
+        if (customer == null) {
+            return false;
+        }
+
+        this.customers.remove(customer);
+        this.unindex(customer);
+        return true;
     }
 
     /**
@@ -214,71 +260,185 @@ public class CustomerList {
      */
     public Customer getCustomer(Integer id) throws InvalidCustomerIdException {
         Customer.validateID(id);
-        return customers.stream()
-                .filter(c -> id.equals(c.getId()))
-                .findAny()
-                .orElse(null);
+        return customersById.get(id);
+    }
+
+    /**
+     * Returns the loyalty card with the given code.
+     *
+     * @param code code of the requested loyalty card
+     * @return the loyalty card with the given code, null if it does not exist
+     */
+    public LoyaltyCard getLoyaltyCard(String code) {
+        return cardsByCode.get(code);
+    }
+
+    /**
+     * Add the given customer, replacing any customer with the same ID (used to restore persisted state).
+     * The card of the customer is replaced with the instance with the same code in the list of loyalty cards.
+     *
+     * @param customer customer to store
+     */
+    public void putCustomer(Customer customer) {
+        LoyaltyCard card = customer.getCard() == null ? null : cardsByCode.get(customer.getCard().getCode());
+        if (card != null) {
+            customer.setCard(card);
+        }
+
+        Customer previous = customersById.get(customer.getId());
+        if (previous == null) {
+            customers.add(customer);
+        } else {
+            customers.set(indexOf(customers, previous), customer);
+            unindex(previous);
+        }
+        index(customer);
+    }
+
+    /**
+     * Add the given loyalty card, or update the points of the card with the same code (used to restore persisted
+     * state).
+     *
+     * @param card loyalty card to store
+     */
+    public void putLoyaltyCard(LoyaltyCard card) {
+        LoyaltyCard existing = getLoyaltyCard(card.getCode());
+
+        if (existing != null) {
+            existing.setPoints(card.getPoints());
+        } else {
+            loyaltyCards.add(card);
+            cardsByCode.put(card.getCode(), card);
+        }
+    }
+
+    /**
+     * Remove the loyalty card with the given code from the list of loyalty cards. The customer the card is attached
+     * to, if any, keeps it.
+     *
+     * @param code code of the loyalty card to be removed
+     * @return true if the card was removed, false if it does not exist
+     */
+    public boolean removeLoyaltyCard(String code) {
+        LoyaltyCard card = cardsByCode.remove(code);
+        if (card == null) {
+            return false;
+        }
+
+        loyaltyCards.remove(indexOf(loyaltyCards, card));
+        return true;
     }
 
     /**
      * Returns the list containing all customers
      *
-     * @return the list of all customers
+     * @return unmodifiable view of the customers, in insertion order
      */
     public List<Customer> getAllCustomers() {
-        return customers;
+        return Collections.unmodifiableList(customers);
     }
 
     /**
-     * Generate a new unique ID that is not taken by any other customer in this list
+     * Returns the list containing all loyalty cards
+     *
+     * @return unmodifiable view of the loyalty cards, in insertion order
+     */
+    public List<LoyaltyCard> getAllLoyaltyCards() {
+        return Collections.unmodifiableList(loyaltyCards);
+    }
+
+    /**
+     * Generate a new unique ID, greater than the ID of any customer added to this list so far
      *
      * @return unique ID
      */
     public int generateNewId() {
-        List<Integer> currentIds = this.customers.stream()
-                .map(Customer::getId)
-                .collect(Collectors.toList());
-        return generateId(currentIds);
+        return idAllocator.next();
     }
 
-    public String generateNewLoyaltyCard() {
-
-        List<String> takenCodes = loyaltyCards.stream().map(LoyaltyCard::getCode).collect(Collectors.toList());
+    /**
+     * Get the allocator of the IDs of new customers
+     *
+     * @return the ID allocator
+     */
+    public IdAllocator getIdAllocator() {
+        return idAllocator;
+    }
 
-        String newCode = LoyaltyCard.generateNewCode();
-        while (takenCodes.contains(newCode)) {
-            newCode = LoyaltyCard.generateNewCode();
+    /**
+     * Rebuild the indexes from the lists of customers and loyalty cards (to be called after the lists are
+     * deserialized). The card of each customer is replaced with the instance with the same code in the list of
+     * loyalty cards, and the IDs of the customers are recorded as in use.
+     * If more than one customer has the same ID or name, the first one is the one returned by the lookups.
+     */
+    public void reindex() {
+        this.customersById.clear();
+        this.customersByName.clear();
+        this.cardsByCode.clear();
+        this.cardOwners.clear();
+
+        for (LoyaltyCard card : loyaltyCards) {
+            cardsByCode.putIfAbsent(card.getCode(), card);
         }
-
-        try {
-            loyaltyCards.add(new LoyaltyCard(newCode));
-        } catch (InvalidCustomerCardException e) {
-            // this should never happen if the code generation is correct
-            throw new Error("An unexpected error was encountered when generating a new loyalty card", e);
+        for (Customer customer : customers) {
+            LoyaltyCard card = customer.getCard() == null ? null : cardsByCode.get(customer.getCard().getCode());
+            if (card != null) {
+                customer.setCard(card);
+            }
+            index(customer);
         }
+    }
 
-        return newCode;
+    /**
+     * Generate a new loyalty card, with a code never issued before
+     *
+     * @return the code of the new card
+     */
+    public String generateNewLoyaltyCard() {
+        return generateNewLoyaltyCards(1).get(0);
     }
 
     /**
-     * Check if the name is taken by any other customer.
+     * Generate a batch of new loyalty cards (e.g. for a print run of physical cards).
+     * The codes are derived from new serial numbers (see LoyaltyCard.codeOfSerial), so each code takes constant
+     * time and is never issued again, even if the card is removed; the codes already in use (e.g. random codes
+     * issued by previous versions) are skipped.
      *
-     * @param name Name to check for if it is taken.
-     * @return true if the name is taken, false if not
+     * @param count number of cards to generate
+     * @return the codes of the new cards, in serial number order
      */
-    private boolean isCustomerNameTaken(String name) {
-        return isCustomerNameTaken(name, new ArrayList<>());
+    public List<String> generateNewLoyaltyCards(int count) {
+        List<String> codes = new ArrayList<>(Math.max(count, 0));
+
+        while (codes.size() < count) {
+            int n = count - codes.size();
+            int first = cardSerialAllocator.next(n);
+            for (int k = 0; k < n; k++) {
+                String code = LoyaltyCard.codeOfSerial(first + k);
+                if (cardsByCode.containsKey(code)) {
+                    continue;
+                }
+
+                try {
+                    putLoyaltyCard(new LoyaltyCard(code));
+                } catch (InvalidCustomerCardException e) {
+                    // this should never happen if the code generation is correct
+                    throw new Error("An unexpected error was encountered when generating a new loyalty card", e);
+                }
+                codes.add(code);
+            }
+        }
+
+        return codes;
     }
 
     /**
-     * Check if the name is taken by any other customer except for the customers with IDs specified in igonreIDs.
+     * Get the allocator of the serial numbers of new loyalty cards
      *
-     * @param name Name to check for if it is taken.
-     * @param ignoreIDs IDs of customers that should be ignored when checking for the name.
-     * @return True, if the name is taken by a customer that is not in the ignoreIDs list, false if it isn't.
+     * @return the serial number allocator
      */
-    private boolean isCustomerNameTaken(String name, List<Integer> ignoreIDs) {
-        return this.customers.stream().anyMatch(c -> c.getCustomerName().equals(name) && !ignoreIDs.contains(c.getId()));
+    public IdAllocator getCardSerialAllocator() {
+        return cardSerialAllocator;
     }
 
     /**
@@ -287,6 +447,54 @@ public class CustomerList {
     public void reset() {
         this.customers.clear();
         this.loyaltyCards.clear();
+        this.customersById.clear();
+        this.customersByName.clear();
+        this.cardsByCode.clear();
+        this.cardOwners.clear();
+        this.idAllocator.reset();
+        this.cardSerialAllocator.reset();
+    }
+
+    /**
+     * Attach a card to a customer, updating the owner of the previous and of the new card
+     */
+    private void setCard(Customer customer, LoyaltyCard card) {
+        if (customer.getCard() != null) {
+            this.cardOwners.remove(customer.getCard().getCode(), customer);
+        }
+        customer.setCard(card);
+        if (card != null) {
+            this.cardOwners.put(card.getCode(), customer);
+        }
+    }
+
+    private void index(Customer customer) {
+        this.customersById.putIfAbsent(customer.getId(), customer);
+        this.customersByName.putIfAbsent(customer.getCustomerName(), customer);
+        if (customer.getCard() != null) {
+            this.cardOwners.putIfAbsent(customer.getCard().getCode(), customer);
+        }
+        this.idAllocator.observe(customer.getId());
+    }
+
+    private void unindex(Customer customer) {
+        this.customersById.remove(customer.getId(), customer);
+        this.customersByName.remove(customer.getCustomerName(), customer);
+        if (customer.getCard() != null) {
+            this.cardOwners.remove(customer.getCard().getCode(), customer);
+        }
+    }
+
+    /**
+     * Get the position of an element in a list, comparing by reference
+     */
+    private static <T> int indexOf(List<T> list, T element) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i) == element) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     @Override
@@ -3,9 +3,22 @@ package it.polito.ezshop.model;
 import it.polito.ezshop.exceptions.InvalidCustomerCardException;
 
 import java.util.Objects;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class LoyaltyCard {
+
+    /**
+     * Number of distinct codes (10 digits)
+     */
+    private static final long CODE_SPACE = 10_000_000_000L;
+
+    /**
+     * Multiplier and offset of the mapping from serial numbers to codes. The multiplier is coprime with CODE_SPACE,
+     * so distinct serial numbers get distinct codes; it is smaller than 2^32, so the product does not overflow.
+     */
+    private static final long SERIAL_MULTIPLIER = 3_119_766_491L;
+    private static final long SERIAL_OFFSET = 4_832_175_093L;
+
     private final String code;
     private int points;
 
@@ -22,19 +35,39 @@ public class LoyaltyCard {
     }
 
     /**
-     * Generate a loyalty card code.
+     * Generate a random loyalty card code.
      *
      * @return a 10 characters long numeric code
      */
     public static String generateNewCode() {
-        Random rnd = new Random();
+        return formatCode(ThreadLocalRandom.current().nextLong(CODE_SPACE));
+    }
 
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < 10; i++) {
-            char c = (char) ('0' + ((char) rnd.nextInt('9' - '0')));
-            sb.append(c);
+    /**
+     * Get the code of the card with the given serial number. Consecutive serial numbers give scattered codes,
+     * and distinct serial numbers always give distinct codes.
+     *
+     * @param serial serial number of the card
+     * @return a 10 characters long numeric code
+     * @throws IllegalArgumentException if the serial number is negative
+     */
+    public static String codeOfSerial(int serial) {
+        if (serial < 0) {
+            throw new IllegalArgumentException("Invalid serial number");
+        }
+        return formatCode((SERIAL_MULTIPLIER * serial + SERIAL_OFFSET) % CODE_SPACE);
+    }
+
+    /**
+     * Format a value smaller than CODE_SPACE as a code of 10 digits (with leading zeros)
+     */
+    private static String formatCode(long value) {
+        char[] digits = new char[10];
+        for (int i = digits.length - 1; i >= 0; i--) {
+            digits[i] = (char) ('0' + value % 10);
+            value /= 10;
         }
-        return sb.toString();
+        return new String(digits);
     }
 
     public static void validateCode(String code) throws InvalidCustomerCardException {
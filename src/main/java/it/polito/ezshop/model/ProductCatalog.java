@@ -0,0 +1,288 @@
+package it.polito.ezshop.model;
+
+import it.polito.ezshop.exceptions.InvalidProductCodeException;
+import it.polito.ezshop.utils.IdAllocator;
+import it.polito.ezshop.utils.LongRangeMap;
+
+import java.util.*;
+
+import static it.polito.ezshop.utils.Utils.RFIDToLong;
+
+/**
+ * Catalog of the products of the shop.
+ * The products are indexed by id and by barcode: every change of the id or of the barcode of a product in the
+ * catalog must go through the catalog so that the indexes stay consistent.
+ * The RFIDs of the products are indexed as well, as ranges of consecutive codes; the products of the catalog
+ * update this index when their RFIDs are added or removed. Since concurrent sales move the units of different
+ * products at the same time, the RFID index is guarded by its own monitor.
+ */
+public class ProductCatalog {
+
+    /**
+     * Products in insertion order
+     */
+    private final List<ProductType> products = new ArrayList<>();
+
+    /**
+     * Index of the products by id
+     */
+    private final Map<Integer, ProductType> productsById = new HashMap<>();
+
+    /**
+     * Index of the products by barcode
+     */
+    private final Map<String, ProductType> productsByBarCode = new HashMap<>();
+
+    /**
+     * Index of the products by RFID (numeric value of the code, dummy RFIDs are not indexed)
+     */
+    private final LongRangeMap<ProductType> productsByRFID = new LongRangeMap<>();
+
+    /**
+     * Allocator of the ids of new products
+     */
+    private final IdAllocator idAllocator = new IdAllocator();
+
+    public ProductCatalog() {
+        this.reset();
+    }
+
+    /**
+     * Add a list of products (e.g. read from the persistence layer) to the catalog.
+     * If more than one product has the same id or barcode, the first one is the one returned by the lookups.
+     *
+     * @param products products to be added
+     */
+    public void addAll(Collection<ProductType> products) {
+        for (ProductType product : products) {
+            this.products.add(product);
+            this.productsById.putIfAbsent(product.getId(), product);
+            this.productsByBarCode.putIfAbsent(product.getBarCode(), product);
+            this.idAllocator.observe(product.getId());
+            this.attach(product);
+        }
+    }
+
+    /**
+     * Add a product to the catalog
+     *
+     * @param product product to be added
+     * @return true if the product was added,
+     *         false if a product with the same id or barcode already exists
+     */
+    public boolean addProduct(ProductType product) {
+        if (productsById.containsKey(product.getId()) || productsByBarCode.containsKey(product.getBarCode())) {
+            return false;
+        }
+
+        this.products.add(product);
+        this.productsById.put(product.getId(), product);
+        this.productsByBarCode.put(product.getBarCode(), product);
+        this.idAllocator.observe(product.getId());
+        this.attach(product);
+        return true;
+    }
+
+    /**
+     * Remove the product with the given id from the catalog
+     *
+     * @param id id of the product
+     * @return true if the product was removed,
+     *         false if a product with the given id does not exist
+     */
+    public boolean removeProduct(int id) {
+        ProductType product = productsById.remove(id);
+        if (product == null) {
+            return false;
+        }
+
+        this.products.remove(product);
+        this.productsByBarCode.remove(product.getBarCode(), product);
+        this.detach(product);
+        return true;
+    }
+
+    /**
+     * Change the barcode of a product of the catalog
+     *
+     * @param product product to be updated
+     * @param newBarCode new barcode of the product
+     * @return true if the barcode was changed (or it is the current one),
+     *         false if the barcode is assigned to another product
+     * @throws InvalidProductCodeException if the barcode is not valid
+     */
+    public boolean updateBarCode(ProductType product, String newBarCode) throws InvalidProductCodeException {
+        ProductType other = productsByBarCode.get(newBarCode);
+        if (other != null && other != product) {
+            return false;
+        }
+
+        String oldBarCode = product.getBarCode();
+        product.setBarCode(newBarCode);
+
+        this.productsByBarCode.remove(oldBarCode, product);
+        this.productsByBarCode.put(newBarCode, product);
+        return true;
+    }
+
+    /**
+     * Get the product with the given id
+     *
+     * @param id id of the product
+     * @return the product, null if it does not exist
+     */
+    public ProductType getProductById(int id) {
+        return productsById.get(id);
+    }
+
+    /**
+     * Get the product with the given barcode
+     *
+     * @param barCode barcode of the product
+     * @return the product, null if it does not exist
+     */
+    public ProductType getProductByBarCode(String barCode) {
+        return productsByBarCode.get(barCode);
+    }
+
+    /**
+     * Get the product having the given RFID
+     *
+     * @param RFID code of the product
+     * @return the product, null if no product has the RFID (or if the RFID is a dummy one)
+     */
+    public ProductType getProductByRFID(String RFID) {
+        long code = RFIDToLong(RFID);
+        if (code < 0) {
+            return null;
+        }
+        synchronized (productsByRFID) {
+            return productsByRFID.get(code);
+        }
+    }
+
+    /**
+     * Check if a product of the catalog has the given RFID
+     *
+     * @param RFID code to check
+     * @return true if a product has the RFID, false otherwise (always false for dummy RFIDs)
+     */
+    public boolean RFIDexists(String RFID) {
+        return getProductByRFID(RFID) != null;
+    }
+
+    /**
+     * Check if a product of the catalog has any of the given RFIDs
+     *
+     * @param RFIDs codes to check
+     * @return true if a product has at least one of the RFIDs, false otherwise
+     */
+    public boolean anyRFIDexists(RFIDSet RFIDs) {
+        synchronized (productsByRFID) {
+            return RFIDs.anyRangeMatch(productsByRFID::containsAnyKey);
+        }
+    }
+
+    /**
+     * Get all the products in the catalog, in insertion order
+     *
+     * @return unmodifiable view of the products
+     */
+    public List<ProductType> getAllProducts() {
+        return Collections.unmodifiableList(products);
+    }
+
+    /**
+     * Generate a new id, greater than the id of any product added to the catalog so far
+     *
+     * @return a new positive id
+     */
+    public int generateNewId() {
+        return idAllocator.next();
+    }
+
+    /**
+     * Get the allocator of the ids of new products
+     *
+     * @return the id allocator
+     */
+    public IdAllocator getIdAllocator() {
+        return idAllocator;
+    }
+
+    /**
+     * Remove all the products from the catalog
+     */
+    public void reset() {
+        this.products.forEach(p -> p.setCatalog(null));
+        this.products.clear();
+        this.productsById.clear();
+        this.productsByBarCode.clear();
+        synchronized (productsByRFID) {
+            this.productsByRFID.clear();
+        }
+        this.idAllocator.reset();
+    }
+
+    /**
+     * Add an RFID of a product to the index (called by the product)
+     *
+     * @param product product owning the RFID
+     * @param RFID code to be added
+     */
+    void indexRFID(ProductType product, String RFID) {
+        long code = RFIDToLong(RFID);
+        if (code >= 0) {
+            indexRFIDs(product, code, code + 1);
+        }
+    }
+
+    /**
+     * Add a range of RFIDs of a product to the index (called by the product)
+     *
+     * @param product product owning the RFIDs
+     * @param from numeric value of the first code to be added
+     * @param to numeric value following the last code to be added
+     */
+    void indexRFIDs(ProductType product, long from, long to) {
+        synchronized (productsByRFID) {
+            productsByRFID.putIfAbsent(from, to, product);
+        }
+    }
+
+    /**
+     * Remove an RFID of a product from the index (called by the product)
+     *
+     * @param product product owning the RFID
+     * @param RFID code to be removed
+     */
+    void unindexRFID(ProductType product, String RFID) {
+        long code = RFIDToLong(RFID);
+        if (code >= 0) {
+            unindexRFIDs(product, code, code + 1);
+        }
+    }
+
+    /**
+     * Remove a range of RFIDs of a product from the index (called by the product)
+     *
+     * @param product product owning the RFIDs
+     * @param from numeric value of the first code to be removed
+     * @param to numeric value following the last code to be removed
+     */
+    void unindexRFIDs(ProductType product, long from, long to) {
+        synchronized (productsByRFID) {
+            productsByRFID.remove(from, to, product);
+        }
+    }
+
+    private void attach(ProductType product) {
+        product.setCatalog(this);
+        product.getRFIDSet().forEachRange((from, to) -> indexRFIDs(product, from, to));
+    }
+
+    private void detach(ProductType product) {
+        product.getRFIDSet().forEachRange((from, to) -> unindexRFIDs(product, from, to));
+        product.setCatalog(null);
+    }
+}
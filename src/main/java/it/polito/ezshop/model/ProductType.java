@@ -3,14 +3,22 @@ package it.polito.ezshop.model;
 import it.polito.ezshop.exceptions.*;
 import it.polito.ezshop.utils.Utils;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static it.polito.ezshop.utils.Utils.DUMMY_RFID;
 import static it.polito.ezshop.utils.Utils.isValidBarcode;
 
+/**
+ * A product of the shop, with the units on the shelves.
+ *
+ * The units available for sale are counted by an atomic stock counter, so that the sales of the same product from
+ * concurrent registers can reserve units without locking: a reservation (see reserve) is taken only if enough
+ * units are available, therefore the product is never oversold. The reserved units are then moved to the sale
+ * (see pickReserved) while holding the monitor of the product, which guards the set of the units; a reservation
+ * that is not picked is given back with release.
+ */
 public class ProductType {
 
     private final int id;
@@ -20,7 +28,18 @@ public class ProductType {
     private String barCode;
     private double pricePerUnit;
 
-    private final List<String> RFIDs = new ArrayList<>();
+    private final RFIDSet RFIDs = new RFIDSet();
+
+    /**
+     * Catalog containing the product, whose RFID index is updated when the RFIDs change (null if not in a catalog)
+     */
+    private transient ProductCatalog catalog;
+
+    /**
+     * Number of units available for sale, i.e. the units of the product minus the reserved ones not picked yet.
+     * It is created from the units at the first access, since the deserialized products skip the initializers.
+     */
+    private transient volatile AtomicInteger stock;
 
     public ProductType(Integer id, String productDescription, String barCode, Double pricePerUnit, String note) throws
             InvalidProductDescriptionException, InvalidProductCodeException, InvalidPricePerUnitException, InvalidProductIdException, InvalidQuantityException {
@@ -121,8 +140,56 @@ public class ProductType {
         }
     }
 
+    /**
+     * Get the number of units available for sale, without locking
+     *
+     * @return quantity on the shelves
+     */
     public int getQuantity() {
-        return this.RFIDs.size();
+        return this.stock().get();
+    }
+
+    /**
+     * Reserve units for a sale, if enough units are available; the reserved units must be picked with
+     * pickReserved or given back with release
+     *
+     * @param n number of units to reserve
+     * @return true if the units were reserved, false if less than n units are available
+     */
+    public boolean reserve(int n) {
+        AtomicInteger stock = this.stock();
+        while (true) {
+            int available = stock.get();
+            if (n <= 0 || available < n) {
+                return false;
+            }
+            if (stock.compareAndSet(available, available - n)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Give back units reserved and not picked
+     *
+     * @param n number of units reserved
+     */
+    public void release(int n) {
+        this.stock().addAndGet(n);
+    }
+
+    /**
+     * Remove n reserved units, starting with the dummy ones
+     *
+     * @param n number of units reserved with reserve
+     * @return the removed units
+     */
+    public synchronized RFIDSet pickReserved(int n) {
+        RFIDSet picked = this.RFIDs.pick(n);
+        if (catalog != null) {
+            picked.forEachRange((from, to) -> catalog.unindexRFIDs(this, from, to));
+        }
+        return picked;
     }
 
     /**
@@ -146,14 +213,8 @@ public class ProductType {
             // add new products (dummy RFIDs)
             this.addDummyRFIDs(delta);
         } else {
-            // remove -delta RFIDs
-            int nToRemove = -delta;
-            // first, try to remove DUMMY RFIDs
-            for (; nToRemove > 0 && this.RFIDs.remove(DUMMY_RFID); nToRemove--);
-            // then, remove random RFIDs
-            for (; nToRemove > 0; nToRemove--) {
-                this.RFIDs.remove(0);
-            }
+            // remove -delta RFIDs, starting with the DUMMY ones
+            this.pickRFIDs(-delta);
         }
     }
 
@@ -182,7 +243,7 @@ public class ProductType {
      * @param RFID code to add
      * @return true if the code was added, false otherwise
      */
-    public boolean addRFID (String RFID) {
+    public synchronized boolean addRFID (String RFID) {
         if (RFID == null) return false;
 
         // check the given RFID is either dummy or valid
@@ -194,13 +255,30 @@ public class ProductType {
             }
 
             RFIDs.add(RFID);
+            this.indexRFID(RFID);
+            this.adjustStock(1);
             return true;
         }
 
         return false;
     }
 
-    public List<String> getRFIDs () {
+    /**
+     * Get the RFIDs of the product
+     * @return a new list with the RFIDs (DUMMY_RFID for each unit without an RFID)
+     */
+    public synchronized List<String> getRFIDs () {
+        return this.RFIDs.toList();
+    }
+
+    /**
+     * Get the units of the product.
+     * The set must not be modified: use addRFID, removeRFID and pickRFIDs, which keep the RFID index of the
+     * catalog and the stock counter up to date. It must be read while holding the monitor of the product, unless
+     * no sale can change the product at the same time.
+     * @return units of the product
+     */
+    public RFIDSet getRFIDSet () {
         return this.RFIDs;
     }
 
@@ -208,25 +286,57 @@ public class ProductType {
      * Add a list of RFIDs
      * @param RFIDs codes to add
      */
-    public void addRFIDs (List<String> RFIDs) {
+    public synchronized void addRFIDs (List<String> RFIDs) {
+        int size = this.RFIDs.size();
+        this.RFIDs.addAll(RFIDs);
+        RFIDs.forEach(this::indexRFID);
+        this.adjustStock(this.RFIDs.size() - size);
+    }
+
+    /**
+     * Add a set of units
+     * @param RFIDs units to add
+     */
+    public synchronized void addRFIDs (RFIDSet RFIDs) {
+        int size = this.RFIDs.size();
         this.RFIDs.addAll(RFIDs);
+        if (catalog != null) {
+            RFIDs.forEachRange((from, to) -> catalog.indexRFIDs(this, from, to));
+        }
+        this.adjustStock(this.RFIDs.size() - size);
     }
 
     /**
      * Add length dummy RFIDS (see ProductType.addRFIDs)
      * @param length number of RFIDs to add
      */
-    public void addDummyRFIDs (int length) {
-        this.RFIDs.addAll(Collections.nCopies(length, DUMMY_RFID));
+    public synchronized void addDummyRFIDs (int length) {
+        int size = this.RFIDs.size();
+        this.RFIDs.addDummies(length);
+        this.adjustStock(this.RFIDs.size() - size);
     }
 
     /**
      * Remove one RFID code from the list.
      * @param RFID code to remove
-     * @return true if one RFID was removed, false otherwise
+     * @return true if one RFID was removed, false otherwise (also if all the units are reserved by other sales)
+     */
+    public synchronized boolean removeRFID (String RFID) {
+        if (RFIDs.contains(RFID) && this.reserve(1)) {
+            RFIDs.remove(RFID);
+            this.unindexRFID(RFID);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Remove n RFIDs, starting with the dummy ones
+     * @param n number of RFIDs to remove
+     * @return the removed units, an empty set if the product has less than n units available
      */
-    public boolean removeRFID (String RFID) {
-        return RFIDs.remove(RFID);
+    public RFIDSet pickRFIDs (int n) {
+        return this.reserve(n) ? this.pickReserved(n) : new RFIDSet();
     }
 
     /**
@@ -234,10 +344,59 @@ public class ProductType {
      * @param RFID code to check
      * @return true if the RFID exists, false otherwise
      */
-    public boolean RFIDexists (String RFID) {
+    public synchronized boolean RFIDexists (String RFID) {
         return RFIDs.contains(RFID);
     }
 
+    /**
+     * Set the catalog containing the product
+     * @param catalog catalog containing the product, null if the product is removed from its catalog
+     */
+    void setCatalog (ProductCatalog catalog) {
+        this.catalog = catalog;
+    }
+
+    /**
+     * Get the stock counter, creating it from the units at the first access
+     * @return the stock counter
+     */
+    private AtomicInteger stock () {
+        AtomicInteger stock = this.stock;
+        if (stock == null) {
+            synchronized (this) {
+                if (this.stock == null) {
+                    this.stock = new AtomicInteger(this.RFIDs.size());
+                }
+                stock = this.stock;
+            }
+        }
+        return stock;
+    }
+
+    /**
+     * Update the stock counter after adding units (while holding the monitor of the product): a counter not created
+     * yet is created from the units later
+     * @param delta number of units added
+     */
+    private void adjustStock (int delta) {
+        AtomicInteger stock = this.stock;
+        if (stock != null) {
+            stock.addAndGet(delta);
+        }
+    }
+
+    private void indexRFID (String RFID) {
+        if (catalog != null) {
+            catalog.indexRFID(this, RFID);
+        }
+    }
+
+    private void unindexRFID (String RFID) {
+        if (catalog != null) {
+            catalog.unindexRFID(this, RFID);
+        }
+    }
+
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
@@ -263,25 +422,29 @@ public class ProductType {
      * @return a list of RFIDs
      */
     public static List<String> generateRFIDs (String from, int length) throws InvalidRFIDException {
-        if (!Utils.isValidRFID(from)) {
+        return generateRFIDSet(from, length).getCodes();
+    }
+
+    /**
+     * Generate a set of max(0, length) sequential RFIDs, stored as a single range
+     * @param from starting RFID
+     * @param length number of RFIDs to generate
+     * @return a set of RFIDs: 000000000111 -> 000000000111, 000000000112, 000000000113, ...
+     */
+    public static RFIDSet generateRFIDSet (String from, int length) throws InvalidRFIDException {
+        long numericRFID = Utils.RFIDToLong(from);
+        if (numericRFID < 0) {
             throw new InvalidRFIDException();
         }
 
-        final List<String> newRFIDs = new ArrayList<>();
-
-        // generate the new RFID codes: 000000000111 -> 000000000111, 000000000112, 000000000113, ...
-        long numericRFID = Long.parseLong(from);
-        for (int i = 0; i < length; i++) {
-            // format the number on 12 characters with leading padding zeros
-            long newCode = numericRFID + i;
-            // check if the new RFID generate an overflow
-            if (newCode >= 1e12) {
-                throw new InvalidRFIDException();
-            }
-
-            newRFIDs.add(String.format("%012d", newCode));
+        // check if the last RFID generates an overflow
+        long n = Math.max(0, length);
+        if (numericRFID + n > 1_000_000_000_000L) {
+            throw new InvalidRFIDException();
         }
 
+        RFIDSet newRFIDs = new RFIDSet();
+        newRFIDs.addRange(numericRFID, n);
         return newRFIDs;
     }
 }
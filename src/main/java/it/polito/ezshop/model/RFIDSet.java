@@ -0,0 +1,331 @@
+package it.polito.ezshop.model;
+
+import it.polito.ezshop.utils.LongRangeSet;
+
+import java.util.*;
+
+import static it.polito.ezshop.utils.Utils.DUMMY_RFID;
+import static it.polito.ezshop.utils.Utils.RFIDFromLong;
+import static it.polito.ezshop.utils.Utils.RFIDToLong;
+
+/**
+ * Units of a product, each identified by its RFID.
+ * Units without an RFID (DUMMY_RFID) are only counted, so adding, removing and storing barcode-based quantities
+ * takes constant time and space. The RFIDs of the other units are stored as ranges of consecutive numbers, so the
+ * units of a delivery take constant space until some of them are sold.
+ */
+public class RFIDSet {
+
+    /**
+     * Numeric value of the highest RFID (999999999999)
+     */
+    private static final long MAX_CODE = 999_999_999_999L;
+
+    /**
+     * Number of units without an RFID
+     */
+    private int dummies;
+
+    /**
+     * RFIDs of the tagged units (numeric value of the codes)
+     */
+    private final LongRangeSet codes = new LongRangeSet();
+
+    public RFIDSet() {
+    }
+
+    /**
+     * Create a set containing the given RFIDs
+     *
+     * @param RFIDs codes to add (DUMMY_RFID for units without an RFID)
+     */
+    public RFIDSet(Collection<String> RFIDs) {
+        this.addAll(RFIDs);
+    }
+
+    /**
+     * @return number of units (with or without an RFID)
+     */
+    public int size() {
+        return dummies + codes.size();
+    }
+
+    /**
+     * @return true if the set has no units, false otherwise
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return number of units without an RFID
+     */
+    public int getDummyCount() {
+        return dummies;
+    }
+
+    /**
+     * @return a new list with the RFIDs of the tagged units, in ascending order
+     */
+    public List<String> getCodes() {
+        long[] values = codes.toArray();
+        List<String> list = new ArrayList<>(values.length);
+        for (long value : values) {
+            list.add(RFIDFromLong(value));
+        }
+        return list;
+    }
+
+    /**
+     * @return number of ranges of consecutive RFIDs the tagged units are stored in
+     */
+    public int getRangeCount() {
+        return codes.rangeCount();
+    }
+
+    /**
+     * @return a new array with the bounds of the ranges [from, to) of consecutive RFIDs (numeric values), in
+     *         ascending order: from0, to0, from1, to1, ...
+     */
+    public long[] getRanges() {
+        return codes.toRangeArray();
+    }
+
+    /**
+     * Apply an action to each range [from, to) of consecutive RFIDs (numeric values), in ascending order
+     *
+     * @param action action to apply
+     */
+    public void forEachRange(LongRangeSet.RangeConsumer action) {
+        codes.forEachRange(action);
+    }
+
+    /**
+     * Check if any range [from, to) of consecutive RFIDs (numeric values) satisfies a condition
+     *
+     * @param predicate condition to check
+     * @return true if at least one range satisfies the condition, false otherwise
+     */
+    public boolean anyRangeMatch(LongRangeSet.RangePredicate predicate) {
+        return codes.anyRangeMatch(predicate);
+    }
+
+    /**
+     * Add a unit
+     *
+     * @param RFID code of the unit, DUMMY_RFID for a unit without an RFID
+     * @throws IllegalArgumentException if the code is not valid
+     */
+    public void add(String RFID) {
+        if (DUMMY_RFID.equals(RFID)) {
+            dummies++;
+        } else {
+            this.add(toValue(RFID));
+        }
+    }
+
+    /**
+     * Add a tagged unit
+     *
+     * @param code numeric value of the RFID of the unit
+     * @throws IllegalArgumentException if the value is not the one of a valid RFID
+     */
+    public void add(long code) {
+        this.addRange(code, 1);
+    }
+
+    /**
+     * Add n tagged units with sequential RFIDs
+     *
+     * @param from numeric value of the RFID of the first unit
+     * @param n number of units to add
+     * @throws IllegalArgumentException if some of the values are not the ones of valid RFIDs
+     */
+    public void addRange(long from, long n) {
+        if (n < 0 || from < 0 || from + n > MAX_CODE + 1) {
+            throw new IllegalArgumentException("Invalid RFID range: " + from + " + " + n);
+        }
+        codes.addRange(from, from + n);
+    }
+
+    /**
+     * Add a list of units
+     *
+     * @param RFIDs codes of the units (DUMMY_RFID for units without an RFID)
+     * @throws IllegalArgumentException if a code is not valid
+     */
+    public void addAll(Collection<String> RFIDs) {
+        // sort the codes, so that consecutive ones are added as a single range
+        long[] values = new long[RFIDs.size()];
+        int count = 0;
+        for (String RFID : RFIDs) {
+            if (DUMMY_RFID.equals(RFID)) {
+                dummies++;
+            } else {
+                values[count++] = toValue(RFID);
+            }
+        }
+        Arrays.sort(values, 0, count);
+
+        int start = 0;
+        for (int i = 1; i <= count; i++) {
+            if (i == count || values[i] != values[i - 1] + 1) {
+                codes.addRange(values[start], values[i - 1] + 1);
+                start = i;
+            }
+        }
+    }
+
+    /**
+     * Add all the units of another set
+     *
+     * @param other units to add
+     */
+    public void addAll(RFIDSet other) {
+        this.dummies += other.dummies;
+        this.codes.addAll(other.codes);
+    }
+
+    /**
+     * Add units without an RFID
+     *
+     * @param n number of units to add
+     */
+    public void addDummies(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("The number of units must be non-negative");
+        }
+        dummies += n;
+    }
+
+    /**
+     * Remove one unit
+     *
+     * @param RFID code of the unit, DUMMY_RFID for a unit without an RFID
+     * @return true if the unit was removed, false if it is not in the set
+     */
+    public boolean remove(String RFID) {
+        if (DUMMY_RFID.equals(RFID)) {
+            if (dummies == 0) {
+                return false;
+            }
+            dummies--;
+            return true;
+        }
+        long code = RFIDToLong(RFID);
+        return code >= 0 && codes.remove(code);
+    }
+
+    /**
+     * Remove all the units of another set (see containsAll)
+     *
+     * @param other units to remove
+     * @throws IllegalArgumentException if the units are not contained in this set
+     */
+    public void removeAll(RFIDSet other) {
+        if (!this.containsAll(other)) {
+            throw new IllegalArgumentException("The IDs you are trying to remove do not exist");
+        }
+
+        this.dummies -= Math.min(other.dummies, this.dummies);
+        this.codes.removeAll(other.codes);
+    }
+
+    /**
+     * Check if a unit is in the set
+     *
+     * @param RFID code of the unit, DUMMY_RFID for a unit without an RFID
+     * @return true if the unit is in the set, false otherwise
+     */
+    public boolean contains(String RFID) {
+        if (DUMMY_RFID.equals(RFID)) {
+            return dummies > 0;
+        }
+        long code = RFIDToLong(RFID);
+        return code >= 0 && codes.contains(code);
+    }
+
+    /**
+     * Check if a tagged unit is in the set
+     *
+     * @param code numeric value of the RFID of the unit
+     * @return true if the unit is in the set, false otherwise
+     */
+    public boolean contains(long code) {
+        return codes.contains(code);
+    }
+
+    /**
+     * Check that the RFIDs of another set are part of this one and that this set has at least as many units
+     * (units without an RFID are only counted)
+     *
+     * @param other units to check
+     * @return true if the units are contained in this set, false otherwise
+     */
+    public boolean containsAll(RFIDSet other) {
+        return other.size() <= this.size() && this.codes.containsAll(other.codes);
+    }
+
+    /**
+     * Remove n units, starting with the ones without an RFID and then with the highest RFIDs
+     *
+     * @param n number of units to remove
+     * @return the removed units, an empty set if this set has less than n units
+     */
+    public RFIDSet pick(int n) {
+        RFIDSet picked = new RFIDSet();
+        if (n <= 0 || n > this.size()) {
+            return picked;
+        }
+
+        int pickedDummies = Math.min(n, dummies);
+        this.dummies -= pickedDummies;
+        picked.dummies = pickedDummies;
+
+        // then, pick the tagged units from the end of the last ranges
+        picked.codes.addAll(codes.removeLast(n - pickedDummies));
+
+        return picked;
+    }
+
+    /**
+     * Remove all the units
+     */
+    public void clear() {
+        dummies = 0;
+        codes.clear();
+    }
+
+    /**
+     * Get the units as a list of codes (DUMMY_RFID for units without an RFID)
+     *
+     * @return a new list containing the units without an RFID followed by the tagged ones
+     */
+    public List<String> toList() {
+        List<String> list = new ArrayList<>(this.size());
+        list.addAll(Collections.nCopies(dummies, DUMMY_RFID));
+        list.addAll(getCodes());
+        return list;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        RFIDSet that = (RFIDSet) o;
+        return dummies == that.dummies && codes.equals(that.codes);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(dummies, codes);
+    }
+
+    private static long toValue(String RFID) {
+        long code = RFIDToLong(RFID);
+        if (code < 0) {
+            throw new IllegalArgumentException("Invalid RFID: " + RFID);
+        }
+        return code;
+    }
+}
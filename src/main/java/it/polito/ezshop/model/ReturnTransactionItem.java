@@ -2,7 +2,6 @@ package it.polito.ezshop.model;
 
 import it.polito.ezshop.exceptions.InvalidRFIDException;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 
@@ -12,7 +11,7 @@ public class ReturnTransactionItem {
 
     private ProductType productType;
     private final double pricePerUnit;
-    private final List<String> RFIDs = new ArrayList<>();
+    private final RFIDSet RFIDs = new RFIDSet();
 
     public ReturnTransactionItem(ProductType productType, int amount, double pricePerUnit) throws IllegalArgumentException {
         Objects.requireNonNull(productType);
@@ -39,10 +38,7 @@ public class ReturnTransactionItem {
         if (amount <= 0) {
             throw new IllegalArgumentException("Can only increase number of products in a return transaction item by a positive amount.");
         }
-        while (amount > 0) {
-            this.RFIDs.add(DUMMY_RFID);
-            amount--;
-        }
+        this.RFIDs.addDummies(amount);
     }
 
     public void addRFID(String RFID) throws InvalidRFIDException {
@@ -50,10 +46,39 @@ public class ReturnTransactionItem {
         this.RFIDs.add(RFID);
     }
 
+    /**
+     * Get the RFIDs of the returned units
+     * @return a new list with the RFIDs (DUMMY_RFID for each unit without an RFID)
+     */
     public List<String> getRFIDs() {
+        return this.RFIDs.toList();
+    }
+
+    /**
+     * Add a set of units
+     * @param RFIDs units to add
+     */
+    public void addRFIDs(RFIDSet RFIDs) {
+        this.RFIDs.addAll(RFIDs);
+    }
+
+    /**
+     * Get the returned units
+     * @return units of the item
+     */
+    public RFIDSet getRFIDSet() {
         return this.RFIDs;
     }
 
+    /**
+     * Check if a given RFID was returned
+     * @param RFID code to check
+     * @return true if the RFID is part of the item, false otherwise
+     */
+    public boolean RFIDexists(String RFID) {
+        return this.RFIDs.contains(RFID);
+    }
+
     public ProductType getProductType() {
         return productType;
     }
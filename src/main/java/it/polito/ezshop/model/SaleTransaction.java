@@ -10,12 +10,15 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 
-import static it.polito.ezshop.utils.Utils.pickNRFIDs;
-
 public class SaleTransaction extends Credit {
 
     private final List<TicketEntry> entries = new ArrayList<>();
-    private final List<ReturnTransaction> returnTransactions = new ArrayList<>();
+
+    /**
+     * Return transactions of this sale, not persisted: they are stored once in the account book
+     * (see AccountBook.relinkReturnTransactions)
+     */
+    private final transient List<ReturnTransaction> returnTransactions = new ArrayList<>();
 
     /**
      * Discount rate of the whole sale transaction
@@ -106,6 +109,61 @@ public class SaleTransaction extends Credit {
 
         recomputeBalanceValue();
     }
+
+    /**
+     * Add a set of units of a product to the transaction. The transaction must be in the OPEN state.
+     * The balance value of the transaction is updated.
+     *
+     * @param product      to add
+     * @param RFIDs        units of the product to add
+     */
+    public void addSaleTransactionItemRFIDs(ProductType product, RFIDSet RFIDs) throws IllegalStateException {
+        if (this.getStatus() != OperationStatus.OPEN) {
+            throw new IllegalStateException("Sale transaction is not OPEN.");
+        }
+
+        TicketEntry entry = this.entries.stream()
+                .filter(x -> x.getProductType().getBarCode().equals(product.getBarCode()))
+                .findFirst()
+                .orElse(null);
+
+        if (entry == null) {
+            try {
+                entry = new TicketEntry(product, 0);
+            } catch (InvalidQuantityException e) {
+                // a zero amount is always valid
+                throw new Error("Unable to create an empty ticket entry", e);
+            }
+            entries.add(entry);
+        }
+        entry.addRFIDs(RFIDs);
+
+        recomputeBalanceValue();
+    }
+
+    /**
+     * Pick units of a product reserved with ProductType.reserve and add them to the transaction. If the units can not
+     * be added, they are given back to the product: the reservation if they were not picked yet, the units otherwise.
+     *
+     * @param product      to add
+     * @param amount       number of units reserved
+     * @throws IllegalStateException if the transaction is not OPEN
+     */
+    public void addReservedUnits(ProductType product, int amount) throws IllegalStateException {
+        RFIDSet picked = null;
+        try {
+            picked = product.pickReserved(amount);
+            addSaleTransactionItemRFIDs(product, picked);
+        } catch (RuntimeException ex) {
+            if (picked == null) {
+                product.release(amount);
+            } else {
+                product.addRFIDs(picked);
+            }
+            throw ex;
+        }
+    }
+
     /**
      * Remove a product from the transaction.
      *
@@ -123,8 +181,7 @@ public class SaleTransaction extends Credit {
             return false;
         }
 
-        List<String> RFIDs = pickNRFIDs(entry.getRFIDs(), amount);
-        product.addRFIDs(RFIDs);
+        product.addRFIDs(entry.pickRFIDs(amount));
 
         if (entry.getAmount() == 0) {
             entries.remove(entry);
@@ -219,6 +276,10 @@ public class SaleTransaction extends Credit {
         return ((int) this.computeTotal()) / 10;
     }
 
+    public List<ReturnTransaction> getReturnTransactions() {
+        return this.returnTransactions;
+    }
+
     public void addReturnTransaction(ReturnTransaction returnTransaction) {
         this.returnTransactions.add(returnTransaction);
     }
@@ -0,0 +1,219 @@
+package it.polito.ezshop.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Locks guarding the state of the shop when it is accessed by concurrent sessions (e.g. several cash registers).
+ *
+ * Each resource (users, customers, product catalog, account book) is guarded by a read/write lock: the queries take
+ * the read lock and run in parallel, the operations changing the resource take the write lock.
+ * The content of an open transaction (the products of a sale and of its returns, the discounts) is guarded by a
+ * transaction lock, taken together with the read lock of the account book: operations on different transactions
+ * run in parallel, while the structure of the account book and the status of the transactions are changed with
+ * its write lock. Transaction locks are striped by id, so their number does not grow with the history.
+ * Likewise the sales move the units of the products with the read lock of the catalog, reserving them through the
+ * stock counter of each product and holding its monitor only while the units are moved (see ProductType).
+ *
+ * Deadlocks are prevented by acquiring the locks in a fixed order: the resource locks of an operation are acquired
+ * at once (in the order of Resource), then at most one transaction lock. A read lock can not be upgraded to a write
+ * lock: an operation must request the write lock from the start.
+ */
+public class ShopLocks {
+
+    /**
+     * Resources guarded by a read/write lock, in acquisition order
+     */
+    public enum Resource {
+        USERS, CUSTOMERS, CATALOG, ACCOUNT_BOOK
+    }
+
+    /**
+     * Access to a resource requested by an operation
+     */
+    public static final class Access {
+        private final Resource resource;
+        private final boolean exclusive;
+
+        private Access(Resource resource, boolean exclusive) {
+            this.resource = resource;
+            this.exclusive = exclusive;
+        }
+    }
+
+    /**
+     * Number of transaction locks (a power of two)
+     */
+    public static final int TRANSACTION_STRIPES = 64;
+
+    private final ReentrantReadWriteLock[] resourceLocks = new ReentrantReadWriteLock[Resource.values().length];
+
+    private final ReentrantLock[] transactionLocks = new ReentrantLock[TRANSACTION_STRIPES];
+
+    /**
+     * Number of guards currently open by each thread
+     */
+    private final ThreadLocal<int[]> depth = ThreadLocal.withInitial(() -> new int[1]);
+
+    /**
+     * Called each time a thread releases its last lock (null if none)
+     */
+    private final Runnable releaseListener;
+
+    public ShopLocks() {
+        this(null);
+    }
+
+    /**
+     * Create the locks of a shop
+     *
+     * @param releaseListener called each time a thread releases its last lock, e.g. to complete the writes of the
+     *                        operation outside the locks (null if none)
+     */
+    public ShopLocks(Runnable releaseListener) {
+        for (int i = 0; i < resourceLocks.length; i++) {
+            resourceLocks[i] = new ReentrantReadWriteLock();
+        }
+        for (int i = 0; i < transactionLocks.length; i++) {
+            transactionLocks[i] = new ReentrantLock();
+        }
+        this.releaseListener = releaseListener;
+    }
+
+    /**
+     * @param resource the resource to be read
+     * @return a shared access to the resource
+     */
+    public static Access read(Resource resource) {
+        return new Access(resource, false);
+    }
+
+    /**
+     * @param resource the resource to be changed
+     * @return an exclusive access to the resource
+     */
+    public static Access write(Resource resource) {
+        return new Access(resource, true);
+    }
+
+    /**
+     * Acquire the locks of the requested resources, in the fixed acquisition order.
+     * If a resource is requested both for reading and for writing, the write lock is acquired.
+     *
+     * @param accesses the resources accessed by the operation
+     * @return a guard releasing the locks when it is closed
+     * @throws IllegalStateException if the current thread holds the read lock of a resource it requests to write
+     */
+    public Guard acquire(Access... accesses) {
+        boolean[] requested = new boolean[resourceLocks.length];
+        boolean[] exclusive = new boolean[resourceLocks.length];
+        for (Access access : accesses) {
+            requested[access.resource.ordinal()] = true;
+            exclusive[access.resource.ordinal()] |= access.exclusive;
+        }
+
+        for (int i = 0; i < resourceLocks.length; i++) {
+            if (exclusive[i] && !resourceLocks[i].isWriteLockedByCurrentThread()
+                    && resourceLocks[i].getReadHoldCount() > 0) {
+                throw new IllegalStateException("The read lock of " + Resource.values()[i] + " can not be upgraded");
+            }
+        }
+
+        Guard guard = new Guard();
+        for (int i = 0; i < resourceLocks.length; i++) {
+            if (requested[i]) {
+                guard.lock(exclusive[i] ? resourceLocks[i].writeLock() : resourceLocks[i].readLock());
+            }
+        }
+        return guard;
+    }
+
+    /**
+     * Acquire the locks of all the resources and of all the transactions, e.g. to write a consistent snapshot of the
+     * whole state (shared) or to reset it (exclusive)
+     *
+     * @param exclusive true to acquire the write locks of the resources
+     * @return a guard releasing the locks when it is closed
+     */
+    public Guard acquireAll(boolean exclusive) {
+        Access[] accesses = new Access[Resource.values().length];
+        for (Resource resource : Resource.values()) {
+            accesses[resource.ordinal()] = new Access(resource, exclusive);
+        }
+
+        Guard guard = acquire(accesses);
+        for (ReentrantLock lock : transactionLocks) {
+            guard.lock(lock);
+        }
+        return guard;
+    }
+
+    /**
+     * Open a scope holding no lock that defers the release listener until it is closed: the operations performed
+     * within it by the current thread hold their locks only while they run, and their writes are completed at once
+     * when the scope is closed (e.g. for a batch of commands)
+     *
+     * @return a guard calling the release listener when it is closed
+     */
+    public Guard defer() {
+        return new Guard();
+    }
+
+    /**
+     * @return true if the current thread holds any lock acquired through this object
+     */
+    public boolean isHeldByCurrentThread() {
+        return depth.get()[0] > 0;
+    }
+
+    /**
+     * Locks held by an operation, released in reverse order when the guard is closed
+     */
+    public final class Guard implements AutoCloseable {
+
+        private final List<Lock> locks = new ArrayList<>();
+
+        private boolean closed = false;
+
+        private Guard() {
+            depth.get()[0]++;
+        }
+
+        private void lock(Lock lock) {
+            lock.lock();
+            locks.add(lock);
+        }
+
+        /**
+         * Acquire the lock of a transaction (after the resource locks of the operation)
+         *
+         * @param transactionId id of the transaction
+         */
+        public void lockTransaction(int transactionId) {
+            lock(transactionLocks[transactionId & (TRANSACTION_STRIPES - 1)]);
+        }
+
+        /**
+         * Release the locks; the release listener is called if the thread does not hold other locks
+         */
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            for (int i = locks.size() - 1; i >= 0; i--) {
+                locks.get(i).unlock();
+            }
+
+            int[] count = depth.get();
+            if (--count[0] == 0 && releaseListener != null) {
+                releaseListener.run();
+            }
+        }
+    }
+}
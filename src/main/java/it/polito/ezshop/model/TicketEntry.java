@@ -6,13 +6,10 @@ import it.polito.ezshop.exceptions.InvalidQuantityException;
 import it.polito.ezshop.exceptions.InvalidRFIDException;
 import it.polito.ezshop.utils.Utils;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 
 import static it.polito.ezshop.utils.Utils.DUMMY_RFID;
-import static it.polito.ezshop.utils.Utils.containsRFIDs;
 
 public class TicketEntry {
 
@@ -20,7 +17,7 @@ public class TicketEntry {
     private double pricePerUnit;
     private double discountRate;
 
-    private List<String> RFIDs = new ArrayList<>(); // rfids = { "1", "2", "3"}
+    private final RFIDSet RFIDs = new RFIDSet();
 
     public TicketEntry(ProductType productType, int amount) throws InvalidQuantityException {
         // verify productType is not null
@@ -32,9 +29,7 @@ public class TicketEntry {
         this.productType = productType;
         this.pricePerUnit = productType.getPricePerUnit();
         this.discountRate = 0.0;
-        for (int i = 0; i < amount; i++) {
-            this.addRFID(DUMMY_RFID);
-        }
+        this.RFIDs.addDummies(amount);
     }
 
     public TicketEntry(ProductType productType, String RFID) throws InvalidRFIDException {
@@ -64,9 +59,7 @@ public class TicketEntry {
         this.productType = productType;
         this.pricePerUnit = productType.getPricePerUnit();
         this.discountRate = discount;
-        for (int i = 0; i < amount; i++) {
-            this.addRFID(DUMMY_RFID);
-        }
+        this.RFIDs.addDummies(amount);
     }
 
     public static void validateAmount(int amount) throws InvalidQuantityException {
@@ -110,16 +103,10 @@ public class TicketEntry {
 
         if (delta >= 0) {
             // add new products (dummy RFIDs)
-            this.RFIDs.addAll(Collections.nCopies(delta, DUMMY_RFID));
+            this.RFIDs.addDummies(delta);
         } else {
-            // remove -delta RFIDs
-            int nToRemove = -delta;
-            // first, try to remove DUMMY RFIDs
-            for (; nToRemove > 0 && this.RFIDs.remove(DUMMY_RFID); nToRemove--);
-            // then, remove random RFIDs
-            for (; nToRemove > 0; nToRemove--) {
-                this.RFIDs.remove(0);
-            }
+            // remove -delta RFIDs, starting with the DUMMY ones
+            this.RFIDs.pick(-delta);
         }
     }
 
@@ -141,7 +128,19 @@ public class TicketEntry {
         this.pricePerUnit = pricePerUnit;
     }
 
+    /**
+     * Get the RFIDs of the sold units
+     * @return a new list with the RFIDs (DUMMY_RFID for each unit without an RFID)
+     */
     public List<String> getRFIDs () {
+        return this.RFIDs.toList();
+    }
+
+    /**
+     * Get the sold units
+     * @return units of the entry
+     */
+    public RFIDSet getRFIDSet () {
         return this.RFIDs;
     }
 
@@ -178,12 +177,33 @@ public class TicketEntry {
     }
 
     public void removeRFIDs(List<String> RFIDs) throws IllegalStateException {
-        if (!containsRFIDs(this.RFIDs, RFIDs)) {
-            throw new IllegalArgumentException("The IDs you are trying to remove do not exist");
-        }
-        for (String rfid:RFIDs) {
-            this.removeRFID(rfid);
-        }
+        this.removeRFIDs(new RFIDSet(RFIDs));
+    }
+
+    /**
+     * Remove a set of units (see RFIDSet.containsAll)
+     * @param RFIDs units to remove
+     * @throws IllegalArgumentException if the units are not part of the entry
+     */
+    public void removeRFIDs(RFIDSet RFIDs) throws IllegalArgumentException {
+        this.RFIDs.removeAll(RFIDs);
+    }
+
+    /**
+     * Add a set of units
+     * @param RFIDs units to add
+     */
+    public void addRFIDs (RFIDSet RFIDs) {
+        this.RFIDs.addAll(RFIDs);
+    }
+
+    /**
+     * Remove n units, starting with the ones without an RFID
+     * @param n number of units to remove
+     * @return the removed units, an empty set if the entry has less than n units
+     */
+    public RFIDSet pickRFIDs (int n) {
+        return this.RFIDs.pick(n);
     }
 
     /**
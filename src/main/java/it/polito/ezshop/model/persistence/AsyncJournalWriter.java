@@ -0,0 +1,251 @@
+package it.polito.ezshop.model.persistence;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Background writer that appends journal records on a dedicated thread.
+ * Records submitted in a burst are coalesced and written with a single append, either when the
+ * flush interval elapses or as soon as the pending records exceed the byte threshold.
+ *
+ * Only already serialized records are handed to the writer thread, so it never reads the model objects
+ * while they are modified by the caller.
+ */
+public class AsyncJournalWriter implements AutoCloseable {
+
+    /**
+     * Default maximum time a record waits before being written
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 50;
+
+    /**
+     * Default amount of pending data that triggers an immediate write
+     */
+    public static final int DEFAULT_FLUSH_THRESHOLD_BYTES = 64 * 1024;
+
+    private final PersistenceLayer persistenceLayer;
+    private final long flushIntervalMillis;
+    private final int flushThresholdBytes;
+
+    /**
+     * Records waiting to be written, guarded by this
+     */
+    private List<String> pending = new ArrayList<>();
+    private long pendingBytes = 0;
+
+    /**
+     * Number of records submitted and number of records written (or dropped on failure), guarded by this
+     */
+    private long submitted = 0;
+    private long completed = 0;
+
+    /**
+     * True if a caller is waiting in flush(), the pending records are written without waiting for the interval
+     */
+    private boolean flushRequested = false;
+
+    /**
+     * Last write failure, reported by the next call to flush()
+     */
+    private IOException failure = null;
+
+    private boolean closed = false;
+
+    private final Thread thread;
+
+    /**
+     * Writes the pending records if the JVM exits without closing the writer
+     */
+    private final Thread shutdownHook;
+
+    /**
+     * Create and start a new background writer
+     *
+     * @param persistenceLayer persistence layer used to append the records
+     * @param flushIntervalMillis maximum time (in milliseconds) a record waits before being written
+     * @param flushThresholdBytes amount of pending data (in characters) that triggers an immediate write
+     */
+    public AsyncJournalWriter(PersistenceLayer persistenceLayer, long flushIntervalMillis, int flushThresholdBytes) {
+        if (flushIntervalMillis <= 0 || flushThresholdBytes <= 0) {
+            throw new IllegalArgumentException("Flush interval and threshold must be positive");
+        }
+
+        this.persistenceLayer = persistenceLayer;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.flushThresholdBytes = flushThresholdBytes;
+
+        this.thread = new Thread(this::run, "ezshop-journal-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+
+        this.shutdownHook = new Thread(() -> {
+            try {
+                flush();
+            } catch (IOException ex) {
+                // exceptions are ignored
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Queue a record to be appended to the journal. The method does not wait for the write.
+     *
+     * @param record record returned by PersistenceLayer.serializeRecord
+     */
+    public synchronized void submit(String record) {
+        if (closed) {
+            throw new IllegalStateException("The writer is closed");
+        }
+
+        pending.add(record);
+        pendingBytes += record.length();
+        submitted++;
+
+        if (pendingBytes >= flushThresholdBytes) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Durability barrier: wait until all the records submitted before this call are written to the journal.
+     *
+     * @throws IOException if some of the records could not be written (they are discarded)
+     */
+    public synchronized void flush() throws IOException {
+        long target = submitted;
+        boolean interrupted = false;
+
+        while (completed < target && thread.isAlive()) {
+            flushRequested = true;
+            notifyAll();
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (failure != null) {
+            IOException ex = failure;
+            failure = null;
+            throw ex;
+        }
+    }
+
+    /**
+     * Get the number of records submitted but not written yet
+     *
+     * @return number of pending records
+     */
+    public synchronized long getPendingRecords() {
+        return submitted - completed;
+    }
+
+    /**
+     * Write the pending records and stop the writer thread
+     *
+     * @throws IOException if some of the records could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException ex) {
+            // the JVM is already shutting down
+        }
+
+        synchronized (this) {
+            if (failure != null) {
+                IOException ex = failure;
+                failure = null;
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Body of the writer thread
+     */
+    private void run() {
+        while (true) {
+            List<String> batch;
+
+            synchronized (this) {
+                // wait for the first record of a burst
+                while (pending.isEmpty() && !closed) {
+                    waitUninterruptibly(0);
+                }
+
+                // let the burst accumulate until the interval elapses, the threshold is reached or a flush is requested
+                long deadline = System.currentTimeMillis() + flushIntervalMillis;
+                long remaining = flushIntervalMillis;
+                while (!closed && !flushRequested && pendingBytes < flushThresholdBytes && remaining > 0) {
+                    waitUninterruptibly(remaining);
+                    remaining = deadline - System.currentTimeMillis();
+                }
+
+                if (pending.isEmpty()) {
+                    // closed with nothing left to write
+                    notifyAll();
+                    return;
+                }
+
+                batch = pending;
+                pending = new ArrayList<>();
+                pendingBytes = 0;
+                flushRequested = false;
+            }
+
+            IOException error = null;
+            try {
+                persistenceLayer.appendRecords(batch);
+            } catch (IOException ex) {
+                error = ex;
+            } catch (RuntimeException ex) {
+                error = new IOException(ex);
+            }
+
+            synchronized (this) {
+                completed += batch.size();
+                if (error != null) {
+                    failure = error;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    private void waitUninterruptibly(long millis) {
+        try {
+            wait(millis);
+        } catch (InterruptedException ex) {
+            // the writer thread is stopped only by close()
+        }
+    }
+}
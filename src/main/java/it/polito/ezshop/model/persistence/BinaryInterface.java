@@ -0,0 +1,409 @@
+package it.polito.ezshop.model.persistence;
+
+import it.polito.ezshop.exceptions.*;
+import it.polito.ezshop.model.*;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistence layer storing the snapshots in a compact binary format (see BinaryRecordWriter):
+ * length-prefixed records, varint ids, a string dictionary for barcodes, descriptions and other repeated
+ * values, and delta-encoded numeric arrays for RFIDs.
+ * The journal is the same json journal of JsonInterface.
+ */
+public class BinaryInterface extends JsonInterface {
+
+    /**
+     * Record types
+     */
+    private static final int USER = 1;
+    private static final int PRODUCT = 2;
+    private static final int LOYALTY_CARD = 3;
+    private static final int CUSTOMER = 4;
+    private static final int CREDIT = 5;
+    private static final int DEBIT = 6;
+    private static final int ORDER = 7;
+    private static final int SALE = 8;
+    private static final int RETURN = 9;
+
+    private BinaryInterface(Path path) {
+        super(path, "bin");
+    }
+
+    /**
+     * Create a new instance of BinaryInterface.
+     * This methods creates the destination path if it does not exist.
+     *
+     * @param path is the path of the destination directory
+     * @return an instance of BinaryInterface
+     * @throws IOException if an I/O exception occurs
+     */
+    public static BinaryInterface create(String path) throws IOException {
+        return new BinaryInterface(createDirectory(path));
+    }
+
+    @Override
+    public List<User> readUsers() throws IOException {
+        List<User> users = new ArrayList<>();
+
+        try (BinaryRecordReader reader = BinaryRecordReader.open(usersPath, BUFFER_SIZE)) {
+            int type;
+            while (reader != null && (type = reader.nextRecord()) >= 0) {
+                if (type == USER) {
+                    users.add(new User(reader.readVarInt(), reader.readString(), reader.readString(),
+                            Role.valueOf(reader.readSymbol())));
+                }
+            }
+        } catch (InvalidUserIdException | InvalidUsernameException | InvalidPasswordException |
+                InvalidRoleException | IllegalArgumentException | NullPointerException ex) {
+            throw corrupted(usersPath, ex);
+        }
+
+        return users;
+    }
+
+    @Override
+    public void writeUsers(List<User> users) throws IOException {
+        List<User> data = users == null ? new ArrayList<>() : users;
+
+        writeAtomically(usersPath, channel -> {
+            BinaryRecordWriter writer = newWriter(channel);
+            for (User user : data) {
+                writer.beginRecord(USER);
+                writer.writeVarLong(user.getId());
+                writer.writeString(user.getUsername());
+                writer.writeString(user.getPassword());
+                writer.writeSymbol(user.getRole().name());
+                writer.endRecord();
+            }
+            writer.finish();
+        });
+    }
+
+    @Override
+    public List<ProductType> readProducts() throws IOException {
+        List<ProductType> products = new ArrayList<>();
+
+        try (BinaryRecordReader reader = BinaryRecordReader.open(productsPath, BUFFER_SIZE)) {
+            int type;
+            while (reader != null && (type = reader.nextRecord()) >= 0) {
+                if (type == PRODUCT) {
+                    ProductType product = readProduct(reader);
+                    product.addRFIDs(reader.readRFIDs());
+                    products.add(product);
+                }
+            }
+        } catch (InvalidProductIdException | InvalidProductDescriptionException | InvalidProductCodeException |
+                InvalidPricePerUnitException | InvalidQuantityException | InvalidLocationException ex) {
+            throw corrupted(productsPath, ex);
+        }
+
+        return products;
+    }
+
+    @Override
+    public void writeProducts(List<ProductType> products) throws IOException {
+        List<ProductType> data = products == null ? new ArrayList<>() : products;
+
+        writeAtomically(productsPath, channel -> {
+            BinaryRecordWriter writer = newWriter(channel);
+            for (ProductType product : data) {
+                writer.beginRecord(PRODUCT);
+                writeProduct(writer, product);
+                writer.writeRFIDs(product.getRFIDSet());
+                writer.endRecord();
+            }
+            writer.finish();
+        });
+    }
+
+    @Override
+    public CustomerList readCustomerList() throws IOException {
+        CustomerList customerList = new CustomerList();
+
+        try (BinaryRecordReader reader = BinaryRecordReader.open(customerListPath, BUFFER_SIZE)) {
+            int type;
+            while (reader != null && (type = reader.nextRecord()) >= 0) {
+                if (type == LOYALTY_CARD) {
+                    customerList.putLoyaltyCard(readLoyaltyCard(reader));
+                } else if (type == CUSTOMER) {
+                    Customer customer = new Customer(reader.readVarInt(), reader.readString());
+                    if (reader.readByte() != 0) {
+                        customer.setCard(readLoyaltyCard(reader));
+                    }
+                    customerList.putCustomer(customer);
+                }
+            }
+        } catch (InvalidCustomerIdException | InvalidCustomerNameException | InvalidCustomerCardException |
+                IllegalArgumentException ex) {
+            throw corrupted(customerListPath, ex);
+        }
+
+        return customerList;
+    }
+
+    @Override
+    public void writeCustomerList(CustomerList customerList) throws IOException {
+        CustomerList data = customerList == null ? new CustomerList() : customerList;
+
+        writeAtomically(customerListPath, channel -> {
+            BinaryRecordWriter writer = newWriter(channel);
+            for (LoyaltyCard card : data.getAllLoyaltyCards()) {
+                writer.beginRecord(LOYALTY_CARD);
+                writeLoyaltyCard(writer, card);
+                writer.endRecord();
+            }
+            for (Customer customer : data.getAllCustomers()) {
+                writer.beginRecord(CUSTOMER);
+                writer.writeVarLong(customer.getId());
+                writer.writeString(customer.getCustomerName());
+                if (customer.getCard() == null) {
+                    writer.writeByte(0);
+                } else {
+                    writer.writeByte(1);
+                    writeLoyaltyCard(writer, customer.getCard());
+                }
+                writer.endRecord();
+            }
+            writer.finish();
+        });
+    }
+
+    @Override
+    public AccountBook readAccountBook() throws IOException {
+        AccountBook accountBook = new AccountBook();
+
+        // products referenced by the operations, written before them
+        Map<Integer, ProductType> products = new HashMap<>();
+
+        try (BinaryRecordReader reader = BinaryRecordReader.open(accountBookPath, BUFFER_SIZE)) {
+            int type;
+            while (reader != null && (type = reader.nextRecord()) >= 0) {
+                if (type == PRODUCT) {
+                    ProductType product = readProduct(reader);
+                    products.put(product.getId(), product);
+                    continue;
+                }
+                if (type < CREDIT || type > RETURN) {
+                    // unknown record
+                    continue;
+                }
+
+                int balanceId = reader.readVarInt();
+                LocalDate date = reader.readDate();
+                double money = reader.readDouble();
+                OperationStatus status = OperationStatus.valueOf(reader.readSymbol());
+
+                BalanceOperation operation;
+                switch (type) {
+                    case CREDIT:
+                        operation = new Credit(balanceId, date, money, status);
+                        break;
+                    case DEBIT:
+                        operation = new Debit(balanceId, date, money, status);
+                        break;
+                    case ORDER:
+                        operation = new Order(balanceId, date, reader.readSymbol(), reader.readDouble(),
+                                reader.readVarInt());
+                        break;
+                    case SALE:
+                        operation = readSale(reader, balanceId, date, products);
+                        break;
+                    case RETURN:
+                        operation = readReturn(reader, balanceId, date, products);
+                        break;
+                    default:
+                        continue;
+                }
+
+                operation.setStatus(status);
+                operation.setBalanceValue(money);
+                accountBook.addTransaction(operation);
+            }
+        } catch (InvalidProductIdException | InvalidProductDescriptionException | InvalidProductCodeException |
+                InvalidPricePerUnitException | InvalidQuantityException | InvalidLocationException |
+                InvalidDiscountRateException | IllegalArgumentException | NullPointerException ex) {
+            throw corrupted(accountBookPath, ex);
+        }
+
+        accountBook.relinkReturnTransactions();
+        accountBook.computeBalance();
+        return accountBook;
+    }
+
+    @Override
+    public void writeAccountBook(AccountBook accountBook) throws IOException {
+        AccountBook data = accountBook == null ? new AccountBook() : accountBook;
+
+        writeAtomically(accountBookPath, channel -> {
+            BinaryRecordWriter writer = newWriter(channel);
+
+            // each product is written once, the operations refer to it by id
+            for (ProductType product : referencedProducts(data.getAllTransactions())) {
+                writer.beginRecord(PRODUCT);
+                writeProduct(writer, product);
+                writer.endRecord();
+            }
+
+            for (BalanceOperation operation : data.getAllTransactions()) {
+                writeOperation(writer, operation);
+            }
+            writer.finish();
+        });
+    }
+
+    private static SaleTransaction readSale(BinaryRecordReader reader, int balanceId, LocalDate date,
+                                            Map<Integer, ProductType> products)
+            throws IOException, InvalidQuantityException, InvalidDiscountRateException, InvalidPricePerUnitException {
+        double discountRate = reader.readDouble();
+
+        int size = reader.readVarInt();
+        List<TicketEntry> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            TicketEntry entry = new TicketEntry(readProductReference(reader, products), 0, 0.0);
+            entry.setPricePerUnit(reader.readDouble());
+            entry.setDiscountRate(reader.readDouble());
+            entry.addRFIDs(reader.readRFIDs());
+            entries.add(entry);
+        }
+
+        return new SaleTransaction(balanceId, date, entries, discountRate);
+    }
+
+    private static ReturnTransaction readReturn(BinaryRecordReader reader, int balanceId, LocalDate date,
+                                                Map<Integer, ProductType> products) throws IOException {
+        int saleTransactionId = reader.readVarInt();
+
+        int size = reader.readVarInt();
+        List<ReturnTransactionItem> items = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            ReturnTransactionItem item = new ReturnTransactionItem(readProductReference(reader, products),
+                    reader.readDouble());
+            item.addRFIDs(reader.readRFIDs());
+            items.add(item);
+        }
+
+        return new ReturnTransaction(balanceId, saleTransactionId, date, items);
+    }
+
+    private static void writeOperation(BinaryRecordWriter writer, BalanceOperation operation) throws IOException {
+        // the most specific classes first
+        int type;
+        if (operation instanceof SaleTransaction) {
+            type = SALE;
+        } else if (operation instanceof ReturnTransaction) {
+            type = RETURN;
+        } else if (operation instanceof Order) {
+            type = ORDER;
+        } else if (operation instanceof Credit) {
+            type = CREDIT;
+        } else {
+            type = DEBIT;
+        }
+
+        writer.beginRecord(type);
+        writer.writeVarLong(operation.getBalanceId());
+        writer.writeDate(operation.getDate());
+        writer.writeDouble(operation.getBalanceValue());
+        writer.writeSymbol(operation.getStatus().name());
+
+        if (type == ORDER) {
+            Order order = (Order) operation;
+            writer.writeSymbol(order.getProductCode());
+            writer.writeDouble(order.getPricePerUnit());
+            writer.writeVarLong(order.getQuantity());
+        } else if (type == SALE) {
+            SaleTransaction sale = (SaleTransaction) operation;
+            writer.writeDouble(sale.getDiscountRate());
+
+            writer.writeVarLong(sale.getTransactionItems().size());
+            for (TicketEntry entry : sale.getTransactionItems()) {
+                writer.writeVarLong(entry.getProductType().getId());
+                writer.writeDouble(entry.getPricePerUnit());
+                writer.writeDouble(entry.getDiscountRate());
+                writer.writeRFIDs(entry.getRFIDSet());
+            }
+        } else if (type == RETURN) {
+            ReturnTransaction returnTransaction = (ReturnTransaction) operation;
+            writer.writeVarLong(returnTransaction.getSaleTransactionId());
+
+            writer.writeVarLong(returnTransaction.getTransactionItems().size());
+            for (ReturnTransactionItem item : returnTransaction.getTransactionItems()) {
+                writer.writeVarLong(item.getProductType().getId());
+                writer.writeDouble(item.getPricePerUnit());
+                writer.writeRFIDs(item.getRFIDSet());
+            }
+        }
+
+        writer.endRecord();
+    }
+
+    /**
+     * Write the attributes of a product, except its RFIDs.
+     * Products referenced by balance operations are replaced on load by the instances in the product list.
+     */
+    private static void writeProduct(BinaryRecordWriter writer, ProductType product) {
+        writer.writeVarLong(product.getId());
+        writer.writeSymbol(product.getProductDescription());
+        writer.writeSymbol(product.getBarCode());
+        writer.writeDouble(product.getPricePerUnit());
+        writer.writeSymbol(product.getNote());
+        writer.writeSymbol(product.getPosition() == null ? null : product.getPosition().toString());
+    }
+
+    private static ProductType readProduct(BinaryRecordReader reader)
+            throws IOException, InvalidProductIdException, InvalidProductDescriptionException,
+            InvalidProductCodeException, InvalidPricePerUnitException, InvalidQuantityException,
+            InvalidLocationException {
+        int id = reader.readVarInt();
+        String description = reader.readSymbol();
+        String barCode = reader.readSymbol();
+        double pricePerUnit = reader.readDouble();
+        String note = reader.readSymbol();
+        String position = reader.readSymbol();
+
+        return new ProductType(id, description, barCode, pricePerUnit, note, 0,
+                position == null ? null : new Position(position));
+    }
+
+    /**
+     * Read the id of a product referenced by a balance operation
+     */
+    private static ProductType readProductReference(BinaryRecordReader reader, Map<Integer, ProductType> products)
+            throws IOException {
+        ProductType product = products.get(reader.readVarInt());
+        if (product == null) {
+            throw new IOException("Corrupted binary snapshot: unknown product");
+        }
+        return product;
+    }
+
+    private static void writeLoyaltyCard(BinaryRecordWriter writer, LoyaltyCard card) {
+        writer.writeString(card.getCode());
+        writer.writeVarLong(card.getPoints());
+    }
+
+    private static LoyaltyCard readLoyaltyCard(BinaryRecordReader reader)
+            throws IOException, InvalidCustomerCardException {
+        LoyaltyCard card = new LoyaltyCard(reader.readString());
+        card.setPoints(reader.readVarInt());
+        return card;
+    }
+
+    private static BinaryRecordWriter newWriter(FileChannel channel) throws IOException {
+        return new BinaryRecordWriter(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+    }
+
+    private static IOException corrupted(Path path, Exception cause) {
+        return new IOException("Corrupted binary snapshot " + path, cause);
+    }
+}
@@ -0,0 +1,248 @@
+package it.polito.ezshop.model.persistence;
+
+import it.polito.ezshop.model.RFIDSet;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Reads the records of a binary snapshot file written by BinaryRecordWriter.
+ * The dictionary is loaded first, then the records are streamed one at a time.
+ */
+class BinaryRecordReader implements Closeable {
+
+    private static final int HEADER_SIZE = BinaryRecordWriter.MAGIC.length + 1;
+    private static final int TRAILER_SIZE = 8;
+
+    private final FileChannel channel;
+    private final InputStream in;
+    private final String[] symbols;
+
+    /**
+     * Bytes of the records section not read yet
+     */
+    private long remaining;
+
+    /**
+     * Content of the current record
+     */
+    private byte[] record = new byte[256];
+    private int position = 0;
+    private int limit = 0;
+
+    private BinaryRecordReader(FileChannel channel, int bufferSize) throws IOException {
+        this.channel = channel;
+
+        long size = channel.size();
+        if (size < HEADER_SIZE + TRAILER_SIZE) {
+            throw new IOException("Not a binary snapshot: file too short");
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, 0);
+        byte[] magic = Arrays.copyOf(header.array(), BinaryRecordWriter.MAGIC.length);
+        if (!Arrays.equals(magic, BinaryRecordWriter.MAGIC) || header.get(HEADER_SIZE - 1) != BinaryRecordWriter.VERSION) {
+            throw new IOException("Not a binary snapshot or unsupported version");
+        }
+
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+        readFully(trailer, size - TRAILER_SIZE);
+        long dictionaryOffset = trailer.getLong(0);
+        if (dictionaryOffset < HEADER_SIZE || dictionaryOffset > size - TRAILER_SIZE) {
+            throw new IOException("Corrupted binary snapshot: invalid dictionary offset");
+        }
+
+        // load the dictionary
+        ByteBuffer dictionary = ByteBuffer.allocate((int) (size - TRAILER_SIZE - dictionaryOffset));
+        readFully(dictionary, dictionaryOffset);
+        this.record = dictionary.array();
+        this.limit = dictionary.capacity();
+        this.symbols = new String[readVarInt()];
+        for (int i = 0; i < symbols.length; i++) {
+            symbols[i] = readString();
+        }
+
+        // stream the records
+        this.record = new byte[256];
+        this.position = 0;
+        this.limit = 0;
+        this.remaining = dictionaryOffset - HEADER_SIZE;
+        channel.position(HEADER_SIZE);
+        this.in = new BufferedInputStream(Channels.newInputStream(channel), bufferSize);
+    }
+
+    /**
+     * Open a binary snapshot file
+     *
+     * @param path of the file
+     * @param bufferSize size of the read buffer
+     * @return a reader positioned before the first record, null if the file does not exist or is empty
+     * @throws IOException if the file can not be read or is not a binary snapshot
+     */
+    static BinaryRecordReader open(Path path, int bufferSize) throws IOException {
+        if (Files.notExists(path) || Files.size(path) == 0) {
+            return null;
+        }
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new BinaryRecordReader(channel, bufferSize);
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Load the next record
+     *
+     * @return the type of the record, -1 if there are no more records
+     * @throws IOException if an I/O exception occurs or the file is truncated
+     */
+    int nextRecord() throws IOException {
+        if (remaining <= 0) {
+            return -1;
+        }
+
+        // read the length prefix
+        long recordLength = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.read();
+            if (b < 0) {
+                throw new EOFException("Truncated binary snapshot");
+            }
+            recordLength |= (long) (b & 0x7F) << shift;
+            shift += 7;
+            remaining--;
+        } while ((b & 0x80) != 0);
+
+        if (recordLength <= 0 || recordLength > remaining) {
+            throw new IOException("Corrupted binary snapshot: invalid record length");
+        }
+
+        if (recordLength > record.length) {
+            record = new byte[(int) Math.max(recordLength, record.length * 2L)];
+        }
+        int read = 0;
+        while (read < recordLength) {
+            int n = in.read(record, read, (int) recordLength - read);
+            if (n < 0) {
+                throw new EOFException("Truncated binary snapshot");
+            }
+            read += n;
+        }
+        remaining -= recordLength;
+
+        position = 0;
+        limit = (int) recordLength;
+        return readByte();
+    }
+
+    int readByte() throws IOException {
+        if (position >= limit) {
+            throw new EOFException("Corrupted binary snapshot: record too short");
+        }
+        return record[position++] & 0xFF;
+    }
+
+    long readVarLong() throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    int readVarInt() throws IOException {
+        return (int) readVarLong();
+    }
+
+    double readDouble() throws IOException {
+        long bits = 0;
+        for (int i = 0; i < 8; i++) {
+            bits = (bits << 8) | readByte();
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    String readString() throws IOException {
+        int length = readVarInt();
+        if (length == 0) {
+            return null;
+        }
+        length--;
+        if (length > limit - position) {
+            throw new EOFException("Corrupted binary snapshot: string too long");
+        }
+        String value = new String(record, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    String readSymbol() throws IOException {
+        int index = readVarInt();
+        if (index == 0) {
+            return null;
+        }
+        if (index > symbols.length) {
+            throw new IOException("Corrupted binary snapshot: unknown symbol");
+        }
+        return symbols[index - 1];
+    }
+
+    LocalDate readDate() throws IOException {
+        long value = readVarLong();
+        if (value == 0) {
+            return null;
+        }
+        value--;
+        return LocalDate.ofEpochDay((value >>> 1) ^ -(value & 1));
+    }
+
+    RFIDSet readRFIDs() throws IOException {
+        RFIDSet RFIDs = new RFIDSet();
+        RFIDs.addDummies(readVarInt());
+
+        int ranges = readVarInt();
+        long previous = 0;
+        for (int i = 0; i < ranges; i++) {
+            long from = previous + readVarLong();
+            long n = readVarLong();
+            RFIDs.addRange(from, n);
+            previous = from + n;
+        }
+
+        return RFIDs;
+    }
+
+    private void readFully(ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("Truncated binary snapshot");
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
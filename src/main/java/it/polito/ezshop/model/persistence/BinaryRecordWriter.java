@@ -0,0 +1,211 @@
+package it.polito.ezshop.model.persistence;
+
+import it.polito.ezshop.model.RFIDSet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a binary snapshot file. The file is made of:
+ * <ul>
+ *     <li>a header (magic bytes and format version)</li>
+ *     <li>a sequence of records, each prefixed by its length; the first byte of a record is its type</li>
+ *     <li>the string dictionary: the symbols (barcodes, descriptions, ...) referenced by index from the records</li>
+ *     <li>a trailer with the offset of the dictionary</li>
+ * </ul>
+ * Integers are stored as varints, so small ids take a single byte.
+ */
+class BinaryRecordWriter {
+
+    static final byte[] MAGIC = {'E', 'Z', 'S', 'B'};
+    static final int VERSION = 4;
+
+    private final OutputStream out;
+
+    /**
+     * Number of bytes written to out
+     */
+    private long offset = 0;
+
+    /**
+     * String dictionary: symbol -> index
+     */
+    private final Map<String, Integer> symbols = new HashMap<>();
+    private final List<String> symbolList = new ArrayList<>();
+
+    /**
+     * Content of the current record
+     */
+    private byte[] record = new byte[256];
+    private int length = 0;
+
+    /**
+     * Create a writer and write the file header
+     *
+     * @param out destination stream, it is flushed by finish() but never closed
+     * @throws IOException if an I/O exception occurs
+     */
+    BinaryRecordWriter(OutputStream out) throws IOException {
+        this.out = out;
+        out.write(MAGIC);
+        out.write(VERSION);
+        offset = MAGIC.length + 1;
+    }
+
+    /**
+     * Start a new record
+     *
+     * @param type type of the record
+     */
+    void beginRecord(int type) {
+        length = 0;
+        writeByte(type);
+    }
+
+    /**
+     * Write the current record, prefixed by its length
+     *
+     * @throws IOException if an I/O exception occurs
+     */
+    void endRecord() throws IOException {
+        offset += writeVarLong(out, length);
+        out.write(record, 0, length);
+        offset += length;
+    }
+
+    void writeByte(int value) {
+        ensureCapacity(1);
+        record[length++] = (byte) value;
+    }
+
+    /**
+     * Write a non-negative integer as a varint (7 bits per byte)
+     */
+    void writeVarLong(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            record[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        record[length++] = (byte) value;
+    }
+
+    void writeDouble(double value) {
+        long bits = Double.doubleToLongBits(value);
+        ensureCapacity(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            record[length++] = (byte) (bits >>> shift);
+        }
+    }
+
+    /**
+     * Write a string inline (for values that are rarely repeated)
+     */
+    void writeString(String value) {
+        if (value == null) {
+            writeVarLong(0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(bytes.length + 1L);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, record, length, bytes.length);
+        length += bytes.length;
+    }
+
+    /**
+     * Write a string as a reference to the dictionary (for values repeated across records)
+     */
+    void writeSymbol(String value) {
+        if (value == null) {
+            writeVarLong(0);
+            return;
+        }
+        Integer index = symbols.get(value);
+        if (index == null) {
+            index = symbolList.size();
+            symbols.put(value, index);
+            symbolList.add(value);
+        }
+        writeVarLong(index + 1L);
+    }
+
+    void writeDate(LocalDate date) {
+        if (date == null) {
+            writeVarLong(0);
+        } else {
+            writeVarLong(zigzag(date.toEpochDay()) + 1);
+        }
+    }
+
+    /**
+     * Write a set of units as the number of units without an RFID followed by an array of ranges of sequential
+     * RFIDs, each stored as the gap from the end of the previous range and the number of RFIDs
+     * (a delivery takes a few bytes whatever its size)
+     */
+    void writeRFIDs(RFIDSet RFIDs) {
+        writeVarLong(RFIDs.getDummyCount());
+        long[] ranges = RFIDs.getRanges();
+        writeVarLong(ranges.length / 2);
+        long previous = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            writeVarLong(ranges[i] - previous);
+            writeVarLong(ranges[i + 1] - ranges[i]);
+            previous = ranges[i + 1];
+        }
+    }
+
+    /**
+     * Write the dictionary and the trailer, then flush the stream
+     *
+     * @throws IOException if an I/O exception occurs
+     */
+    void finish() throws IOException {
+        long dictionaryOffset = offset;
+
+        length = 0;
+        writeVarLong(symbolList.size());
+        for (String symbol : symbolList) {
+            writeString(symbol);
+        }
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            writeByte((int) (dictionaryOffset >>> shift));
+        }
+        out.write(record, 0, length);
+        out.flush();
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (length + bytes > record.length) {
+            byte[] larger = new byte[Math.max(record.length * 2, length + bytes)];
+            System.arraycopy(record, 0, larger, 0, length);
+            record = larger;
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * Write a varint directly to a stream
+     *
+     * @return number of bytes written
+     */
+    private static int writeVarLong(OutputStream out, long value) throws IOException {
+        int bytes = 1;
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+            bytes++;
+        }
+        out.write((int) value);
+        return bytes;
+    }
+}
@@ -0,0 +1,84 @@
+package it.polito.ezshop.model.persistence;
+
+/**
+ * Counters of the fsync calls issued by the persistence layer: how many, how long they took and how many
+ * journal records (or files) each of them made durable.
+ */
+public class FsyncMetrics {
+
+    private long count = 0;
+    private long totalNanos = 0;
+    private long maxNanos = 0;
+    private long items = 0;
+
+    /**
+     * Record a completed fsync
+     *
+     * @param nanos duration of the call in nanoseconds
+     * @param items number of records/files made durable by the call
+     */
+    synchronized void record(long nanos, long items) {
+        this.count++;
+        this.totalNanos += nanos;
+        this.maxNanos = Math.max(this.maxNanos, nanos);
+        this.items += items;
+    }
+
+    /**
+     * @return number of fsync calls
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @return total time spent in fsync, in nanoseconds
+     */
+    public synchronized long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * @return longest fsync, in nanoseconds
+     */
+    public synchronized long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * @return average fsync duration in nanoseconds, 0 if no fsync was issued
+     */
+    public synchronized long getAverageNanos() {
+        return count == 0 ? 0 : totalNanos / count;
+    }
+
+    /**
+     * @return number of records/files made durable
+     */
+    public synchronized long getItems() {
+        return items;
+    }
+
+    /**
+     * @return average number of records/files made durable by a single fsync
+     */
+    public synchronized double getItemsPerFsync() {
+        return count == 0 ? 0 : (double) items / count;
+    }
+
+    /**
+     * Clear all the counters
+     */
+    public synchronized void reset() {
+        count = 0;
+        totalNanos = 0;
+        maxNanos = 0;
+        items = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("fsync count=%d avg=%dus max=%dus items/fsync=%.2f",
+                count, getAverageNanos() / 1000, maxNanos / 1000, getItemsPerFsync());
+    }
+}
@@ -0,0 +1,135 @@
+package it.polito.ezshop.model.persistence;
+
+import com.google.gson.JsonElement;
+import it.polito.ezshop.model.*;
+
+import java.util.List;
+
+/**
+ * A single change to the application state: an entity that was created/updated (PUT)
+ * or deleted (REMOVE). The changes produced by one API call are appended to the journal
+ * together as one record.
+ */
+public class JournalEntry {
+
+    /**
+     * Kind of entity affected by the change
+     */
+    public enum Target {
+        USER(PersistenceLayer.Aggregate.USERS),
+        PRODUCT(PersistenceLayer.Aggregate.PRODUCTS),
+        CUSTOMER(PersistenceLayer.Aggregate.CUSTOMERS),
+        LOYALTY_CARD(PersistenceLayer.Aggregate.CUSTOMERS),
+        BALANCE_OPERATION(PersistenceLayer.Aggregate.ACCOUNT_BOOK);
+
+        private final PersistenceLayer.Aggregate aggregate;
+
+        Target(PersistenceLayer.Aggregate aggregate) {
+            this.aggregate = aggregate;
+        }
+
+        /**
+         * Get the persisted root (i.e. file) that contains entities of this kind
+         *
+         * @return the aggregate of the entity
+         */
+        public PersistenceLayer.Aggregate getAggregate() {
+            return aggregate;
+        }
+    }
+
+    /**
+     * Kind of change
+     */
+    public enum Action {
+        PUT,
+        REMOVE
+    }
+
+    private final Target target;
+    private final Action action;
+
+    /**
+     * Identifier of the affected entity (id or loyalty card code)
+     */
+    private final String key;
+
+    /**
+     * Changed entity (PUT only), serialized lazily when the entry is written
+     */
+    private final transient Object value;
+
+    /**
+     * Serialized entity (PUT only)
+     */
+    JsonElement data;
+
+    /**
+     * Products referenced by a serialized balance operation, without their RFIDs
+     * (the operation stores only their ids)
+     */
+    List<ProductType> products;
+
+    private JournalEntry(Target target, Action action, String key, Object value) {
+        this.target = target;
+        this.action = action;
+        this.key = key;
+        this.value = value;
+    }
+
+    public static JournalEntry putUser(User user) {
+        return new JournalEntry(Target.USER, Action.PUT, String.valueOf(user.getId()), user);
+    }
+
+    public static JournalEntry removeUser(int id) {
+        return new JournalEntry(Target.USER, Action.REMOVE, String.valueOf(id), null);
+    }
+
+    public static JournalEntry putProduct(ProductType product) {
+        return new JournalEntry(Target.PRODUCT, Action.PUT, String.valueOf(product.getId()), product);
+    }
+
+    public static JournalEntry removeProduct(int id) {
+        return new JournalEntry(Target.PRODUCT, Action.REMOVE, String.valueOf(id), null);
+    }
+
+    public static JournalEntry putCustomer(Customer customer) {
+        return new JournalEntry(Target.CUSTOMER, Action.PUT, String.valueOf(customer.getId()), customer);
+    }
+
+    public static JournalEntry removeCustomer(int id) {
+        return new JournalEntry(Target.CUSTOMER, Action.REMOVE, String.valueOf(id), null);
+    }
+
+    public static JournalEntry putLoyaltyCard(LoyaltyCard card) {
+        return new JournalEntry(Target.LOYALTY_CARD, Action.PUT, card.getCode(), card);
+    }
+
+    public static JournalEntry removeLoyaltyCard(String code) {
+        return new JournalEntry(Target.LOYALTY_CARD, Action.REMOVE, code, null);
+    }
+
+    public static JournalEntry putOperation(BalanceOperation operation) {
+        return new JournalEntry(Target.BALANCE_OPERATION, Action.PUT, String.valueOf(operation.getBalanceId()), operation);
+    }
+
+    public static JournalEntry removeOperation(int balanceId) {
+        return new JournalEntry(Target.BALANCE_OPERATION, Action.REMOVE, String.valueOf(balanceId), null);
+    }
+
+    public Target getTarget() {
+        return target;
+    }
+
+    public Action getAction() {
+        return action;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+}
@@ -2,48 +2,151 @@ package it.polito.ezshop.model.persistence;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.InstanceCreator;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonParseException;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import it.polito.ezshop.exceptions.*;
 import it.polito.ezshop.model.*;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
-public class JsonInterface {
+public class JsonInterface implements PersistenceLayer {
 
     /**
-     * Path of the users json file
+     * Path of the users snapshot file
      */
-    private final Path usersPath;
+    protected final Path usersPath;
 
     /**
-     * Path of the products json file
+     * Path of the products snapshot file
      */
-    private final Path productsPath;
+    protected final Path productsPath;
 
     /**
-     * Path of the account book json file
+     * Path of the account book snapshot file
      */
-    private final Path accountBookPath;
+    protected final Path accountBookPath;
 
     /**
-     * Path of the customers json file
+     * Path of the customers snapshot file
      */
-    private final Path customerListPath;
+    protected final Path customerListPath;
+
+    /**
+     * Path of the file of the high-water marks of the id allocators (json in every format)
+     */
+    private final Path idReservationsPath;
+
+    /**
+     * Path of the journal file (one record of changes per line, appended after the last snapshot)
+     */
+    private final Path journalPath;
+
+    /**
+     * Number of records appended to the journal since the last snapshot
+     * (volatile: it is updated by the background writer in asynchronous mode)
+     */
+    private volatile int journalLength = 0;
+
+    /**
+     * Channel used to append to the journal, opened on the first append (guarded by journalLock)
+     */
+    private FileChannel journalChannel = null;
+
+    /**
+     * Number of records appended to the journal since it was opened (guarded by journalLock)
+     */
+    private long appendedRecords = 0;
+
+    private final Object journalLock = new Object();
+
+    /**
+     * Group commit state: number of appended records already forced to disk and whether a thread is
+     * currently forcing the journal (guarded by syncLock)
+     */
+    private long syncedRecords = 0;
+    private boolean syncing = false;
+
+    private final Object syncLock = new Object();
+
+    /**
+     * Fsync counters of the journal and of the snapshot files
+     */
+    private final FsyncMetrics journalFsyncMetrics = new FsyncMetrics();
+    private final FsyncMetrics snapshotFsyncMetrics = new FsyncMetrics();
+
+    /**
+     * Aggregates modified since they were last written (guarded by itself: the aggregates are modified
+     * concurrently by different threads)
+     */
+    private final Set<Aggregate> dirty = EnumSet.noneOf(Aggregate.class);
 
     /**
      * Instance of the Gson serializer/deserializer
      */
     private final Gson gson;
 
+    /**
+     * Gson serializer/deserializer of the balance operations: the products of ticket entries and return items
+     * are stored as references (see ProductReferenceAdapter)
+     */
+    private final Gson operationGson;
+
+    /**
+     * Serialization type of the high-water marks of the id allocators
+     */
+    private static final Type ID_RESERVATIONS_TYPE =
+            TypeToken.getParameterized(Map.class, IdSequence.class, Integer.class).getType();
+
+    /**
+     * Size of the buffers used to stream the snapshot files
+     */
+    protected static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Writes the content of a snapshot file
+     */
+    protected interface SnapshotWriter {
+        /**
+         * Write the content of the file. The channel must not be closed.
+         *
+         * @param channel channel of the (temporary) file
+         * @throws IOException if an I/O exception occurs
+         */
+        void write(FileChannel channel) throws IOException;
+    }
+
     /**
      * Construct a new instance of JsonInterfaceImpl.
      * This constructor assumes that the desired path exists.
@@ -51,12 +154,16 @@ public class JsonInterface {
      * @param path path that should contains the application data
      */
     private JsonInterface(Path path) {
-        // create the paths for each file
-        this.usersPath = Paths.get(path.toString(), "users.json");
-        this.productsPath = Paths.get(path.toString(), "products.json");
-        this.accountBookPath = Paths.get(path.toString(), "account_book.json");
-        this.customerListPath = Paths.get(path.toString(), "customers.json");
+        this(path, "json");
+    }
 
+    /**
+     * Create a Gson builder configured for the model of the shop (the subclasses of BalanceOperation, the dates and
+     * the RFIDs), e.g. to exchange the same JSON format with other components
+     *
+     * @return a new builder
+     */
+    public static GsonBuilder newGsonBuilder() {
         // see https://jansipke.nl/serialize-and-deserialize-a-list-of-polymorphic-objects-with-gson/
         // create a runtime adapter that instantiate the correct subclass of BalanceOperation
         RuntimeTypeAdapterFactory<BalanceOperation> runtimeTypeAdapterFactory = RuntimeTypeAdapterFactory
@@ -67,7 +174,36 @@ public class JsonInterface {
                 .registerSubtype(SaleTransaction.class, "sale")
                 .registerSubtype(ReturnTransaction.class, "return");
 
-        this.gson = new GsonBuilder().registerTypeAdapterFactory(runtimeTypeAdapterFactory).create();
+        return new GsonBuilder()
+                .registerTypeAdapterFactory(runtimeTypeAdapterFactory)
+                .registerTypeAdapter(LocalDate.class, new LocalDateAdapter().nullSafe())
+                .registerTypeAdapter(RFIDSet.class, new RFIDSetAdapter());
+    }
+
+    /**
+     * Construct a new instance storing the snapshot files with the given extension.
+     * This constructor assumes that the desired path exists.
+     *
+     * @param path path that should contains the application data
+     * @param extension extension of the snapshot files
+     */
+    protected JsonInterface(Path path, String extension) {
+        // create the paths for each file
+        this.usersPath = Paths.get(path.toString(), "users." + extension);
+        this.productsPath = Paths.get(path.toString(), "products." + extension);
+        this.accountBookPath = Paths.get(path.toString(), "account_book." + extension);
+        this.customerListPath = Paths.get(path.toString(), "customers." + extension);
+        this.journalPath = Paths.get(path.toString(), "journal.jsonl");
+        this.idReservationsPath = Paths.get(path.toString(), "ids.json");
+
+        this.gson = newGsonBuilder().create();
+
+        this.operationGson = gson.newBuilder()
+                .registerTypeAdapter(ProductType.class, new ProductReferenceAdapter(gson.getAdapter(ProductType.class)))
+                // the return transactions of a sale are not persisted: create the sale with an empty list
+                .registerTypeAdapter(SaleTransaction.class,
+                        (InstanceCreator<SaleTransaction>) type -> new SaleTransaction(0, null))
+                .create();
     }
 
     /**
@@ -79,13 +215,24 @@ public class JsonInterface {
      * @throws IOException if an I/O exception occurs
      */
     public static JsonInterface create(String path) throws IOException {
+        return new JsonInterface(createDirectory(path));
+    }
+
+    /**
+     * Create the destination directory if it does not exist.
+     *
+     * @param path is the path of the destination directory
+     * @return the path of the directory
+     * @throws IOException if an I/O exception occurs
+     */
+    protected static Path createDirectory(String path) throws IOException {
         Path destinationDir = Paths.get(path);
 
         if (!Files.exists(destinationDir)) {
             Files.createDirectory(destinationDir);
         }
 
-        return new JsonInterface(destinationDir);
+        return destinationDir;
     }
 
     /**
@@ -93,10 +240,101 @@ public class JsonInterface {
      *
      * @throws IOException if an I/O exception occurs
      */
+    @Override
     public void reset() throws IOException {
-        for (Path path : Arrays.asList(usersPath, productsPath, accountBookPath, customerListPath)) {
+        closeJournal();
+        for (Path path : Arrays.asList(usersPath, productsPath, accountBookPath, customerListPath, journalPath,
+                idReservationsPath)) {
             Files.deleteIfExists(path);
         }
+        journalLength = 0;
+        synchronized (dirty) {
+            dirty.clear();
+        }
+    }
+
+    /**
+     * Mark an aggregate as modified, so that it is written by the next call to writeDirty.
+     *
+     * @param aggregate the modified aggregate
+     */
+    @Override
+    public void markDirty(Aggregate aggregate) {
+        synchronized (dirty) {
+            dirty.add(aggregate);
+        }
+    }
+
+    /**
+     * Mark the aggregates affected by a list of changes as modified.
+     *
+     * @param changes list of changes
+     */
+    @Override
+    public void markDirty(List<JournalEntry> changes) {
+        synchronized (dirty) {
+            changes.forEach(entry -> dirty.add(entry.getTarget().getAggregate()));
+        }
+    }
+
+    /**
+     * Mark all the aggregates as modified.
+     */
+    @Override
+    public void markAllDirty() {
+        synchronized (dirty) {
+            dirty.addAll(EnumSet.allOf(Aggregate.class));
+        }
+    }
+
+    /**
+     * Check whether an aggregate was modified since it was last written.
+     *
+     * @param aggregate the aggregate to check
+     * @return true if the aggregate has to be written
+     */
+    @Override
+    public boolean isDirty(Aggregate aggregate) {
+        synchronized (dirty) {
+            return dirty.contains(aggregate);
+        }
+    }
+
+    /**
+     * Write the aggregates modified since they were last written; unchanged aggregates are skipped.
+     * An aggregate stays dirty if writing it fails.
+     *
+     * @param users list of users
+     * @param products list of products
+     * @param customerList the customer list
+     * @param accountBook the account book
+     * @throws IOException if an I/O exception occurs
+     */
+    @Override
+    public void writeDirty(List<User> users, List<ProductType> products, CustomerList customerList,
+                           AccountBook accountBook) throws IOException {
+        if (isDirty(Aggregate.USERS)) {
+            writeUsers(users);
+            markClean(Aggregate.USERS);
+        }
+        if (isDirty(Aggregate.CUSTOMERS)) {
+            writeCustomerList(customerList);
+            markClean(Aggregate.CUSTOMERS);
+        }
+        if (isDirty(Aggregate.PRODUCTS)) {
+            writeProducts(products);
+            markClean(Aggregate.PRODUCTS);
+        }
+        if (isDirty(Aggregate.ACCOUNT_BOOK)) {
+            writeAccountBook(accountBook);
+            markClean(Aggregate.ACCOUNT_BOOK);
+        }
+    }
+
+    private void markClean(Aggregate aggregate) {
+        synchronized (dirty) {
+            dirty.remove(aggregate);
+        }
     }
 
     /**
@@ -106,6 +344,7 @@ public class JsonInterface {
      * @return a list of users
      * @throws IOException if an I/O exception occurs
      */
+    @Override
     public List<User> readUsers() throws IOException {
         return readList(usersPath, User.class);
     }
@@ -116,6 +355,7 @@ public class JsonInterface {
      * @param users list of users to be persisted (null is treated as an empty list)
      * @throws IOException if an I/O exception occurs
      */
+    @Override
     public void writeUsers(List<User> users) throws IOException {
         writeList(usersPath, users);
     }
@@ -127,6 +367,7 @@ public class JsonInterface {
      * @return a list of products
      * @throws IOException if an I/O exception occurs
      */
+    @Override
     public List<ProductType> readProducts() throws IOException {
         return readList(productsPath, ProductType.class);
     }
@@ -137,6 +378,7 @@ public class JsonInterface {
      * @param products list of products to be persisted (null is treated as an empty list)
      * @throws IOException if an I/O exception occurs
      */
+    @Override
     public void writeProducts(List<ProductType> products) throws IOException {
         writeList(productsPath, products);
     }
@@ -149,27 +391,15 @@ public class JsonInterface {
      * @return the customer list
      * @throws IOException if an I/O exception occurs
      */
+    @Override
     public CustomerList readCustomerList() throws IOException {
-        String json = read(customerListPath);
-        if (json == null || json.equals("")) {
+        CustomerList cl = read(customerListPath, CustomerList.class);
+        if (cl == null) {
             return new CustomerList();
         }
 
-        Type type = new TypeToken<CustomerList>() {
-        }.getType();
-
-        CustomerList cl = gson.fromJson(json, type);
-
-        if (cl != null) {
-            // iterate over all customers
-            cl.getAllCustomers().forEach(customer -> {
-                if (customer.getCard() != null) {
-                    cl.loyaltyCards.stream()
-                            .filter(x -> x.equals(customer.getCard()))
-                            .findFirst().ifPresent(customer::setCard);
-                }
-            });
-        }
+        // the lists are deserialized directly, the indexes are not
+        cl.reindex();
 
         return cl;
     }
@@ -180,11 +410,12 @@ public class JsonInterface {
      * @param customerList the customer list to be persisted (null is treated as a clean instance)
      * @throws IOException if an I/O exception occurs
      */
+    @Override
     public void writeCustomerList(CustomerList customerList) throws IOException {
         if (customerList == null) {
             customerList = new CustomerList();
         }
-        write(customerListPath, gson.toJson(customerList));
+        write(customerListPath, customerList, CustomerList.class);
     }
 
     /**
@@ -195,15 +426,51 @@ public class JsonInterface {
      * @return the account book
      * @throws IOException if an I/O exception occurs
      */
+    @Override
     public AccountBook readAccountBook() throws IOException {
-        String json = read(accountBookPath);
-        if (json == null || json.equals("")) {
-            return new AccountBook();
+        AccountBook accountBook = new AccountBook();
+        if (Files.notExists(accountBookPath) || Files.size(accountBookPath) == 0) {
+            return accountBook;
         }
 
-        Type type = new TypeToken<AccountBook>() {
-        }.getType();
-        return gson.fromJson(json, type);
+        // products referenced by the operations
+        Map<Integer, ProductType> products = new HashMap<>();
+
+        try (JsonReader reader = newJsonReader(FileChannel.open(accountBookPath, StandardOpenOption.READ))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "products":
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            ProductType product = gson.fromJson(reader, ProductType.class);
+                            products.put(product.getId(), product);
+                        }
+                        reader.endArray();
+                        break;
+                    case "balanceOperations":
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            accountBook.addTransaction(operationGson.fromJson(reader, BalanceOperation.class));
+                        }
+                        reader.endArray();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (JsonIOException ex) {
+            throw unwrap(ex);
+        }
+
+        for (BalanceOperation operation : accountBook.getAllTransactions()) {
+            resolveProducts(operation, products);
+        }
+        accountBook.relinkReturnTransactions();
+        accountBook.computeBalance();
+
+        return accountBook;
     }
 
     /**
@@ -212,48 +479,620 @@ public class JsonInterface {
      * @param accountBook the account book to be persisted (null is treated as a clean instance)
      * @throws IOException if an I/O exception occurs
      */
+    @Override
     public void writeAccountBook(AccountBook accountBook) throws IOException {
-        if (accountBook == null) {
-            accountBook = new AccountBook();
+        AccountBook data = accountBook == null ? new AccountBook() : accountBook;
+
+        // each product is written once, the operations refer to it by id
+        Collection<ProductType> products = referencedProducts(data.getAllTransactions());
+
+        writeAtomically(accountBookPath, channel -> {
+            JsonWriter writer = newJsonWriter(channel);
+            try {
+                writer.beginObject();
+
+                writer.name("products").beginArray();
+                for (ProductType product : products) {
+                    gson.toJson(withoutRFIDs(product), ProductType.class, writer);
+                }
+                writer.endArray();
+
+                writer.name("balanceOperations").beginArray();
+                for (BalanceOperation operation : data.getAllTransactions()) {
+                    operationGson.toJson(operation, BalanceOperation.class, writer);
+                }
+                writer.endArray();
+
+                writer.name("balance").value(data.getBalance());
+                writer.endObject();
+                writer.flush();
+            } catch (JsonIOException ex) {
+                throw unwrap(ex);
+            }
+        });
+    }
+
+    /**
+     * Get the products of the ticket entries and of the return items of some balance operations
+     *
+     * @param operations balance operations
+     * @return the referenced products, one for each id
+     */
+    protected static Collection<ProductType> referencedProducts(Collection<BalanceOperation> operations) {
+        Map<Integer, ProductType> products = new LinkedHashMap<>();
+        for (BalanceOperation operation : operations) {
+            if (operation instanceof SaleTransaction) {
+                for (TicketEntry entry : ((SaleTransaction) operation).getTransactionItems()) {
+                    products.putIfAbsent(entry.getProductType().getId(), entry.getProductType());
+                }
+            } else if (operation instanceof ReturnTransaction) {
+                for (ReturnTransactionItem item : ((ReturnTransaction) operation).getTransactionItems()) {
+                    products.putIfAbsent(item.getProductType().getId(), item.getProductType());
+                }
+            }
         }
-        write(accountBookPath, gson.toJson(accountBook));
+        return products.values();
     }
 
     /**
-     * Write a string to a file.
+     * Replace the product placeholders of a balance operation read with operationGson
+     * with the referenced products
+     *
+     * @param operation balance operation
+     * @param products referenced products by id
+     */
+    private static void resolveProducts(BalanceOperation operation, Map<Integer, ProductType> products) {
+        if (operation instanceof SaleTransaction) {
+            for (TicketEntry entry : ((SaleTransaction) operation).getTransactionItems()) {
+                ProductType product = products.get(entry.getProductType().getId());
+                if (product != null) {
+                    entry.setProductType(product);
+                }
+            }
+        } else if (operation instanceof ReturnTransaction) {
+            for (ReturnTransactionItem item : ((ReturnTransaction) operation).getTransactionItems()) {
+                ProductType product = products.get(item.getProductType().getId());
+                if (product != null) {
+                    item.setProductType(product);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy a product without its RFIDs (a product referenced by an operation is replaced on load by
+     * the instance in the product list, only its attributes are needed if it was deleted)
+     */
+    private static ProductType withoutRFIDs(ProductType product) {
+        try {
+            return new ProductType(product.getId(), product.getProductDescription(), product.getBarCode(),
+                    product.getPricePerUnit(), product.getNote(), 0, product.getPosition());
+        } catch (InvalidProductIdException | InvalidProductDescriptionException | InvalidProductCodeException |
+                InvalidPricePerUnitException | InvalidQuantityException ex) {
+            // the attributes of an existing product are always valid
+            throw new Error(ex);
+        }
+    }
+
+    /**
+     * Read the high-water marks of the id allocators.
+     * If the persistence layer contains no marks, an empty map is returned.
+     *
+     * @return the reserved ids of each sequence
+     * @throws IOException if an I/O exception occurs
+     */
+    @Override
+    public Map<IdSequence, Integer> readIdReservations() throws IOException {
+        Map<IdSequence, Integer> reservations = read(idReservationsPath, ID_RESERVATIONS_TYPE);
+        return reservations == null ? new EnumMap<>(IdSequence.class) : reservations;
+    }
+
+    /**
+     * Write the high-water marks of the id allocators. The file is replaced atomically (see writeAtomically).
+     *
+     * @param reservations the reserved ids of each sequence
+     * @throws IOException if an I/O exception occurs
+     */
+    @Override
+    public void writeIdReservations(Map<IdSequence, Integer> reservations) throws IOException {
+        write(idReservationsPath, reservations, ID_RESERVATIONS_TYPE);
+    }
+
+    /**
+     * Append one record to the journal. A record groups the changes produced by a single operation.
+     * Empty records are not written.
+     *
+     * @param entries changes to append
+     * @throws IOException if an I/O exception occurs
+     */
+    @Override
+    public void appendToJournal(List<JournalEntry> entries) throws IOException {
+        String record = serializeRecord(entries);
+        if (record != null) {
+            appendRecords(Collections.singletonList(record));
+        }
+    }
+
+    /**
+     * Serialize the changes produced by a single operation as one journal record.
+     * The returned string does not reference the model objects anymore, so it can be appended later
+     * (e.g. by a background writer) even if the entities are modified in the meantime.
+     *
+     * @param entries changes to serialize
+     * @return the serialized record, null if there are no changes
+     */
+    @Override
+    public String serializeRecord(List<JournalEntry> entries) {
+        if (entries == null || entries.isEmpty()) {
+            return null;
+        }
+
+        for (JournalEntry entry : entries) {
+            if (entry.getAction() != JournalEntry.Action.PUT) {
+                continue;
+            }
+
+            if (entry.getTarget() == JournalEntry.Target.BALANCE_OPERATION) {
+                BalanceOperation operation = (BalanceOperation) entry.getValue();
+                entry.data = operationGson.toJsonTree(operation, BalanceOperation.class);
+
+                Collection<ProductType> products = referencedProducts(Collections.singletonList(operation));
+                if (!products.isEmpty()) {
+                    entry.products = products.stream().map(JsonInterface::withoutRFIDs).collect(Collectors.toList());
+                }
+            } else {
+                entry.data = gson.toJsonTree(entry.getValue(), typeOf(entry.getTarget()));
+            }
+        }
+
+        return gson.toJson(entries);
+    }
+
+    /**
+     * Append a batch of serialized records to the journal with a single write, and wait until they are durable.
+     *
+     * @param records records returned by serializeRecord
+     * @throws IOException if an I/O exception occurs
+     */
+    @Override
+    public void appendRecords(Collection<String> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        syncRecords(writeRecords(records));
+    }
+
+    /**
+     * Write a batch of serialized records at the end of the journal with a single write, without forcing them to
+     * disk. Records written by concurrent callers are not interleaved, and they are made durable together by the
+     * first call to syncRecords.
+     *
+     * @param records records returned by serializeRecord
+     * @return sequence number of the last record written
+     * @throws IOException if an I/O exception occurs
+     */
+    @Override
+    public long writeRecords(Collection<String> records) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (String record : records) {
+            sb.append(record).append('\n');
+        }
+        ByteBuffer buffer = StandardCharsets.UTF_8.encode(sb.toString());
+
+        synchronized (journalLock) {
+            if (records.isEmpty()) {
+                return appendedRecords;
+            }
+            if (journalChannel == null) {
+                journalChannel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND);
+            }
+            while (buffer.hasRemaining()) {
+                journalChannel.write(buffer);
+            }
+            journalLength += records.size();
+            appendedRecords += records.size();
+            return appendedRecords;
+        }
+    }
+
+    /**
+     * Group commit: wait until the first records of the journal are forced to disk.
+     * If no other thread is forcing the journal, the caller forces it, making durable also the records
+     * appended concurrently by other threads, which then return without an fsync of their own.
+     *
+     * @param sequence number of records that must be durable
+     * @throws IOException if the journal can not be forced to disk
+     */
+    @Override
+    public void syncRecords(long sequence) throws IOException {
+        synchronized (syncLock) {
+            while (syncedRecords < sequence && syncing) {
+                try {
+                    syncLock.wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the journal fsync");
+                }
+            }
+            if (syncedRecords >= sequence) {
+                return;
+            }
+            syncing = true;
+        }
+
+        long target = sequence;
+        boolean synced = false;
+        try {
+            FileChannel channel;
+            synchronized (journalLock) {
+                channel = journalChannel;
+                target = appendedRecords;
+            }
+
+            if (channel != null) {
+                long start = System.nanoTime();
+                channel.force(false);
+                journalFsyncMetrics.record(System.nanoTime() - start, target - syncedRecords());
+            }
+            synced = true;
+        } finally {
+            synchronized (syncLock) {
+                syncing = false;
+                if (synced) {
+                    syncedRecords = Math.max(syncedRecords, target);
+                }
+                syncLock.notifyAll();
+            }
+        }
+    }
+
+    private long syncedRecords() {
+        synchronized (syncLock) {
+            return syncedRecords;
+        }
+    }
+
+    /**
+     * Close the journal channel, the records appended so far are not waited for anymore
+     * (to be called when the journal is discarded).
+     *
+     * @throws IOException if an I/O exception occurs
+     */
+    private void closeJournal() throws IOException {
+        synchronized (journalLock) {
+            synchronized (syncLock) {
+                syncedRecords = appendedRecords;
+                syncLock.notifyAll();
+            }
+            if (journalChannel != null) {
+                journalChannel.close();
+                journalChannel = null;
+            }
+        }
+    }
+
+    /**
+     * Apply the records of the journal on top of the state read from the last snapshot.
+     * Reading stops at the first incomplete record (e.g. a record torn by a crash).
+     *
+     * @param users list of users read from the snapshot
+     * @param products list of products read from the snapshot
+     * @param customerList customer list read from the snapshot
+     * @param accountBook account book read from the snapshot
+     * @throws IOException if an I/O exception occurs
+     */
+    @Override
+    public void replayJournal(List<User> users, List<ProductType> products, CustomerList customerList,
+                              AccountBook accountBook) throws IOException {
+        journalLength = 0;
+        if (Files.notExists(journalPath)) {
+            return;
+        }
+
+        Type type = TypeToken.getParameterized(List.class, JournalEntry.class).getType();
+
+        // length of the complete records read so far
+        long validBytes = 0;
+
+        try (BufferedReader reader = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                List<JournalEntry> entries;
+                try {
+                    entries = gson.fromJson(line, type);
+                } catch (JsonParseException ex) {
+                    break;
+                }
+
+                validBytes += line.getBytes(StandardCharsets.UTF_8).length + 1;
+                if (entries == null) {
+                    continue;
+                }
+
+                for (JournalEntry entry : entries) {
+                    apply(entry, users, products, customerList, accountBook);
+                }
+                // the replayed changes are not part of the snapshot yet
+                markDirty(entries);
+                journalLength++;
+            }
+        }
+
+        repairJournal(validBytes);
+
+        customerList.reindex();
+        accountBook.relinkReturnTransactions();
+        accountBook.computeBalance();
+    }
+
+    /**
+     * Make the journal end with a complete record, so that the next records are not appended to a torn one:
+     * an incomplete record left by a crash is discarded and a missing final line separator is added.
+     *
+     * @param validBytes length of the complete records at the beginning of the journal
+     * @throws IOException if an I/O exception occurs
+     */
+    private void repairJournal(long validBytes) throws IOException {
+        long size = Files.size(journalPath);
+        if (validBytes == size) {
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.WRITE)) {
+            if (validBytes < size) {
+                channel.truncate(validBytes);
+            } else {
+                channel.write(ByteBuffer.wrap(new byte[]{'\n'}), size);
+            }
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Discard the journal (to be called once a new snapshot has been written).
+     *
+     * @throws IOException if an I/O exception occurs
+     */
+    @Override
+    public void clearJournal() throws IOException {
+        closeJournal();
+        Files.deleteIfExists(journalPath);
+        journalLength = 0;
+    }
+
+    /**
+     * Get the fsync counters of the journal (one fsync may make durable several records)
+     *
+     * @return journal fsync metrics
+     */
+    @Override
+    public FsyncMetrics getJournalFsyncMetrics() {
+        return journalFsyncMetrics;
+    }
+
+    /**
+     * Get the fsync counters of the snapshot files and of their directory
+     *
+     * @return snapshot fsync metrics
+     */
+    @Override
+    public FsyncMetrics getSnapshotFsyncMetrics() {
+        return snapshotFsyncMetrics;
+    }
+
+    /**
+     * Get the number of records appended to the journal since the last snapshot
+     *
+     * @return number of records in the journal
+     */
+    @Override
+    public int getJournalLength() {
+        return journalLength;
+    }
+
+    /**
+     * Apply a single change to the state.
+     */
+    private void apply(JournalEntry entry, List<User> users, List<ProductType> products, CustomerList customerList,
+                       AccountBook accountBook) {
+        boolean put = entry.getAction() == JournalEntry.Action.PUT;
+        Object value = null;
+        if (put && entry.getTarget() == JournalEntry.Target.BALANCE_OPERATION) {
+            value = operationGson.fromJson(entry.data, BalanceOperation.class);
+            if (entry.products != null) {
+                resolveProducts((BalanceOperation) value, entry.products.stream()
+                        .collect(Collectors.toMap(ProductType::getId, Function.identity(), (a, b) -> a)));
+            }
+        } else if (put) {
+            value = gson.fromJson(entry.data, typeOf(entry.getTarget()));
+        }
+
+        switch (entry.getTarget()) {
+            case USER:
+                int userId = Integer.parseInt(entry.getKey());
+                if (put) {
+                    putById(users, (User) value, x -> x.getId() == userId);
+                } else {
+                    users.removeIf(x -> x.getId() == userId);
+                }
+                break;
+            case PRODUCT:
+                int productId = Integer.parseInt(entry.getKey());
+                if (put) {
+                    putById(products, (ProductType) value, x -> x.getId() == productId);
+                } else {
+                    products.removeIf(x -> x.getId() == productId);
+                }
+                break;
+            case CUSTOMER:
+                if (put) {
+                    customerList.putCustomer((Customer) value);
+                } else {
+                    try {
+                        customerList.removeCustomer(Integer.parseInt(entry.getKey()));
+                    } catch (InvalidCustomerIdException ex) {
+                        // exceptions are ignored
+                    }
+                }
+                break;
+            case LOYALTY_CARD:
+                if (put) {
+                    customerList.putLoyaltyCard((LoyaltyCard) value);
+                } else {
+                    customerList.removeLoyaltyCard(entry.getKey());
+                }
+                break;
+            case BALANCE_OPERATION:
+                if (put) {
+                    accountBook.putTransaction((BalanceOperation) value);
+                } else if (accountBook.getTransaction(Integer.parseInt(entry.getKey())) != null) {
+                    accountBook.removeTransaction(Integer.parseInt(entry.getKey()));
+                }
+                break;
+        }
+    }
+
+    /**
+     * Replace the element matching the given predicate, or add the value at the end of the list.
+     */
+    private static <T> void putById(List<T> list, T value, Predicate<T> sameId) {
+        for (int i = 0; i < list.size(); i++) {
+            if (sameId.test(list.get(i))) {
+                list.set(i, value);
+                return;
+            }
+        }
+        list.add(value);
+    }
+
+    /**
+     * Get the serialization type of the entities of a given kind.
+     */
+    private static Type typeOf(JournalEntry.Target target) {
+        switch (target) {
+            case USER:
+                return User.class;
+            case PRODUCT:
+                return ProductType.class;
+            case CUSTOMER:
+                return Customer.class;
+            case LOYALTY_CARD:
+                return LoyaltyCard.class;
+            default:
+                return BalanceOperation.class;
+        }
+    }
+
+    /**
+     * Serialize an object directly to a file, without building the whole json document in memory.
+     * The file is replaced atomically (see writeAtomically).
      *
      * @param path of the file
-     * @param json is the string to write
-     * @throws IOException if an I/O exceptions occurs while reading the file
+     * @param src is the object to write
+     * @param type of the object to write
+     * @throws IOException if an I/O exceptions occurs while writing the file
      */
-    private void write(Path path, String json) throws IOException {
-        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
-            writer.write(json, 0, json.length());
+    private void write(Path path, Object src, Type type) throws IOException {
+        writeAtomically(path, channel -> {
+            JsonWriter writer = newJsonWriter(channel);
+            try {
+                gson.toJson(src, type, writer);
+                writer.flush();
+            } catch (JsonIOException ex) {
+                throw unwrap(ex);
+            }
+        });
+    }
+
+    /**
+     * Replace a snapshot file atomically: the content is written to a temporary file, forced to disk and then
+     * renamed over the destination, so a crash leaves either the previous or the new version of the file.
+     *
+     * @param path of the file
+     * @param snapshotWriter writes the content of the file
+     * @throws IOException if an I/O exceptions occurs while writing the file
+     */
+    protected void writeAtomically(Path path, SnapshotWriter snapshotWriter) throws IOException {
+        Path tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            snapshotWriter.write(channel);
+
+            long start = System.nanoTime();
+            channel.force(true);
+            snapshotFsyncMetrics.record(System.nanoTime() - start, 1);
         }
+
+        Files.move(tmpPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory(path.toAbsolutePath().getParent());
     }
 
     /**
-     * Read all the lines of a file.
+     * Force a directory to disk, so that a rename inside it survives a crash.
+     * Not all platforms allow to open a directory: in that case the rename is left to the file system.
+     *
+     * @param directory directory to force
+     */
+    private void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            long start = System.nanoTime();
+            channel.force(true);
+            snapshotFsyncMetrics.record(System.nanoTime() - start, 0);
+        } catch (IOException ex) {
+            // exceptions are ignored
+        }
+    }
+
+    /**
+     * Deserialize an object directly from a file, without loading the whole json document in memory.
      *
      * @param path of the file
-     * @return a string containing the lines of the file (null if the file does not exist)
+     * @param type of the object to read
+     * @param <T> type of the object to read
+     * @return the object read (null if the file does not exist or is empty)
      * @throws IOException if an I/O exceptions occurs while reading the file
      */
-    private String read(Path path) throws IOException {
+    private <T> T read(Path path, Type type) throws IOException {
         if (Files.notExists(path)) {
             return null;
         }
 
-        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
-            StringBuilder sb = new StringBuilder();
+        try (JsonReader reader = newJsonReader(FileChannel.open(path, StandardOpenOption.READ))) {
+            return gson.fromJson(reader, type);
+        } catch (JsonIOException ex) {
+            throw unwrap(ex);
+        }
+    }
 
-            String line;
-            while ((line = reader.readLine()) != null) {
-                sb.append(line);
-            }
+    /**
+     * Create a buffered json writer on a channel (closing the writer closes the channel)
+     */
+    private static JsonWriter newJsonWriter(FileChannel channel) {
+        return new JsonWriter(new BufferedWriter(
+                Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), BUFFER_SIZE), BUFFER_SIZE));
+    }
+
+    /**
+     * Create a buffered json reader on a channel (closing the reader closes the channel)
+     */
+    private static JsonReader newJsonReader(FileChannel channel) {
+        return new JsonReader(new BufferedReader(
+                Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), BUFFER_SIZE), BUFFER_SIZE));
+    }
 
-            return sb.toString();
+    /**
+     * Get the I/O exception wrapped by Gson
+     *
+     * @param ex exception thrown by Gson
+     * @return the wrapped exception
+     */
+    private static IOException unwrap(JsonIOException ex) {
+        if (ex.getCause() instanceof IOException) {
+            return (IOException) ex.getCause();
         }
+        return new IOException(ex);
     }
 
     /**
@@ -268,7 +1107,7 @@ public class JsonInterface {
         if (data == null) {
             data = new ArrayList<>();
         }
-        write(path, gson.toJson(data));
+        write(path, data, data.getClass());
     }
 
     /**
@@ -281,13 +1120,12 @@ public class JsonInterface {
      * @throws IOException if an I/O exceptions occurs while reading the json file
      */
     private <T> List<T> readList(Path path, Class<T> cls) throws IOException {
-        String json = read(path);
-        if (json == null || json.equals("")) {
+        List<T> list = read(path, TypeToken.getParameterized(List.class, cls).getType());
+        if (list == null) {
             return new ArrayList<>();
         }
 
-        Type type = TypeToken.getParameterized(List.class, cls).getType();
-        return gson.fromJson(json, type);
+        return list;
     }
 
 }
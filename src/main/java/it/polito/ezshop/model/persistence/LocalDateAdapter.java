@@ -0,0 +1,61 @@
+package it.polito.ezshop.model.persistence;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.time.LocalDate;
+
+/**
+ * Gson adapter that stores a LocalDate as an ISO-8601 string (e.g. "2021-06-05").
+ * Dates written by the reflective serializer ({"year":..,"month":..,"day":..}) are still accepted when reading.
+ */
+public class LocalDateAdapter extends TypeAdapter<LocalDate> {
+
+    @Override
+    public void write(JsonWriter out, LocalDate date) throws IOException {
+        if (date == null) {
+            out.nullValue();
+        } else {
+            out.value(date.toString());
+        }
+    }
+
+    @Override
+    public LocalDate read(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        if (token == JsonToken.STRING) {
+            return LocalDate.parse(in.nextString());
+        }
+
+        // legacy format: object with year, month and day fields
+        int year = 0, month = 1, day = 1;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "year":
+                    year = in.nextInt();
+                    break;
+                case "month":
+                    month = in.nextInt();
+                    break;
+                case "day":
+                    day = in.nextInt();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+
+        return LocalDate.of(year, month, day);
+    }
+}
@@ -0,0 +1,275 @@
+package it.polito.ezshop.model.persistence;
+
+import it.polito.ezshop.model.*;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage of the EZShop state: a snapshot of each aggregate, plus a journal of the changes
+ * performed after the last snapshot.
+ */
+public interface PersistenceLayer {
+
+    /**
+     * Persisted roots of the application state, each stored in its own file
+     */
+    enum Aggregate {
+        USERS,
+        PRODUCTS,
+        CUSTOMERS,
+        ACCOUNT_BOOK
+    }
+
+    /**
+     * Sequences of ids allocated by the shop (see IdAllocator): the ids of the entities of each aggregate
+     * and the serial numbers of the loyalty cards
+     */
+    enum IdSequence {
+        USERS,
+        PRODUCTS,
+        CUSTOMERS,
+        ACCOUNT_BOOK,
+        LOYALTY_CARDS
+    }
+
+    /**
+     * Encoding of the snapshot files
+     */
+    enum Format {
+        /**
+         * Human readable json documents
+         */
+        JSON,
+        /**
+         * Compact binary records, faster to load
+         */
+        BINARY
+    }
+
+    /**
+     * Create a persistence layer storing its files in the given directory.
+     * This methods creates the destination path if it does not exist.
+     *
+     * @param path is the path of the destination directory
+     * @param format encoding of the snapshot files
+     * @return an instance of the persistence layer
+     * @throws IOException if an I/O exception occurs
+     */
+    static PersistenceLayer create(String path, Format format) throws IOException {
+        if (format == Format.BINARY) {
+            return BinaryInterface.create(path);
+        }
+        return JsonInterface.create(path);
+    }
+
+    /**
+     * Clear all the persisted data.
+     *
+     * @throws IOException if an I/O exception occurs
+     */
+    void reset() throws IOException;
+
+    /**
+     * Mark an aggregate as modified, so that it is written by the next call to writeDirty.
+     *
+     * @param aggregate the modified aggregate
+     */
+    void markDirty(Aggregate aggregate);
+
+    /**
+     * Mark the aggregates affected by a list of changes as modified.
+     *
+     * @param changes list of changes
+     */
+    void markDirty(List<JournalEntry> changes);
+
+    /**
+     * Mark all the aggregates as modified.
+     */
+    void markAllDirty();
+
+    /**
+     * Check whether an aggregate was modified since it was last written.
+     *
+     * @param aggregate the aggregate to check
+     * @return true if the aggregate has to be written
+     */
+    boolean isDirty(Aggregate aggregate);
+
+    /**
+     * Write the aggregates modified since they were last written; unchanged aggregates are skipped.
+     *
+     * @param users list of users
+     * @param products list of products
+     * @param customerList the customer list
+     * @param accountBook the account book
+     * @throws IOException if an I/O exception occurs
+     */
+    void writeDirty(List<User> users, List<ProductType> products, CustomerList customerList,
+                    AccountBook accountBook) throws IOException;
+
+    /**
+     * Read a list of users, an empty list if no users are stored.
+     *
+     * @return a list of users
+     * @throws IOException if an I/O exception occurs
+     */
+    List<User> readUsers() throws IOException;
+
+    /**
+     * Write a list of users.
+     *
+     * @param users list of users to be persisted (null is treated as an empty list)
+     * @throws IOException if an I/O exception occurs
+     */
+    void writeUsers(List<User> users) throws IOException;
+
+    /**
+     * Read a list of products, an empty list if no products are stored.
+     *
+     * @return a list of products
+     * @throws IOException if an I/O exception occurs
+     */
+    List<ProductType> readProducts() throws IOException;
+
+    /**
+     * Write a list of products.
+     *
+     * @param products list of products to be persisted (null is treated as an empty list)
+     * @throws IOException if an I/O exception occurs
+     */
+    void writeProducts(List<ProductType> products) throws IOException;
+
+    /**
+     * Read the customer list, a clean instance if no customer list is stored.
+     *
+     * @return the customer list
+     * @throws IOException if an I/O exception occurs
+     */
+    CustomerList readCustomerList() throws IOException;
+
+    /**
+     * Write the customer list.
+     *
+     * @param customerList the customer list to be persisted (null is treated as a clean instance)
+     * @throws IOException if an I/O exception occurs
+     */
+    void writeCustomerList(CustomerList customerList) throws IOException;
+
+    /**
+     * Read the account book, a clean instance if no account book is stored.
+     *
+     * @return the account book
+     * @throws IOException if an I/O exception occurs
+     */
+    AccountBook readAccountBook() throws IOException;
+
+    /**
+     * Write the account book.
+     *
+     * @param accountBook the account book to be persisted (null is treated as a clean instance)
+     * @throws IOException if an I/O exception occurs
+     */
+    void writeAccountBook(AccountBook accountBook) throws IOException;
+
+    /**
+     * Read the high-water marks of the id allocators (see IdAllocator), an empty map if no marks are stored.
+     *
+     * @return the reserved ids of each sequence
+     * @throws IOException if an I/O exception occurs
+     */
+    Map<IdSequence, Integer> readIdReservations() throws IOException;
+
+    /**
+     * Write the high-water marks of the id allocators. The marks are durable when this method returns.
+     *
+     * @param reservations the reserved ids of each sequence
+     * @throws IOException if an I/O exception occurs
+     */
+    void writeIdReservations(Map<IdSequence, Integer> reservations) throws IOException;
+
+    /**
+     * Append one record to the journal. A record groups the changes produced by a single operation.
+     *
+     * @param entries changes to append
+     * @throws IOException if an I/O exception occurs
+     */
+    void appendToJournal(List<JournalEntry> entries) throws IOException;
+
+    /**
+     * Serialize the changes produced by a single operation as one journal record.
+     *
+     * @param entries changes to serialize
+     * @return the serialized record, null if there are no changes
+     */
+    String serializeRecord(List<JournalEntry> entries);
+
+    /**
+     * Append a batch of serialized records to the journal.
+     *
+     * @param records records returned by serializeRecord
+     * @throws IOException if an I/O exception occurs
+     */
+    void appendRecords(Collection<String> records) throws IOException;
+
+    /**
+     * Write a batch of serialized records at the end of the journal without waiting for them to be durable.
+     * The records are durable once syncRecords returns for the returned sequence number.
+     *
+     * @param records records returned by serializeRecord
+     * @return sequence number of the last record written
+     * @throws IOException if an I/O exception occurs
+     */
+    long writeRecords(Collection<String> records) throws IOException;
+
+    /**
+     * Wait until the records up to the given sequence number (returned by writeRecords) are durable
+     *
+     * @param sequence sequence number of the last record that must be durable
+     * @throws IOException if the journal can not be forced to disk
+     */
+    void syncRecords(long sequence) throws IOException;
+
+    /**
+     * Apply the records of the journal on top of the state read from the last snapshot.
+     *
+     * @param users list of users read from the snapshot
+     * @param products list of products read from the snapshot
+     * @param customerList customer list read from the snapshot
+     * @param accountBook account book read from the snapshot
+     * @throws IOException if an I/O exception occurs
+     */
+    void replayJournal(List<User> users, List<ProductType> products, CustomerList customerList,
+                       AccountBook accountBook) throws IOException;
+
+    /**
+     * Discard the journal (to be called once a new snapshot has been written).
+     *
+     * @throws IOException if an I/O exception occurs
+     */
+    void clearJournal() throws IOException;
+
+    /**
+     * Get the number of records appended to the journal since the last snapshot
+     *
+     * @return number of records in the journal
+     */
+    int getJournalLength();
+
+    /**
+     * Get the fsync counters of the journal
+     *
+     * @return journal fsync metrics
+     */
+    FsyncMetrics getJournalFsyncMetrics();
+
+    /**
+     * Get the fsync counters of the snapshot files
+     *
+     * @return snapshot fsync metrics
+     */
+    FsyncMetrics getSnapshotFsyncMetrics();
+}
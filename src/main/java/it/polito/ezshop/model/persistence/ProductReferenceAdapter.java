@@ -0,0 +1,58 @@
+package it.polito.ezshop.model.persistence;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import it.polito.ezshop.model.ProductType;
+
+import java.io.IOException;
+
+/**
+ * Gson adapter that stores the product of a ticket entry or of a return item as a reference (its id).
+ * When reading, a placeholder holding only the id is returned: the caller replaces it with the referenced
+ * product (see JsonInterface.resolveProducts).
+ * Products embedded as objects by the previous versions are still accepted when reading.
+ */
+public class ProductReferenceAdapter extends TypeAdapter<ProductType> {
+
+    /**
+     * Adapter of the complete product
+     */
+    private final TypeAdapter<ProductType> delegate;
+
+    public ProductReferenceAdapter(TypeAdapter<ProductType> delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void write(JsonWriter out, ProductType product) throws IOException {
+        if (product == null) {
+            out.nullValue();
+        } else {
+            out.value(product.getId());
+        }
+    }
+
+    @Override
+    public ProductType read(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        if (token == JsonToken.NUMBER) {
+            JsonObject placeholder = new JsonObject();
+            placeholder.addProperty("id", in.nextInt());
+            placeholder.add("RFIDs", new JsonArray());
+            return delegate.fromJsonTree(placeholder);
+        }
+
+        // legacy format: the whole product
+        return delegate.read(in);
+    }
+}
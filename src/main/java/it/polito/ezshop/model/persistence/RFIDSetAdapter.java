@@ -0,0 +1,103 @@
+package it.polito.ezshop.model.persistence;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import it.polito.ezshop.model.RFIDSet;
+
+import java.io.IOException;
+
+import static it.polito.ezshop.utils.Utils.RFIDFromLong;
+import static it.polito.ezshop.utils.Utils.RFIDToLong;
+
+/**
+ * Gson adapter that stores the units of a product as the number of units without an RFID and the ranges of
+ * sequential RFIDs, each one as its first code and its length
+ * (e.g. {"dummies":5000,"ranges":[["000000001000",10000],["000000030000",1]]}).
+ * The formats written by the previous versions are still accepted when reading: lists of codes
+ * (["dummy_RFID","dummy_RFID","000000001000"]) and objects with a list of codes
+ * ({"dummies":2,"codes":["000000001000"]}).
+ */
+public class RFIDSetAdapter extends TypeAdapter<RFIDSet> {
+
+    @Override
+    public void write(JsonWriter out, RFIDSet RFIDs) throws IOException {
+        if (RFIDs == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginObject();
+        out.name("dummies").value(RFIDs.getDummyCount());
+        out.name("ranges").beginArray();
+        long[] ranges = RFIDs.getRanges();
+        for (int i = 0; i < ranges.length; i += 2) {
+            out.beginArray().value(RFIDFromLong(ranges[i])).value(ranges[i + 1] - ranges[i]).endArray();
+        }
+        out.endArray();
+        out.endObject();
+    }
+
+    @Override
+    public RFIDSet read(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        RFIDSet RFIDs = new RFIDSet();
+
+        // legacy format: list of codes
+        if (token == JsonToken.BEGIN_ARRAY) {
+            readCodes(in, RFIDs);
+            return RFIDs;
+        }
+
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "dummies":
+                    RFIDs.addDummies(in.nextInt());
+                    break;
+                case "ranges":
+                    readRanges(in, RFIDs);
+                    break;
+                case "codes":
+                    readCodes(in, RFIDs);
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+
+        return RFIDs;
+    }
+
+    private static void readRanges(JsonReader in, RFIDSet RFIDs) throws IOException {
+        in.beginArray();
+        while (in.hasNext()) {
+            in.beginArray();
+            long from = RFIDToLong(in.nextString());
+            long n = in.nextLong();
+            in.endArray();
+            if (from < 0) {
+                throw new JsonParseException("Invalid RFID range at " + in.getPath());
+            }
+            RFIDs.addRange(from, n);
+        }
+        in.endArray();
+    }
+
+    private static void readCodes(JsonReader in, RFIDSet RFIDs) throws IOException {
+        in.beginArray();
+        while (in.hasNext()) {
+            RFIDs.add(in.nextString());
+        }
+        in.endArray();
+    }
+}
@@ -0,0 +1,180 @@
+package it.polito.ezshop.remote;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import it.polito.ezshop.data.EZShopInterface;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Gson factory of the adapters of the interfaces of the data package (User, ProductType, SaleTransaction, ...).
+ *
+ * An object is written as a JSON object with one property for each getter of its interface, whatever its class is
+ * (e.g. the adapters of the model). It is read as a proxy of the interface holding the values of the properties:
+ * its setters change the local copy only.
+ */
+public class DataObjectTypeAdapterFactory implements TypeAdapterFactory {
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        Class<? super T> rawType = type.getRawType();
+        if (!rawType.isInterface() || rawType == EZShopInterface.class
+                || !rawType.getPackage().equals(EZShopInterface.class.getPackage())) {
+            return null;
+        }
+
+        // properties of the interface, in alphabetical order
+        Map<String, Property> properties = new TreeMap<>();
+        for (Method method : rawType.getMethods()) {
+            if (method.getName().startsWith("get") && method.getParameterCount() == 0) {
+                Property property = new Property(method, gson.getAdapter(TypeToken.get(method.getGenericReturnType())));
+                properties.put(property.name, property);
+            }
+        }
+
+        return (TypeAdapter<T>) new DataObjectTypeAdapter<>(rawType, properties).nullSafe();
+    }
+
+    /**
+     * Get the name of the property accessed by a getter or by a setter
+     *
+     * @param method getter or setter
+     * @return name of the property (e.g. "barCode" for getBarCode)
+     */
+    private static String propertyName(Method method) {
+        String name = method.getName().substring(3);
+        return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+    }
+
+    /**
+     * Property of an interface, with its getter and the adapter of its type
+     */
+    private static final class Property {
+        private final String name;
+        private final Method getter;
+        private final TypeAdapter<?> adapter;
+
+        private Property(Method getter, TypeAdapter<?> adapter) {
+            this.name = propertyName(getter);
+            this.getter = getter;
+            this.adapter = adapter;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void write(JsonWriter out, Object value) throws IOException {
+            ((TypeAdapter<Object>) adapter).write(out, value);
+        }
+
+        /**
+         * @return the value of a property missing in the JSON object (null, or the default value of a primitive type)
+         */
+        private Object missingValue() {
+            Class<?> type = getter.getReturnType();
+            return type.isPrimitive() ? Array.get(Array.newInstance(type, 1), 0) : null;
+        }
+    }
+
+    private static final class DataObjectTypeAdapter<T> extends TypeAdapter<T> {
+
+        private final Class<? super T> type;
+
+        private final Map<String, Property> properties;
+
+        private DataObjectTypeAdapter(Class<? super T> type, Map<String, Property> properties) {
+            this.type = type;
+            this.properties = properties;
+        }
+
+        @Override
+        public void write(JsonWriter out, T value) throws IOException {
+            out.beginObject();
+            for (Property property : properties.values()) {
+                Object propertyValue;
+                try {
+                    propertyValue = property.getter.invoke(value);
+                } catch (ReflectiveOperationException ex) {
+                    throw new IOException("Can not read the property " + property.name, ex);
+                }
+                out.name(property.name);
+                property.write(out, propertyValue);
+            }
+            out.endObject();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T read(JsonReader in) throws IOException {
+            if (in.peek() != JsonToken.BEGIN_OBJECT) {
+                throw new IOException("Expected an object of type " + type.getSimpleName());
+            }
+
+            JsonObject object = JsonParser.parseReader(in).getAsJsonObject();
+            Map<String, Object> values = new TreeMap<>();
+            for (Property property : properties.values()) {
+                JsonElement element = object.get(property.name);
+                values.put(property.name, element == null || element.isJsonNull()
+                        ? property.missingValue() : property.adapter.fromJsonTree(element));
+            }
+
+            return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                    new DataObject(type, values));
+        }
+    }
+
+    /**
+     * Values of the properties of a data object read from JSON; two data objects are equal if they implement the
+     * same interface and their properties are equal
+     */
+    private static final class DataObject implements InvocationHandler {
+
+        private final Class<?> type;
+
+        private final Map<String, Object> values;
+
+        private DataObject(Class<?> type, Map<String, Object> values) {
+            this.type = type;
+            this.values = values;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        return args[0] != null && Proxy.isProxyClass(args[0].getClass())
+                                && Proxy.getInvocationHandler(args[0]) instanceof DataObject
+                                && equals((DataObject) Proxy.getInvocationHandler(args[0]));
+                    case "hashCode":
+                        return values.hashCode();
+                    default:
+                        return type.getSimpleName() + values;
+                }
+            }
+
+            if (method.getName().startsWith("set") && args != null && args.length == 1) {
+                values.put(propertyName(method), args[0]);
+                return null;
+            }
+            return values.get(propertyName(method));
+        }
+
+        private boolean equals(DataObject other) {
+            return type == other.type && values.equals(other.values);
+        }
+    }
+}
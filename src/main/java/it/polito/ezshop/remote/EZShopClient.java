@@ -0,0 +1,166 @@
+package it.polito.ezshop.remote;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import it.polito.ezshop.data.EZShopInterface;
+import it.polito.ezshop.exceptions.UnauthorizedException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static it.polito.ezshop.remote.RemoteProtocol.*;
+
+/**
+ * Thin client performing the operations of EZShopInterface on an EZShopServer (see RemoteProtocol).
+ *
+ * Each client has its own session on the server, e.g. one client for each cash register: the user logged in through
+ * a client is not logged in the other ones. The objects returned by the operations are copies of the state of the
+ * server (see DataObjectTypeAdapterFactory). A transport failure is thrown as an UncheckedIOException.
+ */
+public class EZShopClient implements InvocationHandler {
+
+    public static final int CONNECT_TIMEOUT = 10_000;
+
+    public static final int READ_TIMEOUT = 60_000;
+
+    private final URL server;
+
+    private final Gson gson = RemoteProtocol.newGson();
+
+    /**
+     * Id of the session on the server (null until the first response)
+     */
+    private volatile String session;
+
+    private EZShopClient(URL server) {
+        this.server = server;
+    }
+
+    /**
+     * Connect to a server
+     *
+     * @param server URL of the server (e.g. http://localhost:8080)
+     * @return the interface of a new session on the server
+     * @throws MalformedURLException if the URL is not valid
+     */
+    public static EZShopInterface connect(String server) throws MalformedURLException {
+        return (EZShopInterface) Proxy.newProxyInstance(EZShopInterface.class.getClassLoader(),
+                new Class<?>[]{EZShopInterface.class}, new EZShopClient(new URL(server)));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    return "EZShop client of " + server;
+            }
+        }
+
+        JsonArray arguments = new JsonArray();
+        for (int i = 0; args != null && i < args.length; i++) {
+            arguments.add(gson.toJsonTree(args[i], method.getGenericParameterTypes()[i]));
+        }
+
+        JsonObject response;
+        try {
+            response = post(method.getName(), arguments.toString());
+        } catch (IOException ex) {
+            throw new UncheckedIOException("The EZShop server can not be reached", ex);
+        }
+
+        if (response.has(EXCEPTION)) {
+            JsonElement message = response.get(MESSAGE);
+            throw remoteException(method, response.get(EXCEPTION).getAsString(),
+                    message == null || message.isJsonNull() ? null : message.getAsString());
+        }
+        if (method.getReturnType() == void.class) {
+            return null;
+        }
+        return gson.fromJson(response.get(RESULT), method.getGenericReturnType());
+    }
+
+    /**
+     * Send a request to the server
+     *
+     * @param operation name of the operation
+     * @param arguments JSON array of the arguments
+     * @return the response
+     * @throws IOException if the server can not be reached
+     */
+    private JsonObject post(String operation, String arguments) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(server, CONTEXT + operation).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", CONTENT_TYPE);
+        String session = this.session;
+        if (session != null) {
+            connection.setRequestProperty(SESSION_HEADER, session);
+        }
+
+        // the body is buffered (no streaming mode), so that it is sent together with the headers
+        byte[] body = arguments.getBytes(StandardCharsets.UTF_8);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body);
+        }
+
+        // the response is read up to its end, so that the connection is reused by the next request
+        int status = connection.getResponseCode();
+        InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        if (in == null) {
+            throw new IOException("Empty response (status " + status + ")");
+        }
+        String response = new String(readAll(in), StandardCharsets.UTF_8);
+
+        String id = connection.getHeaderField(SESSION_HEADER);
+        if (id != null) {
+            this.session = id;
+        }
+
+        try {
+            return JsonParser.parseString(response).getAsJsonObject();
+        } catch (RuntimeException ex) {
+            throw new IOException("Invalid response (status " + status + ")", ex);
+        }
+    }
+
+    /**
+     * Create the exception thrown by an operation on the server
+     *
+     * @param method the operation
+     * @param name simple name of the class of the exception
+     * @param message message of the exception
+     * @return the exception, if it is declared by the operation, an IllegalStateException otherwise
+     */
+    private static Exception remoteException(Method method, String name, String message) {
+        try {
+            Class<?> type = Class.forName(UnauthorizedException.class.getPackage().getName() + "." + name);
+            for (Class<?> declared : method.getExceptionTypes()) {
+                if (declared.isAssignableFrom(type)) {
+                    return (Exception) type.getConstructor(String.class).newInstance(message);
+                }
+            }
+        } catch (ReflectiveOperationException ex) {
+            // exceptions are ignored
+        }
+        return new IllegalStateException("Remote " + name + ": " + message);
+    }
+}
@@ -0,0 +1,375 @@
+package it.polito.ezshop.remote;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import it.polito.ezshop.data.EZShop;
+import it.polito.ezshop.data.EZShopInterface;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static it.polito.ezshop.remote.RemoteProtocol.*;
+
+/**
+ * Headless server exposing the operations of a shop as JSON endpoints over HTTP (see RemoteProtocol), so that a
+ * single backend can serve all the registers of a store through EZShopClient.
+ *
+ * The requests are handled by a bounded pool of workers: when all the workers are busy the requests are queued, and
+ * when the queue is full the server stops accepting new requests until a worker is available. The connections are
+ * kept alive between the requests of a client. Each client gets its own session of the shop (see
+ * EZShop.openSession); the sessions not used for SESSION_TIMEOUT are discarded.
+ *
+ * The requests whose body is larger than MAX_BODY_SIZE are rejected with status 413, and the requests of new
+ * clients are rejected with status 503 while the maximum number of sessions are open.
+ */
+public class EZShopServer implements AutoCloseable {
+
+    public static final int DEFAULT_PORT = 8080;
+
+    public static final int DEFAULT_WORKERS = 2 * Runtime.getRuntime().availableProcessors();
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    public static final int DEFAULT_MAX_SESSIONS = 1024;
+
+    /**
+     * Maximum size in bytes of the body of a request
+     */
+    public static final int MAX_BODY_SIZE = 1 << 20;
+
+    /**
+     * Time after which a session that is not used anymore is discarded
+     */
+    public static final long SESSION_TIMEOUT = TimeUnit.MINUTES.toMillis(30);
+
+    static {
+        // the response headers and body are written separately: without TCP_NODELAY each response of a keep-alive
+        // connection waits for the delayed ACK of the client (read when the first server is created)
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final EZShop shop;
+
+    private final HttpServer server;
+
+    private final ThreadPoolExecutor workers;
+
+    private final Gson gson = RemoteProtocol.newGson();
+
+    /**
+     * Sessions of the clients by id
+     */
+    private final Map<String, RemoteSession> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Maximum number of open sessions
+     */
+    private final int maxSessions;
+
+    /**
+     * Number of requests received so far
+     */
+    private final AtomicLong requests = new AtomicLong();
+
+    public EZShopServer(EZShop shop, InetSocketAddress address) throws IOException {
+        this(shop, address, DEFAULT_WORKERS, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public EZShopServer(EZShop shop, InetSocketAddress address, int workers, int queueCapacity) throws IOException {
+        this(shop, address, workers, queueCapacity, DEFAULT_MAX_SESSIONS);
+    }
+
+    /**
+     * Create a server; it does not accept requests until it is started
+     *
+     * @param shop the shop whose operations are exposed
+     * @param address address to bind (port 0 to bind an ephemeral port)
+     * @param workers number of threads handling the requests
+     * @param queueCapacity maximum number of requests waiting for a worker
+     * @param maxSessions maximum number of open sessions
+     * @throws IOException if the address can not be bound
+     */
+    public EZShopServer(EZShop shop, InetSocketAddress address, int workers, int queueCapacity, int maxSessions)
+            throws IOException {
+        if (workers <= 0 || queueCapacity <= 0 || maxSessions <= 0) {
+            throw new IllegalArgumentException(
+                    "The number of workers, the queue capacity and the number of sessions must be positive");
+        }
+        this.shop = shop;
+        this.maxSessions = maxSessions;
+
+        AtomicInteger threads = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), task -> {
+                    Thread thread = new Thread(task, "ezshop-http-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, (task, executor) -> {
+                    // the queue is full: the dispatcher waits, so that no more requests are read meanwhile
+                    if (executor.isShutdown()) {
+                        throw new RejectedExecutionException("The server is stopped");
+                    }
+                    try {
+                        executor.getQueue().put(task);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException(ex);
+                    }
+                });
+
+        this.server = HttpServer.create(address, 0);
+        this.server.createContext(CONTEXT, this::handle);
+        this.server.setExecutor(this.workers);
+    }
+
+    /**
+     * Start accepting requests
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * @return the address the server is bound to
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * @return the number of requests received so far
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of open sessions
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Stop accepting requests, wait for the requests being handled and discard the sessions
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        workers.shutdown();
+        try {
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        sessions.clear();
+    }
+
+    /**
+     * Handle a request: perform the requested operation in the session of the client
+     *
+     * @param exchange the request
+     */
+    private void handle(HttpExchange exchange) {
+        requests.incrementAndGet();
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, error("IllegalArgumentException", "Operations must be POSTed"));
+                return;
+            }
+
+            Method operation = OPERATIONS.get(exchange.getRequestURI().getPath().substring(CONTEXT.length()));
+            if (operation == null) {
+                respond(exchange, 404, error("IllegalArgumentException", "Unknown operation"));
+                return;
+            }
+
+            // at most one byte more than the maximum size is read, to detect the bodies too large
+            byte[] body = readAll(exchange.getRequestBody(), MAX_BODY_SIZE + 1);
+            if (body.length > MAX_BODY_SIZE) {
+                respond(exchange, 413, error("IllegalArgumentException", "The request is too large"));
+                return;
+            }
+
+            Object[] args;
+            try {
+                args = readArguments(operation, body);
+            } catch (JsonParseException | IllegalArgumentException | IllegalStateException ex) {
+                respond(exchange, 400, error("IllegalArgumentException", "Invalid arguments: " + ex.getMessage()));
+                return;
+            }
+
+            RemoteSession session = session(exchange);
+            if (session == null) {
+                respond(exchange, 503, error("IllegalStateException", "Too many open sessions"));
+                return;
+            }
+            exchange.getResponseHeaders().set(SESSION_HEADER, session.id);
+
+            JsonObject response = new JsonObject();
+            int status = 200;
+            try {
+                Object result = operation.invoke(session.shop, args);
+                if (operation.getReturnType() != void.class) {
+                    response.add(RESULT, gson.toJsonTree(result, operation.getGenericReturnType()));
+                }
+            } catch (InvocationTargetException ex) {
+                Throwable cause = ex.getCause();
+                // the exceptions declared by the operation are results, the others are failures of the server
+                if (!isDeclared(operation, cause)) {
+                    status = 500;
+                }
+                response = error(cause.getClass().getSimpleName(), cause.getMessage());
+            } catch (IllegalAccessException ex) {
+                throw new Error(ex);
+            }
+            respond(exchange, status, response);
+        } catch (IOException ex) {
+            // the client is gone: the connection is closed
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Read the arguments of an operation from the body of a request
+     *
+     * @param operation the requested operation
+     * @param body body of the request: the JSON array of the arguments (empty if the operation has none)
+     * @return the arguments
+     * @throws IllegalArgumentException if the number of arguments is wrong or if a primitive argument is null
+     */
+    private Object[] readArguments(Method operation, byte[] body) {
+        String json = new String(body, StandardCharsets.UTF_8);
+        if (json.trim().isEmpty()) {
+            json = "[]";
+        }
+        JsonArray values = JsonParser.parseString(json).getAsJsonArray();
+
+        Class<?>[] types = operation.getParameterTypes();
+        if (values.size() != types.length) {
+            throw new IllegalArgumentException(types.length + " arguments expected");
+        }
+
+        Object[] args = new Object[types.length];
+        for (int i = 0; i < args.length; i++) {
+            JsonElement value = values.get(i);
+            if (types[i].isPrimitive() && value.isJsonNull()) {
+                throw new IllegalArgumentException("argument " + i + " can not be null");
+            }
+            args[i] = gson.fromJson(value, operation.getGenericParameterTypes()[i]);
+        }
+        return args;
+    }
+
+    /**
+     * Get the session of the client sending a request; a new session is opened for a new client
+     *
+     * @param exchange the request
+     * @return the session, or null if the session is new and the maximum number of sessions are open
+     */
+    private RemoteSession session(HttpExchange exchange) {
+        long now = System.currentTimeMillis();
+        String id = exchange.getRequestHeaders().getFirst(SESSION_HEADER);
+        RemoteSession session = id == null ? null : sessions.get(id);
+
+        if (session == null) {
+            // the sessions are counted and opened one at a time, so that the maximum is never exceeded
+            synchronized (sessions) {
+                sessions.values().removeIf(s -> now - s.lastUsed > SESSION_TIMEOUT);
+                if (sessions.size() >= maxSessions) {
+                    return null;
+                }
+                session = new RemoteSession(UUID.randomUUID().toString(), shop.openSession());
+                sessions.put(session.id, session);
+            }
+        }
+        session.lastUsed = now;
+        return session;
+    }
+
+    private static boolean isDeclared(Method operation, Throwable exception) {
+        for (Class<?> type : operation.getExceptionTypes()) {
+            if (type.isInstance(exception)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static JsonObject error(String exception, String message) {
+        JsonObject error = new JsonObject();
+        error.addProperty(EXCEPTION, exception);
+        error.addProperty(MESSAGE, message);
+        return error;
+    }
+
+    private static void respond(HttpExchange exchange, int status, JsonObject response) throws IOException {
+        byte[] body = response.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+        // a fixed length keeps the connection alive for the next request
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Start a server on the shop stored in the default directory. The server is bound to the loopback address unless
+     * another address (e.g. 0.0.0.0 for all the interfaces) is given explicitly.
+     *
+     * @param args [port [workers [address]]]
+     * @throws IOException if the address can not be bound
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int workers = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_WORKERS;
+        InetAddress address = args.length > 2 ? InetAddress.getByName(args[2]) : InetAddress.getLoopbackAddress();
+
+        EZShop shop = new EZShop();
+        EZShopServer server = new EZShopServer(shop, new InetSocketAddress(address, port), workers,
+                DEFAULT_QUEUE_CAPACITY);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            shop.flush();
+        }));
+        server.start();
+        System.out.println("EZShop server listening on " + server.getAddress());
+    }
+
+    /**
+     * Session of a client
+     */
+    private static final class RemoteSession {
+        private final String id;
+        private final EZShopInterface shop;
+        private volatile long lastUsed;
+
+        private RemoteSession(String id, EZShopInterface shop) {
+            this.id = id;
+            this.shop = shop;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package it.polito.ezshop.remote;
+
+import com.google.gson.Gson;
+import it.polito.ezshop.data.EZShopInterface;
+import it.polito.ezshop.model.persistence.JsonInterface;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Protocol between EZShopServer and EZShopClient.
+ *
+ * Each operation of EZShopInterface is an endpoint: the client POSTs the JSON array of the arguments to
+ * CONTEXT + name of the operation (e.g. /ezshop/addProductToSale) and receives a JSON object containing either the
+ * result of the operation ("result", missing for void operations) or the exception it threw ("exception", simple
+ * name of the class, and "message"). The values are written with the Gson configuration of the persistence layer,
+ * the objects of the data package as plain objects (see DataObjectTypeAdapterFactory).
+ *
+ * The server answers with the SESSION_HEADER identifying the session of the client, which the client sends with
+ * the following requests: each client (e.g. a cash register) has its own logged in user.
+ *
+ * The LOCAL_OPERATIONS (e.g. reset, which requires no logged user) are not exposed to the clients.
+ */
+final class RemoteProtocol {
+
+    static final String CONTEXT = "/ezshop/";
+
+    static final String SESSION_HEADER = "X-EZShop-Session";
+
+    static final String CONTENT_TYPE = "application/json; charset=utf-8";
+
+    static final String RESULT = "result";
+    static final String EXCEPTION = "exception";
+    static final String MESSAGE = "message";
+
+    /**
+     * Operations of EZShopInterface that can only be performed on the shop itself
+     */
+    static final Set<String> LOCAL_OPERATIONS = Collections.singleton("reset");
+
+    /**
+     * Operations of EZShopInterface exposed to the clients, by name
+     */
+    static final Map<String, Method> OPERATIONS;
+
+    static {
+        Map<String, Method> operations = new HashMap<>();
+        for (Method method : EZShopInterface.class.getMethods()) {
+            if (LOCAL_OPERATIONS.contains(method.getName())) {
+                continue;
+            }
+            if (operations.put(method.getName(), method) != null) {
+                throw new ExceptionInInitializerError("Overloaded operation " + method.getName());
+            }
+        }
+        OPERATIONS = Collections.unmodifiableMap(operations);
+    }
+
+    private RemoteProtocol() {
+    }
+
+    /**
+     * @return a new Gson serializer/deserializer of the values exchanged by the server and the clients
+     */
+    static Gson newGson() {
+        return JsonInterface.newGsonBuilder()
+                .registerTypeAdapterFactory(new DataObjectTypeAdapterFactory())
+                .create();
+    }
+
+    /**
+     * Read a stream up to its end and close it
+     *
+     * @param in the stream
+     * @return the content of the stream
+     * @throws IOException if the stream can not be read
+     */
+    static byte[] readAll(InputStream in) throws IOException {
+        return readAll(in, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Read a stream up to its end or up to a maximum size, and close it
+     *
+     * @param in the stream
+     * @param maxSize maximum number of bytes to read
+     * @return the content of the stream, truncated to maxSize bytes
+     * @throws IOException if the stream can not be read
+     */
+    static byte[] readAll(InputStream in, int maxSize) throws IOException {
+        try (InputStream input = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            while (out.size() < maxSize) {
+                int n = input.read(buffer, 0, Math.min(buffer.length, maxSize - out.size()));
+                if (n < 0) {
+                    break;
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+}
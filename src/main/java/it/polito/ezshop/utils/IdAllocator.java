@@ -0,0 +1,147 @@
+package it.polito.ezshop.utils;
+
+import java.util.function.IntConsumer;
+
+/**
+ * Allocator of monotonic positive ids for one kind of entity.
+ * The ids are handed out from blocks reserved in advance: the upper bound of the current block (the high-water
+ * mark) is reported to a listener, which persists it before any id of the block is used. After a restart the
+ * allocation resumes from the persisted mark, so an id is never handed out twice, even if the entity it was
+ * assigned to was deleted or never persisted; at most one block of ids is skipped.
+ * The allocator can be shared by concurrent threads: the listener is called while the block is being reserved,
+ * so it must not wait for other threads allocating from the same allocator.
+ */
+public class IdAllocator {
+
+    /**
+     * Number of ids reserved at once
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 64;
+
+    private final int blockSize;
+
+    /**
+     * Highest id handed out or in use (updated while holding the allocator's monitor)
+     */
+    private volatile int last;
+
+    /**
+     * Highest id of the reserved block (updated while holding the allocator's monitor)
+     */
+    private volatile int reserved;
+
+    /**
+     * Notified with the new high-water mark each time a block is reserved (null if the mark is not persisted)
+     */
+    private IntConsumer reservationListener;
+
+    public IdAllocator() {
+        this(DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Create an allocator reserving the given number of ids at once
+     *
+     * @param blockSize number of ids reserved at once
+     * @throws IllegalArgumentException if the block size is not positive
+     */
+    public IdAllocator(int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Invalid block size");
+        }
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Allocate a new id, greater than all the ids allocated or observed so far
+     *
+     * @return a new positive id
+     * @throws IllegalStateException if the ids are exhausted
+     */
+    public int next() {
+        return next(1);
+    }
+
+    /**
+     * Allocate a range of consecutive new ids (e.g. for a batch of entities): the listener is notified at most once
+     *
+     * @param count number of ids to allocate
+     * @return the first id of the range, greater than all the ids allocated or observed so far
+     * @throws IllegalArgumentException if the number of ids is not positive
+     * @throws IllegalStateException if the ids are exhausted
+     */
+    public synchronized int next(int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("Invalid number of ids");
+        }
+        if ((long) last + count > Integer.MAX_VALUE) {
+            throw new IllegalStateException("No ids left");
+        }
+
+        if ((long) last + count > reserved) {
+            reserved = (int) Math.min(Integer.MAX_VALUE, (long) last + count - 1 + blockSize);
+            if (reservationListener != null) {
+                reservationListener.accept(reserved);
+            }
+        }
+
+        int first = last + 1;
+        last += count;
+        return first;
+    }
+
+    /**
+     * Record an id already in use (e.g. read from the persisted state), so that it is not allocated again
+     *
+     * @param id id in use
+     */
+    public synchronized void observe(int id) {
+        if (id > last) {
+            last = id;
+        }
+    }
+
+    /**
+     * Resume the allocation after a persisted high-water mark: the ids up to the mark are not allocated again
+     *
+     * @param mark high-water mark returned by getReserved before the restart
+     */
+    public synchronized void restore(int mark) {
+        observe(mark);
+        if (mark > reserved) {
+            reserved = mark;
+        }
+    }
+
+    /**
+     * @return highest id of the reserved block (0 if no id was reserved)
+     */
+    public int getReserved() {
+        return reserved;
+    }
+
+    /**
+     * @return highest id allocated or observed (0 if none)
+     */
+    public int getLast() {
+        return last;
+    }
+
+    /**
+     * Set the listener notified with the new high-water mark each time a block of ids is reserved.
+     * The listener is called before the first id of the block is returned.
+     *
+     * @param reservationListener listener of the reservations, null to remove it
+     */
+    public void setReservationListener(IntConsumer reservationListener) {
+        this.reservationListener = reservationListener;
+    }
+
+    /**
+     * Forget all the allocated ids and the reserved block: the next id is 1
+     */
+    public synchronized void reset() {
+        last = 0;
+        reserved = 0;
+    }
+}
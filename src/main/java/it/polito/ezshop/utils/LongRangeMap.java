@@ -0,0 +1,223 @@
+package it.polito.ezshop.utils;
+
+import java.util.Arrays;
+
+/**
+ * Map from primitive long keys to values, storing the mappings as sorted and disjoint ranges of keys [from, to)
+ * associated to the same value (e.g. the RFIDs of a delivery, all associated to the same product).
+ * A range takes the same space whatever its length; adjacent ranges with the same value are merged.
+ * Values are compared by reference and null values are not allowed.
+ *
+ * @param <V> type of the values
+ */
+public class LongRangeMap<V> {
+
+    private static final long[] NO_RANGES = new long[0];
+
+    /**
+     * Bounds of the ranges, in ascending order: the keys of [starts[i], ends[i]) are mapped to values[i]
+     */
+    private long[] starts = NO_RANGES;
+    private long[] ends = NO_RANGES;
+    private Object[] values = new Object[0];
+    private int ranges;
+
+    /**
+     * Get the value associated to a key
+     *
+     * @param key key to look for
+     * @return the value associated to the key, null if the key is not mapped
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int k = firstStartingAfter(key) - 1;
+        return k >= 0 && key < ends[k] ? (V) values[k] : null;
+    }
+
+    /**
+     * Check if a key is mapped
+     *
+     * @param key key to look for
+     * @return true if the key is mapped, false otherwise
+     */
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Check if any key of the range [from, to) is mapped
+     *
+     * @param from first key to look for
+     * @param to key following the last one to look for
+     * @return true if at least one key of the range is mapped, false otherwise
+     */
+    public boolean containsAnyKey(long from, long to) {
+        int k = firstEndingAfter(from);
+        return from < to && k < ranges && starts[k] < to;
+    }
+
+    /**
+     * Map the keys of the range [from, to) that are not mapped yet to a value
+     *
+     * @param from first key of the range
+     * @param to key following the last one of the range
+     * @param value value to associate to the keys
+     * @throws NullPointerException if the value is null
+     */
+    public void putIfAbsent(long from, long to, V value) {
+        if (value == null) {
+            throw new NullPointerException("Null values are not allowed");
+        }
+
+        long cursor = from;
+        while (cursor < to) {
+            int k = firstEndingAfter(cursor);
+            if (k < ranges && starts[k] <= cursor) {
+                // already mapped: skip the range
+                cursor = ends[k];
+                continue;
+            }
+
+            // map the gap up to the next range
+            long gapEnd = k < ranges ? Math.min(to, starts[k]) : to;
+            insert(k, cursor, gapEnd, value);
+            cursor = gapEnd;
+        }
+    }
+
+    /**
+     * Remove the mappings of the keys of the range [from, to) that are associated to the given value
+     *
+     * @param from first key of the range
+     * @param to key following the last one of the range
+     * @param value value the keys must be associated to
+     */
+    public void remove(long from, long to, V value) {
+        int k = firstEndingAfter(from);
+        while (k < ranges && starts[k] < to) {
+            if (values[k] != value) {
+                k++;
+                continue;
+            }
+
+            // keep the parts of the range outside [from, to)
+            long start = starts[k];
+            long end = ends[k];
+            boolean keepLeft = start < from;
+            boolean keepRight = end > to;
+
+            splice(k, k + 1, (keepLeft ? 1 : 0) + (keepRight ? 1 : 0));
+            if (keepLeft) {
+                set(k++, start, from, value);
+            }
+            if (keepRight) {
+                set(k++, to, end, value);
+            }
+        }
+    }
+
+    /**
+     * @return number of ranges the mappings are stored in
+     */
+    public int rangeCount() {
+        return ranges;
+    }
+
+    /**
+     * @return true if no key is mapped, false otherwise
+     */
+    public boolean isEmpty() {
+        return ranges == 0;
+    }
+
+    /**
+     * Remove all the mappings
+     */
+    public void clear() {
+        starts = NO_RANGES;
+        ends = NO_RANGES;
+        values = new Object[0];
+        ranges = 0;
+    }
+
+    /**
+     * Insert the range [from, to) at position k, merging it with the adjacent ranges having the same value
+     */
+    private void insert(int k, long from, long to, V value) {
+        boolean mergeLeft = k > 0 && ends[k - 1] == from && values[k - 1] == value;
+        boolean mergeRight = k < ranges && starts[k] == to && values[k] == value;
+
+        if (mergeLeft && mergeRight) {
+            ends[k - 1] = ends[k];
+            splice(k, k + 1, 0);
+        } else if (mergeLeft) {
+            ends[k - 1] = to;
+        } else if (mergeRight) {
+            starts[k] = from;
+        } else {
+            splice(k, k, 1);
+            set(k, from, to, value);
+        }
+    }
+
+    private void set(int k, long from, long to, V value) {
+        starts[k] = from;
+        ends[k] = to;
+        values[k] = value;
+    }
+
+    /**
+     * Replace the ranges from i to j - 1 with n (uninitialized) ranges
+     */
+    private void splice(int i, int j, int n) {
+        int newRanges = ranges - (j - i) + n;
+        if (newRanges > starts.length) {
+            int capacity = Math.max(2, Math.max(newRanges, starts.length * 2));
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        System.arraycopy(starts, j, starts, i + n, ranges - j);
+        System.arraycopy(ends, j, ends, i + n, ranges - j);
+        System.arraycopy(values, j, values, i + n, ranges - j);
+        // release the references of the removed ranges
+        if (newRanges < ranges) {
+            Arrays.fill(values, newRanges, ranges, null);
+        }
+        ranges = newRanges;
+    }
+
+    /**
+     * @return index of the first range such that key < ends[k], ranges if it does not exist
+     */
+    private int firstEndingAfter(long key) {
+        int low = 0;
+        int high = ranges;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ends[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return index of the first range such that key < starts[k], ranges if it does not exist
+     */
+    private int firstStartingAfter(long key) {
+        int low = 0;
+        int high = ranges;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
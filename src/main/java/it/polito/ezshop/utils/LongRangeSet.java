@@ -0,0 +1,412 @@
+package it.polito.ezshop.utils;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Set of primitive longs stored as sorted, disjoint and non-adjacent ranges [from, to).
+ * A range of consecutive values (e.g. the RFIDs of a delivery) takes 16 bytes whatever its length: ranges are
+ * split only when values inside them are removed.
+ * Lookups are binary searches on the ranges; adding or removing a value in the middle of the set shifts the
+ * following ranges, which is cheap as long as the values are mostly consecutive.
+ */
+public class LongRangeSet {
+
+    /**
+     * Action on each range of the set
+     */
+    @FunctionalInterface
+    public interface RangeConsumer {
+        /**
+         * @param from first value of the range
+         * @param to value following the last one of the range
+         */
+        void accept(long from, long to);
+    }
+
+    /**
+     * Condition on a range of the set
+     */
+    @FunctionalInterface
+    public interface RangePredicate {
+        /**
+         * @param from first value of the range
+         * @param to value following the last one of the range
+         * @return true if the range satisfies the condition, false otherwise
+         */
+        boolean test(long from, long to);
+    }
+
+    private static final long[] NO_RANGES = new long[0];
+
+    /**
+     * Bounds of the ranges, in ascending order: range i is [starts[i], ends[i])
+     */
+    private long[] starts = NO_RANGES;
+    private long[] ends = NO_RANGES;
+    private int ranges;
+    private int size;
+
+    /**
+     * Add a value to the set
+     *
+     * @param value value to add
+     * @return true if the value was added, false if it was already in the set
+     */
+    public boolean add(long value) {
+        return addRange(value, value + 1) == 1;
+    }
+
+    /**
+     * Add the values of the range [from, to) to the set
+     *
+     * @param from first value to add
+     * @param to value following the last one to add
+     * @return number of values added (the ones that were not already in the set)
+     */
+    public int addRange(long from, long to) {
+        if (from >= to) {
+            return 0;
+        }
+
+        // ranges from i to j - 1 overlap or touch [from, to) and are merged with it
+        int i = firstEndingAtOrAfter(from);
+        int j = firstStartingAfter(to);
+
+        long start = from;
+        long end = to;
+        int merged = 0;
+        if (i < j) {
+            start = Math.min(from, starts[i]);
+            end = Math.max(to, ends[j - 1]);
+            for (int k = i; k < j; k++) {
+                merged += (int) (ends[k] - starts[k]);
+            }
+        }
+
+        splice(i, j, 1);
+        starts[i] = start;
+        ends[i] = end;
+
+        int added = (int) (end - start) - merged;
+        size += added;
+        return added;
+    }
+
+    /**
+     * Add all the values of another set
+     *
+     * @param other values to add
+     */
+    public void addAll(LongRangeSet other) {
+        for (int k = 0; k < other.ranges; k++) {
+            addRange(other.starts[k], other.ends[k]);
+        }
+    }
+
+    /**
+     * Remove a value from the set
+     *
+     * @param value value to remove
+     * @return true if the value was removed, false if it was not in the set
+     */
+    public boolean remove(long value) {
+        return removeRange(value, value + 1) == 1;
+    }
+
+    /**
+     * Remove the values of the range [from, to) from the set
+     *
+     * @param from first value to remove
+     * @param to value following the last one to remove
+     * @return number of values removed (the ones that were in the set)
+     */
+    public int removeRange(long from, long to) {
+        if (from >= to) {
+            return 0;
+        }
+
+        // ranges from i to j - 1 overlap [from, to)
+        int i = firstEndingAfter(from);
+        int j = firstStartingAtOrAfter(to);
+        if (i >= j) {
+            return 0;
+        }
+
+        int removed = 0;
+        for (int k = i; k < j; k++) {
+            removed += (int) (Math.min(to, ends[k]) - Math.max(from, starts[k]));
+        }
+
+        // keep the parts of the first and of the last range outside [from, to)
+        long firstStart = starts[i];
+        long lastEnd = ends[j - 1];
+        boolean keepLeft = firstStart < from;
+        boolean keepRight = lastEnd > to;
+
+        splice(i, j, (keepLeft ? 1 : 0) + (keepRight ? 1 : 0));
+        int k = i;
+        if (keepLeft) {
+            starts[k] = firstStart;
+            ends[k++] = from;
+        }
+        if (keepRight) {
+            starts[k] = to;
+            ends[k] = lastEnd;
+        }
+
+        size -= removed;
+        return removed;
+    }
+
+    /**
+     * Remove all the values of another set
+     *
+     * @param other values to remove
+     */
+    public void removeAll(LongRangeSet other) {
+        for (int k = 0; k < other.ranges; k++) {
+            removeRange(other.starts[k], other.ends[k]);
+        }
+    }
+
+    /**
+     * Remove up to n values, starting from the highest ones
+     *
+     * @param n number of values to remove
+     * @return the removed values
+     */
+    public LongRangeSet removeLast(int n) {
+        LongRangeSet removed = new LongRangeSet();
+        while (n > 0 && ranges > 0) {
+            int last = ranges - 1;
+            long start = Math.max(starts[last], ends[last] - n);
+            removed.addRange(start, ends[last]);
+            n -= (int) (ends[last] - start);
+            removeRange(start, ends[last]);
+        }
+        return removed;
+    }
+
+    /**
+     * Check if a value is in the set
+     *
+     * @param value value to look for
+     * @return true if the value is in the set, false otherwise
+     */
+    public boolean contains(long value) {
+        int k = firstStartingAfter(value) - 1;
+        return k >= 0 && value < ends[k];
+    }
+
+    /**
+     * Check if all the values of the range [from, to) are in the set
+     *
+     * @param from first value to look for
+     * @param to value following the last one to look for
+     * @return true if all the values are in the set (or the range is empty), false otherwise
+     */
+    public boolean containsRange(long from, long to) {
+        if (from >= to) {
+            return true;
+        }
+        // the ranges do not touch each other, so [from, to) must be inside a single range
+        int k = firstStartingAfter(from) - 1;
+        return k >= 0 && to <= ends[k];
+    }
+
+    /**
+     * Check if all the values of another set are in this set
+     *
+     * @param other values to look for
+     * @return true if all the values are in the set, false otherwise
+     */
+    public boolean containsAll(LongRangeSet other) {
+        for (int k = 0; k < other.ranges; k++) {
+            if (!containsRange(other.starts[k], other.ends[k])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return number of values in the set
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if the set has no values, false otherwise
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return number of ranges the values are stored in
+     */
+    public int rangeCount() {
+        return ranges;
+    }
+
+    /**
+     * Remove all the values of the set
+     */
+    public void clear() {
+        starts = NO_RANGES;
+        ends = NO_RANGES;
+        ranges = 0;
+        size = 0;
+    }
+
+    /**
+     * Apply an action to each value of the set, in ascending order
+     *
+     * @param action action to apply
+     */
+    public void forEach(LongConsumer action) {
+        for (int k = 0; k < ranges; k++) {
+            for (long value = starts[k]; value < ends[k]; value++) {
+                action.accept(value);
+            }
+        }
+    }
+
+    /**
+     * Apply an action to each range of the set, in ascending order
+     *
+     * @param action action to apply
+     */
+    public void forEachRange(RangeConsumer action) {
+        for (int k = 0; k < ranges; k++) {
+            action.accept(starts[k], ends[k]);
+        }
+    }
+
+    /**
+     * Check if any range of the set satisfies a condition
+     *
+     * @param predicate condition to check
+     * @return true if at least one range satisfies the condition, false otherwise
+     */
+    public boolean anyRangeMatch(RangePredicate predicate) {
+        for (int k = 0; k < ranges; k++) {
+            if (predicate.test(starts[k], ends[k])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return a new array with the values of the set in ascending order
+     */
+    public long[] toArray() {
+        long[] values = new long[size];
+        int count = 0;
+        for (int k = 0; k < ranges; k++) {
+            for (long value = starts[k]; value < ends[k]; value++) {
+                values[count++] = value;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return a new array with the bounds of the ranges in ascending order: from0, to0, from1, to1, ...
+     */
+    public long[] toRangeArray() {
+        long[] bounds = new long[ranges * 2];
+        for (int k = 0; k < ranges; k++) {
+            bounds[2 * k] = starts[k];
+            bounds[2 * k + 1] = ends[k];
+        }
+        return bounds;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        LongRangeSet that = (LongRangeSet) o;
+        // the ranges are normalized, so equal sets have the same ranges
+        if (ranges != that.ranges) {
+            return false;
+        }
+        for (int k = 0; k < ranges; k++) {
+            if (starts[k] != that.starts[k] || ends[k] != that.ends[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (int k = 0; k < ranges; k++) {
+            hash = 31 * hash + Long.hashCode(starts[k]);
+            hash = 31 * hash + Long.hashCode(ends[k]);
+        }
+        return hash;
+    }
+
+    /**
+     * Replace the ranges from i to j - 1 with n (uninitialized) ranges
+     */
+    private void splice(int i, int j, int n) {
+        int newRanges = ranges - (j - i) + n;
+        if (newRanges > starts.length) {
+            int capacity = Math.max(2, Math.max(newRanges, starts.length * 2));
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+        }
+        System.arraycopy(starts, j, starts, i + n, ranges - j);
+        System.arraycopy(ends, j, ends, i + n, ranges - j);
+        ranges = newRanges;
+    }
+
+    /**
+     * @return index of the first range such that value <= ends[k], ranges if it does not exist
+     */
+    private int firstEndingAtOrAfter(long value) {
+        return search(ends, value, true);
+    }
+
+    /**
+     * @return index of the first range such that value < ends[k], ranges if it does not exist
+     */
+    private int firstEndingAfter(long value) {
+        return search(ends, value, false);
+    }
+
+    /**
+     * @return index of the first range such that value <= starts[k], ranges if it does not exist
+     */
+    private int firstStartingAtOrAfter(long value) {
+        return search(starts, value, true);
+    }
+
+    /**
+     * @return index of the first range such that value < starts[k], ranges if it does not exist
+     */
+    private int firstStartingAfter(long value) {
+        return search(starts, value, false);
+    }
+
+    private int search(long[] bounds, long value, boolean inclusive) {
+        int low = 0;
+        int high = ranges;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (bounds[mid] < value || (!inclusive && bounds[mid] == value)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -2,7 +2,6 @@ package it.polito.ezshop.utils;
 
 import it.polito.ezshop.exceptions.InvalidRFIDException;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 
@@ -32,54 +31,6 @@ public class Utils {
         return id;
     }
 
-    /**
-     * Pick n RFIDs a list of RFIDs, starting with the dummy IDs.
-     *
-     * @param RFIDList the list from which RFIDs are picked
-     * @param n number of RFIDs to pick
-     * @return a list of RFIDs
-     */
-    public static List<String> pickNRFIDs (List<String> RFIDList, int n) {
-        ArrayList<String> retList = new ArrayList<>();
-
-        if (n > RFIDList.size()) {
-            return retList;
-        }
-
-        // first, try to pick DUMMY RFIDs
-        for (; n > 0 && RFIDList.remove(DUMMY_RFID); n--) {
-            retList.add(DUMMY_RFID);
-        }
-
-        // then, pick random RFIDs
-        for (; n > 0; n--) {
-            retList.add(RFIDList.get(0));
-            RFIDList.remove(0);
-        }
-
-        return retList;
-    }
-
-    /**
-     * Checks if a given list of RFIDs is a subset of another list of RFIDs. Verifies that (1.) all non-dummy RFIDs
-     * from the sub-list are part of the super-list and that (2.) the total amount of RFIDs in the sub-list is less than
-     * that of the super-list.
-     *
-     * @param superRFIDList List of RFIDs that contains subRFIDList
-     * @param subRFIDList List of RFIDs that are contained in superRFIDList
-     * @return whether subRFIDList is a subset of the RFIDs in superRFIDList
-     */
-    public static boolean containsRFIDs(List<String> superRFIDList, List<String> subRFIDList) {
-        if (subRFIDList == null) {
-            return false;
-        }
-        if (subRFIDList.size() > superRFIDList.size()) {
-            return false;
-        }
-        return subRFIDList.stream().filter(rfid -> !DUMMY_RFID.equals(rfid))
-                .allMatch(superRFIDList::contains);
-    }
-
     /**
      * Check if given barcode is valid according to GTIN-12, GTIN-13 or GTIN-14.
      * Implementation follows the algorithm described at: https://www.gs1.org/services/how-calculate-check-digit-manually
@@ -208,6 +159,43 @@ public class Utils {
         return RFID != null && (RFID.equals(DUMMY_RFID) || RFID.matches("\\d{12}"));
     }
 
+    /**
+     * Convert an RFID to its numeric value
+     *
+     * @param RFID code to convert
+     * @return the value of the code, -1 if the code is not a sequence of 12 digits (e.g. a dummy RFID)
+     */
+    public static long RFIDToLong (String RFID) {
+        if (RFID == null || RFID.length() != 12) {
+            return -1;
+        }
+
+        long value = 0;
+        for (int i = 0; i < 12; i++) {
+            char c = RFID.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+
+    /**
+     * Convert the numeric value of an RFID to its code (12 digits with leading zeros)
+     *
+     * @param value value of the RFID, between 0 and 999999999999
+     * @return the code of the RFID
+     */
+    public static String RFIDFromLong (long value) {
+        char[] digits = new char[12];
+        for (int d = digits.length - 1; d >= 0; d--) {
+            digits[d] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return new String(digits);
+    }
 
     /**
      * Throws an InvalidRFIDException if the provided RFID is invalid
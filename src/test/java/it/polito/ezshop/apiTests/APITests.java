@@ -67,6 +67,12 @@ import org.junit.runners.Suite;
         EZShopTestRecordBalanceUpdate.class,
         EZShopTestGetCreditsAndDebits.class,
         EZShopTestComputeBalance.class,
+        // persistence
+        EZShopTestPersistence.class,
+        // concurrency
+        EZShopTestConcurrency.class,
+        // remote access
+        EZShopTestRemote.class,
 })
 public class APITests {
 }
@@ -0,0 +1,335 @@
+package it.polito.ezshop.apiTests;
+
+import it.polito.ezshop.TestHelpers;
+import it.polito.ezshop.data.EZShop;
+import it.polito.ezshop.data.EZShopInterface;
+import it.polito.ezshop.data.ProductType;
+import it.polito.ezshop.data.SaleTransaction;
+import it.polito.ezshop.data.TicketEntry;
+import it.polito.ezshop.exceptions.UnauthorizedException;
+import it.polito.ezshop.model.persistence.JsonInterface;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.stream.Collectors;
+
+import static it.polito.ezshop.TestHelpers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests on the use of the shop from concurrent sessions (e.g. several cash registers).
+ */
+public class EZShopTestConcurrency {
+
+    private static final String dataDirectory = "tmp_concurrency/";
+
+    private static final int REGISTERS = 8;
+
+    private static final int SALES_PER_REGISTER = 100;
+
+    private static final int INITIAL_QUANTITY = 100_000;
+
+    private static final double CASH = 10_000.0;
+
+    private EZShop shop;
+
+    private final List<ProductType> products = new ArrayList<>();
+
+    @Before
+    public void beforeEach() throws Exception {
+        shop = new EZShop(dataDirectory);
+        shop.reset();
+        shop.setJournalEnabled(true);
+
+        shop.createUser(admin.getUsername(), admin.getPassword(), admin.getRole().getValue());
+        shop.login(admin.getUsername(), admin.getPassword());
+        for (it.polito.ezshop.model.ProductType product : Arrays.asList(product1, product2, product3, product4)) {
+            int id = TestHelpers.addProductToShop(shop, product);
+            shop.updateQuantity(id, INITIAL_QUANTITY - product.getQuantity());
+        }
+        products.addAll(shop.getAllProductTypes());
+
+        for (int i = 0; i < REGISTERS; i++) {
+            shop.createUser("cashier" + i, "password", "Cashier");
+        }
+    }
+
+    @After
+    public void afterEach() throws Exception {
+        shop.setCommandPipelineEnabled(false);
+        shop.setJournalEnabled(false);
+        JsonInterface.create(dataDirectory).reset();
+    }
+
+    /**
+     * Each session is authorized against its own logged in user
+     */
+    @Test
+    public void testSessionsHaveTheirOwnUser() throws Exception {
+        EZShopInterface register1 = shop.openSession();
+        EZShopInterface register2 = shop.openSession();
+
+        assertNotNull(register1.login("cashier0", "password"));
+        assertEquals(products.size(), register1.getAllProductTypes().size());
+        assertThrows(UnauthorizedException.class, register2::getAllProductTypes);
+        assertThrows(UnauthorizedException.class, register1::getAllUsers);
+
+        // the user logged in the shop (the default session) is not affected by the sessions
+        assertTrue(register1.logout());
+        assertFalse(register2.logout());
+        assertEquals(REGISTERS + 1, shop.getAllUsers().size());
+
+        assertNotEquals(register1, register2);
+        assertEquals(register1, register1);
+    }
+
+    /**
+     * A reset logs out the users of all the sessions
+     */
+    @Test
+    public void testResetLogsOutAllSessions() throws Exception {
+        EZShopInterface register = shop.openSession();
+        assertNotNull(register.login("cashier0", "password"));
+        assertEquals(products.size(), register.getAllProductTypes().size());
+
+        shop.reset();
+        assertThrows(UnauthorizedException.class, register::getAllProductTypes);
+        assertThrows(UnauthorizedException.class, shop::getAllUsers);
+        assertFalse(register.logout());
+
+        // the sessions can log in again
+        register.createUser("cashier0", "password", "Cashier");
+        assertNotNull(register.login("cashier0", "password"));
+        assertTrue(register.getAllProductTypes().isEmpty());
+    }
+
+    /**
+     * Drive the whole sale, payment and return flow from several registers at once, while another session reads the
+     * catalog and the balance; then check that no operation was lost and that the state survives a restart
+     */
+    @Test(timeout = 120_000)
+    public void testConcurrentSalesAndReturns() throws Exception {
+        runRegisters();
+    }
+
+    /**
+     * Run the same flow with the changes applied by the single writer of the command pipeline
+     */
+    @Test(timeout = 120_000)
+    public void testConcurrentSalesAndReturnsPipelined() throws Exception {
+        shop.setCommandPipelineEnabled(true);
+        runRegisters();
+
+        // disabling the pipeline applies the queued commands, the sessions use the locks again
+        shop.setCommandPipelineEnabled(false);
+        EZShopInterface register = shop.openSession();
+        register.login("cashier0", "password");
+        assertTrue(register.startSaleTransaction() > 0);
+    }
+
+    /**
+     * Sell the same product from all the registers until it is sold out, releasing some of the units of the sales
+     * on the way: the product is never oversold and no unit is lost
+     */
+    @Test(timeout = 120_000)
+    public void testConcurrentSalesOfTheSameProduct() throws Exception {
+        int stock = 1_000;
+        ProductType hot = products.get(0);
+        shop.updateQuantity(hot.getId(), stock - INITIAL_QUANTITY);
+
+        AtomicInteger sold = new AtomicInteger();
+        ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> registers = new ArrayList<>();
+        for (int i = 0; i < REGISTERS; i++) {
+            String username = "cashier" + i;
+            Random random = new Random(i);
+            registers.add(new Thread(() -> {
+                try {
+                    EZShopInterface register = shop.openSession();
+                    assertNotNull(register.login(username, "password"));
+                    start.await();
+
+                    for (int n = 0; ; n++) {
+                        int saleId = register.startSaleTransaction();
+                        int amount = 1 + random.nextInt(3);
+                        if (!register.addProductToSale(saleId, hot.getBarCode(), amount)) {
+                            // sold out (or the units are reserved by the other registers)
+                            assertTrue(register.deleteSaleTransaction(saleId));
+                            break;
+                        }
+
+                        if (n % 5 == 4) {
+                            // all the units of the sale are released
+                            assertTrue(register.deleteSaleTransaction(saleId));
+                            continue;
+                        }
+                        if (n % 3 == 2) {
+                            assertTrue(register.deleteProductFromSale(saleId, hot.getBarCode(), 1));
+                            amount--;
+                        }
+                        assertTrue(register.endSaleTransaction(saleId));
+                        assertTrue(register.receiveCashPayment(saleId, CASH) >= 0);
+                        sold.addAndGet(amount);
+                    }
+                    register.logout();
+                } catch (Throwable ex) {
+                    failures.add(ex);
+                }
+            }, username));
+        }
+
+        registers.forEach(Thread::start);
+        start.countDown();
+        for (Thread register : registers) {
+            register.join();
+        }
+
+        if (!failures.isEmpty()) {
+            throw new AssertionError("A session failed", failures.peek());
+        }
+
+        // every unit is either sold or still on the shelves
+        Map<String, Integer> quantities = quantities(shop);
+        int left = quantities.get(hot.getBarCode());
+        assertTrue(left >= 0);
+        assertEquals(stock, sold.get() + left);
+        assertEquals(left, shop.getProductTypeByBarCode(hot.getBarCode()).getQuantity().intValue());
+
+        shop.flush();
+        EZShop restarted = new EZShop(dataDirectory);
+        restarted.login(admin.getUsername(), admin.getPassword());
+        assertEquals(quantities, quantities(restarted));
+    }
+
+    /**
+     * Drive the sale, payment and return flow from REGISTERS sessions and check the invariants of the state
+     */
+    private void runRegisters() throws Exception {
+        double initialBalance = shop.computeBalance();
+
+        Map<String, Integer> sold = new ConcurrentHashMap<>();
+        Set<Integer> transactionIds = ConcurrentHashMap.newKeySet();
+        DoubleAdder cashIn = new DoubleAdder();
+        DoubleAdder cashOut = new DoubleAdder();
+        ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean done = new AtomicBoolean(false);
+
+        List<Thread> registers = new ArrayList<>();
+        for (int i = 0; i < REGISTERS; i++) {
+            String username = "cashier" + i;
+            Random random = new Random(i);
+            registers.add(new Thread(() -> {
+                try {
+                    EZShopInterface register = shop.openSession();
+                    assertNotNull(register.login(username, "password"));
+                    start.await();
+
+                    for (int n = 0; n < SALES_PER_REGISTER; n++) {
+                        int saleId = register.startSaleTransaction();
+                        assertTrue(transactionIds.add(saleId));
+
+                        ProductType returned = products.get(random.nextInt(products.size()));
+                        ProductType other = products.get(random.nextInt(products.size()));
+                        int amount = 1 + random.nextInt(3);
+                        assertTrue(register.addProductToSale(saleId, returned.getBarCode(), 1));
+                        assertTrue(register.addProductToSale(saleId, other.getBarCode(), amount));
+                        assertTrue(register.endSaleTransaction(saleId));
+
+                        double change = register.receiveCashPayment(saleId, CASH);
+                        assertTrue(change >= 0);
+                        cashIn.add(CASH - change);
+                        sold.merge(returned.getBarCode(), 1, Integer::sum);
+                        sold.merge(other.getBarCode(), amount, Integer::sum);
+
+                        int returnId = register.startReturnTransaction(saleId);
+                        assertTrue(transactionIds.add(returnId));
+                        assertTrue(register.returnProduct(returnId, returned.getBarCode(), 1));
+                        assertTrue(register.endReturnTransaction(returnId, true));
+                        cashOut.add(register.returnCashPayment(returnId));
+                        sold.merge(returned.getBarCode(), -1, Integer::sum);
+
+                        // the returned unit is removed from the sale
+                        SaleTransaction sale = register.getSaleTransaction(saleId);
+                        assertEquals(amount, sale.getEntries().stream().mapToInt(TicketEntry::getAmount).sum());
+                    }
+                    register.logout();
+                } catch (Throwable ex) {
+                    failures.add(ex);
+                }
+            }, username));
+        }
+
+        // a manager checks the catalog and the balance while the registers are working
+        Thread manager = new Thread(() -> {
+            try {
+                EZShopInterface office = shop.openSession();
+                office.login(admin.getUsername(), admin.getPassword());
+                start.await();
+                while (!done.get()) {
+                    assertEquals(products.size(), office.getAllProductTypes().size());
+                    assertTrue(office.computeBalance() >= initialBalance);
+                    office.getCreditsAndDebits(null, null);
+                }
+            } catch (Throwable ex) {
+                failures.add(ex);
+            }
+        }, "manager");
+
+        registers.forEach(Thread::start);
+        manager.start();
+        start.countDown();
+        for (Thread register : registers) {
+            register.join();
+        }
+        done.set(true);
+        manager.join();
+
+        if (!failures.isEmpty()) {
+            throw new AssertionError("A session failed", failures.peek());
+        }
+
+        // no sale, payment or return was lost
+        assertEquals(2 * REGISTERS * SALES_PER_REGISTER, transactionIds.size());
+        double expectedBalance = initialBalance + cashIn.sum() - cashOut.sum();
+        assertEquals(expectedBalance, shop.computeBalance(), DOUBLE_COMPARISON_THRESHOLD);
+        assertEquals(expectedBalance, shop.getAccountBook().getBalance(), DOUBLE_COMPARISON_THRESHOLD);
+        assertEquals(expectedBalance, shop.getAccountBook().getBalanceAt(LocalDate.now()),
+                DOUBLE_COMPARISON_THRESHOLD);
+
+        // the units on the shelves and the sold ones add up to the initial quantity
+        Map<String, Integer> quantities = quantities(shop);
+        for (ProductType product : products) {
+            assertEquals(INITIAL_QUANTITY - sold.getOrDefault(product.getBarCode(), 0),
+                    (int) quantities.get(product.getBarCode()));
+        }
+
+        // the journal records of the concurrent operations are replayed in the right order
+        shop.flush();
+        EZShop restarted = new EZShop(dataDirectory);
+        restarted.login(admin.getUsername(), admin.getPassword());
+        assertEquals(expectedBalance, restarted.computeBalance(), DOUBLE_COMPARISON_THRESHOLD);
+        assertEquals(quantities, quantities(restarted));
+    }
+
+    private static Map<String, Integer> quantities(EZShopInterface shop) throws UnauthorizedException {
+        return shop.getAllProductTypes().stream()
+                .collect(Collectors.toMap(ProductType::getBarCode, ProductType::getQuantity));
+    }
+}
@@ -8,9 +8,12 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.List;
 
 import static it.polito.ezshop.TestHelpers.testAccessRights;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class EZShopTestCreateCard {
@@ -90,4 +93,24 @@ public class EZShopTestCreateCard {
         // verify card was attached correctly
         assertEquals(card, shop.getCustomer(customerId).getCustomerCard());
     }
+
+    /**
+     * Tests that createCards creates a batch of distinct cards that can be attached to customers
+     */
+    @Test
+    public void testCreateCards() throws Throwable {
+        Method createCards = EZShop.class.getMethod("createCards", int.class);
+        testAccessRights(createCards, new Object[] {3},
+                new Role[] {Role.SHOP_MANAGER, Role.ADMINISTRATOR, Role.CASHIER});
+
+        shop.login(admin.getUsername(), admin.getPassword());
+        assertTrue(shop.createCards(0).isEmpty());
+
+        List<String> cards = shop.createCards(1000);
+        assertEquals(1000, new HashSet<>(cards).size());
+        assertFalse(cards.contains(shop.createCard()));
+
+        int customerId = shop.defineCustomer("Alessio");
+        assertTrue(shop.attachCardToCustomer(cards.get(999), customerId));
+    }
 }
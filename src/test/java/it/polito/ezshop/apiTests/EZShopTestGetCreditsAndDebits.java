@@ -2,6 +2,7 @@ package it.polito.ezshop.apiTests;
 
 import it.polito.ezshop.data.BalanceOperation;
 import it.polito.ezshop.data.EZShop;
+import it.polito.ezshop.exceptions.UnauthorizedException;
 import it.polito.ezshop.model.*;
 import it.polito.ezshop.model.adapters.BalanceOperationAdapter;
 import org.junit.Before;
@@ -13,9 +14,10 @@ import java.time.Duration;
 import java.time.LocalDate;
 import java.util.Comparator;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import static it.polito.ezshop.TestHelpers.testAccessRights;
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
 public class EZShopTestGetCreditsAndDebits {
 
@@ -238,4 +240,57 @@ public class EZShopTestGetCreditsAndDebits {
         assertEquals(BalanceOperationAdapter.SALE, balanceOperations.get(2).getType());
         assertEquals(BalanceOperationAdapter.RETURN, balanceOperations.get(3).getType());
     }
+
+    /**
+     * Test that the pages of the operations of a range follow the order of the whole list
+     */
+    @Test
+    public void testGetPaged() throws Exception {
+        shop.login(admin.getUsername(), admin.getPassword());
+
+        List<BalanceOperation> all = shop.getCreditsAndDebits(null, null);
+        List<BalanceOperation> firstPage = shop.getCreditsAndDebits(null, null, 0, 4);
+        List<BalanceOperation> secondPage = shop.getCreditsAndDebits(null, null, 4, 4);
+
+        // the operations are ordered by date
+        for (int i = 1; i < all.size(); i++) {
+            assertFalse(all.get(i).getDate().isBefore(all.get(i - 1).getDate()));
+        }
+
+        assertEquals(4, firstPage.size());
+        assertEquals(2, secondPage.size());
+        for (int i = 0; i < all.size(); i++) {
+            BalanceOperation paged = i < 4 ? firstPage.get(i) : secondPage.get(i - 4);
+            assertEquals(all.get(i).getBalanceId(), paged.getBalanceId());
+        }
+        assertTrue(shop.getCreditsAndDebits(null, null, 6, 4).isEmpty());
+
+        // pages of a range with swapped dates
+        List<BalanceOperation> range = shop.getCreditsAndDebits(beforeLast, afterFirst, 1, 2);
+        assertEquals(2, range.size());
+        assertEquals(BalanceOperationAdapter.ORDER, range.get(0).getType());
+        assertEquals(BalanceOperationAdapter.SALE, range.get(1).getType());
+    }
+
+    /**
+     * Test that the operations of a range are collected from the date index, with the dates in any order
+     */
+    @Test
+    public void testRange() throws Exception {
+        shop.login(admin.getUsername(), admin.getPassword());
+
+        assertEquals(4, shop.getCreditsAndDebits(afterFirst, beforeLast).size());
+        assertEquals(shop.getCreditsAndDebits(afterFirst, beforeLast).stream()
+                        .map(BalanceOperation::getBalanceId).collect(Collectors.toList()),
+                shop.getCreditsAndDebits(beforeLast, afterFirst).stream()
+                        .map(BalanceOperation::getBalanceId).collect(Collectors.toList()));
+        assertEquals(shop.getCreditsAndDebits(afterFirst, null).stream()
+                        .map(BalanceOperation::getBalanceId).collect(Collectors.toList()),
+                shop.getCreditsAndDebits(afterFirst, null, 0, Integer.MAX_VALUE).stream()
+                        .map(BalanceOperation::getBalanceId).collect(Collectors.toList()));
+
+        shop.logout();
+        assertThrows(UnauthorizedException.class, () -> shop.getCreditsAndDebits(null, null));
+        assertThrows(UnauthorizedException.class, () -> shop.getCreditsAndDebits(null, null, 0, 10));
+    }
 }
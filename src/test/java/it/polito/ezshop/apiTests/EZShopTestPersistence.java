@@ -0,0 +1,350 @@
+package it.polito.ezshop.apiTests;
+
+import it.polito.ezshop.TestHelpers;
+import it.polito.ezshop.data.EZShop;
+import it.polito.ezshop.model.persistence.BinaryInterface;
+import it.polito.ezshop.model.persistence.JsonInterface;
+import it.polito.ezshop.model.persistence.PersistenceLayer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static it.polito.ezshop.TestHelpers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests on the persistence of the EZShop state (snapshot, journal and asynchronous modes).
+ */
+public class EZShopTestPersistence {
+
+    private static final String dataDirectory = "tmp_persistence/";
+
+    private EZShop shop;
+
+    @Before
+    public void beforeEach() throws Exception {
+        shop = new EZShop(dataDirectory);
+        shop.reset();
+    }
+
+    @After
+    public void afterEach() throws Exception {
+        shop.setAsyncPersistenceEnabled(false);
+        JsonInterface.create(dataDirectory).reset();
+        BinaryInterface.create(dataDirectory).reset();
+    }
+
+    /**
+     * Populate the shop with users, products, customers and balance operations
+     */
+    private void populate() throws Exception {
+        shop.createUser(admin.getUsername(), admin.getPassword(), admin.getRole().getValue());
+        shop.login(admin.getUsername(), admin.getPassword());
+
+        int p1 = TestHelpers.addProductToShop(shop, product1);
+        TestHelpers.addProductToShop(shop, product2);
+        shop.updateProduct(p1, "new description", product1.getBarCode(), 12.0, "new note");
+
+        // customers and cards
+        int c1 = shop.defineCustomer("Pietro");
+        shop.defineCustomer("Sarah");
+        String card = shop.createCard();
+        shop.attachCardToCustomer(card, c1);
+        shop.modifyPointsOnCard(card, 15);
+
+        // orders
+        shop.recordBalanceUpdate(500.0);
+        int o1 = shop.payOrderFor(product2.getBarCode(), 3, 5.0);
+        shop.recordOrderArrivalRFID(o1, "000000001000");
+
+        // a paid sale with a return
+        int s1 = shop.startSaleTransaction();
+        shop.addProductToSale(s1, product1.getBarCode(), 4);
+        shop.addProductToSaleRFID(s1, "000000001001");
+        shop.applyDiscountRateToSale(s1, 0.1);
+        shop.endSaleTransaction(s1);
+        shop.receiveCashPayment(s1, 500.0);
+
+        int r1 = shop.startReturnTransaction(s1);
+        shop.returnProduct(r1, product1.getBarCode(), 2);
+        shop.endReturnTransaction(r1, true);
+        shop.returnCashPayment(r1);
+
+        // a deleted sale
+        int s2 = shop.startSaleTransaction();
+        shop.addProductToSale(s2, product2.getBarCode(), 1);
+        shop.deleteSaleTransaction(s2);
+    }
+
+    /**
+     * Verify that a shop restored from the persistence layer has the same state of the original one
+     */
+    private void assertRestored() throws Exception {
+        assertRestored(PersistenceLayer.Format.JSON);
+    }
+
+    /**
+     * Verify that a shop restored from the persistence layer has the same state of the original one
+     *
+     * @param format encoding of the snapshot files
+     */
+    private void assertRestored(PersistenceLayer.Format format) throws Exception {
+        EZShop restored = new EZShop(dataDirectory, format);
+        restored.login(admin.getUsername(), admin.getPassword());
+
+        assertEquals(shop.getAccountBook(), restored.getAccountBook());
+        assertEquals(shop.getAccountBook().getBalance(), restored.getAccountBook().getBalance(),
+                DOUBLE_COMPARISON_THRESHOLD);
+        assertEquals(describeProducts(shop), describeProducts(restored));
+        assertEquals(describeCustomers(shop), describeCustomers(restored));
+        assertEquals(shop.getAllUsers().size(), restored.getAllUsers().size());
+    }
+
+    private static List<String> describeProducts(EZShop shop) throws Exception {
+        return shop.getAllProductTypes().stream()
+                .map(p -> p.getId() + " " + p.getBarCode() + " " + p.getProductDescription() + " "
+                        + p.getPricePerUnit() + " " + p.getQuantity() + " " + p.getLocation())
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    private static List<String> describeCustomers(EZShop shop) throws Exception {
+        return shop.getAllCustomers().stream()
+                .map(c -> c.getId() + " " + c.getCustomerName() + " " + c.getCustomerCard() + " " + c.getPoints())
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Tests that the state is restored when each mutation writes a full snapshot
+     */
+    @Test
+    public void testRestoreFromSnapshot() throws Exception {
+        populate();
+        assertFalse(Files.exists(Paths.get(dataDirectory, "journal.jsonl")));
+        assertRestored();
+    }
+
+    /**
+     * Tests that the ids of deleted entities are not allocated again after a restart
+     */
+    @Test
+    public void testIdsNotReused() throws Exception {
+        shop.setJournalEnabled(true);
+        populate();
+        int customerId = shop.defineCustomer("Giulia");
+        int saleId = shop.startSaleTransaction();
+        shop.deleteCustomer(customerId);
+        shop.deleteSaleTransaction(saleId);
+
+        EZShop restored = new EZShop(dataDirectory);
+        restored.login(admin.getUsername(), admin.getPassword());
+        assertTrue(restored.defineCustomer("Giulia") > customerId);
+        assertTrue(restored.startSaleTransaction() > saleId);
+
+        // the ids start again from the beginning after a reset
+        restored.reset();
+        restored.createUser(admin.getUsername(), admin.getPassword(), admin.getRole().getValue());
+        restored.login(admin.getUsername(), admin.getPassword());
+        assertEquals(Integer.valueOf(1), restored.startSaleTransaction());
+    }
+
+    /**
+     * Tests that the state is restored from the last snapshot and the journal
+     */
+    @Test
+    public void testRestoreFromJournal() throws Exception {
+        shop.setJournalEnabled(true);
+        populate();
+        assertTrue(Files.exists(Paths.get(dataDirectory, "journal.jsonl")));
+        assertRestored();
+    }
+
+    /**
+     * Tests that a sale keeps the attributes of a product deleted after the sale,
+     * both when it is restored from the journal and from the snapshot
+     */
+    @Test
+    public void testRestoreSaleOfDeletedProduct() throws Exception {
+        shop.setJournalEnabled(true);
+        populate();
+
+        int s1 = shop.startSaleTransaction();
+        shop.addProductToSale(s1, product2.getBarCode(), 1);
+        shop.endSaleTransaction(s1);
+        shop.receiveCashPayment(s1, 100.0);
+        shop.deleteProductType(shop.getProductTypeByBarCode(product2.getBarCode()).getId());
+
+        for (int i = 0; i < 2; i++) {
+            EZShop restored = new EZShop(dataDirectory);
+            restored.login(admin.getUsername(), admin.getPassword());
+            it.polito.ezshop.data.TicketEntry entry = restored.getSaleTransaction(s1).getEntries().get(0);
+            assertEquals(product2.getBarCode(), entry.getBarCode());
+            assertEquals(product2.getProductDescription(), entry.getProductDescription());
+            assertEquals(1, entry.getAmount());
+
+            // fold the journal into the snapshot
+            shop.setJournalEnabled(false);
+        }
+    }
+
+    /**
+     * Tests that the files loaded in parallel at startup are all timed
+     */
+    @Test
+    public void testLoadTimings() throws Exception {
+        populate();
+
+        EZShop restored = new EZShop(dataDirectory);
+        Map<PersistenceLayer.Aggregate, Long> timings = restored.getLoadTimings();
+        assertEquals(PersistenceLayer.Aggregate.values().length, timings.size());
+        timings.values().forEach(t -> assertTrue(t >= 0));
+
+        assertRestored();
+    }
+
+    /**
+     * Tests that disabling the journal folds it into a new snapshot
+     */
+    @Test
+    public void testDisableJournal() throws Exception {
+        shop.setJournalEnabled(true);
+        populate();
+        shop.setJournalEnabled(false);
+        assertFalse(Files.exists(Paths.get(dataDirectory, "journal.jsonl")));
+        assertRestored();
+    }
+
+    /**
+     * Tests that an incomplete record at the end of the journal is ignored
+     */
+    @Test
+    public void testTornJournalRecord() throws Exception {
+        shop.setJournalEnabled(true);
+        populate();
+        Files.write(Paths.get(dataDirectory, "journal.jsonl"), "[{\"target\":\"USER\",\"act".getBytes(),
+                StandardOpenOption.APPEND);
+        assertRestored();
+    }
+
+    /**
+     * Tests that only the files of the modified aggregates are rewritten
+     */
+    @Test
+    public void testOnlyChangedFilesWritten() throws Exception {
+        populate();
+        String card = shop.createCard();
+
+        Files.delete(Paths.get(dataDirectory, "account_book.json"));
+        Files.delete(Paths.get(dataDirectory, "products.json"));
+        Files.delete(Paths.get(dataDirectory, "customers.json"));
+
+        // only the customer list is affected
+        assertTrue(shop.modifyPointsOnCard(card, 10));
+        assertTrue(Files.exists(Paths.get(dataDirectory, "customers.json")));
+        assertFalse(Files.exists(Paths.get(dataDirectory, "products.json")));
+
+        // products and account book are affected
+        int s = shop.startSaleTransaction();
+        assertTrue(shop.addProductToSale(s, product1.getBarCode(), 1));
+        assertTrue(Files.exists(Paths.get(dataDirectory, "account_book.json")));
+        assertTrue(Files.exists(Paths.get(dataDirectory, "products.json")));
+    }
+
+    /**
+     * Tests that the state written by the background writer is restored after a flush
+     */
+    @Test
+    public void testRestoreAsync() throws Exception {
+        shop.setAsyncPersistenceEnabled(true);
+        populate();
+        shop.flush();
+        assertRestored();
+    }
+
+    /**
+     * Tests that changes are coalesced and written only when the writer is flushed
+     */
+    @Test
+    public void testAsyncCoalescing() throws Exception {
+        // the records are never written before an explicit flush
+        shop.setAsyncPersistence(3_600_000, Integer.MAX_VALUE);
+        shop.createUser(admin.getUsername(), admin.getPassword(), admin.getRole().getValue());
+        shop.login(admin.getUsername(), admin.getPassword());
+        int c1 = shop.defineCustomer("Pietro");
+        shop.modifyCustomer(c1, "Pietro Verdi", null);
+        shop.defineCustomer("Sarah");
+
+        assertFalse(Files.exists(Paths.get(dataDirectory, "journal.jsonl")));
+
+        shop.flush();
+        assertEquals(4, Files.readAllLines(Paths.get(dataDirectory, "journal.jsonl")).size());
+        assertRestored();
+    }
+
+    /**
+     * Tests that a payment is durable when the payment method returns
+     */
+    @Test
+    public void testAsyncPaymentIsDurable() throws Exception {
+        shop.setAsyncPersistence(3_600_000, Integer.MAX_VALUE);
+        shop.createUser(admin.getUsername(), admin.getPassword(), admin.getRole().getValue());
+        shop.login(admin.getUsername(), admin.getPassword());
+        TestHelpers.addProductToShop(shop, product1);
+
+        int s1 = shop.startSaleTransaction();
+        shop.addProductToSale(s1, product1.getBarCode(), 2);
+        shop.endSaleTransaction(s1);
+        assertTrue(shop.receiveCashPayment(s1, 100.0) >= 0);
+
+        // no explicit flush
+        assertRestored();
+    }
+
+    /**
+     * Tests that going back to synchronous persistence writes the pending changes
+     */
+    @Test
+    public void testDisableAsync() throws Exception {
+        shop.setAsyncPersistence(3_600_000, Integer.MAX_VALUE);
+        shop.createUser(admin.getUsername(), admin.getPassword(), admin.getRole().getValue());
+        shop.login(admin.getUsername(), admin.getPassword());
+        shop.defineCustomer("Pietro");
+
+        shop.setAsyncPersistenceEnabled(false);
+        assertRestored();
+
+        // the journal is still enabled, but written synchronously
+        shop.defineCustomer("Sarah");
+        assertRestored();
+    }
+
+    /**
+     * Tests that the state is restored from binary snapshots
+     */
+    @Test
+    public void testRestoreBinary() throws Exception {
+        shop = new EZShop(dataDirectory, PersistenceLayer.Format.BINARY);
+        populate();
+        assertTrue(Files.exists(Paths.get(dataDirectory, "account_book.bin")));
+        assertRestored(PersistenceLayer.Format.BINARY);
+    }
+
+    /**
+     * Tests that the state is restored from binary snapshots and the journal
+     */
+    @Test
+    public void testRestoreBinaryWithJournal() throws Exception {
+        shop = new EZShop(dataDirectory, PersistenceLayer.Format.BINARY);
+        shop.setJournalEnabled(true);
+        populate();
+        assertRestored(PersistenceLayer.Format.BINARY);
+    }
+}
@@ -0,0 +1,264 @@
+package it.polito.ezshop.apiTests;
+
+import it.polito.ezshop.data.BalanceOperation;
+import it.polito.ezshop.data.EZShop;
+import it.polito.ezshop.data.EZShopInterface;
+import it.polito.ezshop.data.ProductType;
+import it.polito.ezshop.data.SaleTransaction;
+import it.polito.ezshop.data.TicketEntry;
+import it.polito.ezshop.data.User;
+import it.polito.ezshop.exceptions.InvalidProductCodeException;
+import it.polito.ezshop.exceptions.UnauthorizedException;
+import it.polito.ezshop.model.persistence.JsonInterface;
+import it.polito.ezshop.remote.EZShopClient;
+import it.polito.ezshop.remote.EZShopServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static it.polito.ezshop.TestHelpers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests on the use of the shop through EZShopServer and EZShopClient.
+ */
+public class EZShopTestRemote {
+
+    private static final String dataDirectory = "tmp_remote/";
+
+    private static final String barCode = "12345678901231";
+
+    private EZShop shop;
+
+    private EZShopServer server;
+
+    private String url;
+
+    @Before
+    public void beforeEach() throws Exception {
+        shop = new EZShop(dataDirectory);
+        shop.reset();
+        shop.createUser(admin.getUsername(), admin.getPassword(), admin.getRole().getValue());
+        shop.createUser("cashier", "password", "Cashier");
+
+        server = new EZShopServer(shop, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 4, 16);
+        server.start();
+        url = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void afterEach() throws Exception {
+        server.close();
+        JsonInterface.create(dataDirectory).reset();
+    }
+
+    /**
+     * Each client has its own session on the server
+     */
+    @Test
+    public void testSessionsPerClient() throws Exception {
+        EZShopInterface register1 = EZShopClient.connect(url);
+        EZShopInterface register2 = EZShopClient.connect(url);
+
+        User user = register1.login(admin.getUsername(), admin.getPassword());
+        assertNotNull(user);
+        assertEquals(admin.getUsername(), user.getUsername());
+        assertEquals(admin.getRole().getValue(), user.getRole());
+        assertNull(register2.login(admin.getUsername(), "wrong password"));
+
+        List<User> users = register1.getAllUsers();
+        assertEquals(2, users.size());
+        assertEquals(user, register1.getUser(user.getId()));
+        assertThrows(UnauthorizedException.class, register2::getAllUsers);
+        assertEquals(2, server.getSessionCount());
+
+        assertTrue(register1.logout());
+        assertFalse(register2.logout());
+        assertThrows(UnauthorizedException.class, register1::getAllUsers);
+    }
+
+    /**
+     * The exceptions thrown by the shop are thrown by the client
+     */
+    @Test
+    public void testExceptions() throws Exception {
+        EZShopInterface client = EZShopClient.connect(url);
+        client.login(admin.getUsername(), admin.getPassword());
+
+        assertThrows(InvalidProductCodeException.class, () -> client.createProductType("product", "123", 1.0, null));
+        assertThrows(InvalidProductCodeException.class, () -> client.getProductTypeByBarCode(null));
+        assertNull(client.getProductTypeByBarCode(barCode));
+    }
+
+    /**
+     * Sell a product through a client; the data objects carry the state of the server
+     */
+    @Test
+    public void testSale() throws Exception {
+        EZShopInterface client = EZShopClient.connect(url);
+        client.login(admin.getUsername(), admin.getPassword());
+
+        int productId = client.createProductType("product", barCode, 2.5, "note");
+        assertTrue(client.updatePosition(productId, "1-a-1"));
+        assertTrue(client.updateQuantity(productId, 10));
+
+        ProductType product = client.getProductTypeByBarCode(barCode);
+        assertEquals(productId, (int) product.getId());
+        assertEquals(10, (int) product.getQuantity());
+        assertEquals(2.5, product.getPricePerUnit(), DOUBLE_COMPARISON_THRESHOLD);
+        assertEquals("1-a-1", product.getLocation());
+        assertEquals("note", product.getNote());
+
+        int saleId = client.startSaleTransaction();
+        assertTrue(client.addProductToSale(saleId, barCode, 4));
+        assertTrue(client.applyDiscountRateToSale(saleId, 0.5));
+        assertTrue(client.endSaleTransaction(saleId));
+
+        SaleTransaction sale = client.getSaleTransaction(saleId);
+        assertEquals(saleId, (int) sale.getTicketNumber());
+        assertEquals(5.0, sale.getPrice(), DOUBLE_COMPARISON_THRESHOLD);
+        assertEquals(1, sale.getEntries().size());
+        TicketEntry entry = sale.getEntries().get(0);
+        assertEquals(barCode, entry.getBarCode());
+        assertEquals(4, entry.getAmount());
+
+        assertEquals(5.0, client.receiveCashPayment(saleId, 10.0), DOUBLE_COMPARISON_THRESHOLD);
+        assertEquals(5.0, client.computeBalance(), DOUBLE_COMPARISON_THRESHOLD);
+
+        List<BalanceOperation> operations = client.getCreditsAndDebits(LocalDate.now(), null);
+        assertEquals(1, operations.size());
+        assertEquals(LocalDate.now(), operations.get(0).getDate());
+        assertEquals(5.0, operations.get(0).getMoney(), DOUBLE_COMPARISON_THRESHOLD);
+
+        // the data objects are copies: changing them does not change the shop
+        product.setQuantity(0);
+        shop.login(admin.getUsername(), admin.getPassword());
+        assertEquals(6, (int) shop.getProductTypeByBarCode(barCode).getQuantity());
+    }
+
+    /**
+     * Several registers sell concurrently through the same server
+     */
+    @Test(timeout = 60_000)
+    public void testConcurrentClients() throws Exception {
+        int registers = 8;
+        int sales = 25;
+
+        shop.login(admin.getUsername(), admin.getPassword());
+        int productId = shop.createProductType("product", barCode, 1.0, null);
+        shop.updatePosition(productId, "1-a-1");
+        shop.updateQuantity(productId, registers * sales);
+
+        ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < registers; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    EZShopInterface register = EZShopClient.connect(url);
+                    assertNotNull(register.login("cashier", "password"));
+                    for (int n = 0; n < sales; n++) {
+                        int saleId = register.startSaleTransaction();
+                        assertTrue(register.addProductToSale(saleId, barCode, 1));
+                        assertTrue(register.endSaleTransaction(saleId));
+                        assertEquals(1.0, register.receiveCashPayment(saleId, 2.0), DOUBLE_COMPARISON_THRESHOLD);
+                    }
+                } catch (Throwable ex) {
+                    failures.add(ex);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        if (!failures.isEmpty()) {
+            throw new AssertionError("A register failed", failures.peek());
+        }
+        assertEquals(0, (int) shop.getProductTypeByBarCode(barCode).getQuantity());
+        assertEquals(registers * sales, shop.computeBalance(), DOUBLE_COMPARISON_THRESHOLD);
+        assertEquals(registers, server.getSessionCount());
+    }
+
+    /**
+     * The requests that are not valid operations are rejected
+     */
+    @Test
+    public void testInvalidRequests() throws Exception {
+        assertEquals(405, request("GET", "/ezshop/getAllUsers", null));
+        assertEquals(404, request("POST", "/ezshop/unknownOperation", "[]"));
+        assertEquals(400, request("POST", "/ezshop/getUser", "[1, 2]"));
+        assertEquals(400, request("POST", "/ezshop/addProductToSale", "[1, \"" + barCode + "\", null]"));
+        assertEquals(400, request("POST", "/ezshop/getUser", "{"));
+        assertEquals(200, request("POST", "/ezshop/logout", ""));
+    }
+
+    /**
+     * The shop can not be reset through the server
+     */
+    @Test
+    public void testRemoteResetIsRejected() throws Exception {
+        EZShopInterface client = EZShopClient.connect(url);
+        client.login(admin.getUsername(), admin.getPassword());
+
+        assertEquals(404, request("POST", "/ezshop/reset", "[]"));
+        assertThrows(IllegalStateException.class, client::reset);
+
+        // the shop is not reset: the users are still there, and the client is still logged in
+        assertEquals(2, client.getAllUsers().size());
+    }
+
+    /**
+     * The requests too large and the new clients beyond the maximum number of sessions are rejected
+     */
+    @Test
+    public void testLimits() throws Exception {
+        char[] large = new char[EZShopServer.MAX_BODY_SIZE + 1];
+        Arrays.fill(large, ' ');
+        assertEquals(413, request("POST", "/ezshop/logout", new String(large)));
+        assertEquals(0, server.getSessionCount());
+
+        server.close();
+        server = new EZShopServer(shop, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 4, 16, 2);
+        server.start();
+        url = "http://localhost:" + server.getAddress().getPort();
+
+        EZShopInterface register1 = EZShopClient.connect(url);
+        EZShopInterface register2 = EZShopClient.connect(url);
+        assertNotNull(register1.login(admin.getUsername(), admin.getPassword()));
+        assertNotNull(register2.login("cashier", "password"));
+
+        // the sessions already open are still served
+        EZShopInterface register3 = EZShopClient.connect(url);
+        assertThrows(IllegalStateException.class, () -> register3.login("cashier", "password"));
+        assertEquals(503, request("POST", "/ezshop/logout", ""));
+        assertEquals(2, server.getSessionCount());
+        assertEquals(2, register1.getAllUsers().size());
+    }
+
+    private int request(String method, String path, String body) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url + path).openConnection();
+        connection.setRequestMethod(method);
+        if (body != null) {
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = connection.getResponseCode();
+        connection.disconnect();
+        return status;
+    }
+}
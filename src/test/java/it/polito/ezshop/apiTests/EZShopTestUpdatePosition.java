@@ -142,6 +142,6 @@ public class EZShopTestUpdatePosition {
      */
     @Test()
     public void testNonExistingId() throws InvalidProductIdException, InvalidLocationException, UnauthorizedException {
-        assertFalse(shop.updatePosition(target.getId() + 1, "1-2-3"));
+        assertFalse(shop.updatePosition(Math.max(target.getId(), target2.getId()) + 1, "1-2-3"));
     }
 }
\ No newline at end of file
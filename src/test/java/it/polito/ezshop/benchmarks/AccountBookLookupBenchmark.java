@@ -0,0 +1,79 @@
+package it.polito.ezshop.benchmarks;
+
+import it.polito.ezshop.model.AccountBook;
+import it.polito.ezshop.model.BalanceOperation;
+import it.polito.ezshop.model.Credit;
+import it.polito.ezshop.model.OperationStatus;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measure the latency of AccountBook.getTransaction for growing histories and compare it with the previous
+ * linear search of the list of balance operations.
+ *
+ * Run with: java -Xmx4g -cp target/classes:target/test-classes:gson.jar it.polito.ezshop.benchmarks.AccountBookLookupBenchmark
+ */
+public class AccountBookLookupBenchmark {
+
+    private static final int[] HISTORY_SIZES = {1_000, 10_000, 100_000, 1_000_000};
+
+    private static final int LOOKUPS = 1_000_000;
+
+    /**
+     * Lookups measured with the linear search (the time per lookup grows with the history)
+     */
+    private static final int LINEAR_LOOKUPS = 200;
+
+    public static void main(String[] args) {
+        System.out.printf("%12s %16s %16s%n", "operations", "indexed (ns)", "linear (ns)");
+
+        for (int size : HISTORY_SIZES) {
+            AccountBook accountBook = new AccountBook();
+            for (int id = 1; id <= size; id++) {
+                accountBook.addTransaction(new Credit(id, LocalDate.now(), 1.0, OperationStatus.COMPLETED));
+            }
+
+            Random random = new Random(42);
+            int[] ids = new int[LOOKUPS];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = 1 + random.nextInt(size);
+            }
+
+            // warm up
+            lookup(accountBook, ids, LOOKUPS);
+            legacyLookup(accountBook.getAllTransactions(), ids, LINEAR_LOOKUPS);
+
+            long start = System.nanoTime();
+            lookup(accountBook, ids, LOOKUPS);
+            double indexed = (double) (System.nanoTime() - start) / LOOKUPS;
+
+            start = System.nanoTime();
+            legacyLookup(accountBook.getAllTransactions(), ids, LINEAR_LOOKUPS);
+            double linear = (double) (System.nanoTime() - start) / LINEAR_LOOKUPS;
+
+            System.out.printf("%12d %16.1f %16.1f%n", size, indexed, linear);
+        }
+    }
+
+    private static int lookup(AccountBook accountBook, int[] ids, int n) {
+        int found = 0;
+        for (int i = 0; i < n; i++) {
+            found += accountBook.getTransaction(ids[i]) != null ? 1 : 0;
+        }
+        return found;
+    }
+
+    /**
+     * Previous implementation: search the operation in the list
+     */
+    private static int legacyLookup(List<BalanceOperation> operations, int[] ids, int n) {
+        int found = 0;
+        for (int i = 0; i < n; i++) {
+            int id = ids[i];
+            found += operations.stream().filter(b -> b.getBalanceId() == id).findAny().orElse(null) != null ? 1 : 0;
+        }
+        return found;
+    }
+}
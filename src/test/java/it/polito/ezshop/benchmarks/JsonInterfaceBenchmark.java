@@ -0,0 +1,148 @@
+package it.polito.ezshop.benchmarks;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import it.polito.ezshop.model.*;
+import it.polito.ezshop.model.persistence.JsonInterface;
+import it.polito.ezshop.model.persistence.LocalDateAdapter;
+import it.polito.ezshop.model.persistence.RuntimeTypeAdapterFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Compare the memory needed to save and load a large account book with the previous
+ * string based implementation of JsonInterface and with the streaming one.
+ *
+ * Run with: java -cp target/classes:target/test-classes:gson.jar it.polito.ezshop.benchmarks.JsonInterfaceBenchmark [sales]
+ */
+public class JsonInterfaceBenchmark {
+
+    private static final String dataDirectory = "tmp_benchmark/";
+
+    /**
+     * An operation to measure
+     */
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int sales = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+
+        JsonInterface ji = JsonInterface.create(dataDirectory);
+        ji.reset();
+        Path path = Paths.get(dataDirectory, "account_book.json");
+
+        AccountBook accountBook = generateAccountBook(sales);
+        Gson gson = legacyGson();
+
+        // warm up both implementations
+        ji.writeAccountBook(accountBook);
+        ji.readAccountBook();
+        legacyWrite(gson, path, accountBook);
+        legacyRead(gson, path);
+
+        System.out.printf("account book with %d sales, file size %d KB%n", sales, Files.size(path) / 1024);
+        measure("string write", () -> legacyWrite(gson, path, accountBook));
+        measure("stream write", () -> ji.writeAccountBook(accountBook));
+        measure("string read ", () -> legacyRead(gson, path));
+        measure("stream read ", ji::readAccountBook);
+
+        ji.reset();
+    }
+
+    /**
+     * Print the bytes allocated and the peak heap usage while running a task
+     */
+    private static void measure(String name, Task task) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(p -> p.getType() == MemoryType.HEAP)
+                .collect(Collectors.toList());
+
+        System.gc();
+        long usedBefore = pools.stream().mapToLong(p -> p.getUsage().getUsed()).sum();
+        pools.forEach(MemoryPoolMXBean::resetPeakUsage);
+        long allocatedBefore = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        long start = System.nanoTime();
+
+        task.run();
+
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedBefore;
+        long peak = pools.stream().mapToLong(p -> p.getPeakUsage().getUsed()).sum() - usedBefore;
+
+        System.out.printf("%s: %6d ms, allocated %8d KB, peak heap growth %8d KB%n",
+                name, elapsed / 1_000_000, allocated / 1024, Math.max(peak, 0) / 1024);
+    }
+
+    private static AccountBook generateAccountBook(int sales) throws Exception {
+        ProductType p1 = new ProductType(1, "product 1", "12345678901231", 15.0, "", 0, new Position("1-1-1"));
+        ProductType p2 = new ProductType(2, "product 2", "1234567890128", 25.0, "", 0, new Position("1-1-2"));
+
+        AccountBook accountBook = new AccountBook();
+        for (int i = 1; i <= sales; i++) {
+            SaleTransaction sale = new SaleTransaction(i, LocalDate.now());
+            sale.addSaleTransactionItemRFID(p1, String.format("%012d", 2L * i));
+            sale.addSaleTransactionItemRFID(p2, String.format("%012d", 2L * i + 1));
+            accountBook.addTransaction(sale);
+            accountBook.setTransactionStatus(i, OperationStatus.COMPLETED);
+        }
+        return accountBook;
+    }
+
+    /**
+     * Gson configured as in JsonInterface
+     */
+    private static Gson legacyGson() {
+        RuntimeTypeAdapterFactory<BalanceOperation> runtimeTypeAdapterFactory = RuntimeTypeAdapterFactory
+                .of(BalanceOperation.class, "_type")
+                .registerSubtype(Credit.class, "credit")
+                .registerSubtype(Debit.class, "debit")
+                .registerSubtype(Order.class, "order")
+                .registerSubtype(SaleTransaction.class, "sale")
+                .registerSubtype(ReturnTransaction.class, "return");
+
+        return new GsonBuilder()
+                .registerTypeAdapterFactory(runtimeTypeAdapterFactory)
+                .registerTypeAdapter(LocalDate.class, new LocalDateAdapter().nullSafe())
+                .create();
+    }
+
+    /**
+     * Previous implementation: build the whole document as a string, then write it
+     */
+    private static void legacyWrite(Gson gson, Path path, AccountBook accountBook) throws Exception {
+        String json = gson.toJson(accountBook);
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write(json, 0, json.length());
+        }
+    }
+
+    /**
+     * Previous implementation: concatenate all the lines of the file, then parse the string
+     */
+    private static AccountBook legacyRead(Gson gson, Path path) throws Exception {
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            StringBuilder sb = new StringBuilder();
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                sb.append(line);
+            }
+
+            return gson.fromJson(sb.toString(), AccountBook.class);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package it.polito.ezshop.benchmarks;
+
+import it.polito.ezshop.model.*;
+import it.polito.ezshop.model.persistence.PersistenceLayer;
+import it.polito.ezshop.utils.Utils;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+
+/**
+ * Compare file size, write time and load time of a large account book saved with the json
+ * and with the binary snapshot format.
+ *
+ * Run with: java -Xmx4g -cp target/classes:target/test-classes:gson.jar it.polito.ezshop.benchmarks.PersistenceFormatBenchmark [operations]
+ */
+public class PersistenceFormatBenchmark {
+
+    private static final String dataDirectory = "tmp_benchmark/";
+
+    private static final int REPETITIONS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        AccountBook accountBook = generateAccountBook(operations);
+        System.out.printf("account book with %d operations%n", operations);
+
+        for (PersistenceLayer.Format format : PersistenceLayer.Format.values()) {
+            PersistenceLayer persistenceLayer = PersistenceLayer.create(dataDirectory, format);
+            persistenceLayer.reset();
+
+            // warm up
+            persistenceLayer.writeAccountBook(accountBook);
+            persistenceLayer.readAccountBook();
+
+            long write = Long.MAX_VALUE;
+            long read = Long.MAX_VALUE;
+            for (int i = 0; i < REPETITIONS; i++) {
+                long start = System.nanoTime();
+                persistenceLayer.writeAccountBook(accountBook);
+                write = Math.min(write, System.nanoTime() - start);
+
+                System.gc();
+                start = System.nanoTime();
+                persistenceLayer.readAccountBook();
+                read = Math.min(read, System.nanoTime() - start);
+            }
+
+            String extension = format == PersistenceLayer.Format.JSON ? "json" : "bin";
+            long size = Files.size(Paths.get(dataDirectory, "account_book." + extension));
+
+            System.out.printf("%-6s: file size %8d KB, write %6d ms, load %6d ms%n",
+                    format, size / 1024, write / 1_000_000, read / 1_000_000);
+
+            persistenceLayer.reset();
+        }
+    }
+
+    /**
+     * Generate an account book where half of the operations are sales, the others are
+     * orders, returns, credits and debits
+     */
+    private static AccountBook generateAccountBook(int operations) throws Exception {
+        ProductType[] products = new ProductType[100];
+        for (int i = 0, code = 100000000; i < products.length; code++) {
+            // pick the codes with a valid check digit
+            String barcode = "1234" + code;
+            if (Utils.isValidBarcode(barcode)) {
+                products[i] = new ProductType(i + 1, "product " + (i + 1), barcode, 1.0 + i, "", 0,
+                        new Position("1-" + i + "-1"));
+                i++;
+            }
+        }
+
+        AccountBook accountBook = new AccountBook();
+        LocalDate date = LocalDate.of(2021, 1, 1);
+        long RFID = 1000;
+        SaleTransaction lastSale = null;
+
+        for (int id = 1; id <= operations; id++) {
+            ProductType product = products[id % products.length];
+            if (id % 100 == 0) {
+                date = date.plusDays(1);
+            }
+
+            switch (id % 8) {
+                case 0:
+                case 2:
+                case 4:
+                case 6:
+                    SaleTransaction sale = new SaleTransaction(id, date);
+                    sale.addSaleTransactionItemRFID(product, String.format("%012d", RFID++));
+                    sale.addSaleTransactionItemRFID(product, String.format("%012d", RFID++));
+                    sale.addSaleTransactionItem(products[(id + 1) % products.length], 3);
+                    sale.setStatus(OperationStatus.COMPLETED);
+                    accountBook.addTransaction(sale);
+                    lastSale = sale;
+                    break;
+                case 1:
+                    accountBook.addTransaction(new Order(id, date, product.getBarCode(), 0.5, 50));
+                    break;
+                case 3:
+                    if (lastSale != null) {
+                        ReturnTransaction returnTransaction = new ReturnTransaction(id, lastSale.getBalanceId(), date);
+                        returnTransaction.addReturnTransactionItem(product, 1, product.getPricePerUnit());
+                        lastSale.addReturnTransaction(returnTransaction);
+                        returnTransaction.setStatus(OperationStatus.COMPLETED);
+                        accountBook.addTransaction(returnTransaction);
+                        break;
+                    }
+                    // fall through
+                case 5:
+                    accountBook.addTransaction(new Credit(id, date, 100.0, OperationStatus.COMPLETED));
+                    break;
+                default:
+                    accountBook.addTransaction(new Debit(id, date, 50.0, OperationStatus.COMPLETED));
+                    break;
+            }
+        }
+
+        return accountBook;
+    }
+}
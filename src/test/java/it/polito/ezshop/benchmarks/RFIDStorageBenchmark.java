@@ -0,0 +1,131 @@
+package it.polito.ezshop.benchmarks;
+
+import it.polito.ezshop.model.RFIDSet;
+
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import static it.polito.ezshop.utils.Utils.RFIDFromLong;
+
+/**
+ * Compare the memory taken by each RFID and the lookup latency of the RFID set of a product stored as a list of
+ * strings (as in the previous versions), as a hash set of strings and as an RFIDSet (ranges of sequential RFIDs).
+ * The memory is measured for one large product (a single delivery, and the worst case where every other unit was
+ * sold) and for many ticket entries with a few RFIDs each.
+ *
+ * Run with: java -Xmx4g -cp target/classes:target/test-classes:gson.jar it.polito.ezshop.benchmarks.RFIDStorageBenchmark [tags] [entries]
+ */
+public class RFIDStorageBenchmark {
+
+    private static final long FIRST_RFID = 100_000_000_000L;
+
+    private static final int TAGS_PER_ENTRY = 3;
+
+    private static final int LOOKUPS = 1_000_000;
+
+    /**
+     * Lookups measured on the list (each one scans the list, the total time is extrapolated)
+     */
+    private static final int LIST_LOOKUPS = 200;
+
+    public static void main(String[] args) {
+        int tagCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int entryCount = args.length > 1 ? Integer.parseInt(args[1]) : 300_000;
+        System.out.printf("%d RFIDs in one product, %d entries with %d RFIDs each%n",
+                tagCount, entryCount, TAGS_PER_ENTRY);
+
+        System.out.println("memory per RFID (one product)");
+        Object list = measure("ArrayList<String>", tagCount, () -> fillList(0, tagCount));
+        Object hashSet = measure("HashSet<String>", tagCount, () -> new HashSet<>(fillList(0, tagCount)));
+        Object RFIDSet = measure("RFIDSet", tagCount, () -> fillSet(0, tagCount));
+        Object fragmented = measure("RFIDSet (sparse)", tagCount, () -> {
+            // every other unit was sold: one range per RFID
+            RFIDSet set = new RFIDSet();
+            for (int i = 0; i < tagCount; i++) {
+                set.add(FIRST_RFID + 2L * i);
+            }
+            return set;
+        });
+
+        System.out.println("memory per RFID (ticket entries)");
+        measure("ArrayList<String>", entryCount * TAGS_PER_ENTRY, () -> {
+            List<List<String>> entries = new ArrayList<>(entryCount);
+            for (int i = 0; i < entryCount; i++) {
+                entries.add(fillList(i * TAGS_PER_ENTRY, TAGS_PER_ENTRY));
+            }
+            return entries;
+        });
+        measure("RFIDSet", entryCount * TAGS_PER_ENTRY, () -> {
+            List<RFIDSet> entries = new ArrayList<>(entryCount);
+            for (int i = 0; i < entryCount; i++) {
+                entries.add(fillSet(i * TAGS_PER_ENTRY, TAGS_PER_ENTRY));
+            }
+            return entries;
+        });
+
+        // half of the looked up codes are in the set
+        Random random = new Random(42);
+        String[] codes = new String[LOOKUPS];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = RFIDFromLong(FIRST_RFID + random.nextInt(tagCount * 2));
+        }
+
+        System.out.println("contains latency");
+        @SuppressWarnings("unchecked")
+        List<String> listCodes = (List<String>) list;
+        @SuppressWarnings("unchecked")
+        Set<String> setCodes = (Set<String>) hashSet;
+        lookup("ArrayList<String>", codes, LIST_LOOKUPS, listCodes::contains);
+        lookup("HashSet<String>", codes, LOOKUPS, setCodes::contains);
+        lookup("RFIDSet", codes, LOOKUPS, ((RFIDSet) RFIDSet)::contains);
+        lookup("RFIDSet (sparse)", codes, LOOKUPS, ((RFIDSet) fragmented)::contains);
+    }
+
+    private static List<String> fillList(int offset, int n) {
+        List<String> list = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            list.add(RFIDFromLong(FIRST_RFID + offset + i));
+        }
+        return list;
+    }
+
+    private static RFIDSet fillSet(int offset, int n) {
+        RFIDSet set = new RFIDSet();
+        for (int i = 0; i < n; i++) {
+            set.add(FIRST_RFID + offset + i);
+        }
+        return set;
+    }
+
+    private static Object measure(String name, int tags, Supplier<Object> factory) {
+        long before = usedMemory();
+        Object result = factory.get();
+        long after = usedMemory();
+        System.out.printf("  %-18s %6.1f bytes%n", name, (double) (after - before) / tags);
+        return result;
+    }
+
+    private static void lookup(String name, String[] codes, int n, Predicate<String> contains) {
+        // warm up
+        int found = 0;
+        for (int i = 0; i < Math.min(n, 10_000); i++) {
+            found += contains.test(codes[i]) ? 1 : 0;
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            found += contains.test(codes[i]) ? 1 : 0;
+        }
+        long time = System.nanoTime() - start;
+        System.out.printf("  %-18s %10.1f ns (%d found)%n", name, (double) time / n, found);
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
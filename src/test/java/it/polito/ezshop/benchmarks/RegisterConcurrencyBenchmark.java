@@ -0,0 +1,174 @@
+package it.polito.ezshop.benchmarks;
+
+import it.polito.ezshop.data.EZShop;
+import it.polito.ezshop.data.EZShopInterface;
+import it.polito.ezshop.model.persistence.JsonInterface;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measure the throughput and the latency of the operations of a sale (start, add two products, end, cash payment)
+ * performed by an increasing number of concurrent registers, with the sessions using the locks directly and with
+ * the changes applied by the single writer of the command pipeline. Meanwhile an office session performs queries
+ * (getProductTypeByBarCode and computeBalance), whose latency is measured separately. The journal is enabled and
+ * written synchronously.
+ *
+ * Run with: java -cp target/classes:target/test-classes:gson.jar it.polito.ezshop.benchmarks.RegisterConcurrencyBenchmark [seconds]
+ */
+public class RegisterConcurrencyBenchmark {
+
+    private static final String dataDirectory = "tmp_benchmark_registers/";
+
+    private static final int[] REGISTERS = {1, 2, 4, 8, 16, 32};
+
+    private static final String[] BARCODES = {"12345678901231", "1234567890128", "123456789012", "5634567890122"};
+
+    /**
+     * Latencies recorded by each register (further operations are counted but not recorded)
+     */
+    private static final int LATENCY_SAMPLES = 200_000;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+        System.out.printf("%9s %9s %12s %10s %10s %10s %18s %16s%n", "mode", "registers", "ops/s", "p50 (us)",
+                "p99 (us)", "max (ms)", "query p99.9 (us)", "query max (ms)");
+        for (boolean pipelined : new boolean[]{false, true}) {
+            for (int registers : REGISTERS) {
+                run(pipelined, registers, seconds);
+            }
+        }
+    }
+
+    private static void run(boolean pipelined, int registerCount, int seconds) throws Exception {
+        JsonInterface.create(dataDirectory).reset();
+        EZShop shop = new EZShop(dataDirectory);
+        shop.reset();
+        shop.setJournalEnabled(true);
+
+        shop.createUser("admin", "admin", "Administrator");
+        shop.login("admin", "admin");
+        for (int i = 0; i < BARCODES.length; i++) {
+            int id = shop.createProductType("product " + i, BARCODES[i], 1.0 + i, null);
+            shop.updatePosition(id, "1-1-" + i);
+            shop.updateQuantity(id, 100_000_000);
+        }
+        for (int i = 0; i < registerCount; i++) {
+            shop.createUser("cashier" + i, "password", "Cashier");
+        }
+        shop.setCommandPipelineEnabled(pipelined);
+
+        AtomicBoolean stop = new AtomicBoolean(false);
+        CountDownLatch start = new CountDownLatch(1);
+        long[][] latencies = new long[registerCount][LATENCY_SAMPLES];
+        long[] operations = new long[registerCount];
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < registerCount; i++) {
+            int register = i;
+            threads.add(new Thread(() -> {
+                try {
+                    EZShopInterface session = shop.openSession();
+                    session.login("cashier" + register, "password");
+                    Random random = new Random(register);
+                    long[] samples = latencies[register];
+                    int n = 0;
+                    start.await();
+
+                    while (!stop.get()) {
+                        long t0 = System.nanoTime();
+                        int saleId = session.startSaleTransaction();
+                        long t1 = System.nanoTime();
+                        session.addProductToSale(saleId, BARCODES[random.nextInt(BARCODES.length)], 1);
+                        long t2 = System.nanoTime();
+                        session.addProductToSale(saleId, BARCODES[random.nextInt(BARCODES.length)], 2);
+                        long t3 = System.nanoTime();
+                        session.endSaleTransaction(saleId);
+                        long t4 = System.nanoTime();
+                        session.receiveCashPayment(saleId, 1000.0);
+                        long t5 = System.nanoTime();
+
+                        for (long latency : new long[]{t1 - t0, t2 - t1, t3 - t2, t4 - t3, t5 - t4}) {
+                            if (n < samples.length) {
+                                samples[n] = latency;
+                            }
+                            n++;
+                        }
+                    }
+                    operations[register] = n;
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }));
+        }
+
+        long[] queryLatencies = new long[LATENCY_SAMPLES];
+        int[] queries = new int[1];
+        threads.add(new Thread(() -> {
+            try {
+                EZShopInterface office = shop.openSession();
+                office.login("admin", "admin");
+                start.await();
+
+                int n = 0;
+                while (!stop.get()) {
+                    long t0 = System.nanoTime();
+                    if (n % 2 == 0) {
+                        office.getProductTypeByBarCode(BARCODES[0]);
+                    } else {
+                        office.computeBalance();
+                    }
+                    if (n < queryLatencies.length) {
+                        queryLatencies[n] = System.nanoTime() - t0;
+                    }
+                    n++;
+                }
+                queries[0] = Math.min(n, queryLatencies.length);
+            } catch (Exception ex) {
+                throw new RuntimeException(ex);
+            }
+        }));
+
+        threads.forEach(Thread::start);
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(seconds * 1000L);
+        stop.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        shop.setCommandPipelineEnabled(false);
+        shop.setJournalEnabled(false);
+
+        long total = Arrays.stream(operations).sum();
+        long[] recorded = new long[(int) Arrays.stream(operations).map(n -> Math.min(n, LATENCY_SAMPLES)).sum()];
+        int k = 0;
+        for (int i = 0; i < registerCount; i++) {
+            int count = (int) Math.min(operations[i], LATENCY_SAMPLES);
+            System.arraycopy(latencies[i], 0, recorded, k, count);
+            k += count;
+        }
+        Arrays.sort(recorded);
+        long[] queryRecorded = Arrays.copyOf(queryLatencies, queries[0]);
+        Arrays.sort(queryRecorded);
+
+        System.out.printf("%9s %9d %12.0f %10.1f %10.1f %10.1f %18.1f %16.1f%n", pipelined ? "pipeline" : "locks",
+                registerCount, total * 1e9 / elapsed, percentile(recorded, 0.50) / 1e3,
+                percentile(recorded, 0.99) / 1e3, recorded.length == 0 ? 0 : recorded[recorded.length - 1] / 1e6,
+                percentile(queryRecorded, 0.999) / 1e3,
+                queryRecorded.length == 0 ? 0 : queryRecorded[queryRecorded.length - 1] / 1e6);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, Math.floor(p * sorted.length))];
+    }
+}
@@ -0,0 +1,109 @@
+package it.polito.ezshop.benchmarks;
+
+import it.polito.ezshop.data.EZShop;
+import it.polito.ezshop.data.EZShopInterface;
+import it.polito.ezshop.model.persistence.JsonInterface;
+import it.polito.ezshop.remote.EZShopClient;
+import it.polito.ezshop.remote.EZShopServer;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measure the requests per second served by an EZShopServer on localhost to an increasing number of registers,
+ * each one using its own EZShopClient: a query (getProductTypeByBarCode) and the operations of a sale (start, add a
+ * product, end, cash payment). The journal is enabled and written synchronously.
+ *
+ * Run with: java -cp target/classes:target/test-classes:gson.jar it.polito.ezshop.benchmarks.RemoteServerBenchmark [seconds]
+ */
+public class RemoteServerBenchmark {
+
+    private static final String dataDirectory = "tmp_benchmark_remote/";
+
+    private static final int[] REGISTERS = {1, 2, 4, 8, 16, 32};
+
+    private static final String BARCODE = "12345678901231";
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+        System.out.printf("%9s %12s %12s%n", "registers", "query req/s", "sale req/s");
+        for (int registers : REGISTERS) {
+            System.out.printf("%9d %12.0f %12.0f%n", registers, run(false, registers, seconds),
+                    run(true, registers, seconds));
+        }
+    }
+
+    private static double run(boolean sales, int registerCount, int seconds) throws Exception {
+        JsonInterface.create(dataDirectory).reset();
+        EZShop shop = new EZShop(dataDirectory);
+        shop.reset();
+        shop.setJournalEnabled(true);
+
+        shop.createUser("admin", "admin", "Administrator");
+        shop.login("admin", "admin");
+        int id = shop.createProductType("product", BARCODE, 1.0, null);
+        shop.updatePosition(id, "1-1-1");
+        shop.updateQuantity(id, 100_000_000);
+
+        EZShopServer server = new EZShopServer(shop, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        server.start();
+        String url = "http://localhost:" + server.getAddress().getPort();
+
+        AtomicBoolean stop = new AtomicBoolean(false);
+        CountDownLatch start = new CountDownLatch(1);
+        long[] requests = new long[registerCount];
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < registerCount; i++) {
+            int register = i;
+            threads.add(new Thread(() -> {
+                try {
+                    EZShopInterface client = EZShopClient.connect(url);
+                    client.login("admin", "admin");
+                    start.await();
+
+                    long n = 0;
+                    while (!stop.get()) {
+                        if (sales) {
+                            int saleId = client.startSaleTransaction();
+                            client.addProductToSale(saleId, BARCODE, 1);
+                            client.endSaleTransaction(saleId);
+                            client.receiveCashPayment(saleId, 10.0);
+                            n += 4;
+                        } else {
+                            client.getProductTypeByBarCode(BARCODE);
+                            n++;
+                        }
+                    }
+                    requests[register] = n;
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }));
+        }
+
+        threads.forEach(Thread::start);
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(seconds * 1000L);
+        stop.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        server.close();
+        shop.setJournalEnabled(false);
+
+        long total = 0;
+        for (long n : requests) {
+            total += n;
+        }
+        return total * 1e9 / elapsed;
+    }
+}
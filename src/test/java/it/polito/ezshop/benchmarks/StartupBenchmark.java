@@ -0,0 +1,119 @@
+package it.polito.ezshop.benchmarks;
+
+import it.polito.ezshop.data.EZShop;
+import it.polito.ezshop.model.*;
+import it.polito.ezshop.model.persistence.PersistenceLayer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measure the startup time of EZShop on a large synthetic store and compare the indexed relinking of the
+ * ticket entries to their products with the previous linear search of the product list.
+ *
+ * Run with: java -Xmx4g -cp target/classes:target/test-classes:gson.jar it.polito.ezshop.benchmarks.StartupBenchmark [products] [entries] [JSON|BINARY]
+ */
+public class StartupBenchmark {
+
+    private static final String dataDirectory = "tmp_benchmark/";
+
+    private static final int ENTRIES_PER_SALE = 5;
+
+    /**
+     * Number of ticket entries relinked with the linear search (the total time is extrapolated)
+     */
+    private static final int LINEAR_SAMPLE = 20_000;
+
+    public static void main(String[] args) throws Exception {
+        int productCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int entryCount = args.length > 1 ? Integer.parseInt(args[1]) : 5_000_000;
+        PersistenceLayer.Format format = args.length > 2 ? PersistenceLayer.Format.valueOf(args[2])
+                : PersistenceLayer.Format.BINARY;
+
+        PersistenceLayer persistenceLayer = PersistenceLayer.create(dataDirectory, format);
+        persistenceLayer.reset();
+
+        List<ProductType> products = generateProducts(productCount);
+        persistenceLayer.writeProducts(products);
+        persistenceLayer.writeAccountBook(generateAccountBook(products, entryCount));
+        System.out.printf("%d products, %d ticket entries, %s format%n", productCount, entryCount, format);
+
+        System.gc();
+        long start = System.nanoTime();
+        EZShop shop = new EZShop(dataDirectory, format);
+        long startup = System.nanoTime() - start;
+        System.out.printf("EZShop startup: %d ms%n", startup / 1_000_000);
+        shop.getLoadTimings().forEach((aggregate, time) ->
+                System.out.printf("  %-12s read in %d ms%n", aggregate, time / 1_000_000));
+
+        // relink the loaded account book to a fresh copy of the product list
+        AccountBook accountBook = shop.getAccountBook();
+        List<ProductType> freshProducts = persistenceLayer.readProducts();
+
+        start = System.nanoTime();
+        accountBook.relinkProducts(freshProducts);
+        long indexed = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int relinked = legacyRelink(accountBook, freshProducts, LINEAR_SAMPLE);
+        long linear = (System.nanoTime() - start) * entryCount / relinked;
+
+        System.out.printf("indexed relink: %8d ms%n", indexed / 1_000_000);
+        System.out.printf("linear relink:  %8d ms (extrapolated from %d entries)%n", linear / 1_000_000, relinked);
+        System.out.printf("previous startup (estimated): %d ms%n", (startup - indexed + linear) / 1_000_000);
+
+        persistenceLayer.reset();
+    }
+
+    private static List<ProductType> generateProducts(int count) throws Exception {
+        List<ProductType> products = new ArrayList<>(count);
+        for (int code = 100000000; products.size() < count; code++) {
+            // pick the codes with a valid check digit
+            String barcode = "1234" + code;
+            if (it.polito.ezshop.utils.Utils.isValidBarcode(barcode)) {
+                int id = products.size() + 1;
+                products.add(new ProductType(id, "product " + id, barcode, 1.0, "", 0, null));
+            }
+        }
+        return products;
+    }
+
+    private static AccountBook generateAccountBook(List<ProductType> products, int entryCount) throws Exception {
+        AccountBook accountBook = new AccountBook();
+
+        int id = 1;
+        for (int entries = 0; entries < entryCount; id++) {
+            List<TicketEntry> ticket = new ArrayList<>(ENTRIES_PER_SALE);
+            for (int i = 0; i < ENTRIES_PER_SALE && entries < entryCount; i++, entries++) {
+                ticket.add(new TicketEntry(products.get((int) ((entries * 7919L) % products.size())), 1));
+            }
+
+            SaleTransaction sale = new SaleTransaction(id, null, ticket, 0.0);
+            sale.setStatus(OperationStatus.COMPLETED);
+            accountBook.addTransaction(sale);
+        }
+
+        return accountBook;
+    }
+
+    /**
+     * Previous implementation: search the product of each ticket entry in the product list
+     *
+     * @return number of ticket entries relinked
+     */
+    private static int legacyRelink(AccountBook accountBook, List<ProductType> products, int limit) {
+        int relinked = 0;
+        for (SaleTransaction sale : accountBook.getSaleTransactions()) {
+            for (TicketEntry ti : sale.getTransactionItems()) {
+                products.stream()
+                        .filter(x -> x.getId() == ti.getProductType().getId())
+                        .findFirst().ifPresent(ti::setProductType);
+                relinked++;
+            }
+            if (relinked >= limit) {
+                break;
+            }
+        }
+        return relinked;
+    }
+}
@@ -6,8 +6,10 @@ import org.junit.runners.Suite;
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
         TestAccountBook.class,
+        TestBinaryInterface.class,
         TestCustomerList.class,
-        TestJsonInterface.class
+        TestJsonInterface.class,
+        TestProductCatalog.class
 })
 public class IntegrationTests {
 }
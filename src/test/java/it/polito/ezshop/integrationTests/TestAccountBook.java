@@ -6,11 +6,14 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.time.LocalDate;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
 import static junit.framework.TestCase.*;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertThrows;
 
 public class TestAccountBook {
 
@@ -142,6 +145,28 @@ public class TestAccountBook {
         assertEquals(8, accountBook.getAllTransactions().stream().distinct().count());
     }
 
+    /**
+     * Test that the lookup by ID follows the replacement and the removal of the transactions
+     */
+    @Test
+    public void testPutTransaction() {
+        Credit replacement = new Credit(credit.getBalanceId(), LocalDate.now(), 100, OperationStatus.COMPLETED);
+        accountBook.putTransaction(replacement);
+
+        assertSame(replacement, accountBook.getTransaction(credit.getBalanceId()));
+        assertEquals(8, accountBook.getAllTransactions().size());
+        assertSame(replacement, accountBook.getAllTransactions().get(4));
+        assertEquals(initialBalance - 50, accountBook.getBalance(), 0.01);
+
+        accountBook.removeTransaction(credit.getBalanceId());
+        assertNull(accountBook.getTransaction(credit.getBalanceId()));
+        assertFalse(accountBook.getAllTransactions().contains(replacement));
+        assertSame(debit, accountBook.getAllTransactions().get(4));
+
+        // the list can only be changed through the account book
+        assertThrows(UnsupportedOperationException.class, () -> accountBook.getAllTransactions().add(credit));
+    }
+
     /**
      * Test that all credits are returned
      */
@@ -182,6 +207,128 @@ public class TestAccountBook {
         assertEquals(2, accountBook.getOrders().stream().distinct().count());
     }
 
+    /**
+     * Test that the views of each type of transaction follow the changes of the account book
+     */
+    @Test
+    public void testTypeViews() {
+        List<Order> orders = accountBook.getOrders();
+        List<Debit> debits = accountBook.getDebitTransactions();
+        assertEquals(Arrays.asList(order1, order2), orders);
+
+        Order order3 = new Order(9, LocalDate.now(), "xx", 10, 1);
+        accountBook.addTransaction(order3);
+        assertEquals(Arrays.asList(order1, order2, order3), orders);
+        assertEquals(6, debits.size());
+
+        // replace an order with a debit
+        Debit replacement = new Debit(order1.getBalanceId(), LocalDate.now(), 17, OperationStatus.COMPLETED);
+        accountBook.putTransaction(replacement);
+        assertEquals(Arrays.asList(order2, order3), orders);
+        assertTrue(debits.contains(replacement));
+        assertFalse(debits.contains(order1));
+
+        accountBook.removeTransaction(saleTransaction2.getBalanceId());
+        assertEquals(Collections.singletonList(saleTransaction1), accountBook.getSaleTransactions());
+        assertEquals(Arrays.asList(saleTransaction1, credit), accountBook.getCreditTransactions());
+
+        assertThrows(UnsupportedOperationException.class, () -> orders.add(order1));
+
+        accountBook.reset();
+        assertTrue(orders.isEmpty());
+        assertTrue(debits.isEmpty());
+    }
+
+    /**
+     * Test that the date index contains only the operations that affect the balance and follows their changes
+     */
+    @Test
+    public void testBalanceOperationsByDate() {
+        accountBook.reset();
+        LocalDate today = LocalDate.of(2021, 5, 10);
+        Credit c1 = new Credit(1, today.minusDays(2), 10, OperationStatus.COMPLETED);
+        Credit c2 = new Credit(2, today.minusDays(1), 10, OperationStatus.OPEN);
+        Debit d1 = new Debit(3, today.minusDays(1), 5, OperationStatus.COMPLETED);
+        Debit d2 = new Debit(4, today, 5, OperationStatus.PAID);
+        Arrays.asList(d2, d1, c2, c1).forEach(accountBook::addTransaction);
+
+        assertEquals(Arrays.asList(c1, d1, d2), accountBook.getBalanceOperations(null, null));
+        assertEquals(Arrays.asList(d1, d2), accountBook.getBalanceOperations(today.minusDays(1), null));
+        assertEquals(Arrays.asList(c1, d1), accountBook.getBalanceOperations(null, today.minusDays(1)));
+        assertEquals(Collections.singletonList(d1),
+                accountBook.getBalanceOperations(today.minusDays(1), today.minusDays(1)));
+        assertTrue(accountBook.getBalanceOperations(today, today.minusDays(1)).isEmpty());
+
+        // status changes
+        accountBook.setTransactionStatus(c2.getBalanceId(), OperationStatus.COMPLETED);
+        accountBook.setTransactionStatus(d2.getBalanceId(), OperationStatus.CLOSED);
+        assertEquals(Arrays.asList(c1, d1, c2), accountBook.getBalanceOperations(null, null));
+
+        // pages and stream
+        assertEquals(Arrays.asList(d1, c2), accountBook.getBalanceOperations(null, null, 1, 5));
+        assertEquals(Collections.singletonList(d1), accountBook.getBalanceOperations(null, null, 1, 1));
+        assertTrue(accountBook.getBalanceOperations(null, null, 3, 1).isEmpty());
+        assertEquals(2, accountBook.streamBalanceOperations(today.minusDays(1), today).count());
+
+        // removal and replacement
+        accountBook.removeTransaction(d1.getBalanceId());
+        Credit replacement = new Credit(c1.getBalanceId(), today, 20, OperationStatus.COMPLETED);
+        accountBook.putTransaction(replacement);
+        assertEquals(Arrays.asList(c2, replacement), accountBook.getBalanceOperations(null, null));
+
+        accountBook.reset();
+        assertTrue(accountBook.getBalanceOperations(null, null).isEmpty());
+    }
+
+    /**
+     * Test the running balance series and the verification of the balance since the last checkpoint
+     */
+    @Test
+    public void testBalanceAt() {
+        accountBook.reset();
+        LocalDate today = LocalDate.of(2021, 5, 10);
+        Credit c1 = new Credit(1, today.minusDays(2), 10, OperationStatus.COMPLETED);
+        Credit c2 = new Credit(2, today.minusDays(1), 20, OperationStatus.OPEN);
+        Debit d1 = new Debit(3, today.minusDays(1), 5, OperationStatus.COMPLETED);
+        Debit d2 = new Debit(4, today, 5, OperationStatus.PAID);
+        Arrays.asList(d2, d1, c2, c1).forEach(accountBook::addTransaction);
+
+        assertEquals(0.0, accountBook.getBalanceAt(today.minusDays(3)), 0.01);
+        assertEquals(10.0, accountBook.getBalanceAt(today.minusDays(2)), 0.01);
+        assertEquals(5.0, accountBook.getBalanceAt(today.minusDays(1)), 0.01);
+        assertEquals(0.0, accountBook.getBalanceAt(today), 0.01);
+        assertEquals(0.0, accountBook.getBalanceAt(today.plusDays(30)), 0.01);
+
+        // status changes update the days of the operations
+        accountBook.setTransactionStatus(c2.getBalanceId(), OperationStatus.COMPLETED);
+        assertEquals(25.0, accountBook.getBalanceAt(today.minusDays(1)), 0.01);
+        accountBook.setTransactionStatus(d2.getBalanceId(), OperationStatus.CLOSED);
+        assertEquals(25.0, accountBook.getBalanceAt(today), 0.01);
+        assertEquals(25.0, accountBook.getBalance(), 0.01);
+
+        // removal
+        accountBook.removeTransaction(c1.getBalanceId());
+        assertEquals(0.0, accountBook.getBalanceAt(today.minusDays(2)), 0.01);
+        assertEquals(15.0, accountBook.getBalanceAt(today), 0.01);
+
+        // the verification recomputes the days since the last checkpoint
+        assertEquals(15.0, accountBook.verifyBalance(), 0.01);
+        Credit c3 = new Credit(5, today.plusDays(1), 30, OperationStatus.COMPLETED);
+        accountBook.addTransaction(c3);
+        c3.setMoney(40);
+        assertEquals(55.0, accountBook.verifyBalance(), 0.01);
+        assertEquals(55.0, accountBook.getBalanceAt(today.plusDays(1)), 0.01);
+
+        // days before the checkpoint are trusted unless explicitly verified
+        c2.setMoney(30);
+        assertEquals(55.0, accountBook.verifyBalance(), 0.01);
+        assertEquals(65.0, accountBook.verifyBalance(null), 0.01);
+        assertEquals(25.0, accountBook.getBalanceAt(today.minusDays(1)), 0.01);
+
+        accountBook.reset();
+        assertEquals(0.0, accountBook.getBalanceAt(today), 0.01);
+    }
+
     /**
      * Test that adding an open transaction does not increase balance
      */
@@ -539,6 +686,33 @@ public class TestAccountBook {
         assertEquals("new", ((Order) accountBook.getTransaction(order1.getBalanceId())).getProductCode());
     }
 
+    @Test
+    public void testRelinkProducts() throws Exception {
+        ProductType live = new ProductType(1, "yy", "123456789012", 5.0, "yy");
+        ProductType other = new ProductType(2, "zz", "213124134135", 5.0, "zz");
+
+        accountBook.relinkProducts(Arrays.asList(other, live));
+
+        assertSame(live, saleTransaction1.getTransactionItems().get(0).getProductType());
+        assertSame(live, saleTransaction2.getTransactionItems().get(0).getProductType());
+        assertSame(live, returnTransaction1.getTransactionItems().get(0).getProductType());
+
+        // products missing from the list are not replaced
+        accountBook.relinkProducts(Collections.singletonList(other));
+        assertSame(live, saleTransaction1.getTransactionItems().get(0).getProductType());
+    }
+
+    @Test
+    public void testRelinkReturnTransactions() {
+        saleTransaction2.addReturnTransaction(returnTransaction1);
+
+        accountBook.relinkReturnTransactions();
+
+        assertEquals(Arrays.asList(returnTransaction1, returnTransaction2),
+                saleTransaction1.getReturnTransactions());
+        assertTrue(saleTransaction2.getReturnTransactions().isEmpty());
+    }
+
     @Test
     public void testEqualsHashCode() {
         AccountBook obj = new AccountBook();
@@ -0,0 +1,175 @@
+package it.polito.ezshop.integrationTests;
+
+import it.polito.ezshop.TestHelpers;
+import it.polito.ezshop.model.*;
+import it.polito.ezshop.model.persistence.BinaryInterface;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+import static it.polito.ezshop.utils.Utils.DUMMY_RFID;
+import static org.junit.Assert.*;
+
+public class TestBinaryInterface {
+
+    public static ProductType product;
+
+    private static final String dataDirectory = "tmp_binary/";
+
+    private BinaryInterface bi;
+
+    @Before
+    public void clean() throws Exception {
+        product = new ProductType(1, "xx", "213124134135", 10.0, "xx");
+
+        bi = BinaryInterface.create(dataDirectory);
+        bi.reset();
+    }
+
+    @After
+    public void afterEach() throws IOException {
+        bi.reset();
+    }
+
+    /**
+     * Test reading and writing of a list of users.
+     */
+    @Test
+    public void testReadWriteUsers() throws Exception {
+        // write a null list
+        bi.writeUsers(null);
+        assertEquals(0, bi.readUsers().size());
+
+        List<User> writeData = Arrays.asList(
+                new User(1, "Marco", "abcd", Role.ADMINISTRATOR),
+                new User(2, "Luca", "xyz", Role.SHOP_MANAGER),
+                new User(300, "Pietro", "123", Role.CASHIER)
+        );
+        bi.writeUsers(writeData);
+
+        assertEquals(writeData, bi.readUsers());
+    }
+
+    /**
+     * Test reading and writing of a list of products, including their RFIDs.
+     */
+    @Test
+    public void testReadWriteProducts() throws Exception {
+        // write a null list
+        bi.writeProducts(null);
+        assertEquals(0, bi.readProducts().size());
+
+        ProductType p1 = new ProductType(1, "description1", "213124134135",
+                20.0, "note1", 0, new Position("1-1-1"));
+        p1.addRFIDs(ProductType.generateRFIDs("000000001000", 100));
+        p1.addRFIDs(Arrays.asList(DUMMY_RFID, "000000000001", DUMMY_RFID));
+        ProductType p2 = new ProductType(2, "description2", "213125134134",
+                10.0, "", 0, null);
+        ProductType p3 = new ProductType(3, "description1", "2131251334199",
+                15.5, "note3", 2, new Position("1-a-3"));
+
+        List<ProductType> writeData = Arrays.asList(p1, p2, p3);
+        bi.writeProducts(writeData);
+
+        assertEquals(writeData, bi.readProducts());
+    }
+
+    /**
+     * Test reading and writing of a customer list
+     */
+    @Test
+    public void testReadWriteCustomerList() throws Exception {
+        // write a null list
+        bi.writeCustomerList(null);
+        assertEquals(0, bi.readCustomerList().getAllCustomers().size());
+
+        CustomerList writeData = new CustomerList();
+        int cID1 = writeData.addCustomer("Pietro");
+        int cID2 = writeData.addCustomer("Sarah");
+        writeData.addCustomer("Ramona");
+
+        String cCard1 = writeData.generateNewLoyaltyCard();
+        String cCard2 = writeData.generateNewLoyaltyCard();
+        String cCard3 = writeData.generateNewLoyaltyCard();
+
+        writeData.attachCardToCustomer(cID1, cCard1);
+        writeData.attachCardToCustomer(cID2, cCard2);
+        writeData.modifyPointsOnCard(cCard1, 10);
+        writeData.modifyPointsOnCard(cCard3, 20);
+
+        bi.writeCustomerList(writeData);
+
+        CustomerList readData = bi.readCustomerList();
+        assertEquals(writeData, readData);
+
+        // the card of the customer is the instance stored in the list
+        assertSame(readData.getLoyaltyCard(cCard1), readData.getCustomer(cID1).getCard());
+    }
+
+    /**
+     * Test reading and writing of an account book with all the kinds of balance operations
+     */
+    @Test
+    public void testReadWriteAccountBook() throws Exception {
+        // write a null account book
+        bi.writeAccountBook(null);
+        AccountBook readData = bi.readAccountBook();
+        assertEquals(0.0, readData.getBalance(), TestHelpers.DOUBLE_COMPARISON_THRESHOLD);
+        assertEquals(0, readData.getAllTransactions().size());
+
+        AccountBook writeData = new AccountBook();
+
+        SaleTransaction s1 = new SaleTransaction(1, LocalDate.now());
+        s1.addSaleTransactionItem(product, 10);
+        s1.addSaleTransactionItemRFID(product, "000000000010");
+        s1.applyDiscountToProduct(product.getBarCode(), 0.2);
+        s1.setDiscountRate(0.1);
+        writeData.addTransaction(s1);
+        writeData.setTransactionStatus(1, OperationStatus.COMPLETED);
+
+        ReturnTransaction r1 = new ReturnTransaction(2, s1.getBalanceId(), LocalDate.now());
+        r1.addReturnTransactionItem(product, 2, product.getPricePerUnit());
+        s1.addReturnTransaction(r1);
+        writeData.addTransaction(r1);
+        writeData.setTransactionStatus(2, OperationStatus.COMPLETED);
+
+        writeData.addTransaction(new Credit(3, LocalDate.of(1969, 12, 31), 10.0, OperationStatus.COMPLETED));
+        writeData.addTransaction(new Debit(4, LocalDate.now(), 20.0, OperationStatus.PAID));
+        writeData.addTransaction(new Order(5, LocalDate.now(), product.getBarCode(), 2.0, 30));
+
+        bi.writeAccountBook(writeData);
+
+        readData = bi.readAccountBook();
+        assertEquals(writeData, readData);
+        assertEquals(writeData.getBalance(), readData.getBalance(), TestHelpers.DOUBLE_COMPARISON_THRESHOLD);
+
+        // the sale refers to the return transaction stored in the account book
+        SaleTransaction sale = (SaleTransaction) readData.getTransaction(1);
+        assertSame(readData.getTransaction(2), sale.getReturnTransactions().get(0));
+    }
+
+    /**
+     * Test that a corrupted file is reported as an I/O error
+     */
+    @Test
+    public void testCorruptedFile() throws Exception {
+        bi.writeProducts(Arrays.asList(product, new ProductType(2, "yy", "213125134134", 10.0, "yy")));
+
+        Path path = Paths.get(dataDirectory, "products.bin");
+        byte[] content = Files.readAllBytes(path);
+        Files.write(path, Arrays.copyOf(content, content.length - 3));
+
+        assertThrows(IOException.class, () -> bi.readProducts());
+
+        Files.write(path, "[]".getBytes());
+        assertThrows(IOException.class, () -> bi.readProducts());
+    }
+}
@@ -4,9 +4,12 @@ import it.polito.ezshop.exceptions.InvalidCustomerCardException;
 import it.polito.ezshop.exceptions.InvalidCustomerIdException;
 import it.polito.ezshop.exceptions.InvalidCustomerNameException;
 import it.polito.ezshop.model.CustomerList;
+import it.polito.ezshop.model.LoyaltyCard;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.List;
+
 import static org.junit.Assert.*;
 
 public class TestCustomerList {
@@ -116,7 +119,7 @@ public class TestCustomerList {
         // in particular, check that the card is deleted
         assertNull(customerList.getCustomer(id3).getCard());
         // verify the card was actually removed from the system
-        assertTrue(customerList.loyaltyCards.stream().noneMatch(x -> x.getCode().equals(l3)));
+        assertTrue(customerList.getAllLoyaltyCards().stream().noneMatch(x -> x.getCode().equals(l3)));
 
         // Now, if I edit the customer with a name that has been taken it should return me FALSE
         assertFalse(customerList.modifyCustomer(id3, "Luigi Bianchi", ""));
@@ -163,6 +166,72 @@ public class TestCustomerList {
         assertEquals(2, customerList.getAllCustomers().stream().distinct().count());
     }
 
+    /**
+     * Test that the lookups by id, name and card stay consistent after each change
+     */
+    @Test
+    public void testIndexes() throws Exception {
+        // a renamed customer frees its previous name
+        assertTrue(customerList.modifyCustomer(id1, "Mario Verdi", null));
+        assertEquals(-1, customerList.addCustomer("Mario Verdi"));
+        int id4 = customerList.addCustomer("Mario Rossi");
+        assertTrue(id4 > id3);
+
+        // the card detached by attaching another one is free
+        String l2 = customerList.getAllLoyaltyCards().get(1).getCode();
+        assertTrue(customerList.attachCardToCustomer(id4, l2));
+        assertFalse(customerList.attachCardToCustomer(id2, l2));
+
+        // a removed customer frees its name and its card
+        assertTrue(customerList.removeCustomer(id4));
+        assertNull(customerList.getCustomer(id4));
+        assertFalse(customerList.removeCustomer(id4));
+        assertTrue(customerList.attachCardToCustomer(id2, l2));
+        assertTrue(customerList.addCustomer("Mario Rossi") > id4);
+
+        // a card removed from the list can not be found anymore
+        assertTrue(customerList.modifyCustomer(id1, "Mario Verdi", ""));
+        assertNull(customerList.getLoyaltyCard(l1));
+        assertFalse(customerList.removeLoyaltyCard(l1));
+        assertFalse(customerList.attachCardToCustomer(id1, l1));
+
+        // the indexes are rebuilt from the lists
+        customerList.reindex();
+        assertEquals(l2, customerList.getCustomer(id2).getCard().getCode());
+        assertSame(customerList.getLoyaltyCard(l2), customerList.getCustomer(id2).getCard());
+        assertFalse(customerList.attachCardToCustomer(id3, l2));
+        assertEquals(-1, customerList.addCustomer("Luigi Bianchi"));
+
+        customerList.reset();
+        assertNull(customerList.getCustomer(id1));
+        assertNull(customerList.getLoyaltyCard(l2));
+        assertEquals(1, customerList.addCustomer("Luigi Bianchi"));
+    }
+
+    /**
+     * Test the generation of batches of loyalty cards
+     */
+    @Test
+    public void testGenerateNewLoyaltyCards() throws Exception {
+        customerList.reset();
+
+        // a code already in use (e.g. a random code of a previous version) is skipped
+        String taken = LoyaltyCard.codeOfSerial(3);
+        customerList.putLoyaltyCard(new LoyaltyCard(taken));
+
+        List<String> codes = customerList.generateNewLoyaltyCards(5);
+        assertEquals(5, codes.size());
+        assertFalse(codes.contains(taken));
+        assertEquals(LoyaltyCard.codeOfSerial(1), codes.get(0));
+        assertEquals(LoyaltyCard.codeOfSerial(6), codes.get(4));
+        assertEquals(6, customerList.getAllLoyaltyCards().size());
+
+        // removed codes are not issued again
+        customerList.removeLoyaltyCard(codes.get(4));
+        assertEquals(LoyaltyCard.codeOfSerial(7), customerList.generateNewLoyaltyCard());
+        assertTrue(customerList.generateNewLoyaltyCards(0).isEmpty());
+    }
+
     /**
      * Test that reset method works
      */
@@ -186,8 +255,8 @@ public class TestCustomerList {
 
         // create a CustomerList with the same users and loyalty cards as obj
         CustomerList same = new CustomerList();
-        same.getAllCustomers().addAll(obj.getAllCustomers());
-        same.loyaltyCards.addAll(obj.loyaltyCards);
+        obj.getAllLoyaltyCards().forEach(same::putLoyaltyCard);
+        obj.getAllCustomers().forEach(same::putCustomer);
 
         // create a different CustomerList
         CustomerList different = new CustomerList();
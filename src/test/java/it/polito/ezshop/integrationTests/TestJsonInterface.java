@@ -2,15 +2,25 @@ package it.polito.ezshop.integrationTests;
 
 import it.polito.ezshop.TestHelpers;
 import it.polito.ezshop.model.*;
+import it.polito.ezshop.model.persistence.JournalEntry;
 import it.polito.ezshop.model.persistence.JsonInterface;
+import it.polito.ezshop.utils.Utils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.*;
 
@@ -131,7 +141,7 @@ public class TestJsonInterface {
 
         // the card associated to customer 1 and the card stored in the list
         // should be the exact same object
-        LoyaltyCard card1 = readData.loyaltyCards.stream()
+        LoyaltyCard card1 = readData.getAllLoyaltyCards().stream()
                 .filter(card -> card.getCode().equals(cCard1)).findFirst().orElse(null);
         assertSame(readData.getCustomer(cID1).getCard(), card1);
     }
@@ -161,6 +171,7 @@ public class TestJsonInterface {
         // add a return transaction to the account book
         ReturnTransaction r1 = new ReturnTransaction(2, s1.getBalanceId(), LocalDate.now());
         r1.addReturnTransactionItem(product, 2, product.getPricePerUnit());
+        s1.addReturnTransaction(r1);
         writeData.addTransaction(r1);
         writeData.setTransactionStatus(2, OperationStatus.COMPLETED);
 
@@ -176,5 +187,281 @@ public class TestJsonInterface {
         readData = ji.readAccountBook();
         assertNotNull(readData);
         assertEquals(writeData, readData);
+
+        // the sale refers to the return transaction stored in the account book
+        SaleTransaction sale = (SaleTransaction) readData.getTransaction(1);
+        assertSame(readData.getTransaction(2), sale.getReturnTransactions().get(0));
+    }
+
+    /**
+     * Test that the operations refer to the products by id and that each product is written once,
+     * without the RFIDs of the inventory
+     */
+    @Test
+    public void testAccountBookProductReferences() throws Exception {
+        ProductType p = new ProductType(1, "xx", "213124134135", 10.0, "xx", 0, new Position("1-1-1"));
+        p.addRFIDs(ProductType.generateRFIDs("000000001000", 50));
+
+        AccountBook writeData = new AccountBook();
+        for (int i = 1; i <= 3; i++) {
+            SaleTransaction sale = new SaleTransaction(i, LocalDate.now());
+            sale.addSaleTransactionItemRFID(p, String.format("%012d", 1000 + i));
+            writeData.addTransaction(sale);
+        }
+        ji.writeAccountBook(writeData);
+
+        String content = new String(Files.readAllBytes(Paths.get(dataDirectory, "account_book.json")),
+                StandardCharsets.UTF_8);
+        assertEquals(content.indexOf("213124134135"), content.lastIndexOf("213124134135"));
+        assertFalse(content.contains("000000001010"));
+
+        List<SaleTransaction> sales = ji.readAccountBook().getSaleTransactions();
+        assertEquals(3, sales.size());
+        ProductType readProduct = sales.get(0).getTransactionItems().get(0).getProductType();
+        assertEquals("213124134135", readProduct.getBarCode());
+        assertEquals("1-1-1", readProduct.getPosition().toString());
+        assertEquals(0, readProduct.getRFIDs().size());
+        assertSame(readProduct, sales.get(2).getTransactionItems().get(0).getProductType());
+        assertEquals(Collections.singletonList("000000001003"), sales.get(2).getTransactionItems().get(0).getRFIDs());
+    }
+
+    /**
+     * Test that an account book written by the previous versions (products and returns embedded in
+     * the operations) can still be read
+     */
+    @Test
+    public void testReadLegacyAccountBook() throws Exception {
+        String productJson = "{\"id\":1,\"note\":\"xx\",\"productDescription\":\"xx\",\"barCode\":\"213124134135\"," +
+                "\"pricePerUnit\":10.0,\"RFIDs\":[\"dummy_RFID\"]}";
+        String returnJson = "{\"_type\":\"return\",\"entries\":[{\"productType\":" + productJson + "," +
+                "\"pricePerUnit\":10.0,\"RFIDs\":[\"dummy_RFID\"]}],\"saleTransactionId\":1,\"balanceId\":2," +
+                "\"date\":\"2021-06-05\",\"balanceValue\":10.0,\"status\":\"COMPLETED\"}";
+        String saleJson = "{\"_type\":\"sale\",\"entries\":[{\"productType\":" + productJson + "," +
+                "\"pricePerUnit\":10.0,\"discountRate\":0.0,\"RFIDs\":[\"dummy_RFID\",\"dummy_RFID\"]}]," +
+                "\"returnTransactions\":[" + returnJson + "],\"discountRate\":0.0,\"balanceId\":1," +
+                "\"date\":\"2021-06-05\",\"balanceValue\":20.0,\"status\":\"COMPLETED\"}";
+        Files.write(Paths.get(dataDirectory, "account_book.json"),
+                ("{\"balanceOperations\":[" + saleJson + "," + returnJson + "],\"balance\":10.0}")
+                        .getBytes(StandardCharsets.UTF_8));
+
+        AccountBook readData = ji.readAccountBook();
+        assertEquals(2, readData.getAllTransactions().size());
+        assertEquals(10.0, readData.getBalance(), TestHelpers.DOUBLE_COMPARISON_THRESHOLD);
+
+        SaleTransaction sale = (SaleTransaction) readData.getTransaction(1);
+        assertEquals("213124134135", sale.getTransactionItems().get(0).getProductType().getBarCode());
+        assertEquals(2, sale.getTransactionItems().get(0).getAmount());
+        assertEquals(1, sale.getReturnTransactions().size());
+        assertSame(readData.getTransaction(2), sale.getReturnTransactions().get(0));
+    }
+
+    /**
+     * Test that the units without an RFID are stored as a counter
+     */
+    @Test
+    public void testWriteDummyRFIDs() throws Exception {
+        ProductType p = new ProductType(1, "xx", "213124134135", 10.0, "xx", 50000, new Position("1-1-1"));
+        p.addRFID("000000001000");
+        ji.writeProducts(Collections.singletonList(p));
+
+        String content = new String(Files.readAllBytes(Paths.get(dataDirectory, "products.json")),
+                StandardCharsets.UTF_8);
+        assertFalse(content.contains(Utils.DUMMY_RFID));
+        assertTrue(content.length() < 1000);
+
+        ProductType readProduct = ji.readProducts().get(0);
+        assertEquals(p, readProduct);
+        assertEquals(50001, readProduct.getQuantity());
+        assertEquals(50000, readProduct.getRFIDSet().getDummyCount());
+        assertTrue(readProduct.RFIDexists("000000001000"));
+    }
+
+    /**
+     * Test that the RFIDs of a delivery are written as a single range
+     */
+    @Test
+    public void testWriteRFIDRanges() throws Exception {
+        ProductType p = new ProductType(1, "xx", "213124134135", 10.0, "xx", 0, new Position("1-1-1"));
+        p.addRFIDs(ProductType.generateRFIDSet("000000001000", 100000));
+        assertTrue(p.removeRFID("000000050000"));
+        ji.writeProducts(Collections.singletonList(p));
+
+        String content = new String(Files.readAllBytes(Paths.get(dataDirectory, "products.json")),
+                StandardCharsets.UTF_8);
+        assertTrue(content.length() < 1000);
+
+        ProductType readProduct = ji.readProducts().get(0);
+        assertEquals(p, readProduct);
+        assertEquals(99999, readProduct.getQuantity());
+        assertEquals(2, readProduct.getRFIDSet().getRangeCount());
+        assertFalse(readProduct.RFIDexists("000000050000"));
+        assertTrue(readProduct.RFIDexists("000000100999"));
+    }
+
+    /**
+     * Test that products written by the previous versions (list of codes) can still be read
+     */
+    @Test
+    public void testReadCodeList() throws Exception {
+        Files.write(Paths.get(dataDirectory, "products.json"),
+                ("[{\"id\":1,\"position\":{\"aisleID\":1,\"rackID\":\"1\",\"levelID\":1},\"note\":\"xx\"," +
+                        "\"productDescription\":\"xx\",\"barCode\":\"213124134135\",\"pricePerUnit\":10.0," +
+                        "\"RFIDs\":{\"dummies\":1,\"codes\":[\"000000001001\",\"000000001000\"]}}]")
+                        .getBytes(StandardCharsets.UTF_8));
+
+        ProductType readProduct = ji.readProducts().get(0);
+        assertEquals(3, readProduct.getQuantity());
+        assertEquals(1, readProduct.getRFIDSet().getDummyCount());
+        assertArrayEquals(new long[]{1000, 1002}, readProduct.getRFIDSet().getRanges());
+    }
+
+    /**
+     * Test that products written by the previous versions (one dummy RFID per unit) can still be read
+     */
+    @Test
+    public void testReadLegacyProducts() throws Exception {
+        Files.write(Paths.get(dataDirectory, "products.json"),
+                ("[{\"id\":1,\"position\":{\"aisleID\":1,\"rackID\":\"1\",\"levelID\":1},\"note\":\"xx\"," +
+                        "\"productDescription\":\"xx\",\"barCode\":\"213124134135\",\"pricePerUnit\":10.0," +
+                        "\"RFIDs\":[\"dummy_RFID\",\"000000001000\",\"dummy_RFID\"]}]")
+                        .getBytes(StandardCharsets.UTF_8));
+
+        ProductType readProduct = ji.readProducts().get(0);
+        assertEquals(3, readProduct.getQuantity());
+        assertEquals(2, readProduct.getRFIDSet().getDummyCount());
+        assertEquals(Collections.singletonList("000000001000"), readProduct.getRFIDSet().getCodes());
+    }
+
+    /**
+     * Test that only the aggregates marked as dirty are written
+     */
+    @Test
+    public void testWriteDirty() throws Exception {
+        List<User> users = Collections.singletonList(new User(1, "Marco", "abcd", Role.ADMINISTRATOR));
+        List<ProductType> products = Collections.singletonList(product);
+
+        // nothing is written if nothing changed
+        ji.writeDirty(users, products, new CustomerList(), new AccountBook());
+        assertEquals(0, ji.readUsers().size());
+        assertEquals(0, ji.readProducts().size());
+
+        // only the products are written
+        ji.markDirty(JsonInterface.Aggregate.PRODUCTS);
+        assertTrue(ji.isDirty(JsonInterface.Aggregate.PRODUCTS));
+        ji.writeDirty(users, products, new CustomerList(), new AccountBook());
+        assertFalse(ji.isDirty(JsonInterface.Aggregate.PRODUCTS));
+        assertEquals(0, ji.readUsers().size());
+        assertEquals(products, ji.readProducts());
+
+        // changes mark the aggregate they belong to
+        ji.markDirty(Collections.singletonList(JournalEntry.putUser(users.get(0))));
+        assertTrue(ji.isDirty(JsonInterface.Aggregate.USERS));
+        assertFalse(ji.isDirty(JsonInterface.Aggregate.ACCOUNT_BOOK));
+        ji.writeDirty(users, products, new CustomerList(), new AccountBook());
+        assertEquals(users, ji.readUsers());
+    }
+
+    /**
+     * Test reading and writing of the high-water marks of the id allocators
+     */
+    @Test
+    public void testReadWriteIdReservations() throws Exception {
+        assertTrue(ji.readIdReservations().isEmpty());
+
+        Map<JsonInterface.IdSequence, Integer> reservations = new EnumMap<>(JsonInterface.IdSequence.class);
+        reservations.put(JsonInterface.IdSequence.USERS, 64);
+        reservations.put(JsonInterface.IdSequence.ACCOUNT_BOOK, 1280);
+        reservations.put(JsonInterface.IdSequence.LOYALTY_CARDS, 6400);
+        ji.writeIdReservations(reservations);
+        assertEquals(reservations, ji.readIdReservations());
+
+        // the customer ids read from a snapshot are not allocated again
+        CustomerList customerList = new CustomerList();
+        customerList.putCustomer(new Customer(40, "Pietro"));
+        ji.writeCustomerList(customerList);
+        assertEquals(41, ji.readCustomerList().generateNewId());
+
+        ji.reset();
+        assertTrue(ji.readIdReservations().isEmpty());
+    }
+
+    /**
+     * Test that snapshot files are replaced atomically and forced to disk
+     */
+    @Test
+    public void testAtomicWrite() throws Exception {
+        List<ProductType> products = Collections.singletonList(product);
+
+        // a temporary file left by a crash does not affect the snapshot
+        Files.write(Paths.get(dataDirectory, "products.json.tmp"), "[{\"id\":".getBytes());
+        ji.writeProducts(products);
+
+        assertFalse(Files.exists(Paths.get(dataDirectory, "products.json.tmp")));
+        assertEquals(products, ji.readProducts());
+        assertTrue(ji.getSnapshotFsyncMetrics().getCount() >= 1);
+        assertEquals(1, ji.getSnapshotFsyncMetrics().getItems());
+    }
+
+    /**
+     * Test that records appended concurrently share the journal fsyncs
+     */
+    @Test
+    public void testGroupCommit() throws Exception {
+        int threads = 8;
+        int recordsPerThread = 50;
+
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            workers.add(new Thread(() -> {
+                for (int i = 0; i < recordsPerThread; i++) {
+                    try {
+                        User user = new User(id * recordsPerThread + i + 1, "user", "pwd", Role.CASHIER);
+                        ji.appendToJournal(Collections.singletonList(JournalEntry.putUser(user)));
+                    } catch (Exception ex) {
+                        throw new RuntimeException(ex);
+                    }
+                }
+            }));
+        }
+        workers.forEach(Thread::start);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        int records = threads * recordsPerThread;
+        assertEquals(records, ji.getJournalLength());
+        assertEquals(records, ji.getJournalFsyncMetrics().getItems());
+        assertTrue(ji.getJournalFsyncMetrics().getCount() <= records);
+
+        // all the records are replayed
+        List<User> users = new ArrayList<>();
+        ji.replayJournal(users, new ArrayList<>(), new CustomerList(), new AccountBook());
+        assertEquals(records, users.size());
+    }
+
+    /**
+     * Test that records appended after a torn record are not lost
+     */
+    @Test
+    public void testAppendAfterTornRecord() throws Exception {
+        User u1 = new User(1, "Marco", "abcd", Role.ADMINISTRATOR);
+        User u2 = new User(2, "Luca", "xyz", Role.SHOP_MANAGER);
+
+        ji.appendToJournal(Collections.singletonList(JournalEntry.putUser(u1)));
+        Files.write(Paths.get(dataDirectory, "journal.jsonl"), "[{\"target\":\"USER\",\"act".getBytes(),
+                StandardOpenOption.APPEND);
+
+        // the torn record is discarded when the journal is replayed
+        JsonInterface restarted = JsonInterface.create(dataDirectory);
+        List<User> users = new ArrayList<>();
+        restarted.replayJournal(users, new ArrayList<>(), new CustomerList(), new AccountBook());
+        assertEquals(Collections.singletonList(u1), users);
+
+        restarted.appendToJournal(Collections.singletonList(JournalEntry.putUser(u2)));
+
+        users.clear();
+        JsonInterface.create(dataDirectory).replayJournal(users, new ArrayList<>(), new CustomerList(), new AccountBook());
+        assertEquals(Arrays.asList(u1, u2), users);
     }
 }
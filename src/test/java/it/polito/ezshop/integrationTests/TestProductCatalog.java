@@ -0,0 +1,184 @@
+package it.polito.ezshop.integrationTests;
+
+import it.polito.ezshop.exceptions.InvalidProductCodeException;
+import it.polito.ezshop.model.Position;
+import it.polito.ezshop.model.ProductCatalog;
+import it.polito.ezshop.model.ProductType;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static it.polito.ezshop.utils.Utils.DUMMY_RFID;
+import static org.junit.Assert.*;
+
+public class TestProductCatalog {
+
+    private final ProductCatalog catalog = new ProductCatalog();
+    private ProductType p1;
+    private ProductType p2;
+
+    @Before
+    public void beforeEach() throws Exception {
+        catalog.reset();
+
+        p1 = new ProductType(1, "description1", "213124134135", 20.0, "note1");
+        p2 = new ProductType(2, "description2", "213125134134", 10.0, "note2");
+        assertTrue(catalog.addProduct(p1));
+        assertTrue(catalog.addProduct(p2));
+    }
+
+    /**
+     * Test the lookup of the products by id and by barcode
+     */
+    @Test
+    public void testGetProduct() {
+        assertSame(p1, catalog.getProductById(1));
+        assertSame(p2, catalog.getProductById(2));
+        assertNull(catalog.getProductById(3));
+
+        assertSame(p1, catalog.getProductByBarCode("213124134135"));
+        assertSame(p2, catalog.getProductByBarCode("213125134134"));
+        assertNull(catalog.getProductByBarCode("2131251334199"));
+
+        assertEquals(Arrays.asList(p1, p2), catalog.getAllProducts());
+        assertThrows(UnsupportedOperationException.class, () -> catalog.getAllProducts().clear());
+    }
+
+    /**
+     * Test that products with an existing id or barcode are not added
+     */
+    @Test
+    public void testAddProduct() throws Exception {
+        assertFalse(catalog.addProduct(new ProductType(1, "description3", "2131251334199", 15.5, "")));
+        assertFalse(catalog.addProduct(new ProductType(3, "description3", "213124134135", 15.5, "")));
+        assertEquals(2, catalog.getAllProducts().size());
+
+        ProductType p3 = new ProductType(3, "description3", "2131251334199", 15.5, "");
+        assertTrue(catalog.addProduct(p3));
+        assertSame(p3, catalog.getProductById(3));
+        assertSame(p3, catalog.getProductByBarCode("2131251334199"));
+    }
+
+    /**
+     * Test that a removed product can not be found anymore
+     */
+    @Test
+    public void testRemoveProduct() {
+        assertTrue(catalog.removeProduct(1));
+        assertFalse(catalog.removeProduct(1));
+
+        assertNull(catalog.getProductById(1));
+        assertNull(catalog.getProductByBarCode("213124134135"));
+        assertEquals(Arrays.asList(p2), catalog.getAllProducts());
+    }
+
+    /**
+     * Test that the barcode index follows the changes of barcode
+     */
+    @Test
+    public void testUpdateBarCode() throws Exception {
+        // the barcode is assigned to another product
+        assertFalse(catalog.updateBarCode(p1, "213125134134"));
+        assertEquals("213124134135", p1.getBarCode());
+
+        // invalid barcode
+        assertThrows(InvalidProductCodeException.class, () -> catalog.updateBarCode(p1, "123"));
+        assertSame(p1, catalog.getProductByBarCode("213124134135"));
+
+        // same barcode
+        assertTrue(catalog.updateBarCode(p1, "213124134135"));
+        assertSame(p1, catalog.getProductByBarCode("213124134135"));
+
+        assertTrue(catalog.updateBarCode(p1, "2131251334199"));
+        assertEquals("2131251334199", p1.getBarCode());
+        assertSame(p1, catalog.getProductByBarCode("2131251334199"));
+        assertNull(catalog.getProductByBarCode("213124134135"));
+
+        // the old barcode can be reused
+        assertTrue(catalog.updateBarCode(p2, "213124134135"));
+        assertSame(p2, catalog.getProductByBarCode("213124134135"));
+    }
+
+    /**
+     * Test that the generated ids are not assigned to any product
+     */
+    @Test
+    public void testGenerateNewId() {
+        for (int i = 0; i < 100; i++) {
+            int id = catalog.generateNewId();
+            assertTrue(id > 0);
+            assertNull(catalog.getProductById(id));
+        }
+    }
+
+    /**
+     * Test the loading of a list of products and the reset of the catalog
+     */
+    @Test
+    public void testAddAllAndReset() throws Exception {
+        catalog.reset();
+        assertEquals(0, catalog.getAllProducts().size());
+        assertNull(catalog.getProductById(1));
+        assertNull(catalog.getProductByBarCode("213124134135"));
+
+        // with duplicated ids the first product is indexed
+        ProductType duplicate = new ProductType(1, "description3", "2131251334199", 15.5, "");
+        catalog.addAll(Arrays.asList(p1, p2, duplicate));
+        assertEquals(3, catalog.getAllProducts().size());
+        assertSame(p1, catalog.getProductById(1));
+        assertSame(p2, catalog.getProductByBarCode("213125134134"));
+        assertSame(duplicate, catalog.getProductByBarCode("2131251334199"));
+    }
+
+    /**
+     * Test that the RFID index follows the changes of the RFIDs of the products
+     */
+    @Test
+    public void testRFIDIndex() throws Exception {
+        p1.setPosition(new Position("1-1-1"));
+        p1.addRFIDs(ProductType.generateRFIDs("000000001000", 10));
+        assertTrue(p1.addRFID("000000002000"));
+        assertTrue(p2.addRFID(DUMMY_RFID));
+
+        assertSame(p1, catalog.getProductByRFID("000000001000"));
+        assertSame(p1, catalog.getProductByRFID("000000001009"));
+        assertSame(p1, catalog.getProductByRFID("000000002000"));
+        assertNull(catalog.getProductByRFID("000000001010"));
+        assertFalse(catalog.RFIDexists(DUMMY_RFID));
+        assertFalse(catalog.RFIDexists(null));
+        assertTrue(catalog.anyRFIDexists(ProductType.generateRFIDSet("000000000995", 6)));
+        assertFalse(catalog.anyRFIDexists(ProductType.generateRFIDSet("000000000995", 5)));
+        assertFalse(catalog.anyRFIDexists(ProductType.generateRFIDSet("000000001010", 990)));
+
+        // removed codes
+        assertTrue(p1.removeRFID("000000001000"));
+        assertFalse(catalog.RFIDexists("000000001000"));
+        List<String> picked = p1.pickRFIDs(3).getCodes();
+        assertEquals(3, picked.size());
+        assertEquals(7, p1.getQuantity());
+        assertTrue(picked.stream().noneMatch(catalog::RFIDexists));
+        assertTrue(p1.getRFIDs().stream().allMatch(catalog::RFIDexists));
+
+        // codes removed when the quantity is reduced
+        p1.setQuantity(2);
+        assertEquals(2, p1.getRFIDs().stream().filter(catalog::RFIDexists).count());
+
+        // codes of a removed product
+        String RFID = p1.getRFIDs().get(0);
+        assertTrue(catalog.removeProduct(1));
+        assertFalse(catalog.RFIDexists(RFID));
+        // the product is not indexed anymore
+        p1.addRFID("000000003000");
+        assertFalse(catalog.RFIDexists("000000003000"));
+
+        // codes of a product added to the catalog
+        assertTrue(catalog.addProduct(p1));
+        assertSame(p1, catalog.getProductByRFID(RFID));
+        assertSame(p1, catalog.getProductByRFID("000000003000"));
+
+        catalog.reset();
+        assertFalse(catalog.RFIDexists(RFID));
+    }
+}
@@ -0,0 +1,93 @@
+package it.polito.ezshop.unitTests;
+
+import it.polito.ezshop.model.CommandPipeline;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TestCommandPipeline {
+
+    /**
+     * Test that the commands are applied by the writer in submission order, each batch within a scope
+     */
+    @Test(timeout = 10_000)
+    public void testExecute() throws Exception {
+        AtomicInteger openScopes = new AtomicInteger();
+        AtomicInteger closedScopes = new AtomicInteger();
+        List<Integer> applied = Collections.synchronizedList(new ArrayList<>());
+
+        try (CommandPipeline pipeline = new CommandPipeline(4, 2, () -> {
+            openScopes.incrementAndGet();
+            return closedScopes::incrementAndGet;
+        })) {
+            for (int i = 0; i < 10; i++) {
+                int value = i;
+                assertEquals(Integer.valueOf(value * 2), pipeline.execute(() -> {
+                    applied.add(value);
+                    // the scope of the batch is open while the command is applied
+                    assertEquals(openScopes.get(), closedScopes.get() + 1);
+                    return value * 2;
+                }));
+            }
+
+            // the answer is given once the scope of the batch is closed
+            assertEquals(openScopes.get(), closedScopes.get());
+            assertEquals(10, pipeline.getCommands());
+            assertEquals(pipeline.getBatches(), openScopes.get());
+
+            // the exceptions of the commands are delivered to the submitters
+            assertThrows(IllegalArgumentException.class, () -> pipeline.execute(() -> {
+                throw new IllegalArgumentException();
+            }));
+            assertEquals(0, (int) pipeline.execute(() -> 0));
+        }
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            expected.add(i);
+        }
+        assertEquals(expected, applied);
+    }
+
+    /**
+     * Test that the commands submitted concurrently are applied in batches by a single thread
+     */
+    @Test(timeout = 10_000)
+    public void testConcurrentSubmitters() throws Exception {
+        CommandPipeline pipeline = new CommandPipeline(8, 64, () -> () -> { });
+        int[] counter = {0};
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(executor.submit(() -> {
+                for (int n = 0; n < 1000; n++) {
+                    // the counter is not synchronized: the commands are applied by one thread
+                    pipeline.execute(() -> counter[0]++);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+
+        assertEquals(8000, pipeline.execute(() -> counter[0]).intValue());
+        assertTrue(pipeline.getBatches() <= pipeline.getCommands());
+
+        pipeline.close();
+        assertThrows(IllegalStateException.class, () -> pipeline.execute(() -> 0));
+        // closing twice has no effect
+        pipeline.close();
+    }
+}
@@ -0,0 +1,115 @@
+package it.polito.ezshop.unitTests;
+
+import it.polito.ezshop.utils.IdAllocator;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TestIdAllocator {
+
+    /**
+     * Test that the ids are increasing and skip the observed ones
+     */
+    @Test
+    public void testNext() {
+        IdAllocator allocator = new IdAllocator();
+        assertEquals(1, allocator.next());
+        assertEquals(2, allocator.next());
+
+        allocator.observe(10);
+        allocator.observe(5);
+        assertEquals(11, allocator.next());
+        assertEquals(11, allocator.getLast());
+
+        allocator.reset();
+        assertEquals(1, allocator.next());
+
+        assertThrows(IllegalArgumentException.class, () -> new IdAllocator(0));
+    }
+
+    /**
+     * Test that the listener is notified once per block, before the first id of the block is returned
+     */
+    @Test
+    public void testBlockReservation() {
+        IdAllocator allocator = new IdAllocator(10);
+        List<Integer> marks = new ArrayList<>();
+        allocator.setReservationListener(mark -> {
+            marks.add(mark);
+            assertEquals(mark, allocator.getReserved());
+        });
+
+        for (int i = 1; i <= 25; i++) {
+            assertEquals(i, allocator.next());
+        }
+        assertEquals(3, marks.size());
+        assertEquals(30, allocator.getReserved());
+
+        // an observed id beyond the block starts a new block
+        allocator.observe(100);
+        assertEquals(101, allocator.next());
+        assertEquals(110, allocator.getReserved());
+        assertEquals(4, marks.size());
+    }
+
+    /**
+     * Test the allocation of ranges of ids
+     */
+    @Test
+    public void testNextRange() {
+        IdAllocator allocator = new IdAllocator(10);
+        List<Integer> marks = new ArrayList<>();
+        allocator.setReservationListener(marks::add);
+
+        assertEquals(1, allocator.next(3));
+        assertEquals(4, allocator.next());
+        assertEquals(1, marks.size());
+
+        // a range larger than a block is reserved at once
+        assertEquals(5, allocator.next(100));
+        assertEquals(105, allocator.next());
+        assertEquals(2, marks.size());
+        assertEquals(113, allocator.getReserved());
+
+        assertThrows(IllegalArgumentException.class, () -> allocator.next(0));
+    }
+
+    /**
+     * Test that the allocation resumes after a persisted mark
+     */
+    @Test
+    public void testRestore() {
+        IdAllocator allocator = new IdAllocator(10);
+        for (int i = 0; i < 3; i++) {
+            allocator.next();
+        }
+        int mark = allocator.getReserved();
+
+        // the ids of the reserved block are skipped after a restart, even if they were never used
+        IdAllocator restarted = new IdAllocator(10);
+        restarted.observe(2);
+        restarted.restore(mark);
+        assertEquals(mark + 1, restarted.next());
+
+        // the ids in use win over an older mark
+        restarted = new IdAllocator(10);
+        restarted.observe(50);
+        restarted.restore(mark);
+        assertEquals(51, restarted.next());
+    }
+
+    /**
+     * Test that the allocator fails when the ids are exhausted
+     */
+    @Test
+    public void testExhausted() {
+        IdAllocator allocator = new IdAllocator();
+        allocator.observe(Integer.MAX_VALUE - 1);
+        assertEquals(Integer.MAX_VALUE, allocator.next());
+        assertEquals(Integer.MAX_VALUE, allocator.getReserved());
+        assertThrows(IllegalStateException.class, allocator::next);
+    }
+}
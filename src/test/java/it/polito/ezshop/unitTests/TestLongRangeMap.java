@@ -0,0 +1,97 @@
+package it.polito.ezshop.unitTests;
+
+import it.polito.ezshop.utils.LongRangeMap;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TestLongRangeMap {
+
+    /**
+     * Test the mapping of ranges of keys
+     */
+    @Test
+    public void testPutGetRemove() {
+        LongRangeMap<String> map = new LongRangeMap<>();
+        String a = "a";
+        String b = "b";
+        assertTrue(map.isEmpty());
+        assertNull(map.get(0));
+
+        map.putIfAbsent(100, 200, a);
+        assertEquals(a, map.get(100));
+        assertEquals(a, map.get(199));
+        assertNull(map.get(200));
+        assertNull(map.get(99));
+        assertTrue(map.containsAnyKey(150, 300));
+        assertFalse(map.containsAnyKey(200, 300));
+        assertFalse(map.containsAnyKey(150, 150));
+
+        // the keys already mapped are not replaced
+        map.putIfAbsent(50, 250, b);
+        assertEquals(b, map.get(50));
+        assertEquals(a, map.get(150));
+        assertEquals(b, map.get(249));
+        assertEquals(3, map.rangeCount());
+
+        // adjacent ranges with the same value are merged
+        map.putIfAbsent(250, 300, b);
+        assertEquals(3, map.rangeCount());
+
+        // only the keys mapped to the given value are removed
+        map.remove(0, 1000, new String("a"));
+        assertEquals(a, map.get(150));
+        map.remove(140, 160, a);
+        assertNull(map.get(140));
+        assertEquals(a, map.get(139));
+        assertEquals(a, map.get(160));
+        assertEquals(b, map.get(50));
+        assertEquals(4, map.rangeCount());
+
+        map.remove(0, 1000, b);
+        assertEquals(2, map.rangeCount());
+        assertNull(map.get(50));
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(150));
+
+        assertThrows(NullPointerException.class, () -> map.putIfAbsent(1, 2, null));
+    }
+
+    /**
+     * Compare the map with java.util.HashMap on a random sequence of operations
+     */
+    @Test
+    public void testRandomOperations() {
+        LongRangeMap<Integer> map = new LongRangeMap<>();
+        Map<Long, Integer> expected = new HashMap<>();
+        Integer[] values = {1, 2, 3};
+        Random random = new Random(42);
+
+        for (int i = 0; i < 50_000; i++) {
+            long from = random.nextInt(2000);
+            long to = from + 1 + random.nextInt(random.nextBoolean() ? 2 : 50);
+            Integer value = values[random.nextInt(values.length)];
+            if (random.nextInt(3) < 2) {
+                for (long key = from; key < to; key++) {
+                    expected.putIfAbsent(key, value);
+                }
+                map.putIfAbsent(from, to, value);
+            } else {
+                for (long key = from; key < to; key++) {
+                    expected.remove(key, value);
+                }
+                map.remove(from, to, value);
+            }
+        }
+
+        for (long key = -10; key < 2100; key++) {
+            assertSame(expected.get(key), map.get(key));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package it.polito.ezshop.unitTests;
+
+import it.polito.ezshop.utils.LongRangeSet;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+public class TestLongRangeSet {
+
+    /**
+     * Test the merge and the split of the ranges
+     */
+    @Test
+    public void testRanges() {
+        LongRangeSet set = new LongRangeSet();
+        assertTrue(set.isEmpty());
+        assertFalse(set.contains(0));
+
+        assertEquals(10, set.addRange(100, 110));
+        assertEquals(10, set.addRange(120, 130));
+        assertEquals(2, set.rangeCount());
+        assertEquals(0, set.addRange(100, 105));
+
+        // fill the gap
+        assertEquals(10, set.addRange(105, 125));
+        assertEquals(1, set.rangeCount());
+        assertArrayEquals(new long[]{100, 130}, set.toRangeArray());
+        assertEquals(30, set.size());
+
+        // adjacent values are merged
+        assertTrue(set.add(130));
+        assertTrue(set.add(99));
+        assertFalse(set.add(115));
+        assertArrayEquals(new long[]{99, 131}, set.toRangeArray());
+
+        // split the range
+        assertTrue(set.remove(115));
+        assertFalse(set.remove(115));
+        assertFalse(set.contains(115));
+        assertTrue(set.contains(114));
+        assertTrue(set.contains(116));
+        assertArrayEquals(new long[]{99, 115, 116, 131}, set.toRangeArray());
+
+        assertEquals(11, set.removeRange(110, 122));
+        assertArrayEquals(new long[]{99, 110, 122, 131}, set.toRangeArray());
+        assertEquals(0, set.removeRange(110, 122));
+        assertTrue(set.containsRange(100, 110));
+        assertFalse(set.containsRange(100, 111));
+
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertEquals(0, set.rangeCount());
+    }
+
+    /**
+     * Test removeLast, containsAll and equals
+     */
+    @Test
+    public void testSetOperations() {
+        LongRangeSet set = new LongRangeSet();
+        set.addRange(0, 5);
+        set.addRange(10, 12);
+
+        LongRangeSet other = new LongRangeSet();
+        for (long value = 11; value >= 0; value--) {
+            if (value < 5 || value >= 10) {
+                other.add(value);
+            }
+        }
+        assertEquals(set, other);
+        assertEquals(set.hashCode(), other.hashCode());
+        assertTrue(set.containsAll(other));
+
+        // the highest values are removed first
+        LongRangeSet removed = set.removeLast(4);
+        assertArrayEquals(new long[]{3, 5, 10, 12}, removed.toRangeArray());
+        assertArrayEquals(new long[]{0, 3}, set.toRangeArray());
+        assertTrue(other.containsAll(set));
+        assertFalse(set.containsAll(other));
+
+        other.removeAll(removed);
+        assertEquals(set, other);
+
+        assertEquals(3, set.removeLast(100).size());
+        assertTrue(set.isEmpty());
+    }
+
+    /**
+     * Compare the set with java.util.TreeSet on a random sequence of operations
+     */
+    @Test
+    public void testRandomOperations() {
+        LongRangeSet set = new LongRangeSet();
+        TreeSet<Long> expected = new TreeSet<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 100_000; i++) {
+            long from = 1_000_000_000L + random.nextInt(2000);
+            long to = from + (random.nextInt(4) == 0 ? random.nextInt(50) : 1);
+            int expectedCount = 0;
+            switch (random.nextInt(3)) {
+                case 0:
+                case 1:
+                    for (long value = from; value < to; value++) {
+                        expectedCount += expected.add(value) ? 1 : 0;
+                    }
+                    assertEquals(expectedCount, set.addRange(from, to));
+                    break;
+                default:
+                    for (long value = from; value < to; value++) {
+                        expectedCount += expected.remove(value) ? 1 : 0;
+                    }
+                    assertEquals(expectedCount, set.removeRange(from, to));
+                    break;
+            }
+        }
+
+        assertEquals(expected.size(), set.size());
+        assertArrayEquals(expected.stream().mapToLong(Long::longValue).toArray(), set.toArray());
+        for (long value = 999_999_990L; value < 1_000_002_100L; value++) {
+            assertEquals(expected.contains(value), set.contains(value));
+        }
+
+        // the ranges are disjoint and do not touch each other
+        long[] bounds = set.toRangeArray();
+        for (int k = 1; k < bounds.length; k++) {
+            assertTrue(bounds[k - 1] < bounds[k]);
+        }
+    }
+}
@@ -5,6 +5,9 @@ import it.polito.ezshop.exceptions.InvalidCustomerCardException;
 import it.polito.ezshop.model.LoyaltyCard;
 import org.junit.Test;
 
+import java.util.HashSet;
+import java.util.Set;
+
 import static org.junit.Assert.*;
 
 public class TestLoyaltyCard {
@@ -57,6 +60,32 @@ public class TestLoyaltyCard {
     @Test
     public void testGenerateNewCode() throws Exception {
         LoyaltyCard.validateCode(LoyaltyCard.generateNewCode());
+
+        // every digit is generated
+        Set<Character> digits = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            for (char c : LoyaltyCard.generateNewCode().toCharArray()) {
+                digits.add(c);
+            }
+        }
+        assertEquals(10, digits.size());
+    }
+
+    /**
+     * Test that distinct serial numbers give distinct valid codes
+     */
+    @Test
+    public void testCodeOfSerial() throws Exception {
+        Set<String> codes = new HashSet<>();
+        for (int serial = 0; serial < 100_000; serial++) {
+            String code = LoyaltyCard.codeOfSerial(serial);
+            LoyaltyCard.validateCode(code);
+            codes.add(code);
+        }
+        assertEquals(100_000, codes.size());
+
+        LoyaltyCard.validateCode(LoyaltyCard.codeOfSerial(Integer.MAX_VALUE));
+        assertThrows(IllegalArgumentException.class, () -> LoyaltyCard.codeOfSerial(-1));
     }
 
     @Test
@@ -5,8 +5,10 @@ import it.polito.ezshop.model.Position;
 import it.polito.ezshop.model.ProductType;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static it.polito.ezshop.TestHelpers.*;
 import static it.polito.ezshop.utils.Utils.DUMMY_RFID;
@@ -260,4 +262,63 @@ public class TestProductType {
 
         assertEquals(2, product.getQuantity());
     }
+
+    @Test
+    public void testReserveUnits () throws Exception {
+        ProductType product = new ProductType(id, productDescription, barcode, pricePerUnit, note, 2, position);
+        product.addRFIDs(Arrays.asList("000000000123", "000000000124"));
+
+        // the reserved units are not available anymore, but they are still on the shelves until picked
+        assertTrue(product.reserve(3));
+        assertEquals(1, product.getQuantity());
+        assertFalse(product.reserve(2));
+        assertFalse(product.reserve(0));
+        assertEquals(1, product.getQuantity());
+
+        // the dummy units are picked first
+        assertEquals(2, product.pickReserved(2).getDummyCount());
+        assertEquals(1, product.getQuantity());
+
+        // the last unit is reserved: the other RFIDs can not be removed
+        product.release(1);
+        assertTrue(product.reserve(2));
+        assertFalse(product.removeRFID("000000000124"));
+        assertTrue(product.RFIDexists("000000000124"));
+        assertEquals(0, product.pickRFIDs(1).size());
+
+        // a released unit is available again
+        product.release(1);
+        assertEquals(1, product.getQuantity());
+        assertEquals(1, product.pickRFIDs(1).size());
+        assertEquals(0, product.getQuantity());
+
+        product.addRFIDs(product.pickReserved(1));
+        assertEquals(1, product.getQuantity());
+    }
+
+    @Test
+    public void testConcurrentReservations () throws Exception {
+        int units = 10_000;
+        ProductType product = new ProductType(id, productDescription, barcode, pricePerUnit, note, units, position);
+
+        // the threads reserve and pick units until the product is sold out
+        AtomicInteger picked = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            threads.add(new Thread(() -> {
+                while (product.reserve(3)) {
+                    picked.addAndGet(product.pickReserved(3).size());
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // the product is never oversold
+        assertEquals(units - units % 3, picked.get());
+        assertEquals(units % 3, product.getQuantity());
+        assertEquals(units % 3, product.getRFIDs().size());
+    }
 }
@@ -0,0 +1,129 @@
+package it.polito.ezshop.unitTests;
+
+import it.polito.ezshop.model.RFIDSet;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static it.polito.ezshop.utils.Utils.DUMMY_RFID;
+import static org.junit.Assert.*;
+
+public class TestRFIDSet {
+
+    /**
+     * The units without an RFID are counted, the others are stored by code
+     */
+    @Test
+    public void testAddRemove() {
+        RFIDSet set = new RFIDSet(Arrays.asList(DUMMY_RFID, "000000001000", DUMMY_RFID));
+        assertEquals(3, set.size());
+        assertEquals(2, set.getDummyCount());
+        assertEquals(Collections.singletonList("000000001000"), set.getCodes());
+        assertEquals(Arrays.asList(DUMMY_RFID, DUMMY_RFID, "000000001000"), set.toList());
+
+        set.addDummies(100000);
+        assertEquals(100003, set.size());
+        assertThrows(IllegalArgumentException.class, () -> set.addDummies(-1));
+
+        assertTrue(set.contains(DUMMY_RFID));
+        assertTrue(set.contains("000000001000"));
+        assertFalse(set.contains("000000001001"));
+
+        assertTrue(set.remove("000000001000"));
+        assertFalse(set.remove("000000001000"));
+        assertTrue(set.remove(DUMMY_RFID));
+        assertEquals(100001, set.getDummyCount());
+
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertFalse(set.remove(DUMMY_RFID));
+        assertFalse(set.contains(DUMMY_RFID));
+    }
+
+    /**
+     * Units are picked starting with the ones without an RFID
+     */
+    @Test
+    public void testPick() {
+        RFIDSet set = new RFIDSet(Arrays.asList("000000001000", "000000001001", "000000001002"));
+        set.addDummies(2);
+
+        // not enough units
+        assertTrue(set.pick(6).isEmpty());
+        assertEquals(5, set.size());
+
+        RFIDSet picked = set.pick(1);
+        assertEquals(1, picked.getDummyCount());
+        assertEquals(1, picked.size());
+
+        picked = set.pick(3);
+        assertEquals(1, picked.getDummyCount());
+        assertEquals(2, picked.getCodes().size());
+        assertEquals(1, set.size());
+        assertEquals(0, set.getDummyCount());
+        picked.getCodes().forEach(code -> assertFalse(set.contains(code)));
+
+        set.addAll(picked);
+        assertEquals(4, set.size());
+        assertEquals(1, set.getDummyCount());
+    }
+
+    /**
+     * Test the inclusion and the removal of a set of units
+     */
+    @Test
+    public void testContainsRemoveAll() {
+        RFIDSet set = new RFIDSet(Arrays.asList("000000001000", "000000001001", DUMMY_RFID));
+        RFIDSet other = new RFIDSet(Arrays.asList("000000001000", DUMMY_RFID));
+
+        assertTrue(set.containsAll(other));
+        assertTrue(set.containsAll(new RFIDSet()));
+        assertFalse(set.containsAll(new RFIDSet(Collections.singletonList("000000001002"))));
+        assertFalse(other.containsAll(set));
+
+        set.removeAll(other);
+        assertEquals(Collections.singletonList("000000001001"), set.getCodes());
+        assertEquals(0, set.getDummyCount());
+
+        assertThrows(IllegalArgumentException.class, () -> set.removeAll(other));
+    }
+
+    /**
+     * Sequential RFIDs are stored as a single range, split only when the units inside it are removed
+     */
+    @Test
+    public void testRanges() {
+        RFIDSet set = new RFIDSet();
+        set.addRange(1000, 10000);
+        assertEquals(10000, set.size());
+        assertEquals(1, set.getRangeCount());
+        assertTrue(set.contains("000000001000"));
+        assertTrue(set.contains("000000010999"));
+        assertFalse(set.contains("000000011000"));
+
+        // remove a unit in the middle of the range
+        assertTrue(set.remove("000000005000"));
+        assertEquals(2, set.getRangeCount());
+        assertArrayEquals(new long[]{1000, 5000, 5001, 11000}, set.getRanges());
+
+        // add it back
+        set.add("000000005000");
+        assertEquals(1, set.getRangeCount());
+        assertEquals(10000, set.size());
+
+        // codes added one by one are merged
+        RFIDSet other = new RFIDSet(Arrays.asList("000000000003", "000000000001", "000000000002"));
+        assertEquals(1, other.getRangeCount());
+        assertEquals(Arrays.asList("000000000001", "000000000002", "000000000003"), other.getCodes());
+
+        // the highest codes are picked first
+        RFIDSet picked = set.pick(10);
+        assertArrayEquals(new long[]{10990, 11000}, picked.getRanges());
+        assertEquals(9990, set.size());
+
+        assertThrows(IllegalArgumentException.class, () -> set.addRange(-1, 1));
+        assertThrows(IllegalArgumentException.class, () -> set.addRange(999_999_999_999L, 2));
+        assertThrows(IllegalArgumentException.class, () -> set.add("00000000100a"));
+    }
+}
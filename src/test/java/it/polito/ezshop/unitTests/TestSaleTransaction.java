@@ -80,6 +80,42 @@ public class TestSaleTransaction {
         assertThrows(IllegalStateException.class, () -> sale.addSaleTransactionItem(product1, 1));
     }
 
+    @Test
+    public void testAddReservedUnits() throws Exception {
+        SaleTransaction sale = new SaleTransaction(1, LocalDate.now(), null, saleDiscountRate);
+
+        // the reserved units are picked and added to the transaction
+        assertTrue(product1.reserve(2));
+        sale.addReservedUnits(product1, 2);
+        assertEquals(1, sale.getTransactionItems().size());
+        assertEquals(2, sale.getTransactionItems().get(0).getAmount());
+        assertEquals(0, (int) product1.getQuantity());
+        assertEquals(0, product1.getRFIDSet().size());
+
+        // the units picked and not added are put back
+        sale.setStatus(OperationStatus.COMPLETED);
+        assertTrue(product2.reserve(2));
+        assertThrows(IllegalStateException.class, () -> sale.addReservedUnits(product2, 2));
+        assertEquals(1, sale.getTransactionItems().size());
+        assertEquals(2, (int) product2.getQuantity());
+        assertEquals(2, product2.getRFIDSet().size());
+
+        // the units not picked are released
+        ProductType failing = new ProductType(3, "Coca Cola 0.5L", "1234567890128", 0.8,
+                "Lorem ipsum", 2, new Position("1-1-1")) {
+            @Override
+            public synchronized RFIDSet pickReserved(int n) {
+                throw new IllegalStateException("Units not available");
+            }
+        };
+        SaleTransaction open = new SaleTransaction(2, LocalDate.now());
+        assertTrue(failing.reserve(2));
+        assertThrows(IllegalStateException.class, () -> open.addReservedUnits(failing, 2));
+        assertEquals(0, open.getTransactionItems().size());
+        assertEquals(2, (int) failing.getQuantity());
+        assertEquals(2, failing.getRFIDSet().size());
+    }
+
     @Test
     public void testRemoveSaleTransactionItem() throws Exception {
         SaleTransaction sale = new SaleTransaction(1, LocalDate.now(), null, saleDiscountRate);
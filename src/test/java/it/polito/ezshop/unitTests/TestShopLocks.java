@@ -0,0 +1,143 @@
+package it.polito.ezshop.unitTests;
+
+import it.polito.ezshop.model.ShopLocks;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static it.polito.ezshop.model.ShopLocks.Resource.*;
+import static it.polito.ezshop.model.ShopLocks.read;
+import static it.polito.ezshop.model.ShopLocks.write;
+import static org.junit.Assert.*;
+
+public class TestShopLocks {
+
+    /**
+     * Try to acquire the given locks from another thread
+     *
+     * @return true if the locks were acquired within a short time
+     */
+    private static boolean acquiredByOtherThread(ShopLocks locks, ShopLocks.Access... accesses) throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> result = executor.submit(() -> locks.acquire(accesses).close());
+            try {
+                result.get(200, TimeUnit.MILLISECONDS);
+                return true;
+            } catch (TimeoutException ex) {
+                return false;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Test that read locks are shared and write locks are exclusive
+     */
+    @Test(timeout = 10_000)
+    public void testReadWrite() throws Exception {
+        ShopLocks locks = new ShopLocks();
+
+        try (ShopLocks.Guard guard = locks.acquire(read(CATALOG), write(ACCOUNT_BOOK))) {
+            assertTrue(acquiredByOtherThread(locks, read(CATALOG)));
+            assertTrue(acquiredByOtherThread(locks, write(CUSTOMERS), write(USERS)));
+            assertFalse(acquiredByOtherThread(locks, read(ACCOUNT_BOOK)));
+        }
+        assertTrue(acquiredByOtherThread(locks, write(CATALOG), write(ACCOUNT_BOOK)));
+
+        // a read lock can not be upgraded
+        try (ShopLocks.Guard guard = locks.acquire(read(CATALOG))) {
+            assertThrows(IllegalStateException.class, () -> locks.acquire(write(CATALOG)));
+            // the read lock can be acquired again
+            locks.acquire(read(CATALOG)).close();
+        }
+    }
+
+    /**
+     * Test that the release listener is called when a thread releases its last lock
+     */
+    @Test
+    public void testReleaseListener() {
+        AtomicInteger releases = new AtomicInteger();
+        ShopLocks locks = new ShopLocks(releases::incrementAndGet);
+
+        try (ShopLocks.Guard outer = locks.acquire(write(USERS))) {
+            assertTrue(locks.isHeldByCurrentThread());
+            locks.acquire(read(USERS)).close();
+            assertEquals(0, releases.get());
+        }
+        assertEquals(1, releases.get());
+        assertFalse(locks.isHeldByCurrentThread());
+
+        // closing a guard twice has no effect
+        ShopLocks.Guard guard = locks.acquireAll(true);
+        guard.close();
+        guard.close();
+        assertEquals(2, releases.get());
+    }
+
+    /**
+     * Test that a deferring scope holds no lock and calls the release listener only when it is closed
+     */
+    @Test(timeout = 10_000)
+    public void testDefer() throws Exception {
+        // only the releases of this thread are counted
+        Thread current = Thread.currentThread();
+        AtomicInteger releases = new AtomicInteger();
+        ShopLocks locks = new ShopLocks(() -> {
+            if (Thread.currentThread() == current) {
+                releases.incrementAndGet();
+            }
+        });
+
+        try (ShopLocks.Guard batch = locks.defer()) {
+            assertTrue(acquiredByOtherThread(locks, write(USERS), write(CUSTOMERS), write(CATALOG),
+                    write(ACCOUNT_BOOK)));
+
+            // the locks of each operation are released as soon as it ends, the listener is called at the end
+            locks.acquire(write(CATALOG)).close();
+            assertTrue(acquiredByOtherThread(locks, read(CATALOG)));
+            locks.acquire(write(ACCOUNT_BOOK)).close();
+            assertEquals(0, releases.get());
+        }
+        assertEquals(1, releases.get());
+        assertFalse(locks.isHeldByCurrentThread());
+    }
+
+    /**
+     * Test that a transaction lock excludes only the transactions sharing its stripe
+     */
+    @Test(timeout = 10_000)
+    public void testTransactionLocks() throws Exception {
+        ShopLocks locks = new ShopLocks();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try (ShopLocks.Guard guard = locks.acquire(read(ACCOUNT_BOOK))) {
+            guard.lockTransaction(1);
+
+            Future<?> other = executor.submit(() -> {
+                try (ShopLocks.Guard otherGuard = locks.acquire(read(ACCOUNT_BOOK))) {
+                    otherGuard.lockTransaction(2);
+                }
+            });
+            other.get(1, TimeUnit.SECONDS);
+
+            Future<?> same = executor.submit(() -> {
+                try (ShopLocks.Guard otherGuard = locks.acquire(read(ACCOUNT_BOOK))) {
+                    otherGuard.lockTransaction(1 + ShopLocks.TRANSACTION_STRIPES);
+                }
+            });
+            assertThrows(TimeoutException.class, () -> same.get(200, TimeUnit.MILLISECONDS));
+            guard.close();
+            same.get(1, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
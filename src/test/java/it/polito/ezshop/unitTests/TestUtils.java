@@ -52,4 +52,31 @@ public class TestUtils {
         assertFalse(IDs.contains(id));
     }
 
+    /**
+     * The numeric value of an RFID is returned only for codes of 12 digits
+     */
+    @Test
+    public void testRFIDToLong() {
+        assertEquals(0L, Utils.RFIDToLong("000000000000"));
+        assertEquals(1234L, Utils.RFIDToLong("000000001234"));
+        assertEquals(999999999999L, Utils.RFIDToLong("999999999999"));
+
+        assertEquals(-1L, Utils.RFIDToLong(null));
+        assertEquals(-1L, Utils.RFIDToLong(Utils.DUMMY_RFID));
+        assertEquals(-1L, Utils.RFIDToLong("00000000123"));
+        assertEquals(-1L, Utils.RFIDToLong("0000000012345"));
+        assertEquals(-1L, Utils.RFIDToLong("00000000123a"));
+    }
+
+    /**
+     * Test the formatting of the numeric value of an RFID
+     */
+    @Test
+    public void testRFIDFromLong() {
+        assertEquals("000000000000", Utils.RFIDFromLong(0L));
+        assertEquals("000000001234", Utils.RFIDFromLong(1234L));
+        assertEquals("999999999999", Utils.RFIDFromLong(999999999999L));
+        assertEquals(123456789012L, Utils.RFIDToLong(Utils.RFIDFromLong(123456789012L)));
+    }
+
 }
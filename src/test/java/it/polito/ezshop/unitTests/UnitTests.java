@@ -29,6 +29,12 @@ import org.junit.runners.Suite;
         TestReturnTransactionItem.class,
         // Utils
         TestUtils.class,
+        TestLongRangeSet.class,
+        TestLongRangeMap.class,
+        TestIdAllocator.class,
+        TestShopLocks.class,
+        TestCommandPipeline.class,
+        TestRFIDSet.class,
         TestUtilsIsValidCreditCardNumber.class,
         TestUtilsIsValidBarcode.class,
         // CreditCard